@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.benchmark;
+
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineBuilder;
+import org.springframework.statemachine.config.StateMachineBuilder.Builder;
+import org.springframework.statemachine.config.builders.StateMachineStateConfigurer;
+import org.springframework.statemachine.config.builders.StateMachineTransitionConfigurer;
+
+/**
+ * Machine definitions shared by benchmarks. Each machine comes with an event
+ * cycle which takes machine back to its initial configuration so that
+ * benchmarks can loop it forever.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public enum BenchmarkMachines {
+
+	/**
+	 * Flat machine with two states.
+	 */
+	FLAT("E1", "E2") {
+
+		@Override
+		public void configure(StateMachineStateConfigurer<String, String> states) throws Exception {
+			states
+				.withStates()
+					.initial("S1")
+					.state("S2");
+		}
+
+		@Override
+		public void configure(StateMachineTransitionConfigurer<String, String> transitions) throws Exception {
+			transitions
+				.withExternal()
+					.source("S1").target("S2").event("E1")
+					.and()
+				.withExternal()
+					.source("S2").target("S1").event("E2");
+		}
+	},
+
+	/**
+	 * Hierarchical machine where substates are handled by a submachine.
+	 */
+	HIERARCHICAL("E1", "E2", "E3", "E4") {
+
+		@Override
+		public void configure(StateMachineStateConfigurer<String, String> states) throws Exception {
+			states
+				.withStates()
+					.initial("S1")
+					.state("S2")
+					.and()
+					.withStates()
+						.parent("S1")
+						.initial("S11")
+						.state("S12");
+		}
+
+		@Override
+		public void configure(StateMachineTransitionConfigurer<String, String> transitions) throws Exception {
+			transitions
+				.withExternal()
+					.source("S11").target("S12").event("E1")
+					.and()
+				.withExternal()
+					.source("S12").target("S11").event("E2")
+					.and()
+				.withExternal()
+					.source("S1").target("S2").event("E3")
+					.and()
+				.withExternal()
+					.source("S2").target("S1").event("E4");
+		}
+	},
+
+	/**
+	 * Orthogonal machine with two regions reacting to same events.
+	 */
+	ORTHOGONAL("E1", "E2") {
+
+		@Override
+		public void configure(StateMachineStateConfigurer<String, String> states) throws Exception {
+			states
+				.withStates()
+					.initial("S1")
+					.and()
+					.withStates()
+						.parent("S1")
+						.initial("S11")
+						.state("S12")
+						.and()
+					.withStates()
+						.parent("S1")
+						.initial("S21")
+						.state("S22");
+		}
+
+		@Override
+		public void configure(StateMachineTransitionConfigurer<String, String> transitions) throws Exception {
+			transitions
+				.withExternal()
+					.source("S11").target("S12").event("E1")
+					.and()
+				.withExternal()
+					.source("S21").target("S22").event("E1")
+					.and()
+				.withExternal()
+					.source("S12").target("S11").event("E2")
+					.and()
+				.withExternal()
+					.source("S22").target("S21").event("E2");
+		}
+	},
+
+	/**
+	 * Machine forking into two regions and joining back.
+	 */
+	FORKJOIN("E1", "E2", "E3") {
+
+		@Override
+		public void configure(StateMachineStateConfigurer<String, String> states) throws Exception {
+			states
+				.withStates()
+					.initial("SI")
+					.fork("FORK")
+					.state("TASKS")
+					.join("JOIN")
+					.state("DONE")
+					.and()
+					.withStates()
+						.parent("TASKS")
+						.initial("T1")
+						.state("T1E")
+						.and()
+					.withStates()
+						.parent("TASKS")
+						.initial("T2")
+						.state("T2E");
+		}
+
+		@Override
+		public void configure(StateMachineTransitionConfigurer<String, String> transitions) throws Exception {
+			transitions
+				.withExternal()
+					.source("SI").target("FORK").event("E1")
+					.and()
+				.withFork()
+					.source("FORK").target("TASKS")
+					.and()
+				.withExternal()
+					.source("T1").target("T1E").event("E2")
+					.and()
+				.withExternal()
+					.source("T2").target("T2E").event("E2")
+					.and()
+				.withJoin()
+					.source("T1E").source("T2E").target("JOIN")
+					.and()
+				.withExternal()
+					.source("JOIN").target("DONE")
+					.and()
+				.withExternal()
+					.source("DONE").target("SI").event("E3");
+		}
+	};
+
+	private final String[] cycle;
+
+	BenchmarkMachines(String... cycle) {
+		this.cycle = cycle;
+	}
+
+	/**
+	 * Gets the events taking a machine through its full cycle.
+	 *
+	 * @return the cycle events
+	 */
+	public String[] getCycle() {
+		return cycle;
+	}
+
+	/**
+	 * Configure states.
+	 *
+	 * @param states the states configurer
+	 * @throws Exception the exception
+	 */
+	public abstract void configure(StateMachineStateConfigurer<String, String> states) throws Exception;
+
+	/**
+	 * Configure transitions.
+	 *
+	 * @param transitions the transitions configurer
+	 * @throws Exception the exception
+	 */
+	public abstract void configure(StateMachineTransitionConfigurer<String, String> transitions) throws Exception;
+
+	/**
+	 * Builds a new machine, not yet started.
+	 *
+	 * @return the state machine
+	 * @throws Exception the exception
+	 */
+	public StateMachine<String, String> build() throws Exception {
+		Builder<String, String> builder = StateMachineBuilder.builder();
+		configure(builder.configureStates());
+		configure(builder.configureTransitions());
+		return builder.build();
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.kryo.KryoStateMachineSerialisationService;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+
+/**
+ * Benchmarks {@link KryoStateMachineSerialisationService} round trips of a
+ * {@link StateMachineContext} having one child context and a configurable
+ * amount of extended state variables.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KryoSerialisationBenchmark {
+
+	@Param({ "0", "10", "100" })
+	private int variables;
+
+	private KryoStateMachineSerialisationService<String, String> service;
+	private StateMachineContext<String, String> context;
+	private byte[] data;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		service = new KryoStateMachineSerialisationService<String, String>();
+		Map<Object, Object> vars = new HashMap<Object, Object>();
+		for (int i = 0; i < variables; i++) {
+			vars.put("key" + i, "value" + i);
+		}
+		List<StateMachineContext<String, String>> childs = new ArrayList<StateMachineContext<String, String>>();
+		childs.add(new DefaultStateMachineContext<String, String>("S11", null, null, new DefaultExtendedState()));
+		context = new DefaultStateMachineContext<String, String>(childs, "S1", "E1", null, new DefaultExtendedState(vars),
+				null, "machine");
+		data = service.serialiseStateMachineContext(context);
+	}
+
+	@Benchmark
+	public byte[] serialise() throws Exception {
+		return service.serialiseStateMachineContext(context);
+	}
+
+	@Benchmark
+	public StateMachineContext<String, String> deserialise() throws Exception {
+		return service.deserialiseStateMachineContext(data);
+	}
+
+	@Benchmark
+	public StateMachineContext<String, String> roundTrip() throws Exception {
+		return service.deserialiseStateMachineContext(service.serialiseStateMachineContext(context));
+	}
+}
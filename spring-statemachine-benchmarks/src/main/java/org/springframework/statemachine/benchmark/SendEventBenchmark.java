@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.statemachine.StateMachine;
+
+/**
+ * Benchmarks {@link StateMachine#sendEvent(Message)} throughput. One
+ * operation is a single event, events are sent in a cycle which keeps the
+ * machine looping through its states.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendEventBenchmark {
+
+	@Param({ "FLAT", "HIERARCHICAL", "ORTHOGONAL", "FORKJOIN" })
+	private BenchmarkMachines machine;
+
+	private StateMachine<String, String> stateMachine;
+	private List<Message<String>> cycle;
+	private int index;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		stateMachine = machine.build();
+		stateMachine.start();
+		cycle = new ArrayList<Message<String>>();
+		for (String event : machine.getCycle()) {
+			cycle.add(MessageBuilder.withPayload(event).build());
+		}
+		index = 0;
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() {
+		stateMachine.stop();
+	}
+
+	@Benchmark
+	public boolean sendEvent() {
+		Message<String> event = cycle.get(index);
+		index = (index + 1) % cycle.size();
+		return stateMachine.sendEvent(event);
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.statemachine.service.DefaultStateMachineService;
+
+/**
+ * Benchmarks {@link DefaultStateMachineService#acquireStateMachine(String)}
+ * when multiple threads acquire machines concurrently. Part of the ids are
+ * resident and part needs to be created via a factory.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class StateMachineServiceBenchmark {
+
+	@Param({ "1000" })
+	private int machines;
+
+	private AnnotationConfigApplicationContext context;
+	private DefaultStateMachineService<String, String> service;
+	private String[] machineIds;
+
+	@SuppressWarnings("unchecked")
+	@Setup(Level.Trial)
+	public void setup() {
+		context = new AnnotationConfigApplicationContext(StateMachineFactoryBenchmark.Config.class);
+		service = new DefaultStateMachineService<String, String>(context.getBean(StateMachineFactory.class));
+		machineIds = new String[machines];
+		for (int i = 0; i < machines; i++) {
+			machineIds[i] = "machine" + i;
+		}
+		// keep half of machines resident
+		for (int i = 0; i < machines; i += 2) {
+			service.acquireStateMachine(machineIds[i], false);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() throws Exception {
+		service.destroy();
+		context.close();
+	}
+
+	@Benchmark
+	public StateMachine<String, String> acquireStateMachine() {
+		String machineId = machineIds[ThreadLocalRandom.current().nextInt(machineIds.length)];
+		return service.acquireStateMachine(machineId, false);
+	}
+}
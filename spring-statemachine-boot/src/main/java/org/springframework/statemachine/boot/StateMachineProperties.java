@@ -41,6 +41,7 @@ public class StateMachineProperties {
 	 */
 	public static class StateMachineMonitoringProperties {
 		private boolean enabled = false;
+		private double samplingRate = 1.0d;
 
 		public boolean isEnabled() {
 			return enabled;
@@ -49,5 +50,13 @@ public class StateMachineProperties {
 		public void setEnabled(boolean enabled) {
 			this.enabled = enabled;
 		}
+
+		public double getSamplingRate() {
+			return samplingRate;
+		}
+
+		public void setSamplingRate(double samplingRate) {
+			this.samplingRate = samplingRate;
+		}
 	}
 }
@@ -18,62 +18,123 @@ package org.springframework.statemachine.boot.actuate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.util.Assert;
 
 /**
  * In-memory implementation of {@link StateMachineTraceRepository}.
+ * <p>
+ * Traces are kept in a bounded lock-free ring buffer where writers claim a
+ * slot with a single atomic increment, oldest traces are overwritten when
+ * capacity is reached. {@link #findAll()} returns a snapshot of traces
+ * written before it was called, skipping slots which were overwritten
+ * while snapshot was taken.
+ * <p>
+ * Writers share a read lock so that they don't block each other, changing
+ * a capacity takes a write lock to swap the buffer so that no trace is
+ * added into an old buffer after its content has been copied.
  *
  * @author Janne Valkealahti
  *
  */
 public class InMemoryStateMachineTraceRepository implements StateMachineTraceRepository {
 
-	private int capacity = 100;
-	private boolean reverse = true;
-	private final List<StateMachineTrace> traces = new LinkedList<StateMachineTrace>();
+	private volatile boolean reverse = true;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private volatile Ring ring = new Ring(100);
 
 	/**
 	 * Flag to say that the repository lists traces in reverse order.
 	 * @param reverse flag value (default true)
 	 */
 	public void setReverse(boolean reverse) {
-		synchronized (this.traces) {
-			this.reverse = reverse;
-		}
+		this.reverse = reverse;
 	}
 
 	/**
-	 * Set the capacity of the in-memory repository.
+	 * Set the capacity of the in-memory repository. Changing a capacity
+	 * keeps latest traces which fit into a new capacity.
 	 * @param capacity the capacity
 	 */
 	public void setCapacity(int capacity) {
-		synchronized (this.traces) {
-			this.capacity = capacity;
+		Assert.isTrue(capacity > 0, "Capacity must be greater than zero");
+		lock.writeLock().lock();
+		try {
+			Ring ring = new Ring(capacity);
+			for (StateMachineTrace trace : this.ring.snapshot()) {
+				ring.add(trace);
+			}
+			this.ring = ring;
+		} finally {
+			lock.writeLock().unlock();
 		}
 	}
 
 	@Override
 	public List<StateMachineTrace> findAll() {
-		synchronized (this.traces) {
-			return Collections.unmodifiableList(new ArrayList<StateMachineTrace>(this.traces));
+		List<StateMachineTrace> traces = ring.snapshot();
+		if (reverse) {
+			Collections.reverse(traces);
 		}
+		return Collections.unmodifiableList(traces);
 	}
 
 	@Override
 	public void add(Map<String, Object> map) {
 		StateMachineTrace trace = new StateMachineTrace(new Date(), map);
-		synchronized (this.traces) {
-			while (this.traces.size() >= this.capacity) {
-				this.traces.remove(this.reverse ? this.capacity - 1 : 0);
-			}
-			if (this.reverse) {
-				this.traces.add(0, trace);
-			}
-			else {
-				this.traces.add(trace);
+		lock.readLock().lock();
+		try {
+			ring.add(trace);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static class Ring {
+
+		final AtomicReferenceArray<Slot> slots;
+		final AtomicLong sequence = new AtomicLong();
+		final int capacity;
+
+		Ring(int capacity) {
+			this.capacity = capacity;
+			this.slots = new AtomicReferenceArray<Slot>(capacity);
+		}
+
+		void add(StateMachineTrace trace) {
+			long seq = sequence.getAndIncrement();
+			slots.lazySet((int) (seq % capacity), new Slot(seq, trace));
+		}
+
+		List<StateMachineTrace> snapshot() {
+			long hi = sequence.get();
+			long lo = Math.max(0, hi - capacity);
+			List<StateMachineTrace> traces = new ArrayList<StateMachineTrace>((int) (hi - lo));
+			for (long seq = lo; seq < hi; seq++) {
+				Slot slot = slots.get((int) (seq % capacity));
+				// slot may not be written yet or already overwritten
+				if (slot != null && slot.seq == seq) {
+					traces.add(slot.trace);
+				}
 			}
+			return traces;
+		}
+	}
+
+	private static class Slot {
+
+		final long seq;
+		final StateMachineTrace trace;
+
+		Slot(long seq, StateMachineTrace trace) {
+			this.seq = seq;
+			this.trace = trace;
 		}
 	}
 }
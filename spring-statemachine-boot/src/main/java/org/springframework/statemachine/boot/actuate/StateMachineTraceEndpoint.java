@@ -19,6 +19,7 @@ import java.util.List;
 
 import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
 import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
 import org.springframework.util.Assert;
 
 /**
@@ -42,8 +43,17 @@ public class StateMachineTraceEndpoint {
 		this.repository = repository;
 	}
 
+	/**
+	 * Gets traces, optionally only for a given machine id.
+	 *
+	 * @param machine the machine id, {@code null} for all traces
+	 * @return the traces
+	 */
 	@ReadOperation
-	public List<StateMachineTrace> invoke() {
-		return this.repository.findAll();
+	public List<StateMachineTrace> invoke(@Nullable String machine) {
+		if (machine == null) {
+			return this.repository.findAll();
+		}
+		return this.repository.findAll(machine);
 	}
 }
@@ -15,9 +15,12 @@
  */
 package org.springframework.statemachine.boot.actuate;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import org.springframework.util.ObjectUtils;
+
 /**
  * A repository for {@link StateMachineTrace}s.
  *
@@ -33,6 +36,23 @@ public interface StateMachineTraceRepository {
 	 */
 	List<StateMachineTrace> findAll();
 
+	/**
+	 * Find all {@link StateMachineTrace} objects contained in the repository
+	 * for a given machine id.
+	 *
+	 * @param machineId the machine id
+	 * @return the results
+	 */
+	default List<StateMachineTrace> findAll(String machineId) {
+		List<StateMachineTrace> traces = new ArrayList<StateMachineTrace>();
+		for (StateMachineTrace trace : findAll()) {
+			if (ObjectUtils.nullSafeEquals(machineId, trace.getInfo().get("machine"))) {
+				traces.add(trace);
+			}
+		}
+		return traces;
+	}
+
 	/**
 	 * Add a new {@link StateMachineTrace} object at the current time.
 	 *
@@ -29,6 +29,7 @@ import org.springframework.statemachine.boot.actuate.InMemoryStateMachineTraceRe
 import org.springframework.statemachine.boot.actuate.StateMachineTraceEndpoint;
 import org.springframework.statemachine.boot.actuate.StateMachineTraceRepository;
 import org.springframework.statemachine.boot.support.BootStateMachineMonitor;
+import org.springframework.statemachine.boot.support.StateMachineExpressionMeterBinder;
 
 import io.micrometer.core.instrument.MeterRegistry;
 
@@ -68,16 +69,28 @@ public class StateMachineAutoConfiguration {
 
 		private final MeterRegistry meterRegistry;
 		private final StateMachineTraceRepository stateMachineTraceRepository;
+		private final StateMachineProperties stateMachineProperties;
 
 		public StateMachineMonitoringConfiguration(ObjectProvider<MeterRegistry> meterRegistryProvider,
-				ObjectProvider<StateMachineTraceRepository> traceRepositoryProvider) {
+				ObjectProvider<StateMachineTraceRepository> traceRepositoryProvider,
+				StateMachineProperties stateMachineProperties) {
 			this.meterRegistry = meterRegistryProvider.getIfAvailable();
 			this.stateMachineTraceRepository = traceRepositoryProvider.getIfAvailable();
+			this.stateMachineProperties = stateMachineProperties;
 		}
 
 		@Bean
 		public BootStateMachineMonitor<?, ?> bootStateMachineMonitor() {
-			return new BootStateMachineMonitor<>(meterRegistry, stateMachineTraceRepository);
+			BootStateMachineMonitor<?, ?> monitor = new BootStateMachineMonitor<>(meterRegistry, stateMachineTraceRepository);
+			if (stateMachineProperties.getMonitor() != null) {
+				monitor.setSamplingRate(stateMachineProperties.getMonitor().getSamplingRate());
+			}
+			return monitor;
+		}
+
+		@Bean
+		public StateMachineExpressionMeterBinder stateMachineExpressionMeterBinder() {
+			return new StateMachineExpressionMeterBinder();
 		}
 	}
 }
@@ -17,6 +17,8 @@ package org.springframework.statemachine.boot.support;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import org.springframework.statemachine.StateMachine;
@@ -26,6 +28,9 @@ import org.springframework.statemachine.monitor.AbstractStateMachineMonitor;
 import org.springframework.statemachine.monitor.StateMachineMonitor;
 import org.springframework.statemachine.state.State;
 import org.springframework.statemachine.transition.Transition;
+import org.springframework.util.Assert;
+import org.springframework.util.ConcurrentReferenceHashMap;
+import org.springframework.util.ConcurrentReferenceHashMap.ReferenceType;
 import org.springframework.util.ObjectUtils;
 
 import io.micrometer.core.instrument.Counter;
@@ -36,6 +41,12 @@ import io.micrometer.core.instrument.Timer;
  * Implementation of a {@link StateMachineMonitor} which converts monitoring
  * events and bridges those into supported format handled by Spring Boot's
  * tracing and metrics frameworks.
+ * <p>
+ * Meters are registered once per {@link Transition} and {@link Action}
+ * instance and cached with weak keys, so notifying a monitor doesn't build
+ * names or meters. Optional sampling rate can be used to record timers and
+ * traces only for a fraction of notifications while counters are always
+ * incremented.
  *
  * @author Janne Valkealahti
  *
@@ -46,6 +57,11 @@ public class BootStateMachineMonitor<S, E> extends AbstractStateMachineMonitor<S
 
 	private final StateMachineTraceRepository traceRepository;
 	private final MeterRegistry meterRegistry;
+	private final ConcurrentMap<Transition<S, E>, Meters> transitionMeters =
+			new ConcurrentReferenceHashMap<Transition<S, E>, Meters>(16, ReferenceType.WEAK);
+	private final ConcurrentMap<Action<S, E>, Meters> actionMeters =
+			new ConcurrentReferenceHashMap<Action<S, E>, Meters>(16, ReferenceType.WEAK);
+	private volatile double samplingRate = 1.0d;
 
 	/**
 	 * Instantiates a new boot state machine monitor.
@@ -61,59 +77,122 @@ public class BootStateMachineMonitor<S, E> extends AbstractStateMachineMonitor<S
 
 	@Override
 	public void transition(StateMachine<S, E> stateMachine, Transition<S, E> transition, long duration) {
-		getTransitionCounterBuilder(transition).register(meterRegistry).increment();
-		getTransitionTimerBuilder(transition).register(meterRegistry).record(duration, TimeUnit.MILLISECONDS);
-		Map<String, Object> traceInfo = new HashMap<>();
-		traceInfo.put("transition", transitionToName(transition));
-		traceInfo.put("duration", duration);
-		traceInfo.put("machine", stateMachine.getId());
-		traceRepository.add(traceInfo);
+		transition(stateMachine, transition, duration, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void transition(StateMachine<S, E> stateMachine, Transition<S, E> transition, long duration, TimeUnit unit) {
+		Meters meters = getTransitionMeters(transition);
+		meters.counter.increment();
+		if (!isSampled()) {
+			return;
+		}
+		meters.timer.record(duration, unit);
+		if (traceRepository != null) {
+			Map<String, Object> traceInfo = new HashMap<>();
+			traceInfo.put("transition", meters.name);
+			traceInfo.put("duration", unit.toMillis(duration));
+			traceInfo.put("durationNanos", unit.toNanos(duration));
+			traceInfo.put("machine", stateMachine.getId());
+			traceRepository.add(traceInfo);
+		}
 	}
 
 	@Override
 	public void action(StateMachine<S, E> stateMachine, Action<S, E> action, long duration) {
-		String actionName = actionToName(action);
-		getActionCounterBuilder(action).register(meterRegistry).increment();
-		getActionTimerBuilder(action).register(meterRegistry).record(duration, TimeUnit.MILLISECONDS);
-		Map<String, Object> traceInfo = new HashMap<>();
-		traceInfo.put("action", actionName);
-		traceInfo.put("duration", duration);
-		traceInfo.put("machine", stateMachine.getId());
-		traceRepository.add(traceInfo);
+		action(stateMachine, action, duration, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void action(StateMachine<S, E> stateMachine, Action<S, E> action, long duration, TimeUnit unit) {
+		Meters meters = getActionMeters(action);
+		meters.counter.increment();
+		if (!isSampled()) {
+			return;
+		}
+		meters.timer.record(duration, unit);
+		if (traceRepository != null) {
+			Map<String, Object> traceInfo = new HashMap<>();
+			traceInfo.put("action", meters.name);
+			traceInfo.put("duration", unit.toMillis(duration));
+			traceInfo.put("durationNanos", unit.toNanos(duration));
+			traceInfo.put("machine", stateMachine.getId());
+			traceRepository.add(traceInfo);
+		}
+	}
+
+	/**
+	 * Sets the sampling rate between {@code 0.0} and {@code 1.0} for timers and
+	 * traces. Default rate {@code 1.0} records every notification.
+	 *
+	 * @param samplingRate the sampling rate
+	 */
+	public void setSamplingRate(double samplingRate) {
+		Assert.isTrue(samplingRate >= 0.0d && samplingRate <= 1.0d, "Sampling rate must be between 0.0 and 1.0");
+		this.samplingRate = samplingRate;
 	}
 
-	private Counter.Builder getTransitionCounterBuilder(Transition<S, E> transition) {
-		String transitionName = transitionToName(transition);
-		Counter.Builder builder = Counter.builder("ssm.transition.transit")
-				.tags("transitionName", transitionName)
-				.description("Counter of Transition");
-		return builder;
+	/**
+	 * Gets the sampling rate.
+	 *
+	 * @return the sampling rate
+	 */
+	public double getSamplingRate() {
+		return samplingRate;
 	}
 
-	private Timer.Builder getTransitionTimerBuilder(Transition<S, E> transition) {
-		String transitionName = transitionToName(transition);
-		Timer.Builder builder = Timer.builder("ssm.transition.duration")
-				.tags("transitionName", transitionName)
-				.description("Timer of Transition");
-		builder.publishPercentileHistogram();
-		return builder;
+	private boolean isSampled() {
+		double rate = samplingRate;
+		if (rate >= 1.0d) {
+			return true;
+		} else if (rate <= 0.0d) {
+			return false;
+		}
+		return ThreadLocalRandom.current().nextDouble() < rate;
 	}
 
-	private Counter.Builder getActionCounterBuilder(Action<S, E> action) {
-		String actionName = actionToName(action);
-		Counter.Builder builder = Counter.builder("ssm.action.execute")
-				.tags("actionName", actionName)
-				.description("Counter of Action");
-		return builder;
+	private Meters getTransitionMeters(Transition<S, E> transition) {
+		Meters meters = transitionMeters.get(transition);
+		if (meters == null) {
+			String transitionName = transitionToName(transition);
+			Counter counter = Counter.builder("ssm.transition.transit")
+					.tags("transitionName", transitionName)
+					.description("Counter of Transition")
+					.register(meterRegistry);
+			Timer timer = Timer.builder("ssm.transition.duration")
+					.tags("transitionName", transitionName)
+					.description("Timer of Transition")
+					.publishPercentileHistogram()
+					.register(meterRegistry);
+			meters = new Meters(transitionName, counter, timer);
+			Meters existing = transitionMeters.putIfAbsent(transition, meters);
+			if (existing != null) {
+				meters = existing;
+			}
+		}
+		return meters;
 	}
 
-	private Timer.Builder getActionTimerBuilder(Action<S, E> action) {
-		String actionName = actionToName(action);
-		Timer.Builder builder = Timer.builder("ssm.action.duration")
-				.tags("actionName", actionName)
-				.description("Timer of Action");
-		builder.publishPercentileHistogram();
-		return builder;
+	private Meters getActionMeters(Action<S, E> action) {
+		Meters meters = actionMeters.get(action);
+		if (meters == null) {
+			String actionName = actionToName(action);
+			Counter counter = Counter.builder("ssm.action.execute")
+					.tags("actionName", actionName)
+					.description("Counter of Action")
+					.register(meterRegistry);
+			Timer timer = Timer.builder("ssm.action.duration")
+					.tags("actionName", actionName)
+					.description("Timer of Action")
+					.publishPercentileHistogram()
+					.register(meterRegistry);
+			meters = new Meters(actionName, counter, timer);
+			Meters existing = actionMeters.putIfAbsent(action, meters);
+			if (existing != null) {
+				meters = existing;
+			}
+		}
+		return meters;
 	}
 
 	private static <S, E> String transitionToName(Transition<S, E> transition) {
@@ -143,4 +222,17 @@ public class BootStateMachineMonitor<S, E> extends AbstractStateMachineMonitor<S
 		S id = state.getId();
 		return id != null ? id.toString() : null;
 	}
+
+	private static class Meters {
+
+		final String name;
+		final Counter counter;
+		final Timer timer;
+
+		Meters(String name, Counter counter, Timer timer) {
+			this.name = name;
+			this.counter = counter;
+			this.timer = timer;
+		}
+	}
 }
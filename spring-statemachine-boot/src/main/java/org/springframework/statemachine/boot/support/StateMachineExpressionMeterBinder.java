@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.boot.support;
+
+import java.util.function.ToDoubleFunction;
+
+import org.springframework.statemachine.support.StateContextExpression;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * {@link MeterBinder} exposing counts of compiled spel expressions and
+ * expressions which fell back to interpretation.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class StateMachineExpressionMeterBinder implements MeterBinder {
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("ssm.expression.compiled", this, new ToDoubleFunction<StateMachineExpressionMeterBinder>() {
+
+			@Override
+			public double applyAsDouble(StateMachineExpressionMeterBinder value) {
+				return StateContextExpression.getCompiledCount();
+			}
+		})
+			.description("Counter of compiled expressions")
+			.register(registry);
+		FunctionCounter.builder("ssm.expression.fallback", this, new ToDoubleFunction<StateMachineExpressionMeterBinder>() {
+
+			@Override
+			public double applyAsDouble(StateMachineExpressionMeterBinder value) {
+				return StateContextExpression.getFallbackCount();
+			}
+		})
+			.description("Counter of expressions falling back to interpretation")
+			.register(registry);
+	}
+}
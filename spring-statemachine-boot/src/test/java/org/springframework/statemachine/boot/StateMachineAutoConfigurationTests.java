@@ -70,6 +70,16 @@ public class StateMachineAutoConfigurationTests {
 		assertThat(context.containsBean("bootStateMachineMonitor"), is(false));
 	}
 
+	@Test
+	public void testMonitorSamplingRate() throws Exception {
+		context = new AnnotationConfigApplicationContext();
+		TestPropertyValues.of("spring.statemachine.monitor.sampling-rate=0.25").applyTo(context);
+		context.register(StateMachineAutoConfiguration.class);
+		context.refresh();
+		BootStateMachineMonitor monitor = context.getBean(BootStateMachineMonitor.class);
+		assertThat(monitor.getSamplingRate(), is(0.25d));
+	}
+
 	@Test
 	public void testMonitoringAddedViaAutoconfig() throws Exception {
 		context = new AnnotationConfigApplicationContext();
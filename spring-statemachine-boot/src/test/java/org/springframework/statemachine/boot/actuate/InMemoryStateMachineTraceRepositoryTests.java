@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.boot.actuate;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link InMemoryStateMachineTraceRepository}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class InMemoryStateMachineTraceRepositoryTests {
+
+	@Test
+	public void testCapacityAndOrder() {
+		InMemoryStateMachineTraceRepository repository = new InMemoryStateMachineTraceRepository();
+		repository.setCapacity(2);
+		repository.add(Collections.<String, Object>singletonMap("foo", "1"));
+		repository.add(Collections.<String, Object>singletonMap("foo", "2"));
+		repository.add(Collections.<String, Object>singletonMap("foo", "3"));
+		List<StateMachineTrace> traces = repository.findAll();
+		assertThat(traces.size(), is(2));
+		assertThat(traces.get(0).getInfo().get("foo"), is("3"));
+		assertThat(traces.get(1).getInfo().get("foo"), is("2"));
+
+		repository.setReverse(false);
+		traces = repository.findAll();
+		assertThat(traces.get(0).getInfo().get("foo"), is("2"));
+		assertThat(traces.get(1).getInfo().get("foo"), is("3"));
+
+		repository.setCapacity(1);
+		traces = repository.findAll();
+		assertThat(traces.size(), is(1));
+		assertThat(traces.get(0).getInfo().get("foo"), is("3"));
+	}
+
+	@Test
+	public void testFindByMachineId() {
+		InMemoryStateMachineTraceRepository repository = new InMemoryStateMachineTraceRepository();
+		repository.add(trace("m1", "1"));
+		repository.add(trace("m2", "2"));
+		repository.add(trace("m1", "3"));
+		StateMachineTraceEndpoint endpoint = new StateMachineTraceEndpoint(repository);
+		assertThat(endpoint.invoke(null).size(), is(3));
+		List<StateMachineTrace> traces = endpoint.invoke("m1");
+		assertThat(traces.size(), is(2));
+		assertThat(traces.get(0).getInfo().get("foo"), is("3"));
+		assertThat(traces.get(1).getInfo().get("foo"), is("1"));
+	}
+
+	@Test
+	public void testConcurrentAdds() throws Exception {
+		final InMemoryStateMachineTraceRepository repository = new InMemoryStateMachineTraceRepository();
+		repository.setCapacity(50);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						repository.add(Collections.<String, Object>singletonMap("foo", j));
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertThat(repository.findAll().size(), is(50));
+	}
+
+	@Test
+	public void testConcurrentAddsWhileResizing() throws Exception {
+		final InMemoryStateMachineTraceRepository repository = new InMemoryStateMachineTraceRepository();
+		repository.setCapacity(4000);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						repository.add(Collections.<String, Object>singletonMap("foo", j));
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (int i = 0; i < 100; i++) {
+			repository.setCapacity(4000 + i);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// no trace may get lost into a buffer which was swapped out
+		assertThat(repository.findAll().size(), is(4000));
+	}
+
+	private static Map<String, Object> trace(String machine, String foo) {
+		Map<String, Object> info = new HashMap<>();
+		info.put("machine", machine);
+		info.put("foo", foo);
+		return info;
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2017 the original author or authors.
+ * Copyright 2016-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,20 +15,38 @@
  */
 package org.springframework.statemachine.cluster;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.springframework.messaging.Message;
 import org.springframework.integration.leader.Context;
 import org.springframework.integration.leader.DefaultCandidate;
 import org.springframework.integration.zookeeper.leader.LeaderInitiator;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.ensemble.StateMachineEnsemble;
+import org.springframework.statemachine.ensemble.StateMachineEventTransport;
+import org.springframework.statemachine.ensemble.StateMachineEventTransport.EventReceiver;
 import org.springframework.statemachine.zookeeper.ZookeeperStateMachineEnsemble;
 
 /**
  * {@link StateMachineEnsemble} backed by a zookeeper and leader functionality
  * from a Spring Cloud Cluster.
+ * <p>
+ * If {@link StateMachineEventTransport} is set, only a leader runs
+ * transitions and other members forward their events to it. Leader
+ * publishes its member id into an ephemeral sequential node in zookeeper so
+ * that followers in other processes can find it. Node with a highest sequence
+ * belongs to a current leader, thus expiry of a previous leader's session
+ * never removes id of a new leader. Followers then apply state changes committed by a
+ * leader, thus members never compete with each other writing a state.
  *
  * @author Janne Valkealahti
  *
@@ -39,8 +57,12 @@ public class LeaderZookeeperStateMachineEnsemble<S, E> extends ZookeeperStateMac
 
 	private final Map<StateMachine<S, E>, InitiatorHolder> holders = new HashMap<>();
 	private final CuratorFramework curatorClient;
+	private final static Log log = LogFactory.getLog(LeaderZookeeperStateMachineEnsemble.class);
 	private final String basePath;
-	private StateMachine<S, E> leader;
+	private final String leaderMembersPath;
+	private volatile StateMachine<S, E> leader;
+	private volatile String leaderMemberId;
+	private StateMachineEventTransport<E> eventTransport;
 
 	/**
 	 * Instantiates a new leader zookeeper state machine ensemble.
@@ -52,6 +74,7 @@ public class LeaderZookeeperStateMachineEnsemble<S, E> extends ZookeeperStateMac
 		super(curatorClient, basePath);
 		this.curatorClient = curatorClient;
 		this.basePath = basePath;
+		this.leaderMembersPath = basePath + "/leadermembers";
 	}
 
 	/**
@@ -66,6 +89,19 @@ public class LeaderZookeeperStateMachineEnsemble<S, E> extends ZookeeperStateMac
 		super(curatorClient, basePath, cleanState, logSize);
 		this.curatorClient = curatorClient;
 		this.basePath = basePath;
+		this.leaderMembersPath = basePath + "/leadermembers";
+	}
+
+	/**
+	 * Sets the event transport. When set, only a leader runs transitions
+	 * and events sent to other members are forwarded to a leader. Forwarded
+	 * event is rejected if leader is not known, for example while leadership
+	 * is changing.
+	 *
+	 * @param eventTransport the event transport
+	 */
+	public void setEventTransport(StateMachineEventTransport<E> eventTransport) {
+		this.eventTransport = eventTransport;
 	}
 
 	@Override
@@ -91,6 +127,73 @@ public class LeaderZookeeperStateMachineEnsemble<S, E> extends ZookeeperStateMac
 		return leader;
 	}
 
+	@Override
+	public Boolean forwardEvent(StateMachine<S, E> stateMachine, Message<E> event) {
+		if (eventTransport == null || leader == stateMachine) {
+			return null;
+		}
+		String memberId = leaderMemberId;
+		if (memberId == null) {
+			memberId = readLeaderMemberId();
+		}
+		if (memberId != null && eventTransport.forward(memberId, event)) {
+			return true;
+		}
+		// leader may have changed, try once more with a fresh id
+		String freshMemberId = readLeaderMemberId();
+		if (freshMemberId != null && !freshMemberId.equals(memberId)) {
+			return eventTransport.forward(freshMemberId, event);
+		}
+		return false;
+	}
+
+	private String readLeaderMemberId() {
+		String memberId = null;
+		try {
+			List<String> children = curatorClient.getChildren().forPath(leaderMembersPath);
+			if (!children.isEmpty()) {
+				// sequence suffix is zero padded, thus ordering by name
+				// gives a node of a latest leader
+				String latest = Collections.max(children);
+				memberId = new String(curatorClient.getData().forPath(leaderMembersPath + "/" + latest),
+						StandardCharsets.UTF_8);
+			}
+		} catch (KeeperException.NoNodeException e) {
+		} catch (Exception e) {
+			log.warn("Error reading leader member id", e);
+		}
+		leaderMemberId = memberId;
+		return memberId;
+	}
+
+	private String publishLeaderMemberId(String memberId) {
+		try {
+			String path = curatorClient.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL_SEQUENTIAL)
+					.forPath(leaderMembersPath + "/member-", memberId.getBytes(StandardCharsets.UTF_8));
+			leaderMemberId = memberId;
+			return path;
+		} catch (Exception e) {
+			log.error("Error publishing leader member id", e);
+		}
+		return null;
+	}
+
+	private void unpublishLeaderMemberId(String memberId, String path) {
+		if (memberId.equals(leaderMemberId)) {
+			leaderMemberId = null;
+		}
+		if (path == null) {
+			return;
+		}
+		try {
+			curatorClient.delete().forPath(path);
+		} catch (KeeperException.NoNodeException e) {
+		} catch (Exception e) {
+			// session expiry removes it eventually
+			log.warn("Error removing leader member id", e);
+		}
+	}
+
 	private class InitiatorHolder {
 		final StateMachineCandidate candidate;
 		final LeaderInitiator initiator;
@@ -103,6 +206,7 @@ public class LeaderZookeeperStateMachineEnsemble<S, E> extends ZookeeperStateMac
 
 	private class StateMachineCandidate extends DefaultCandidate {
 		final StateMachine<S, E> stateMachine;
+		volatile String publishedPath;
 
 		public StateMachineCandidate(StateMachine<S, E> stateMachine) {
 			super();
@@ -113,6 +217,17 @@ public class LeaderZookeeperStateMachineEnsemble<S, E> extends ZookeeperStateMac
 		public void onGranted(Context ctx) {
 			super.onGranted(ctx);
 			leader = stateMachine;
+			if (eventTransport != null) {
+				String memberId = stateMachine.getUuid().toString();
+				eventTransport.register(memberId, new EventReceiver<E>() {
+
+					@Override
+					public boolean receive(Message<E> event) {
+						return stateMachine.sendEvent(event);
+					}
+				});
+				publishedPath = publishLeaderMemberId(memberId);
+			}
 			notifyGranted(stateMachine);
 		}
 
@@ -120,6 +235,12 @@ public class LeaderZookeeperStateMachineEnsemble<S, E> extends ZookeeperStateMac
 		public void onRevoked(Context ctx) {
 			super.onRevoked(ctx);
 			leader = null;
+			if (eventTransport != null) {
+				String memberId = stateMachine.getUuid().toString();
+				eventTransport.unregister(memberId);
+				unpublishLeaderMemberId(memberId, publishedPath);
+				publishedPath = null;
+			}
 			notifyRevoked(stateMachine);
 		}
 	}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 the original author or authors.
+ * Copyright 2016-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -36,7 +36,10 @@ import org.springframework.statemachine.config.builders.StateMachineConfiguratio
 import org.springframework.statemachine.config.builders.StateMachineStateConfigurer;
 import org.springframework.statemachine.config.builders.StateMachineTransitionConfigurer;
 import org.springframework.statemachine.ensemble.EnsembleListenerAdapter;
+import org.springframework.statemachine.ensemble.LocalStateMachineEventTransport;
 import org.springframework.statemachine.ensemble.StateMachineEnsemble;
+import org.springframework.statemachine.listener.StateMachineListenerAdapter;
+import org.springframework.statemachine.state.State;
 
 public class LeaderZookeeperStateMachineEnsembleTests extends AbstractZookeeperTests {
 
@@ -67,6 +70,77 @@ public class LeaderZookeeperStateMachineEnsembleTests extends AbstractZookeeperT
 		assertThat(stateMachineEnsemble.getLeader(), is(machine2));
 	}
 
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testLeaderOnlyTransitions() throws Exception {
+		context.register(ZkServerConfig.class, BaseConfig.class, Config2.class);
+		context.refresh();
+
+		StateMachineFactory<String, String> factory = context.getBean(StateMachineFactory.class);
+		StateMachineEnsemble<String, String> stateMachineEnsemble = context.getBean(StateMachineEnsemble.class);
+		TestEnsembleListener listener = context.getBean(TestEnsembleListener.class);
+
+		StateMachine<String, String> machine1 = factory.getStateMachine();
+		assertThat(listener.latch.await(2, TimeUnit.SECONDS), is(true));
+		StateMachine<String, String> machine2 = factory.getStateMachine();
+		assertThat(stateMachineEnsemble.getLeader(), is(machine1));
+
+		TestStateMachineListener listener1 = new TestStateMachineListener();
+		TestStateMachineListener listener2 = new TestStateMachineListener();
+		machine1.addStateListener(listener1);
+		machine2.addStateListener(listener2);
+
+		// follower forwards to a leader which runs transition,
+		// follower then follows leader's state change
+		assertThat(machine2.sendEvent("E1"), is(true));
+		assertThat(listener1.latch.await(2, TimeUnit.SECONDS), is(true));
+		assertThat(listener2.latch.await(2, TimeUnit.SECONDS), is(true));
+		assertThat(machine1.getState().getIds(), contains("S2"));
+		assertThat(machine2.getState().getIds(), contains("S2"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testLeaderOnlyTransitionsFailover() throws Exception {
+		context.register(ZkServerConfig.class, BaseConfig.class, Config2.class);
+		context.refresh();
+
+		StateMachineFactory<String, String> factory = context.getBean(StateMachineFactory.class);
+		StateMachineEnsemble<String, String> stateMachineEnsemble = context.getBean(StateMachineEnsemble.class);
+		TestEnsembleListener listener = context.getBean(TestEnsembleListener.class);
+		CuratorFramework curatorClient = context.getBean(CuratorFramework.class);
+
+		StateMachine<String, String> machine1 = factory.getStateMachine();
+		assertThat(listener.latch.await(2, TimeUnit.SECONDS), is(true));
+		StateMachine<String, String> machine2 = factory.getStateMachine();
+		StateMachine<String, String> machine3 = factory.getStateMachine();
+		assertThat(stateMachineEnsemble.getLeader(), is(machine1));
+
+		// follower caches id of a first leader
+		TestStateMachineListener listener3 = new TestStateMachineListener();
+		machine3.addStateListener(listener3);
+		assertThat(machine3.sendEvent("E1"), is(true));
+		assertThat(listener3.latch.await(2, TimeUnit.SECONDS), is(true));
+
+		listener.reset(1);
+		stateMachineEnsemble.leave(machine1);
+		assertThat(listener.latch.await(2, TimeUnit.SECONDS), is(true));
+		assertThat(stateMachineEnsemble.getLeader(), is(machine2));
+
+		// previous leader removed its node, only new leader's id is left
+		assertThat(curatorClient.getChildren().forPath("/foo/leadermembers").size(), is(1));
+
+		TestStateMachineListener listener2 = new TestStateMachineListener("S3");
+		listener3 = new TestStateMachineListener("S3");
+		machine2.addStateListener(listener2);
+		machine3.addStateListener(listener3);
+		assertThat(machine3.sendEvent("E2"), is(true));
+		assertThat(listener2.latch.await(2, TimeUnit.SECONDS), is(true));
+		assertThat(listener3.latch.await(2, TimeUnit.SECONDS), is(true));
+		assertThat(machine2.getState().getIds(), contains("S3"));
+		assertThat(machine3.getState().getIds(), contains("S3"));
+	}
+
 	@Configuration
 	@EnableStateMachineFactory
 	static class Config1 extends StateMachineConfigurerAdapter<String, String> {
@@ -123,6 +197,44 @@ public class LeaderZookeeperStateMachineEnsembleTests extends AbstractZookeeperT
 
 	}
 
+	@Configuration
+	@EnableStateMachineFactory
+	static class Config2 extends Config1 {
+
+		@Autowired
+		private CuratorFramework curatorClient;
+
+		@Override
+		@Bean
+		public StateMachineEnsemble<String, String> stateMachineEnsemble() throws Exception {
+			LeaderZookeeperStateMachineEnsemble<String,String> ensemble = new LeaderZookeeperStateMachineEnsemble<String, String>(curatorClient, "/foo");
+			ensemble.setEventTransport(new LocalStateMachineEventTransport<String>());
+			ensemble.addEnsembleListener(testEnsembleListener());
+			return ensemble;
+		}
+
+	}
+
+	static class TestStateMachineListener extends StateMachineListenerAdapter<String, String> {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final String state;
+
+		TestStateMachineListener() {
+			this("S2");
+		}
+
+		TestStateMachineListener(String state) {
+			this.state = state;
+		}
+
+		@Override
+		public void stateChanged(State<String, String> from, State<String, String> to) {
+			if (to != null && state.equals(to.getId())) {
+				latch.countDown();
+			}
+		}
+	}
+
 	static class TestEnsembleListener extends EnsembleListenerAdapter<String, String> {
 		CountDownLatch latch = new CountDownLatch(1);
 
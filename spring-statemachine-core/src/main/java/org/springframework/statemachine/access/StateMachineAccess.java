@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,6 +15,8 @@
  */
 package org.springframework.statemachine.access;
 
+import java.util.concurrent.locks.Lock;
+
 import org.springframework.messaging.Message;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.StateMachineContext;
@@ -82,4 +84,15 @@ public interface StateMachineAccess<S, E> {
 	 * @param stateMachine the state machine
 	 */
 	void setParentMachine(StateMachine<S, E> stateMachine);
+
+	/**
+	 * Gets the lock held while a state machine processes its events. Can
+	 * be used to serialise external modifications, like a reset, with
+	 * event processing.
+	 *
+	 * @return the executor lock or {@code null} if not available
+	 */
+	default Lock getExecutorLock() {
+		return null;
+	}
 }
@@ -15,6 +15,8 @@
  */
 package org.springframework.statemachine.action;
 
+import java.util.concurrent.TimeUnit;
+
 import org.springframework.statemachine.StateMachine;
 
 /**
@@ -32,7 +34,21 @@ public interface ActionListener<S, E> {
 	 *
 	 * @param stateMachine the state machine
 	 * @param action the action
-	 * @param duration the transition duration
+	 * @param duration the action duration in milliseconds
 	 */
 	void onExecute(StateMachine<S, E> stateMachine, Action<S, E> action, long duration);
+
+	/**
+	 * Notified duration of a particular action with a given time unit. Default
+	 * implementation converts duration to milliseconds and delegates to
+	 * {@link #onExecute(StateMachine, Action, long)}.
+	 *
+	 * @param stateMachine the state machine
+	 * @param action the action
+	 * @param duration the action duration
+	 * @param unit the time unit of a duration
+	 */
+	default void onExecute(StateMachine<S, E> stateMachine, Action<S, E> action, long duration, TimeUnit unit) {
+		onExecute(stateMachine, action, unit.toMillis(duration));
+	}
 }
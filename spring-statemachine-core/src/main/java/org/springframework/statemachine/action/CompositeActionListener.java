@@ -16,6 +16,7 @@
 package org.springframework.statemachine.action;
 
 import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.support.AbstractCompositeItems;
@@ -38,4 +39,12 @@ public class CompositeActionListener<S, E> extends AbstractCompositeItems<Action
 			listener.onExecute(stateMachine, action, duration);
 		}
 	}
+
+	@Override
+	public void onExecute(StateMachine<S, E> stateMachine, Action<S, E> action, long duration, TimeUnit unit) {
+		for (Iterator<ActionListener<S, E>> iterator = getItems().reverse(); iterator.hasNext();) {
+			ActionListener<S, E> listener = iterator.next();
+			listener.onExecute(stateMachine, action, duration, unit);
+		}
+	}
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,9 +16,9 @@
 package org.springframework.statemachine.action;
 
 import org.springframework.expression.Expression;
-import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.expression.spel.SpelParserConfiguration;
 import org.springframework.statemachine.StateContext;
-import org.springframework.statemachine.support.StateContextExpressionMethods;
+import org.springframework.statemachine.support.StateContextExpression;
 import org.springframework.util.Assert;
 
 /**
@@ -29,9 +29,7 @@ import org.springframework.util.Assert;
  */
 public class SpelExpressionAction<S, E> implements Action<S, E> {
 
-	private final StateContextExpressionMethods methods;
-
-	private final Expression expression;
+	private final StateContextExpression expression;
 
 	/**
 	 * Instantiates a new spel expression action.
@@ -39,14 +37,41 @@ public class SpelExpressionAction<S, E> implements Action<S, E> {
 	 * @param expression the expression
 	 */
 	public SpelExpressionAction(Expression expression) {
+		this(expression, null);
+	}
+
+	/**
+	 * Instantiates a new spel expression action. Knowing a configuration used
+	 * to parse an expression allows it to be compiled.
+	 *
+	 * @param expression the expression
+	 * @param configuration the configuration used to parse an expression
+	 */
+	public SpelExpressionAction(Expression expression, SpelParserConfiguration configuration) {
 		Assert.notNull(expression, "Expression cannot be null");
-		this.expression = expression;
-		this.methods = new StateContextExpressionMethods(new StandardEvaluationContext());
+		this.expression = new StateContextExpression(expression, configuration);
 	}
 
 	@Override
 	public void execute(StateContext<S, E> context) {
-		methods.getValue(expression, context, Object.class);
+		expression.getValue(context, Object.class);
+	}
+
+	/**
+	 * Checks if expression has been compiled.
+	 *
+	 * @return true, if compiled
+	 */
+	public boolean isCompiled() {
+		return expression.isCompiled();
 	}
 
+	/**
+	 * Gets the original expression string.
+	 *
+	 * @return the expression string
+	 */
+	public String getExpressionString() {
+		return expression.getExpression().getExpressionString();
+	}
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2017 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,13 +17,16 @@ package org.springframework.statemachine.config;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Stack;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -40,6 +43,7 @@ import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.access.StateMachineAccess;
 import org.springframework.statemachine.access.StateMachineFunction;
 import org.springframework.statemachine.action.Action;
+import org.springframework.statemachine.config.model.CachingStateMachineModelFactory;
 import org.springframework.statemachine.config.model.ChoiceData;
 import org.springframework.statemachine.config.model.DefaultStateMachineModel;
 import org.springframework.statemachine.config.model.EntryData;
@@ -107,6 +111,8 @@ public abstract class AbstractStateMachineFactory<S, E> extends LifecycleObjectS
 
 	private final Log log = LogFactory.getLog(AbstractStateMachineFactory.class);
 
+	private static final Object DEFAULT_MACHINE_ID = new Object();
+
 	private final StateMachineModel<S, E> defaultStateMachineModel;
 
 	private final StateMachineModelFactory<S, E> stateMachineModelFactory;
@@ -119,15 +125,31 @@ public abstract class AbstractStateMachineFactory<S, E> extends LifecycleObjectS
 
 	private StateMachineMonitor<S, E> defaultStateMachineMonitor;
 
+	private volatile StateMachineBlueprint<S, E> defaultStateMachineBlueprint;
+
+	private final Map<Object, StateMachineBlueprint<S, E>> modelFactoryBlueprints = new ConcurrentHashMap<>();
+
 	/**
 	 * Instantiates a new abstract state machine factory.
 	 *
 	 * @param defaultStateMachineModel the default state machine model
 	 * @param stateMachineModelFactory the state machine model factory
 	 */
+	@SuppressWarnings("unchecked")
 	public AbstractStateMachineFactory(StateMachineModel<S, E> defaultStateMachineModel, StateMachineModelFactory<S, E> stateMachineModelFactory) {
 		this.stateMachineModelFactory = stateMachineModelFactory;
 		this.defaultStateMachineModel = defaultStateMachineModel;
+		if (stateMachineModelFactory instanceof CachingStateMachineModelFactory) {
+			// blueprints follow lifecycle of cached models
+			((CachingStateMachineModelFactory<S, E>) stateMachineModelFactory)
+					.addModelRemovalListener(new CachingStateMachineModelFactory.ModelRemovalListener() {
+
+						@Override
+						public void modelRemoved(String machineId) {
+							modelFactoryBlueprints.remove(machineId != null ? machineId : DEFAULT_MACHINE_ID);
+						}
+					});
+		}
 	}
 
 	@Override
@@ -161,14 +183,8 @@ public abstract class AbstractStateMachineFactory<S, E> extends LifecycleObjectS
 	public StateMachine<S, E> getStateMachine(UUID uuid, String machineId) {
 		ArrayList<StateMachine<S, E>> machines = new ArrayList<>();
 
-		StateMachineModel<S, E> stateMachineModel = resolveStateMachineModel(machineId);
-		if (stateMachineModel.getConfigurationData().isVerifierEnabled()) {
-			StateMachineModelVerifier<S, E> verifier = stateMachineModel.getConfigurationData().getVerifier();
-			if (verifier == null) {
-				verifier = new CompositeStateMachineModelVerifier<S, E>();
-			}
-			verifier.verify(stateMachineModel);
-		}
+		StateMachineBlueprint<S, E> blueprint = resolveStateMachineBlueprint(machineId);
+		StateMachineModel<S, E> stateMachineModel = blueprint.stateMachineModel;
 
 		// shared
 		DefaultExtendedState defaultExtendedState = new DefaultExtendedState();
@@ -181,47 +197,20 @@ public abstract class AbstractStateMachineFactory<S, E> extends LifecycleObjectS
 		// states.
 		final Map<S, State<S, E>> stateMap = new HashMap<S, State<S, E>>();
 		Stack<MachineStackItem<S, E>> regionStack = new Stack<MachineStackItem<S, E>>();
-		Stack<StateData<S, E>> stateStack = new Stack<StateData<S, E>>();
 		Map<Object, StateMachine<S, E>> machineMap = new HashMap<Object, StateMachine<S,E>>();
 		List<HolderListItem<S, E>> holderList = new ArrayList<>();
 
-		Iterator<Node<StateData<S, E>>> iterator = buildStateDataIterator(stateMachineModel);
-		while (iterator.hasNext()) {
-			Node<StateData<S, E>> node = iterator.next();
-			StateData<S, E> stateData = node.getData();
-			StateData<S, E> peek = stateStack.isEmpty() ? null : stateStack.peek();
-
-			// simply push and continue
-			if (stateStack.isEmpty()) {
-				stateStack.push(stateData);
-				continue;
-			}
-
-			boolean stackContainsSameParent = false;
-			Iterator<StateData<S, E>> ii = stateStack.iterator();
-			while (ii.hasNext()) {
-				StateData<S, E> sd = ii.next();
-				if (stateData != null && ObjectUtils.nullSafeEquals(stateData.getState(), sd.getParent())) {
-					stackContainsSameParent = true;
-					break;
-				}
-			}
-
-			if (stateData != null && !stackContainsSameParent) {
-				stateStack.push(stateData);
-				continue;
-			}
-
-			Collection<StateData<S, E>> stateDatas = popSameParents(stateStack);
-			int initialCount = getInitialCount(stateDatas);
-			Collection<Collection<StateData<S, E>>> regionsStateDatas = splitIntoRegions(stateDatas);
-			Collection<TransitionData<S, E>> transitionsData = getTransitionData(iterator.hasNext(), stateDatas, stateMachineModel);
+		for (BuildStep<S, E> step : blueprint.steps) {
+			StateData<S, E> stateData = step.stateData;
+			StateData<S, E> peek = step.peek;
 
-			if (initialCount > 1) {
-				for (Collection<StateData<S, E>> regionStateDatas : regionsStateDatas) {
-					machine = buildMachine(machineMap, stateMap, holderList, regionStateDatas, transitionsData, resolveBeanFactory(stateMachineModel),
+			if (step.regionsStateDatas != null) {
+				Iterator<RegionStructure<S, E>> regionStructures = step.regionStructures != null ? step.regionStructures.iterator() : null;
+				for (Collection<StateData<S, E>> regionStateDatas : step.regionsStateDatas) {
+					RegionStructure<S, E> regionStructure = regionStructures != null ? regionStructures.next() : null;
+					machine = buildMachine(machineMap, stateMap, holderList, regionStateDatas, step.transitionsData, resolveBeanFactory(stateMachineModel),
 							contextEvents, defaultExtendedState, stateMachineModel.getTransitionsData(), resolveTaskExecutor(stateMachineModel),
-							resolveTaskScheduler(stateMachineModel), machineId, null, stateMachineModel);
+							resolveTaskScheduler(stateMachineModel), machineId, null, stateMachineModel, regionStructure);
 					regionStack.push(new MachineStackItem<S, E>(machine));
 					machines.add(machine);
 				}
@@ -250,16 +239,14 @@ public abstract class AbstractStateMachineFactory<S, E> extends LifecycleObjectS
 					machines.add(m);
 				}
 			} else {
-				machine = buildMachine(machineMap, stateMap, holderList, stateDatas, transitionsData, resolveBeanFactory(stateMachineModel), contextEvents,
+				machine = buildMachine(machineMap, stateMap, holderList, step.stateDatas, step.transitionsData, resolveBeanFactory(stateMachineModel), contextEvents,
 						defaultExtendedState, stateMachineModel.getTransitionsData(), resolveTaskExecutor(stateMachineModel), resolveTaskScheduler(stateMachineModel),
-						machineId, uuid, stateMachineModel);
+						machineId, uuid, stateMachineModel, step.structure);
 				machines.add(machine);
 				if (peek.isInitial() || (!peek.isInitial() && !machineMap.containsKey(peek.getParent()))) {
 					machineMap.put(peek.getParent(), machine);
 				}
 			}
-
-			stateStack.push(stateData);
 		}
 
 		// setup autostart for top-level machine
@@ -298,14 +285,7 @@ public abstract class AbstractStateMachineFactory<S, E> extends LifecycleObjectS
 		for (Entry<Object, StateMachine<S, E>> mme : machineMap.entrySet()) {
 			StateMachine<S, E> m = null;
 			if (mme.getKey() != null) {
-				Object sParent = null;
-				for (StateData<S, E> sd : stateMachineModel.getStatesData().getStateData()) {
-					if (ObjectUtils.nullSafeEquals(sd.getState(), mme.getKey())) {
-						sParent = sd.getParent();
-						break;
-					}
-				}
-				m = machineMap.get(sParent);
+				m = machineMap.get(blueprint.parents.get(mme.getKey()));
 			}
 			final StateMachine<S, E> mm = m;
 			mme.getValue().getStateMachineAccessor().doWithRegion(new StateMachineFunction<StateMachineAccess<S ,E>>(){
@@ -447,16 +427,194 @@ public abstract class AbstractStateMachineFactory<S, E> extends LifecycleObjectS
 		if (stateMachineModelFactory == null) {
 			return defaultStateMachineModel;
 		} else {
-			StateMachineModel<S, E> m = stateMachineModelFactory.build(machineId);
-			if (m.getConfigurationData() == null) {
-				// if model doesn't have explicit configuration data,
-				// get it from default model
-				return new DefaultStateMachineModel<>(defaultStateMachineModel.getConfigurationData(), m.getStatesData(),
-						m.getTransitionsData());
-			} else {
-				return m;
+			return mergeDefaultConfiguration(stateMachineModelFactory.build(machineId));
+		}
+	}
+
+	private StateMachineModel<S, E> mergeDefaultConfiguration(StateMachineModel<S, E> m) {
+		if (m.getConfigurationData() == null) {
+			// if model doesn't have explicit configuration data,
+			// get it from default model
+			return new DefaultStateMachineModel<>(defaultStateMachineModel.getConfigurationData(), m.getStatesData(),
+					m.getTransitionsData());
+		} else {
+			return m;
+		}
+	}
+
+	/**
+	 * Resolve a {@link StateMachineBlueprint} for a given machine id. Blueprint
+	 * for a default model is compiled and verified only once as the model
+	 * never changes. Blueprint for a model from a {@link StateMachineModelFactory}
+	 * is kept only if models are cached by a {@link CachingStateMachineModelFactory}
+	 * and is reused as long as it keeps returning a same model instance for
+	 * a machine id. Blueprint is dropped when a caching factory invalidates or
+	 * evicts its model, thus blueprints never outnumber cached models.
+	 *
+	 * @param machineId the machine id
+	 * @return the state machine blueprint
+	 */
+	@SuppressWarnings("unchecked")
+	private StateMachineBlueprint<S, E> resolveStateMachineBlueprint(String machineId) {
+		if (stateMachineModelFactory == null) {
+			StateMachineBlueprint<S, E> blueprint = defaultStateMachineBlueprint;
+			if (blueprint == null) {
+				StateMachineModel<S, E> model = resolveStateMachineModel(machineId);
+				blueprint = compileStateMachineBlueprint(model, model);
+				defaultStateMachineBlueprint = blueprint;
 			}
+			return blueprint;
+		}
+		if (!(stateMachineModelFactory instanceof CachingStateMachineModelFactory)) {
+			return compileStateMachineBlueprint(resolveStateMachineModel(machineId), null);
 		}
+		CachingStateMachineModelFactory<S, E> cachingFactory = (CachingStateMachineModelFactory<S, E>) stateMachineModelFactory;
+		StateMachineModel<S, E> model = cachingFactory.build(machineId);
+		Object key = machineId != null ? machineId : DEFAULT_MACHINE_ID;
+		StateMachineBlueprint<S, E> blueprint = modelFactoryBlueprints.get(key);
+		if (blueprint == null || blueprint.sourceModel != model) {
+			blueprint = compileStateMachineBlueprint(mergeDefaultConfiguration(model), model);
+			modelFactoryBlueprints.put(key, blueprint);
+			// model may have been removed before we stored its blueprint
+			if (!cachingFactory.isCached(machineId)) {
+				modelFactoryBlueprints.remove(key, blueprint);
+			}
+		}
+		return blueprint;
+	}
+
+	private StateMachineBlueprint<S, E> compileStateMachineBlueprint(StateMachineModel<S, E> stateMachineModel,
+			StateMachineModel<S, E> sourceModel) {
+		if (stateMachineModel.getConfigurationData().isVerifierEnabled()) {
+			StateMachineModelVerifier<S, E> verifier = stateMachineModel.getConfigurationData().getVerifier();
+			if (verifier == null) {
+				verifier = new CompositeStateMachineModelVerifier<S, E>();
+			}
+			verifier.verify(stateMachineModel);
+		}
+
+		List<BuildStep<S, E>> steps = new ArrayList<BuildStep<S, E>>();
+		Stack<StateData<S, E>> stateStack = new Stack<StateData<S, E>>();
+		Iterator<Node<StateData<S, E>>> iterator = buildStateDataIterator(stateMachineModel);
+		while (iterator.hasNext()) {
+			Node<StateData<S, E>> node = iterator.next();
+			StateData<S, E> stateData = node.getData();
+			StateData<S, E> peek = stateStack.isEmpty() ? null : stateStack.peek();
+
+			// simply push and continue
+			if (stateStack.isEmpty()) {
+				stateStack.push(stateData);
+				continue;
+			}
+
+			boolean stackContainsSameParent = false;
+			Iterator<StateData<S, E>> ii = stateStack.iterator();
+			while (ii.hasNext()) {
+				StateData<S, E> sd = ii.next();
+				if (stateData != null && ObjectUtils.nullSafeEquals(stateData.getState(), sd.getParent())) {
+					stackContainsSameParent = true;
+					break;
+				}
+			}
+
+			if (stateData != null && !stackContainsSameParent) {
+				stateStack.push(stateData);
+				continue;
+			}
+
+			Collection<StateData<S, E>> stateDatas = popSameParents(stateStack);
+			int initialCount = getInitialCount(stateDatas);
+			Collection<TransitionData<S, E>> transitionsData = getTransitionData(iterator.hasNext(), stateDatas, stateMachineModel);
+			Collection<Collection<StateData<S, E>>> regionsStateDatas = initialCount > 1 ? splitIntoRegions(stateDatas) : null;
+			RegionStructure<S, E> structure = null;
+			List<RegionStructure<S, E>> regionStructures = null;
+			if (stateMachineModel.getConfigurationData().isStructureCaching()) {
+				if (regionsStateDatas != null) {
+					regionStructures = new ArrayList<RegionStructure<S, E>>();
+					for (Collection<StateData<S, E>> regionStateDatas : regionsStateDatas) {
+						regionStructures.add(compileRegionStructure(regionStateDatas, transitionsData,
+								stateMachineModel.getTransitionsData()));
+					}
+				} else {
+					structure = compileRegionStructure(stateDatas, transitionsData, stateMachineModel.getTransitionsData());
+				}
+			}
+			steps.add(new BuildStep<S, E>(stateData, peek, stateDatas, regionsStateDatas, transitionsData, structure,
+					regionStructures));
+
+			stateStack.push(stateData);
+		}
+
+		// state to parent mappings, first match wins
+		Map<Object, Object> parents = new HashMap<Object, Object>();
+		for (StateData<S, E> sd : stateMachineModel.getStatesData().getStateData()) {
+			if (sd.getState() != null && !parents.containsKey(sd.getState())) {
+				parents.put(sd.getState(), sd.getParent());
+			}
+		}
+		return new StateMachineBlueprint<S, E>(stateMachineModel, sourceModel, steps, parents);
+	}
+
+	private RegionStructure<S, E> compileRegionStructure(Collection<StateData<S, E>> stateDatas,
+			Collection<TransitionData<S, E>> transitionsData, TransitionsData<S, E> stateMachineTransitions) {
+		RegionStructure<S, E> structure = new RegionStructure<S, E>();
+		for (StateData<S, E> stateData : stateDatas) {
+			S s = stateData.getState();
+			PseudoStateKind kind = stateData.getPseudoStateKind();
+			if (kind == PseudoStateKind.HISTORY_SHALLOW || kind == PseudoStateKind.HISTORY_DEEP) {
+				structure.historys.put(s, resolveHistoryData(s, stateMachineTransitions));
+			} else if (kind == PseudoStateKind.ENTRY) {
+				structure.entrys.put(s, resolveEntryData(s, stateMachineTransitions));
+			} else if (kind == PseudoStateKind.EXIT) {
+				structure.exits.put(s, resolveExitData(s, stateMachineTransitions));
+			} else if (kind == PseudoStateKind.JOIN) {
+				structure.joinTransitions.put(s, resolveJoinTransitions(s, stateMachineTransitions));
+			}
+		}
+		for (TransitionData<S, E> transitionData : transitionsData) {
+			if (transitionData.getEvent() != null) {
+				structure.eventTriggers.put(transitionData, new EventTrigger<S, E>(transitionData.getEvent()));
+			}
+		}
+		return structure;
+	}
+
+	private HistoryData<S, E> resolveHistoryData(S s, TransitionsData<S, E> stateMachineTransitions) {
+		HistoryData<S, E> data = null;
+		for (HistoryData<S, E> history : stateMachineTransitions.getHistorys()) {
+			if (history.getSource().equals(s)) {
+				data = history;
+			}
+		}
+		return data;
+	}
+
+	private EntryData<S, E> resolveEntryData(S s, TransitionsData<S, E> stateMachineTransitions) {
+		for (EntryData<S, E> entry : stateMachineTransitions.getEntrys()) {
+			if (s.equals(entry.getSource())) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	private ExitData<S, E> resolveExitData(S s, TransitionsData<S, E> stateMachineTransitions) {
+		for (ExitData<S, E> exit : stateMachineTransitions.getExits()) {
+			if (s.equals(exit.getSource())) {
+				return exit;
+			}
+		}
+		return null;
+	}
+
+	private List<TransitionData<S, E>> resolveJoinTransitions(S s, TransitionsData<S, E> stateMachineTransitions) {
+		List<TransitionData<S, E>> out = new ArrayList<TransitionData<S, E>>();
+		for (TransitionData<S, E> tt : stateMachineTransitions.getTransitions()) {
+			if (tt.getSource() == s) {
+				out.add(tt);
+			}
+		}
+		return out;
 	}
 
 	private int getInitialCount(Collection<StateData<S, E>> stateDatas) {
@@ -503,6 +661,66 @@ public abstract class AbstractStateMachineFactory<S, E> extends LifecycleObjectS
 	}
 
 
+	/**
+	 * Immutable build plan compiled from a {@link StateMachineModel}. Plan
+	 * contains everything which can be resolved from a model alone so that
+	 * building a new machine instance only needs to create runtime objects.
+	 */
+	private static class StateMachineBlueprint<S, E> {
+
+		final StateMachineModel<S, E> stateMachineModel;
+		final StateMachineModel<S, E> sourceModel;
+		final List<BuildStep<S, E>> steps;
+		final Map<Object, Object> parents;
+
+		StateMachineBlueprint(StateMachineModel<S, E> stateMachineModel, StateMachineModel<S, E> sourceModel,
+				List<BuildStep<S, E>> steps, Map<Object, Object> parents) {
+			this.stateMachineModel = stateMachineModel;
+			this.sourceModel = sourceModel;
+			this.steps = Collections.unmodifiableList(steps);
+			this.parents = Collections.unmodifiableMap(parents);
+		}
+	}
+
+	private static class BuildStep<S, E> {
+
+		final StateData<S, E> stateData;
+		final StateData<S, E> peek;
+		final Collection<StateData<S, E>> stateDatas;
+		final Collection<Collection<StateData<S, E>>> regionsStateDatas;
+		final Collection<TransitionData<S, E>> transitionsData;
+		final RegionStructure<S, E> structure;
+		final List<RegionStructure<S, E>> regionStructures;
+
+		BuildStep(StateData<S, E> stateData, StateData<S, E> peek, Collection<StateData<S, E>> stateDatas,
+				Collection<Collection<StateData<S, E>>> regionsStateDatas, Collection<TransitionData<S, E>> transitionsData,
+				RegionStructure<S, E> structure, List<RegionStructure<S, E>> regionStructures) {
+			this.stateData = stateData;
+			this.peek = peek;
+			this.stateDatas = stateDatas;
+			this.regionsStateDatas = regionsStateDatas;
+			this.transitionsData = transitionsData;
+			this.structure = structure;
+			this.regionStructures = regionStructures;
+		}
+	}
+
+	/**
+	 * Structure of a single machine or region resolved from a model when
+	 * structure caching is enabled. Keeps pseudo state lookups which would
+	 * otherwise scan all transitions of a model for every built machine and
+	 * event triggers which are immutable and thus can be shared between
+	 * machine instances. Never modified after it has been compiled.
+	 */
+	private static class RegionStructure<S, E> {
+
+		final Map<S, HistoryData<S, E>> historys = new HashMap<S, HistoryData<S, E>>();
+		final Map<S, EntryData<S, E>> entrys = new HashMap<S, EntryData<S, E>>();
+		final Map<S, ExitData<S, E>> exits = new HashMap<S, ExitData<S, E>>();
+		final Map<S, List<TransitionData<S, E>>> joinTransitions = new HashMap<S, List<TransitionData<S, E>>>();
+		final Map<TransitionData<S, E>, Trigger<S, E>> eventTriggers = new IdentityHashMap<TransitionData<S, E>, Trigger<S, E>>();
+	}
+
 	private static class MachineStackItem<S, E> {
 
 		StateMachine<S, E> machine;
@@ -547,7 +765,7 @@ public abstract class AbstractStateMachineFactory<S, E> extends LifecycleObjectS
 			List<HolderListItem<S, E>> holderList, Collection<StateData<S, E>> stateDatas, Collection<TransitionData<S, E>> transitionsData,
 			BeanFactory beanFactory, Boolean contextEvents, DefaultExtendedState defaultExtendedState,
 			TransitionsData<S, E> stateMachineTransitions, TaskExecutor taskExecutor, TaskScheduler taskScheduler, String machineId,
-			UUID uuid, StateMachineModel<S, E> stateMachineModel) {
+			UUID uuid, StateMachineModel<S, E> stateMachineModel, RegionStructure<S, E> structure) {
 		State<S, E> state = null;
 		State<S, E> initialState = null;
 		PseudoState<S, E> historyState = null;
@@ -628,14 +846,10 @@ public abstract class AbstractStateMachineFactory<S, E> extends LifecycleObjectS
 
 		for (StateData<S, E> stateData : stateDatas) {
 			if (stateData.getPseudoStateKind() == PseudoStateKind.HISTORY_SHALLOW) {
-				State<S, E> defaultState = null;
 				S s = stateData.getState();
-				Collection<HistoryData<S,E>> historys = stateMachineTransitions.getHistorys();
-				for (HistoryData<S,E> history : historys) {
-					if (history.getSource().equals(s)) {
-						defaultState = stateMap.get(history.getTarget());
-					}
-				}
+				HistoryData<S, E> history = structure != null ? structure.historys.get(s)
+						: resolveHistoryData(s, stateMachineTransitions);
+				State<S, E> defaultState = history != null ? stateMap.get(history.getTarget()) : null;
 				StateHolder<S, E> defaultStateHolder = new StateHolder<S, E>(defaultState);
 				StateHolder<S, E> containingStateHolder = new StateHolder<S, E>(stateMap.get(stateData.getParent()));
 				if (containingStateHolder.getState() == null) {
@@ -648,14 +862,10 @@ public abstract class AbstractStateMachineFactory<S, E> extends LifecycleObjectS
 				stateMap.put(stateData.getState(), state);
 				historyState = pseudoState;
 			} else if (stateData.getPseudoStateKind() == PseudoStateKind.HISTORY_DEEP) {
-				State<S, E> defaultState = null;
 				S s = stateData.getState();
-				Collection<HistoryData<S,E>> historys = stateMachineTransitions.getHistorys();
-				for (HistoryData<S,E> history : historys) {
-					if (history.getSource().equals(s)) {
-						defaultState = stateMap.get(history.getTarget());
-					}
-				}
+				HistoryData<S, E> history = structure != null ? structure.historys.get(s)
+						: resolveHistoryData(s, stateMachineTransitions);
+				State<S, E> defaultState = history != null ? stateMap.get(history.getTarget()) : null;
 				StateHolder<S, E> defaultStateHolder = new StateHolder<S, E>(defaultState);
 				StateHolder<S, E> containingStateHolder = new StateHolder<S, E>(stateMap.get(stateData.getParent()));
 				if (containingStateHolder.getState() == null) {
@@ -680,7 +890,8 @@ public abstract class AbstractStateMachineFactory<S, E> extends LifecycleObjectS
 					}
 					choices.add(new ChoiceStateData<S, E>(holder, c.getGuard(), c.getActions()));
 				}
-				PseudoState<S, E> pseudoState = new ChoicePseudoState<S, E>(choices);
+				PseudoState<S, E> pseudoState = new ChoicePseudoState<S, E>(choices,
+						stateMachineModel.getConfigurationData().isPseudoStateDecisionTables());
 				state = buildStateInternal(stateData.getState(), stateData.getDeferred(), stateData.getEntryActions(),
 						stateData.getExitActions(), stateData.getStateActions(), pseudoState, stateMachineModel);
 				states.add(state);
@@ -696,40 +907,35 @@ public abstract class AbstractStateMachineFactory<S, E> extends LifecycleObjectS
 					}
 					junctions.add(new JunctionStateData<S, E>(holder, c.getGuard(), c.getActions()));
 				}
-				PseudoState<S, E> pseudoState = new JunctionPseudoState<S, E>(junctions);
+				PseudoState<S, E> pseudoState = new JunctionPseudoState<S, E>(junctions,
+						stateMachineModel.getConfigurationData().isPseudoStateDecisionTables());
 				state = buildStateInternal(stateData.getState(), stateData.getDeferred(), stateData.getEntryActions(),
 						stateData.getExitActions(), stateData.getStateActions(), pseudoState, stateMachineModel);
 				states.add(state);
 				stateMap.put(stateData.getState(), state);
 			} else if (stateData.getPseudoStateKind() == PseudoStateKind.ENTRY) {
 				S s = stateData.getState();
-				Collection<EntryData<S, E>> entrys = stateMachineTransitions.getEntrys();
-				for (EntryData<S, E> entry : entrys) {
-					if (s.equals(entry.getSource())) {
-						PseudoState<S, E> pseudoState = new EntryPseudoState<S, E>(stateMap.get(entry.getTarget()));
-						state = buildStateInternal(stateData.getState(), stateData.getDeferred(), stateData.getEntryActions(),
-								stateData.getExitActions(), stateData.getStateActions(), pseudoState, stateMachineModel);
-						states.add(state);
-						stateMap.put(stateData.getState(), state);
-						break;
-					}
+				EntryData<S, E> entry = structure != null ? structure.entrys.get(s) : resolveEntryData(s, stateMachineTransitions);
+				if (entry != null) {
+					PseudoState<S, E> pseudoState = new EntryPseudoState<S, E>(stateMap.get(entry.getTarget()));
+					state = buildStateInternal(stateData.getState(), stateData.getDeferred(), stateData.getEntryActions(),
+							stateData.getExitActions(), stateData.getStateActions(), pseudoState, stateMachineModel);
+					states.add(state);
+					stateMap.put(stateData.getState(), state);
 				}
 			} else if (stateData.getPseudoStateKind() == PseudoStateKind.EXIT) {
 				S s = stateData.getState();
-				Collection<ExitData<S, E>> exits = stateMachineTransitions.getExits();
-				for (ExitData<S, E> entry : exits) {
-					if (s.equals(entry.getSource())) {
-						StateHolder<S, E> holder = new StateHolder<S, E>(stateMap.get(entry.getTarget()));
-						if (holder.getState() == null) {
-							holderList.add(new HolderListItem<S, E>(entry.getTarget(), holder));
-						}
-						PseudoState<S, E> pseudoState = new ExitPseudoState<S, E>(holder);
-						state = buildStateInternal(stateData.getState(), stateData.getDeferred(), stateData.getEntryActions(),
-								stateData.getExitActions(), stateData.getStateActions(), pseudoState, stateMachineModel);
-						states.add(state);
-						stateMap.put(stateData.getState(), state);
-						break;
+				ExitData<S, E> exit = structure != null ? structure.exits.get(s) : resolveExitData(s, stateMachineTransitions);
+				if (exit != null) {
+					StateHolder<S, E> holder = new StateHolder<S, E>(stateMap.get(exit.getTarget()));
+					if (holder.getState() == null) {
+						holderList.add(new HolderListItem<S, E>(exit.getTarget(), holder));
 					}
+					PseudoState<S, E> pseudoState = new ExitPseudoState<S, E>(holder);
+					state = buildStateInternal(stateData.getState(), stateData.getDeferred(), stateData.getEntryActions(),
+							stateData.getExitActions(), stateData.getStateActions(), pseudoState, stateMachineModel);
+					states.add(state);
+					stateMap.put(stateData.getState(), state);
 				}
 			} else if (stateData.getPseudoStateKind() == PseudoStateKind.FORK) {
 				S s = stateData.getState();
@@ -771,15 +977,14 @@ public abstract class AbstractStateMachineFactory<S, E> extends LifecycleObjectS
 				}
 
 				List<JoinStateData<S, E>> joinTargets = new ArrayList<JoinStateData<S, E>>();
-				Collection<TransitionData<S, E>> transitions = stateMachineTransitions.getTransitions();
-				for (TransitionData<S, E> tt : transitions) {
-					if (tt.getSource() == s) {
-						StateHolder<S, E> holder = new StateHolder<S, E>(stateMap.get(tt.getTarget()));
-						if (holder.getState() == null) {
-							holderList.add(new HolderListItem<S, E>(tt.getTarget(), holder));
-						}
-						joinTargets.add(new JoinStateData<S, E>(holder, tt.getGuard()));
+				List<TransitionData<S, E>> joinTransitions = structure != null ? structure.joinTransitions.get(s)
+						: resolveJoinTransitions(s, stateMachineTransitions);
+				for (TransitionData<S, E> tt : joinTransitions) {
+					StateHolder<S, E> holder = new StateHolder<S, E>(stateMap.get(tt.getTarget()));
+					if (holder.getState() == null) {
+						holderList.add(new HolderListItem<S, E>(tt.getTarget(), holder));
 					}
+					joinTargets.add(new JoinStateData<S, E>(holder, tt.getGuard()));
 				}
 				JoinPseudoState<S, E> pseudoState = new JoinPseudoState<S, E>(joins, joinTargets);
 
@@ -800,7 +1005,7 @@ public abstract class AbstractStateMachineFactory<S, E> extends LifecycleObjectS
 
 			Trigger<S, E> trigger = null;
 			if (event != null) {
-				trigger = new EventTrigger<S, E>(event);
+				trigger = structure != null ? structure.eventTriggers.get(transitionData) : new EventTrigger<S, E>(event);
 			} else if (period != null) {
 				TimerTrigger<S, E> t = new TimerTrigger<S, E>(period, count != null ? count : 0);
 				if (beanFactory != null) {
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2017 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -77,6 +77,7 @@ public class ObjectStateMachineFactory<S, E> extends AbstractStateMachineFactory
 		machine.setId(machineId);
 		machine.setHistoryState(historyState);
 		machine.setTransitionConflightPolicy(stateMachineModel.getConfigurationData().getTransitionConflictPolicy());
+		machine.setMaxEventsPerRun(stateMachineModel.getConfigurationData().getMaxEventsPerRun());
 		if (contextEventsEnabled != null) {
 			machine.setContextEventsEnabled(contextEventsEnabled);
 		}
@@ -66,6 +66,9 @@ public class StateMachineConfigurationBuilder<S, E>
 	private TaskScheduler taskScheculer;
 	private boolean autoStart = false;
 	private TransitionConflictPolicy transitionConflictPolicy;
+	private boolean pseudoStateDecisionTables = false;
+	private Integer maxEventsPerRun;
+	private boolean structureCaching = false;
 	private StateMachineEnsemble<S, E> ensemble;
 	private final List<StateMachineListener<S, E>> listeners = new ArrayList<StateMachineListener<S, E>>();
 	private boolean securityEnabled = false;
@@ -147,7 +150,8 @@ public class StateMachineConfigurationBuilder<S, E>
 		}
 		return new ConfigurationData<S, E>(beanFactory, taskExecutor, taskScheculer, autoStart, ensemble, listeners,
 				securityEnabled, transitionSecurityAccessDecisionManager, eventSecurityAccessDecisionManager, eventSecurityRule,
-				transitionSecurityRule, verifierEnabled, verifier, machineId, stateMachineMonitor, interceptorsCopy, transitionConflictPolicy);
+				transitionSecurityRule, verifierEnabled, verifier, machineId, stateMachineMonitor, interceptorsCopy, transitionConflictPolicy,
+				pseudoStateDecisionTables, maxEventsPerRun, structureCaching);
 	}
 
 	/**
@@ -303,4 +307,31 @@ public class StateMachineConfigurationBuilder<S, E>
 	public void setTransitionConflictPolicy(TransitionConflictPolicy transitionConflictPolicy) {
 		this.transitionConflictPolicy = transitionConflictPolicy;
 	}
+
+	/**
+	 * Sets the pseudo state decision tables enabled flag.
+	 *
+	 * @param pseudoStateDecisionTables the pseudo state decision tables flag
+	 */
+	public void setPseudoStateDecisionTables(boolean pseudoStateDecisionTables) {
+		this.pseudoStateDecisionTables = pseudoStateDecisionTables;
+	}
+
+	/**
+	 * Sets the max events per run for a state machine executor.
+	 *
+	 * @param maxEventsPerRun the max events per run
+	 */
+	public void setMaxEventsPerRun(Integer maxEventsPerRun) {
+		this.maxEventsPerRun = maxEventsPerRun;
+	}
+
+	/**
+	 * Sets the structure caching enabled flag.
+	 *
+	 * @param structureCaching the structure caching flag
+	 */
+	public void setStructureCaching(boolean structureCaching) {
+		this.structureCaching = structureCaching;
+	}
 }
@@ -21,6 +21,7 @@ import org.springframework.scheduling.TaskScheduler;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.config.builders.StateMachineConfigurationConfigurer;
 import org.springframework.statemachine.config.common.annotation.AnnotationConfigurerBuilder;
+import org.springframework.statemachine.guard.DiscriminatingGuard;
 import org.springframework.statemachine.listener.StateMachineListener;
 import org.springframework.statemachine.transition.TransitionConflictPolicy;
 
@@ -94,4 +95,38 @@ public interface ConfigurationConfigurer<S, E> extends
 	 * @return the configuration configurer
 	 */
 	ConfigurationConfigurer<S, E> transitionConflictPolicy(TransitionConflictPolicy transitionConflictPolicy);
+
+	/**
+	 * Specify if choice and junction pseudo states should compile their
+	 * guards into a decision table. Guards which are {@link DiscriminatingGuard}s
+	 * are then resolved with a lookup instead of evaluating those in order.
+	 * Defaults to {@code false}.
+	 *
+	 * @param enabled the decision tables enabled flag
+	 * @return the configuration configurer
+	 */
+	ConfigurationConfigurer<S, E> pseudoStateDecisionTables(boolean enabled);
+
+	/**
+	 * Specify maximum number of events a state machine processes in one
+	 * run of its executor task before giving a thread back to a
+	 * {@link TaskExecutor}. Useful when many machines share a thread pool
+	 * as it gives every machine a fair turn. Defaults to no limit.
+	 *
+	 * @param maxEventsPerRun the max events per run
+	 * @return the configuration configurer
+	 */
+	ConfigurationConfigurer<S, E> maxEventsPerRun(int maxEventsPerRun);
+
+	/**
+	 * Specify if a state machine factory should cache a structure resolved
+	 * from a model, like pseudo state targets and shareable triggers, and
+	 * only create new state, transition and region instances for every
+	 * built machine. Defaults to {@code false} which resolves everything
+	 * again for every machine.
+	 *
+	 * @param enabled the structure caching enabled flag
+	 * @return the configuration configurer
+	 */
+	ConfigurationConfigurer<S, E> structureCaching(boolean enabled);
 }
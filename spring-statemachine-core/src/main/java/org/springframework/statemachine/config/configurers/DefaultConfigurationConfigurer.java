@@ -46,6 +46,9 @@ public class DefaultConfigurationConfigurer<S, E>
 	private TaskScheduler taskScheculer;
 	private boolean autoStart = false;
 	private TransitionConflictPolicy transitionConflightPolicy;
+	private boolean pseudoStateDecisionTables = false;
+	private Integer maxEventsPerRun;
+	private boolean structureCaching = false;
 	private final List<StateMachineListener<S, E>> listeners = new ArrayList<StateMachineListener<S, E>>();
 
 	@Override
@@ -57,6 +60,9 @@ public class DefaultConfigurationConfigurer<S, E>
 		builder.setAutoStart(autoStart);
 		builder.setStateMachineListeners(listeners);
 		builder.setTransitionConflictPolicy(transitionConflightPolicy);
+		builder.setPseudoStateDecisionTables(pseudoStateDecisionTables);
+		builder.setMaxEventsPerRun(maxEventsPerRun);
+		builder.setStructureCaching(structureCaching);
 	}
 
 	@Override
@@ -100,4 +106,22 @@ public class DefaultConfigurationConfigurer<S, E>
 		this.transitionConflightPolicy = transitionConflightPolicy;
 		return this;
 	}
+
+	@Override
+	public ConfigurationConfigurer<S, E> pseudoStateDecisionTables(boolean enabled) {
+		this.pseudoStateDecisionTables = enabled;
+		return this;
+	}
+
+	@Override
+	public ConfigurationConfigurer<S, E> maxEventsPerRun(int maxEventsPerRun) {
+		this.maxEventsPerRun = maxEventsPerRun;
+		return this;
+	}
+
+	@Override
+	public ConfigurationConfigurer<S, E> structureCaching(boolean enabled) {
+		this.structureCaching = enabled;
+		return this;
+	}
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -92,9 +92,9 @@ public class DefaultInternalTransitionConfigurer<S, E> extends AbstractTransitio
 
 	@Override
 	public InternalTransitionConfigurer<S, E> guardExpression(String expression) {
-		SpelExpressionParser parser = new SpelExpressionParser(
-				new SpelParserConfiguration(SpelCompilerMode.MIXED, null));
-		setGuard(new SpelExpressionGuard<S, E>(parser.parseExpression(expression)));
+		SpelParserConfiguration configuration = new SpelParserConfiguration(SpelCompilerMode.MIXED, null);
+		SpelExpressionParser parser = new SpelExpressionParser(configuration);
+		setGuard(new SpelExpressionGuard<S, E>(parser.parseExpression(expression), configuration));
 		return this;
 	}
 
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.config.model;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.context.ResourceLoaderAware;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * {@link StateMachineModelFactory} caching models built by a delegating
+ * factory per machine id. As long as a cached model is used, same model
+ * instance is returned which allows a state machine factory to reuse its
+ * compiled build plan for a model as well.
+ * <p>
+ * Cached model is rebuilt if a delegate reports a different
+ * {@link StateMachineModelFactory#getModelVersion(String) model version}
+ * than what was seen when model was built, or if it is explicitly
+ * invalidated or refreshed. If a delegate doesn't support versions, cached
+ * model is used until invalidated, thus whoever changes a model, for
+ * example updates states and transitions in a repository, should call
+ * {@link #invalidate(String)} or {@link #refresh(String)}.
+ * <p>
+ * Building a model without a machine id is same as building it with
+ * a {@code NULL} machine id.
+ * <p>
+ * Amount of cached models is bounded by {@link #setMaxSize(int)} and a least
+ * recently used model is evicted when a limit is reached. Components keeping
+ * state derived from a cached model can register a {@link ModelRemovalListener}
+ * to get notified when a model is invalidated or evicted.
+ *
+ * @author Janne Valkealahti
+ *
+ * @param <S> the type of state
+ * @param <E> the type of event
+ */
+public class CachingStateMachineModelFactory<S, E>
+		implements StateMachineModelFactory<S, E>, BeanFactoryAware, ResourceLoaderAware {
+
+	private static final Log log = LogFactory.getLog(CachingStateMachineModelFactory.class);
+	private static final Object DEFAULT_KEY = new Object();
+	private static final int DEFAULT_MAX_SIZE = 256;
+	private static final int LOCK_STRIPES = 32;
+	private final StateMachineModelFactory<S, E> delegate;
+	private final ConcurrentHashMap<Object, CachedModel<S, E>> models = new ConcurrentHashMap<>();
+	private final Object[] locks = new Object[LOCK_STRIPES];
+	private final List<ModelRemovalListener> removalListeners = new CopyOnWriteArrayList<>();
+	private volatile int maxSize = DEFAULT_MAX_SIZE;
+	private final AtomicLong accessTick = new AtomicLong();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong buildCount = new AtomicLong();
+	private final AtomicLong buildTimeNanos = new AtomicLong();
+	private volatile long lastBuildTimeNanos;
+
+	/**
+	 * Instantiates a new caching state machine model factory.
+	 *
+	 * @param delegate the delegating state machine model factory
+	 */
+	public CachingStateMachineModelFactory(StateMachineModelFactory<S, E> delegate) {
+		Assert.notNull(delegate, "Delegate model factory must be set");
+		this.delegate = delegate;
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	@Override
+	public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+		if (delegate instanceof BeanFactoryAware) {
+			((BeanFactoryAware) delegate).setBeanFactory(beanFactory);
+		}
+	}
+
+	@Override
+	public void setResourceLoader(ResourceLoader resourceLoader) {
+		if (delegate instanceof ResourceLoaderAware) {
+			((ResourceLoaderAware) delegate).setResourceLoader(resourceLoader);
+		}
+	}
+
+	/**
+	 * Sets the maximum number of cached models. Defaults to {@code 256}.
+	 *
+	 * @param maxSize the maximum number of cached models
+	 */
+	public void setMaxSize(int maxSize) {
+		Assert.isTrue(maxSize > 0, "Max size must be positive");
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Adds a listener notified when a cached model is invalidated or evicted.
+	 *
+	 * @param listener the model removal listener
+	 */
+	public void addModelRemovalListener(ModelRemovalListener listener) {
+		Assert.notNull(listener, "Listener must be set");
+		removalListeners.add(listener);
+	}
+
+	/**
+	 * Removes a model removal listener.
+	 *
+	 * @param listener the model removal listener
+	 */
+	public void removeModelRemovalListener(ModelRemovalListener listener) {
+		removalListeners.remove(listener);
+	}
+
+	/**
+	 * Checks if a model for a machine id is currently cached.
+	 *
+	 * @param machineId the machine id
+	 * @return true, if model is cached
+	 */
+	public boolean isCached(String machineId) {
+		return models.containsKey(machineId != null ? machineId : DEFAULT_KEY);
+	}
+
+	/**
+	 * Gets the number of currently cached models.
+	 *
+	 * @return the cache size
+	 */
+	public int getSize() {
+		return models.size();
+	}
+
+	@Override
+	public StateMachineModel<S, E> build() {
+		return build(null);
+	}
+
+	@Override
+	public StateMachineModel<S, E> build(String machineId) {
+		return resolve(machineId, false);
+	}
+
+	@Override
+	public String getModelVersion(String machineId) {
+		CachedModel<S, E> cached = models.get(machineId != null ? machineId : DEFAULT_KEY);
+		return cached != null ? cached.version : null;
+	}
+
+	/**
+	 * Invalidates a cached model for a machine id. Model is rebuilt next
+	 * time it is requested.
+	 *
+	 * @param machineId the machine id
+	 */
+	public void invalidate(String machineId) {
+		Object key = machineId != null ? machineId : DEFAULT_KEY;
+		if (models.remove(key) != null) {
+			notifyRemoved(key);
+		}
+	}
+
+	/**
+	 * Invalidates all cached models.
+	 */
+	public void invalidateAll() {
+		Iterator<Object> iterator = models.keySet().iterator();
+		while (iterator.hasNext()) {
+			Object key = iterator.next();
+			iterator.remove();
+			notifyRemoved(key);
+		}
+	}
+
+	/**
+	 * Rebuilds a model for a machine id and replaces a cached one. This is a
+	 * hook to be called when a model is known to be changed so that cost of a
+	 * build is not paid when next machine is created.
+	 *
+	 * @param machineId the machine id
+	 * @return the rebuilt state machine model
+	 */
+	public StateMachineModel<S, E> refresh(String machineId) {
+		return resolve(machineId, true);
+	}
+
+	/**
+	 * Gets the count of models returned from a cache.
+	 *
+	 * @return the hit count
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Gets the count of requests which needed a model to be built.
+	 *
+	 * @return the miss count
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Gets the count of models built by a delegate.
+	 *
+	 * @return the build count
+	 */
+	public long getBuildCount() {
+		return buildCount.get();
+	}
+
+	/**
+	 * Gets the total time spent in building models in nanoseconds.
+	 *
+	 * @return the total build time
+	 */
+	public long getBuildTimeNanos() {
+		return buildTimeNanos.get();
+	}
+
+	/**
+	 * Gets the time spent in a latest model build in nanoseconds.
+	 *
+	 * @return the last build time
+	 */
+	public long getLastBuildTimeNanos() {
+		return lastBuildTimeNanos;
+	}
+
+	private StateMachineModel<S, E> resolve(String machineId, boolean force) {
+		Object key = machineId != null ? machineId : DEFAULT_KEY;
+		String version = delegate.getModelVersion(machineId);
+		CachedModel<S, E> cached = models.get(key);
+		if (!force && isValid(cached, version)) {
+			hitCount.incrementAndGet();
+			cached.lastAccess = accessTick.incrementAndGet();
+			return cached.model;
+		}
+		synchronized (lockFor(key)) {
+			// other thread may have built it while we waited
+			cached = models.get(key);
+			if (!force && isValid(cached, version)) {
+				hitCount.incrementAndGet();
+				cached.lastAccess = accessTick.incrementAndGet();
+				return cached.model;
+			}
+			missCount.incrementAndGet();
+			long start = System.nanoTime();
+			StateMachineModel<S, E> model = delegate.build(machineId);
+			long took = System.nanoTime() - start;
+			buildCount.incrementAndGet();
+			buildTimeNanos.addAndGet(took);
+			lastBuildTimeNanos = took;
+			if (log.isDebugEnabled()) {
+				log.debug("Built model for machineId=[" + machineId + "] version=[" + version + "] in " + took + "ns");
+			}
+			models.put(key, new CachedModel<S, E>(model, version, accessTick.incrementAndGet()));
+			evictIfNeeded();
+			return model;
+		}
+	}
+
+	private void evictIfNeeded() {
+		while (models.size() > maxSize) {
+			Entry<Object, CachedModel<S, E>> eldest = null;
+			for (Entry<Object, CachedModel<S, E>> entry : models.entrySet()) {
+				if (eldest == null || entry.getValue().lastAccess < eldest.getValue().lastAccess) {
+					eldest = entry;
+				}
+			}
+			if (eldest == null) {
+				return;
+			}
+			if (models.remove(eldest.getKey(), eldest.getValue())) {
+				if (log.isDebugEnabled()) {
+					log.debug("Evicted model for machineId=[" + toMachineId(eldest.getKey()) + "]");
+				}
+				notifyRemoved(eldest.getKey());
+			}
+		}
+	}
+
+	private void notifyRemoved(Object key) {
+		String machineId = toMachineId(key);
+		for (ModelRemovalListener listener : removalListeners) {
+			listener.modelRemoved(machineId);
+		}
+	}
+
+	private static String toMachineId(Object key) {
+		return key == DEFAULT_KEY ? null : (String) key;
+	}
+
+	private boolean isValid(CachedModel<S, E> cached, String version) {
+		return cached != null && (version == null || ObjectUtils.nullSafeEquals(version, cached.version));
+	}
+
+	private Object lockFor(Object key) {
+		// striped locks so that nothing is kept per machine id
+		return locks[(key.hashCode() & 0x7fffffff) % locks.length];
+	}
+
+	/**
+	 * Listener notified when a model is removed from a cache either
+	 * by invalidation or eviction.
+	 */
+	public interface ModelRemovalListener {
+
+		/**
+		 * Called when a cached model for a machine id is removed.
+		 *
+		 * @param machineId the machine id, {@code NULL} for a default model
+		 */
+		void modelRemoved(String machineId);
+	}
+
+	private static class CachedModel<S, E> {
+
+		final StateMachineModel<S, E> model;
+		final String version;
+		volatile long lastAccess;
+
+		CachedModel(StateMachineModel<S, E> model, String version, long lastAccess) {
+			this.model = model;
+			this.version = version;
+			this.lastAccess = lastAccess;
+		}
+	}
+}
@@ -50,6 +50,9 @@ public class ConfigurationData<S, E> {
 	private final TaskScheduler taskScheduler;
 	private final boolean autoStart;
 	private final TransitionConflictPolicy transitionConflictPolicy;
+	private final boolean pseudoStateDecisionTables;
+	private final Integer maxEventsPerRun;
+	private final boolean structureCaching;
 	private final StateMachineEnsemble<S, E> ensemble;
 	private final List<StateMachineListener<S, E>> listeners;
 	private final boolean securityEnabled;
@@ -130,6 +133,80 @@ public class ConfigurationData<S, E> {
 			SecurityRule eventSecurityRule, SecurityRule transitionSecurityRule, boolean verifierEnabled,
 			StateMachineModelVerifier<S, E> verifier, String machineId, StateMachineMonitor<S, E> stateMachineMonitor,
 			List<StateMachineInterceptor<S, E>> interceptors, TransitionConflictPolicy transitionConflightPolicy) {
+		this(beanFactory, taskExecutor, taskScheduler, autoStart, ensemble, listeners, securityEnabled,
+				transitionSecurityAccessDecisionManager, eventSecurityAccessDecisionManager, eventSecurityRule, transitionSecurityRule,
+				verifierEnabled, verifier, machineId, stateMachineMonitor, interceptors, transitionConflightPolicy, false, null);
+	}
+
+	/**
+	 * Instantiates a new state machine configuration config data.
+	 *
+	 * @param beanFactory the bean factory
+	 * @param taskExecutor the task executor
+	 * @param taskScheduler the task scheduler
+	 * @param autoStart the autostart flag
+	 * @param ensemble the state machine ensemble
+	 * @param listeners the state machine listeners
+	 * @param securityEnabled the security enabled flag
+	 * @param transitionSecurityAccessDecisionManager the transition security access decision manager
+	 * @param eventSecurityAccessDecisionManager the event security access decision manager
+	 * @param eventSecurityRule the event security rule
+	 * @param transitionSecurityRule the transition security rule
+	 * @param verifierEnabled the verifier enabled flag
+	 * @param verifier the state machine model verifier
+	 * @param machineId the machine id
+	 * @param stateMachineMonitor the state machine monitor
+	 * @param interceptors the state machine interceptors.
+	 * @param transitionConflightPolicy the transition conflict policy
+	 * @param pseudoStateDecisionTables the pseudo state decision tables flag
+	 * @param maxEventsPerRun the max events per executor run
+	 */
+	public ConfigurationData(BeanFactory beanFactory, TaskExecutor taskExecutor,
+			TaskScheduler taskScheduler, boolean autoStart, StateMachineEnsemble<S, E> ensemble,
+			List<StateMachineListener<S, E>> listeners, boolean securityEnabled,
+			AccessDecisionManager transitionSecurityAccessDecisionManager, AccessDecisionManager eventSecurityAccessDecisionManager,
+			SecurityRule eventSecurityRule, SecurityRule transitionSecurityRule, boolean verifierEnabled,
+			StateMachineModelVerifier<S, E> verifier, String machineId, StateMachineMonitor<S, E> stateMachineMonitor,
+			List<StateMachineInterceptor<S, E>> interceptors, TransitionConflictPolicy transitionConflightPolicy,
+			boolean pseudoStateDecisionTables, Integer maxEventsPerRun) {
+		this(beanFactory, taskExecutor, taskScheduler, autoStart, ensemble, listeners, securityEnabled,
+				transitionSecurityAccessDecisionManager, eventSecurityAccessDecisionManager, eventSecurityRule, transitionSecurityRule,
+				verifierEnabled, verifier, machineId, stateMachineMonitor, interceptors, transitionConflightPolicy,
+				pseudoStateDecisionTables, maxEventsPerRun, false);
+	}
+
+	/**
+	 * Instantiates a new state machine configuration config data.
+	 *
+	 * @param beanFactory the bean factory
+	 * @param taskExecutor the task executor
+	 * @param taskScheduler the task scheduler
+	 * @param autoStart the autostart flag
+	 * @param ensemble the state machine ensemble
+	 * @param listeners the state machine listeners
+	 * @param securityEnabled the security enabled flag
+	 * @param transitionSecurityAccessDecisionManager the transition security access decision manager
+	 * @param eventSecurityAccessDecisionManager the event security access decision manager
+	 * @param eventSecurityRule the event security rule
+	 * @param transitionSecurityRule the transition security rule
+	 * @param verifierEnabled the verifier enabled flag
+	 * @param verifier the state machine model verifier
+	 * @param machineId the machine id
+	 * @param stateMachineMonitor the state machine monitor
+	 * @param interceptors the state machine interceptors.
+	 * @param transitionConflightPolicy the transition conflict policy
+	 * @param pseudoStateDecisionTables the pseudo state decision tables flag
+	 * @param maxEventsPerRun the max events per executor run
+	 * @param structureCaching the structure caching flag
+	 */
+	public ConfigurationData(BeanFactory beanFactory, TaskExecutor taskExecutor,
+			TaskScheduler taskScheduler, boolean autoStart, StateMachineEnsemble<S, E> ensemble,
+			List<StateMachineListener<S, E>> listeners, boolean securityEnabled,
+			AccessDecisionManager transitionSecurityAccessDecisionManager, AccessDecisionManager eventSecurityAccessDecisionManager,
+			SecurityRule eventSecurityRule, SecurityRule transitionSecurityRule, boolean verifierEnabled,
+			StateMachineModelVerifier<S, E> verifier, String machineId, StateMachineMonitor<S, E> stateMachineMonitor,
+			List<StateMachineInterceptor<S, E>> interceptors, TransitionConflictPolicy transitionConflightPolicy,
+			boolean pseudoStateDecisionTables, Integer maxEventsPerRun, boolean structureCaching) {
 		this.beanFactory = beanFactory;
 		this.taskExecutor = taskExecutor;
 		this.taskScheduler = taskScheduler;
@@ -147,6 +224,9 @@ public class ConfigurationData<S, E> {
 		this.stateMachineMonitor = stateMachineMonitor;
 		this.interceptors = interceptors;
 		this.transitionConflictPolicy = transitionConflightPolicy;
+		this.pseudoStateDecisionTables = pseudoStateDecisionTables;
+		this.maxEventsPerRun = maxEventsPerRun;
+		this.structureCaching = structureCaching;
 	}
 
 	public String getMachineId() {
@@ -296,4 +376,31 @@ public class ConfigurationData<S, E> {
 	public TransitionConflictPolicy getTransitionConflictPolicy() {
 		return transitionConflictPolicy;
 	}
+
+	/**
+	 * Checks if choice and junction pseudo states use decision tables.
+	 *
+	 * @return true, if pseudo state decision tables are enabled
+	 */
+	public boolean isPseudoStateDecisionTables() {
+		return pseudoStateDecisionTables;
+	}
+
+	/**
+	 * Gets the max events processed in one state machine executor run.
+	 *
+	 * @return the max events per run, {@code NULL} if not limited
+	 */
+	public Integer getMaxEventsPerRun() {
+		return maxEventsPerRun;
+	}
+
+	/**
+	 * Checks if a state machine factory caches a resolved machine structure.
+	 *
+	 * @return true, if structure caching is enabled
+	 */
+	public boolean isStructureCaching() {
+		return structureCaching;
+	}
 }
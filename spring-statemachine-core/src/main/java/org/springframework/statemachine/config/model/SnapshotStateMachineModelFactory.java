@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.config.model;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.core.io.Resource;
+import org.springframework.util.Assert;
+
+/**
+ * {@link StateMachineModelFactory} which builds {@link StateMachineModel} from
+ * a snapshot written by {@link StateMachineModelSnapshot}. Actions and guards
+ * referenced by bean id are resolved via this factory which is also a
+ * {@link StateMachineComponentResolver}.
+ *
+ * @author Janne Valkealahti
+ */
+public class SnapshotStateMachineModelFactory extends AbstractStateMachineModelFactory<String, String>
+		implements StateMachineModelFactory<String, String> {
+
+	private Resource resource;
+	private String location;
+
+	/**
+	 * Instantiates a new snapshot state machine model factory.
+	 *
+	 * @param resource the resource
+	 */
+	public SnapshotStateMachineModelFactory(Resource resource) {
+		Assert.notNull(resource, "Resource must be set");
+		this.resource = resource;
+	}
+
+	/**
+	 * Instantiates a new snapshot state machine model factory.
+	 *
+	 * @param location the resource location
+	 */
+	public SnapshotStateMachineModelFactory(String location) {
+		Assert.notNull(location, "Location must be set");
+		this.location = location;
+	}
+
+	@Override
+	public StateMachineModel<String, String> build() {
+		InputStream in = null;
+		try {
+			in = new BufferedInputStream(resolveResource().getInputStream());
+			return StateMachineModelSnapshot.read(in, this);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot build model from resource " + resource + " or location " + location, e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private Resource resolveResource() {
+		if (resource != null) {
+			return resource;
+		} else {
+			return getResourceLoader().getResource(location);
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 the original author or authors.
+ * Copyright 2016-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -42,4 +42,18 @@ public interface StateMachineModelFactory<S, E> {
 	 * @return the state machine model
 	 */
 	StateMachineModel<S, E> build(String machineId);
+
+	/**
+	 * Gets a version of a model for a given {@code machineId}. Version can be
+	 * anything, like a revision number or an etag, which changes when a model
+	 * changes and is cheap to resolve compared to building a whole model. Used
+	 * to invalidate cached models, {@code NULL} indicates that versions are
+	 * not supported.
+	 *
+	 * @param machineId the machine id
+	 * @return the model version or {@code NULL}
+	 */
+	default String getModelVersion(String machineId) {
+		return null;
+	}
 }
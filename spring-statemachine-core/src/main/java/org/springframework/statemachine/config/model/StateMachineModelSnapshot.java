@@ -0,0 +1,521 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.config.model;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.action.Action;
+import org.springframework.statemachine.action.SpelExpressionAction;
+import org.springframework.statemachine.guard.Guard;
+import org.springframework.statemachine.guard.SpelExpressionGuard;
+import org.springframework.statemachine.state.PseudoStateKind;
+import org.springframework.statemachine.transition.TransitionKind;
+
+/**
+ * Utility methods to write a {@link StateMachineModel} into a compact binary
+ * snapshot and to read it back. Snapshot is meant to be produced at build
+ * time from a model which is expensive to parse, like an uml model, so that
+ * at runtime a model can be created without a parser and its dependencies.
+ * <p>
+ * Actions and guards are not serialized, instead snapshot contains a
+ * reference to them which is either a bean id or a spel expression. Bean ids
+ * are resolved via {@link StateMachineComponentResolver} when a snapshot is
+ * read. To write a snapshot a model needs to be parsed with a resolver from
+ * {@link #referenceResolver()} which records bean ids instead of resolving
+ * beans.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public abstract class StateMachineModelSnapshot {
+
+	/** Current snapshot format version */
+	public static final int VERSION = 1;
+	private static final int MAGIC = 0x53534d53;
+	private static final byte REF_NONE = 0;
+	private static final byte REF_BEAN = 1;
+	private static final byte REF_SPEL = 2;
+	private static final SpelParserConfiguration PARSER_CONFIGURATION = new SpelParserConfiguration(SpelCompilerMode.MIXED, null);
+	private static final SpelExpressionParser PARSER = new SpelExpressionParser(PARSER_CONFIGURATION);
+
+	/**
+	 * Gets a {@link StateMachineComponentResolver} which resolves every id
+	 * into a placeholder recording the id. Actions and guards resolved from
+	 * it can only be written into a snapshot, not executed.
+	 *
+	 * @return the reference recording resolver
+	 */
+	public static StateMachineComponentResolver<String, String> referenceResolver() {
+		return new StateMachineComponentResolver<String, String>() {
+
+			@Override
+			public Action<String, String> resolveAction(String id) {
+				return new ActionReference(id);
+			}
+
+			@Override
+			public Guard<String, String> resolveGuard(String id) {
+				return new GuardReference(id);
+			}
+		};
+	}
+
+	/**
+	 * Writes a state machine model into a snapshot. Model cannot contain
+	 * configuration data, security rules or submachine instances and every
+	 * action and guard need to be either a spel expression or a reference
+	 * from {@link #referenceResolver()}.
+	 *
+	 * @param model the state machine model
+	 * @param out the output stream
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws IllegalArgumentException if model cannot be written into a snapshot
+	 */
+	public static void write(StateMachineModel<String, String> model, OutputStream out) throws IOException {
+		if (model.getConfigurationData() != null) {
+			throw new IllegalArgumentException("Model with configuration data cannot be written into a snapshot");
+		}
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		writeStates(data, model.getStatesData() != null ? model.getStatesData().getStateData() : null);
+		TransitionsData<String, String> transitionsData = model.getTransitionsData();
+		if (transitionsData == null) {
+			transitionsData = new TransitionsData<String, String>(null);
+		}
+		Collection<TransitionData<String, String>> transitions = transitionsData.getTransitions();
+		writeSize(data, transitions);
+		if (transitions != null) {
+			for (TransitionData<String, String> t : transitions) {
+				if (t.getSecurityRule() != null) {
+					throw new IllegalArgumentException("Transition with security rule cannot be written into a snapshot");
+				}
+				writeString(data, t.getSource());
+				writeString(data, t.getTarget());
+				writeString(data, t.getState());
+				writeString(data, t.getEvent());
+				data.writeLong(t.getPeriod() != null ? t.getPeriod() : -1);
+				data.writeInt(t.getCount() != null ? t.getCount() : -1);
+				writeActions(data, t.getActions());
+				writeGuard(data, t.getGuard());
+				writeString(data, t.getKind() != null ? t.getKind().name() : null);
+			}
+		}
+		Map<String, List<ChoiceData<String, String>>> choices = transitionsData.getChoices();
+		writeSize(data, choices != null ? choices.entrySet() : null);
+		if (choices != null) {
+			for (Entry<String, List<ChoiceData<String, String>>> entry : choices.entrySet()) {
+				writeString(data, entry.getKey());
+				writeSize(data, entry.getValue());
+				for (ChoiceData<String, String> c : entry.getValue()) {
+					writeString(data, c.getSource());
+					writeString(data, c.getTarget());
+					writeGuard(data, c.getGuard());
+					writeActions(data, c.getActions());
+				}
+			}
+		}
+		Map<String, List<JunctionData<String, String>>> junctions = transitionsData.getJunctions();
+		writeSize(data, junctions != null ? junctions.entrySet() : null);
+		if (junctions != null) {
+			for (Entry<String, List<JunctionData<String, String>>> entry : junctions.entrySet()) {
+				writeString(data, entry.getKey());
+				writeSize(data, entry.getValue());
+				for (JunctionData<String, String> j : entry.getValue()) {
+					writeString(data, j.getSource());
+					writeString(data, j.getTarget());
+					writeGuard(data, j.getGuard());
+					writeActions(data, j.getActions());
+				}
+			}
+		}
+		writeStringsMap(data, transitionsData.getForks());
+		writeStringsMap(data, transitionsData.getJoins());
+		Collection<EntryData<String, String>> entrys = transitionsData.getEntrys();
+		writeSize(data, entrys);
+		if (entrys != null) {
+			for (EntryData<String, String> e : entrys) {
+				writeString(data, e.getSource());
+				writeString(data, e.getTarget());
+			}
+		}
+		Collection<ExitData<String, String>> exits = transitionsData.getExits();
+		writeSize(data, exits);
+		if (exits != null) {
+			for (ExitData<String, String> e : exits) {
+				writeString(data, e.getSource());
+				writeString(data, e.getTarget());
+			}
+		}
+		Collection<HistoryData<String, String>> historys = transitionsData.getHistorys();
+		writeSize(data, historys);
+		if (historys != null) {
+			for (HistoryData<String, String> h : historys) {
+				writeString(data, h.getSource());
+				writeString(data, h.getTarget());
+			}
+		}
+		data.flush();
+	}
+
+	/**
+	 * Reads a state machine model from a snapshot.
+	 *
+	 * @param in the input stream
+	 * @param resolver the resolver for action and guard bean ids
+	 * @return the state machine model
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws IllegalArgumentException if stream is not a supported snapshot
+	 */
+	public static StateMachineModel<String, String> read(InputStream in,
+			StateMachineComponentResolver<String, String> resolver) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC) {
+			throw new IllegalArgumentException("Not a state machine model snapshot");
+		}
+		int version = data.readInt();
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported snapshot version " + version + ", expected " + VERSION);
+		}
+		Collection<StateData<String, String>> stateData = readStates(data, resolver);
+		Collection<TransitionData<String, String>> transitions = null;
+		int size = data.readInt();
+		if (size > -1) {
+			transitions = new ArrayList<TransitionData<String, String>>(size);
+			for (int i = 0; i < size; i++) {
+				String source = readString(data);
+				String target = readString(data);
+				String state = readString(data);
+				String event = readString(data);
+				long period = data.readLong();
+				int count = data.readInt();
+				Collection<Action<String, String>> actions = readActions(data, resolver);
+				Guard<String, String> guard = readGuard(data, resolver);
+				String kind = readString(data);
+				transitions.add(new TransitionData<String, String>(source, target, state, event,
+						period > -1 ? period : null, count > -1 ? count : null, actions, guard,
+						kind != null ? TransitionKind.valueOf(kind) : null, null));
+			}
+		}
+		Map<String, List<ChoiceData<String, String>>> choices = null;
+		size = data.readInt();
+		if (size > -1) {
+			choices = new LinkedHashMap<String, List<ChoiceData<String, String>>>();
+			for (int i = 0; i < size; i++) {
+				String key = readString(data);
+				int listSize = data.readInt();
+				List<ChoiceData<String, String>> list = new ArrayList<ChoiceData<String, String>>(listSize);
+				for (int j = 0; j < listSize; j++) {
+					String source = readString(data);
+					String target = readString(data);
+					Guard<String, String> guard = readGuard(data, resolver);
+					list.add(new ChoiceData<String, String>(source, target, guard, readActions(data, resolver)));
+				}
+				choices.put(key, list);
+			}
+		}
+		Map<String, List<JunctionData<String, String>>> junctions = null;
+		size = data.readInt();
+		if (size > -1) {
+			junctions = new LinkedHashMap<String, List<JunctionData<String, String>>>();
+			for (int i = 0; i < size; i++) {
+				String key = readString(data);
+				int listSize = data.readInt();
+				List<JunctionData<String, String>> list = new ArrayList<JunctionData<String, String>>(listSize);
+				for (int j = 0; j < listSize; j++) {
+					String source = readString(data);
+					String target = readString(data);
+					Guard<String, String> guard = readGuard(data, resolver);
+					list.add(new JunctionData<String, String>(source, target, guard, readActions(data, resolver)));
+				}
+				junctions.put(key, list);
+			}
+		}
+		Map<String, List<String>> forks = readStringsMap(data);
+		Map<String, List<String>> joins = readStringsMap(data);
+		Collection<EntryData<String, String>> entrys = null;
+		size = data.readInt();
+		if (size > -1) {
+			entrys = new ArrayList<EntryData<String, String>>(size);
+			for (int i = 0; i < size; i++) {
+				entrys.add(new EntryData<String, String>(readString(data), readString(data)));
+			}
+		}
+		Collection<ExitData<String, String>> exits = null;
+		size = data.readInt();
+		if (size > -1) {
+			exits = new ArrayList<ExitData<String, String>>(size);
+			for (int i = 0; i < size; i++) {
+				exits.add(new ExitData<String, String>(readString(data), readString(data)));
+			}
+		}
+		Collection<HistoryData<String, String>> historys = null;
+		size = data.readInt();
+		if (size > -1) {
+			historys = new ArrayList<HistoryData<String, String>>(size);
+			for (int i = 0; i < size; i++) {
+				historys.add(new HistoryData<String, String>(readString(data), readString(data)));
+			}
+		}
+		return new DefaultStateMachineModel<String, String>(null, new StatesData<String, String>(stateData),
+				new TransitionsData<String, String>(transitions, choices, junctions, forks, joins, entrys, exits, historys));
+	}
+
+	private static void writeStates(DataOutputStream data, Collection<StateData<String, String>> states) throws IOException {
+		writeSize(data, states);
+		if (states == null) {
+			return;
+		}
+		for (StateData<String, String> s : states) {
+			if (s.getSubmachine() != null || s.getSubmachineFactory() != null) {
+				throw new IllegalArgumentException("State " + s.getState() + " with a submachine instance cannot be written into a snapshot");
+			}
+			writeString(data, toString(s.getParent(), "parent"));
+			writeString(data, toString(s.getRegion(), "region"));
+			writeString(data, s.getState());
+			data.writeBoolean(s.isInitial());
+			data.writeBoolean(s.isEnd());
+			writeString(data, s.getPseudoStateKind() != null ? s.getPseudoStateKind().name() : null);
+			Collection<String> deferred = s.getDeferred();
+			writeSize(data, deferred);
+			if (deferred != null) {
+				for (String d : deferred) {
+					writeString(data, d);
+				}
+			}
+			writeActions(data, s.getEntryActions());
+			writeActions(data, s.getExitActions());
+			writeActions(data, s.getStateActions());
+			writeAction(data, s.getInitialAction());
+			writeStates(data, s.getSubmachineStateData());
+		}
+	}
+
+	private static Collection<StateData<String, String>> readStates(DataInputStream data,
+			StateMachineComponentResolver<String, String> resolver) throws IOException {
+		int size = data.readInt();
+		if (size < 0) {
+			return null;
+		}
+		Collection<StateData<String, String>> states = new ArrayList<StateData<String, String>>(size);
+		for (int i = 0; i < size; i++) {
+			String parent = readString(data);
+			String region = readString(data);
+			String state = readString(data);
+			StateData<String, String> s = new StateData<String, String>(parent, region, state, data.readBoolean());
+			s.setEnd(data.readBoolean());
+			String kind = readString(data);
+			s.setPseudoStateKind(kind != null ? PseudoStateKind.valueOf(kind) : null);
+			int deferredSize = data.readInt();
+			if (deferredSize > -1) {
+				Collection<String> deferred = new ArrayList<String>(deferredSize);
+				for (int j = 0; j < deferredSize; j++) {
+					deferred.add(readString(data));
+				}
+				s.setDeferred(deferred);
+			}
+			s.setEntryActions(readActions(data, resolver));
+			s.setExitActions(readActions(data, resolver));
+			s.setStateActions(readActions(data, resolver));
+			s.setInitialAction(readAction(data, resolver));
+			s.setSubmachineStateData(readStates(data, resolver));
+			states.add(s);
+		}
+		return states;
+	}
+
+	private static void writeActions(DataOutputStream data, Collection<? extends Action<String, String>> actions)
+			throws IOException {
+		writeSize(data, actions);
+		if (actions != null) {
+			for (Action<String, String> action : actions) {
+				writeAction(data, action);
+			}
+		}
+	}
+
+	private static Collection<Action<String, String>> readActions(DataInputStream data,
+			StateMachineComponentResolver<String, String> resolver) throws IOException {
+		int size = data.readInt();
+		if (size < 0) {
+			return null;
+		}
+		Collection<Action<String, String>> actions = new ArrayList<Action<String, String>>(size);
+		for (int i = 0; i < size; i++) {
+			Action<String, String> action = readAction(data, resolver);
+			// unresolved bean is skipped same way as with a parser
+			if (action != null) {
+				actions.add(action);
+			}
+		}
+		return actions;
+	}
+
+	private static void writeAction(DataOutputStream data, Action<String, String> action) throws IOException {
+		if (action == null) {
+			data.writeByte(REF_NONE);
+		} else if (action instanceof ActionReference) {
+			data.writeByte(REF_BEAN);
+			data.writeUTF(((ActionReference) action).id);
+		} else if (action instanceof SpelExpressionAction) {
+			data.writeByte(REF_SPEL);
+			data.writeUTF(((SpelExpressionAction<String, String>) action).getExpressionString());
+		} else {
+			throw new IllegalArgumentException("Action " + action + " cannot be written into a snapshot");
+		}
+	}
+
+	private static Action<String, String> readAction(DataInputStream data,
+			StateMachineComponentResolver<String, String> resolver) throws IOException {
+		byte type = data.readByte();
+		if (type == REF_BEAN) {
+			return resolver.resolveAction(data.readUTF());
+		} else if (type == REF_SPEL) {
+			return new SpelExpressionAction<String, String>(PARSER.parseExpression(data.readUTF()), PARSER_CONFIGURATION);
+		}
+		return null;
+	}
+
+	private static void writeGuard(DataOutputStream data, Guard<String, String> guard) throws IOException {
+		if (guard == null) {
+			data.writeByte(REF_NONE);
+		} else if (guard instanceof GuardReference) {
+			data.writeByte(REF_BEAN);
+			data.writeUTF(((GuardReference) guard).id);
+		} else if (guard instanceof SpelExpressionGuard) {
+			data.writeByte(REF_SPEL);
+			data.writeUTF(((SpelExpressionGuard<String, String>) guard).getExpressionString());
+		} else {
+			throw new IllegalArgumentException("Guard " + guard + " cannot be written into a snapshot");
+		}
+	}
+
+	private static Guard<String, String> readGuard(DataInputStream data,
+			StateMachineComponentResolver<String, String> resolver) throws IOException {
+		byte type = data.readByte();
+		if (type == REF_BEAN) {
+			return resolver.resolveGuard(data.readUTF());
+		} else if (type == REF_SPEL) {
+			return new SpelExpressionGuard<String, String>(PARSER.parseExpression(data.readUTF()), PARSER_CONFIGURATION);
+		}
+		return null;
+	}
+
+	private static void writeStringsMap(DataOutputStream data, Map<String, List<String>> map) throws IOException {
+		writeSize(data, map != null ? map.entrySet() : null);
+		if (map != null) {
+			for (Entry<String, List<String>> entry : map.entrySet()) {
+				writeString(data, entry.getKey());
+				writeSize(data, entry.getValue());
+				for (String value : entry.getValue()) {
+					writeString(data, value);
+				}
+			}
+		}
+	}
+
+	private static Map<String, List<String>> readStringsMap(DataInputStream data) throws IOException {
+		int size = data.readInt();
+		if (size < 0) {
+			return null;
+		}
+		Map<String, List<String>> map = new LinkedHashMap<String, List<String>>();
+		for (int i = 0; i < size; i++) {
+			String key = readString(data);
+			int listSize = data.readInt();
+			List<String> list = new ArrayList<String>(listSize);
+			for (int j = 0; j < listSize; j++) {
+				list.add(readString(data));
+			}
+			map.put(key, list);
+		}
+		return map;
+	}
+
+	private static void writeSize(DataOutputStream data, Collection<?> collection) throws IOException {
+		data.writeInt(collection != null ? collection.size() : -1);
+	}
+
+	private static void writeString(DataOutputStream data, String value) throws IOException {
+		data.writeBoolean(value != null);
+		if (value != null) {
+			data.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream data) throws IOException {
+		return data.readBoolean() ? data.readUTF() : null;
+	}
+
+	private static String toString(Object value, String name) {
+		if (value == null || value instanceof String) {
+			return (String) value;
+		}
+		throw new IllegalArgumentException("State " + name + " " + value + " is not a string and cannot be written into a snapshot");
+	}
+
+	private static class ActionReference implements Action<String, String> {
+
+		final String id;
+
+		ActionReference(String id) {
+			this.id = id;
+		}
+
+		@Override
+		public void execute(StateContext<String, String> context) {
+			throw new UnsupportedOperationException("Reference to action " + id + " cannot be executed");
+		}
+
+		@Override
+		public String toString() {
+			return "ActionReference [id=" + id + "]";
+		}
+	}
+
+	private static class GuardReference implements Guard<String, String> {
+
+		final String id;
+
+		GuardReference(String id) {
+			this.id = id;
+		}
+
+		@Override
+		public boolean evaluate(StateContext<String, String> context) {
+			throw new UnsupportedOperationException("Reference to guard " + id + " cannot be evaluated");
+		}
+
+		@Override
+		public String toString() {
+			return "GuardReference [id=" + id + "]";
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -79,4 +79,20 @@ public class CompositeEnsembleListener<S, E> extends AbstractCompositeListener<E
 			listener.ensembleLeaderRevoked(stateMachine);
 		}
 	}
+
+	@Override
+	public void stateWriteConflict(StateMachineContext<S, E> context, StateMachineEnsembleException exception) {
+		for (Iterator<EnsembleListener<S, E>> iterator = getListeners().reverse(); iterator.hasNext();) {
+			EnsembleListener<S, E> listener = iterator.next();
+			listener.stateWriteConflict(context, exception);
+		}
+	}
+
+	@Override
+	public void stateWriteRetry(int attempt, StateMachineEnsembleException exception) {
+		for (Iterator<EnsembleListener<S, E>> iterator = getListeners().reverse(); iterator.hasNext();) {
+			EnsembleListener<S, E> listener = iterator.next();
+			listener.stateWriteRetry(attempt, exception);
+		}
+	}
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,6 +17,7 @@ package org.springframework.statemachine.ensemble;
 
 import java.util.Collection;
 import java.util.UUID;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -105,8 +106,14 @@ public class DistributedStateMachine<S, E> extends LifecycleObjectSupport implem
 	public boolean sendEvent(Message<E> event) {
 		// adding state machine id to the message so that
 		// listeners can know from where a state change originates
-		return delegate.sendEvent(MessageBuilder.fromMessage(event)
-				.setHeader(StateMachineSystemConstants.STATEMACHINE_IDENTIFIER, delegate.getUuid()).build());
+		Message<E> message = MessageBuilder.fromMessage(event)
+				.setHeader(StateMachineSystemConstants.STATEMACHINE_IDENTIFIER, delegate.getUuid()).build();
+		// ensemble may want some other member to run transitions
+		Boolean forwarded = ensemble.forwardEvent(this, message);
+		if (forwarded != null) {
+			return forwarded;
+		}
+		return delegate.sendEvent(message);
 	}
 
 	@Override
@@ -256,6 +263,8 @@ public class DistributedStateMachine<S, E> extends LifecycleObjectSupport implem
 	 */
 	private class LocalEnsembleListener implements EnsembleListener<S, E> {
 
+		private volatile StateMachineEnsembleException lastWriteConflict;
+
 		@Override
 		public void stateMachineJoined(final StateMachine<S, E> stateMachine, final StateMachineContext<S, E> context) {
 			if (log.isDebugEnabled()) {
@@ -319,6 +328,47 @@ public class DistributedStateMachine<S, E> extends LifecycleObjectSupport implem
 		@Override
 		public void ensembleLeaderRevoked(StateMachine<S, E> stateMachine) {
 		}
+
+		@Override
+		public void stateWriteConflict(StateMachineContext<S, E> context, StateMachineEnsembleException exception) {
+			// our own state didn't make it into an ensemble, thus bring
+			// delegating machine back to what ensemble currently has.
+			if (context.getEventHeaders() == null || !ObjectUtils.nullSafeEquals(delegate.getUuid(),
+					context.getEventHeaders().get(StateMachineSystemConstants.STATEMACHINE_IDENTIFIER))) {
+				return;
+			}
+			// all writes discarded by one conflict share an exception,
+			// reset only once for those
+			if (exception == lastWriteConflict) {
+				return;
+			}
+			lastWriteConflict = exception;
+			final StateMachineContext<S, E> current = ensemble.getState();
+			log.warn("State write conflict, resetting delegating machine to " + current, exception);
+			// serialise with event processing so that reset doesn't
+			// happen in a middle of a transition
+			Lock lock = delegate.getStateMachineAccessor().withRegion().getExecutorLock();
+			if (lock != null) {
+				lock.lock();
+			}
+			try {
+				delegate.stop();
+				if (current != null) {
+					delegate.getStateMachineAccessor().doWithAllRegions(new StateMachineFunction<StateMachineAccess<S, E>>() {
+
+						@Override
+						public void apply(StateMachineAccess<S, E> function) {
+							function.resetStateMachine(current);
+						}
+					});
+				}
+				delegate.start();
+			} finally {
+				if (lock != null) {
+					lock.unlock();
+				}
+			}
+		}
 	}
 
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -84,4 +84,28 @@ public interface EnsembleListener<S, E> {
 	 * @param stateMachine the state machine
 	 */
 	void ensembleLeaderRevoked(StateMachine<S, E> stateMachine);
+
+	/**
+	 * Called when a state written asynchronously into an ensemble was
+	 * rejected because ensemble state had been changed by some other
+	 * party, or was discarded because a write preceding it was rejected.
+	 * Rejected writes are not retried as those were based on a state which
+	 * is no longer current. All writes discarded due to one conflict are
+	 * reported with a same exception instance.
+	 *
+	 * @param context the state machine context which was not written
+	 * @param exception the exception
+	 */
+	default void stateWriteConflict(StateMachineContext<S, E> context, StateMachineEnsembleException exception) {
+	}
+
+	/**
+	 * Called when an asynchronous state write into an ensemble failed for
+	 * other reason than a conflict and is about to be retried.
+	 *
+	 * @param attempt the number of failed attempts so far
+	 * @param exception the exception
+	 */
+	default void stateWriteRetry(int attempt, StateMachineEnsembleException exception) {
+	}
 }
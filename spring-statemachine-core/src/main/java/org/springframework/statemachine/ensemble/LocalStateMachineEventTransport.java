@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.ensemble;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.messaging.Message;
+import org.springframework.util.Assert;
+
+/**
+ * {@link StateMachineEventTransport} delivering events to receivers
+ * registered within a same JVM. Events are delivered on a calling thread.
+ * Mostly useful for testing and for ensembles whose members all live in
+ * one process.
+ *
+ * @author Janne Valkealahti
+ *
+ * @param <E> the type of event
+ */
+public class LocalStateMachineEventTransport<E> implements StateMachineEventTransport<E> {
+
+	private final Map<String, EventReceiver<E>> receivers = new ConcurrentHashMap<String, EventReceiver<E>>();
+
+	@Override
+	public void register(String memberId, EventReceiver<E> receiver) {
+		Assert.notNull(memberId, "Member id must be set");
+		Assert.notNull(receiver, "Receiver must be set");
+		receivers.put(memberId, receiver);
+	}
+
+	@Override
+	public void unregister(String memberId) {
+		receivers.remove(memberId);
+	}
+
+	@Override
+	public boolean forward(String memberId, Message<E> event) {
+		EventReceiver<E> receiver = memberId != null ? receivers.get(memberId) : null;
+		return receiver != null && receiver.receive(event);
+	}
+}
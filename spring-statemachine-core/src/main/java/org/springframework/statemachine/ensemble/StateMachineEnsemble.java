@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,6 +15,7 @@
  */
 package org.springframework.statemachine.ensemble;
 
+import org.springframework.messaging.Message;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.StateMachineContext;
 
@@ -88,4 +89,19 @@ public interface StateMachineEnsemble<S, E> {
 	 * @return the ensemble leader
 	 */
 	StateMachine<S, E> getLeader();
+
+	/**
+	 * Forward an event sent to a given state machine if this ensemble
+	 * requires an event to be processed elsewhere, for example by an
+	 * ensemble leader. Returning {@code NULL} indicates that a given state
+	 * machine should process an event itself which is a default behaviour.
+	 *
+	 * @param stateMachine the state machine event was sent to
+	 * @param event the event
+	 * @return {@code NULL} if event is not forwarded, otherwise true if
+	 *         forwarded event was accepted
+	 */
+	default Boolean forwardEvent(StateMachine<S, E> stateMachine, Message<E> event) {
+		return null;
+	}
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -77,4 +77,12 @@ public abstract class StateMachineEnsembleObjectSupport<S, E> extends LifecycleO
 		}
 		ensembleListener.stateChanged(context);
 	}
+
+	protected void notifyStateWriteConflict(StateMachineContext<S, E> context, StateMachineEnsembleException exception) {
+		ensembleListener.stateWriteConflict(context, exception);
+	}
+
+	protected void notifyStateWriteRetry(int attempt, StateMachineEnsembleException exception) {
+		ensembleListener.stateWriteRetry(attempt, exception);
+	}
 }
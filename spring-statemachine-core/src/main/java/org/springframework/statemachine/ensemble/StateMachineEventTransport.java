@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.ensemble;
+
+import org.springframework.messaging.Message;
+
+/**
+ * {@code StateMachineEventTransport} is a strategy interface used by a
+ * {@link StateMachineEnsemble} to forward events between ensemble members,
+ * for example from a follower to a leader.
+ *
+ * @author Janne Valkealahti
+ *
+ * @param <E> the type of event
+ */
+public interface StateMachineEventTransport<E> {
+
+	/**
+	 * Register a receiver for events forwarded to a given member.
+	 *
+	 * @param memberId the member id
+	 * @param receiver the event receiver
+	 */
+	void register(String memberId, EventReceiver<E> receiver);
+
+	/**
+	 * Unregister a receiver of a given member.
+	 *
+	 * @param memberId the member id
+	 */
+	void unregister(String memberId);
+
+	/**
+	 * Forward an event to a given member.
+	 *
+	 * @param memberId the member id
+	 * @param event the event
+	 * @return true if event was accepted by a member
+	 */
+	boolean forward(String memberId, Message<E> event);
+
+	/**
+	 * Callback receiving forwarded events.
+	 *
+	 * @param <E> the type of event
+	 */
+	interface EventReceiver<E> {
+
+		/**
+		 * Receive a forwarded event.
+		 *
+		 * @param event the event
+		 * @return true if event was accepted
+		 */
+		boolean receive(Message<E> event);
+	}
+}
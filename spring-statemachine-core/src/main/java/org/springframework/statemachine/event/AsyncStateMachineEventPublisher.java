@@ -0,0 +1,415 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.event;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * {@link StateMachineEventPublisher} which buffers state machine events into a
+ * bounded queue and publishes those in batches from a dedicated thread, thus
+ * application listeners are not run on a thread executing transitions.
+ * <p>
+ * What happens when a queue is full is defined by {@link OverflowPolicy}.
+ * Published, dropped and coalesced events are counted and exposed via
+ * getters. Events are always published in an order those were queued and a
+ * coalesced extended state change replaces a pending change of a same
+ * variable in its place, thus an older value is never published after a
+ * newer one.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class AsyncStateMachineEventPublisher extends DefaultStateMachineEventPublisher
+		implements InitializingBean, DisposableBean {
+
+	private static final Log log = LogFactory.getLog(AsyncStateMachineEventPublisher.class);
+	private final int capacity;
+	private final ArrayDeque<Slot> queue = new ArrayDeque<>();
+	private final Map<CoalescingKey, Slot> pendingChanges = new HashMap<>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition terminated = lock.newCondition();
+	private final AtomicLong publishedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private int batchSize = 64;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.COALESCE;
+	private ThreadFactory threadFactory;
+	private State state = State.NEW;
+	private Thread publisherThread;
+
+	private enum State {
+		NEW, RUNNING, STOPPING, STOPPED
+	}
+
+	/**
+	 * Policy used when an event is published and queue is full.
+	 */
+	public enum OverflowPolicy {
+
+		/** Event is dropped. */
+		DROP,
+
+		/**
+		 * Extended state changes are coalesced so that only latest value
+		 * per machine and key is published, other events are dropped.
+		 */
+		COALESCE,
+
+		/** Event is published on a calling thread. */
+		CALLER_RUNS
+	}
+
+	/**
+	 * Instantiates a new async state machine event publisher with a queue
+	 * capacity of 1024 events.
+	 */
+	public AsyncStateMachineEventPublisher() {
+		this(1024);
+	}
+
+	/**
+	 * Instantiates a new async state machine event publisher.
+	 *
+	 * @param capacity the queue capacity
+	 */
+	public AsyncStateMachineEventPublisher(int capacity) {
+		this(null, capacity);
+	}
+
+	/**
+	 * Instantiates a new async state machine event publisher.
+	 *
+	 * @param applicationEventPublisher the application event publisher
+	 * @param capacity the queue capacity
+	 */
+	public AsyncStateMachineEventPublisher(ApplicationEventPublisher applicationEventPublisher, int capacity) {
+		super(applicationEventPublisher);
+		Assert.isTrue(capacity > 0, "Capacity must be greater than zero");
+		this.capacity = capacity;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		start();
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		stop();
+	}
+
+	/**
+	 * Starts a publisher thread. This is automatically done when events are
+	 * published for a first time.
+	 */
+	public void start() {
+		lock.lock();
+		try {
+			// let a stopping thread to finish before starting a new one
+			while (state == State.STOPPING) {
+				terminated.awaitUninterruptibly();
+			}
+			if (state != State.RUNNING) {
+				startInternal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops a publisher thread after events already queued have been
+	 * published. Events published after stop are published on a calling
+	 * thread until publisher is started again.
+	 */
+	public void stop() {
+		lock.lock();
+		try {
+			if (state != State.RUNNING) {
+				return;
+			}
+			state = State.STOPPING;
+			notEmpty.signal();
+			long nanos = TimeUnit.SECONDS.toNanos(10);
+			while (state == State.STOPPING && nanos > 0) {
+				nanos = terminated.awaitNanos(nanos);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sets the maximum number of events published in one batch. Default
+	 * is 64.
+	 *
+	 * @param batchSize the new batch size
+	 */
+	public void setBatchSize(int batchSize) {
+		Assert.isTrue(batchSize > 0, "Batch size must be greater than zero");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Sets the overflow policy. Default is {@link OverflowPolicy#COALESCE}.
+	 *
+	 * @param overflowPolicy the new overflow policy
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		Assert.notNull(overflowPolicy, "Overflow policy must be set");
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Sets the thread factory used to create a publisher thread. Default
+	 * creates a daemon thread.
+	 *
+	 * @param threadFactory the new thread factory
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+
+	/**
+	 * Gets the count of events published into application context.
+	 *
+	 * @return the published count
+	 */
+	public long getPublishedCount() {
+		return publishedCount.get();
+	}
+
+	/**
+	 * Gets the count of events dropped because queue was full.
+	 *
+	 * @return the dropped count
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Gets the count of extended state change events replaced by a newer
+	 * change of a same variable because queue was full.
+	 *
+	 * @return the coalesced count
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * Gets the count of events currently waiting to be published.
+	 *
+	 * @return the pending count
+	 */
+	public int getPendingCount() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	protected void publishEvent(StateMachineEvent event) {
+		boolean callerRuns = false;
+		lock.lock();
+		try {
+			if (state == State.STOPPED) {
+				callerRuns = true;
+			} else {
+				if (state == State.NEW) {
+					startInternal();
+				}
+				// while stopping we still queue as publisher thread only
+				// exits after it has seen an empty queue under this lock
+				callerRuns = !enqueue(event);
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (callerRuns) {
+			deliver(event);
+		}
+	}
+
+	/**
+	 * Queues an event according to overflow policy. Needs to be called
+	 * while holding a lock.
+	 *
+	 * @param event the event
+	 * @return false if event should be published by a caller
+	 */
+	private boolean enqueue(StateMachineEvent event) {
+		CoalescingKey key = null;
+		if (overflowPolicy == OverflowPolicy.COALESCE && event instanceof OnExtendedStateChanged) {
+			OnExtendedStateChanged changed = (OnExtendedStateChanged) event;
+			key = new CoalescingKey(changed.getSource(), changed.getKey());
+		}
+		if (queue.size() < capacity) {
+			append(event, key);
+			return true;
+		}
+		if (overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+			return false;
+		} else if (key != null) {
+			Slot pending = pendingChanges.get(key);
+			if (pending != null) {
+				// replace pending older value in its place
+				pending.event = event;
+				coalescedCount.incrementAndGet();
+			} else {
+				// queue may go over capacity by one change per variable
+				append(event, key);
+			}
+		} else {
+			droppedCount.incrementAndGet();
+		}
+		return true;
+	}
+
+	private void append(StateMachineEvent event, CoalescingKey key) {
+		Slot slot = new Slot(event, key);
+		queue.add(slot);
+		if (key != null) {
+			pendingChanges.put(key, slot);
+		}
+		notEmpty.signal();
+	}
+
+	private void startInternal() {
+		ThreadFactory factory = threadFactory;
+		if (factory == null) {
+			CustomizableThreadFactory customizableThreadFactory = new CustomizableThreadFactory("statemachine-events-");
+			customizableThreadFactory.setDaemon(true);
+			factory = customizableThreadFactory;
+		}
+		state = State.RUNNING;
+		publisherThread = factory.newThread(new Runnable() {
+
+			@Override
+			public void run() {
+				drainLoop();
+			}
+		});
+		publisherThread.start();
+	}
+
+	private void drainLoop() {
+		List<StateMachineEvent> batch = new ArrayList<>(batchSize);
+		while (true) {
+			lock.lock();
+			try {
+				while (queue.isEmpty()) {
+					if (state != State.RUNNING) {
+						state = State.STOPPED;
+						publisherThread = null;
+						terminated.signalAll();
+						return;
+					}
+					notEmpty.awaitUninterruptibly();
+				}
+				while (batch.size() < batchSize && !queue.isEmpty()) {
+					Slot slot = queue.poll();
+					if (slot.key != null && pendingChanges.get(slot.key) == slot) {
+						pendingChanges.remove(slot.key);
+					}
+					batch.add(slot.event);
+				}
+			} finally {
+				lock.unlock();
+			}
+			for (StateMachineEvent event : batch) {
+				deliver(event);
+			}
+			batch.clear();
+		}
+	}
+
+	private void deliver(StateMachineEvent event) {
+		try {
+			super.publishEvent(event);
+			publishedCount.incrementAndGet();
+		} catch (Throwable e) {
+			log.error("Error publishing event " + event, e);
+		}
+	}
+
+	/**
+	 * Queued event, an extended state change in it may be replaced by a
+	 * newer change of a same variable until it is taken for publishing.
+	 */
+	private static class Slot {
+		StateMachineEvent event;
+		final CoalescingKey key;
+
+		Slot(StateMachineEvent event, CoalescingKey key) {
+			this.event = event;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Key for coalescing extended state changes by machine identity and
+	 * variable key.
+	 */
+	private static class CoalescingKey {
+		final Object source;
+		final Object key;
+
+		CoalescingKey(Object source, Object key) {
+			this.source = source;
+			this.key = key;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(source) + ObjectUtils.nullSafeHashCode(key);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CoalescingKey)) {
+				return false;
+			}
+			CoalescingKey other = (CoalescingKey) obj;
+			return source == other.source && ObjectUtils.nullSafeEquals(key, other.key);
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -55,78 +55,88 @@ public class DefaultStateMachineEventPublisher implements StateMachineEventPubli
 	@Override
 	public void publishStateChanged(Object source, State<?, ?> sourceState, State<?, ?> targetState) {
 		if (applicationEventPublisher != null) {
-			applicationEventPublisher.publishEvent(new OnStateChangedEvent(source, sourceState, targetState));
+			publishEvent(new OnStateChangedEvent(source, sourceState, targetState));
 		}
 	}
 
 	@Override
 	public void publishStateEntered(Object source, State<?, ?> state) {
 		if (applicationEventPublisher != null) {
-			applicationEventPublisher.publishEvent(new OnStateEntryEvent(source, state));
+			publishEvent(new OnStateEntryEvent(source, state));
 		}
 	}
 
 	@Override
 	public void publishStateExited(Object source, State<?, ?> state) {
 		if (applicationEventPublisher != null) {
-			applicationEventPublisher.publishEvent(new OnStateExitEvent(source, state));
+			publishEvent(new OnStateExitEvent(source, state));
 		}
 	}
 
 	@Override
 	public void publishEventNotAccepted(Object source, Message<?> event) {
 		if (applicationEventPublisher != null) {
-			applicationEventPublisher.publishEvent(new OnEventNotAcceptedEvent(source, event));
+			publishEvent(new OnEventNotAcceptedEvent(source, event));
 		}
 	}
 
 	@Override
 	public void publishTransitionStart(Object source, Transition<?, ?> transition) {
 		if (applicationEventPublisher != null) {
-			applicationEventPublisher.publishEvent(new OnTransitionStartEvent(source, transition));
+			publishEvent(new OnTransitionStartEvent(source, transition));
 		}
 	}
 
 	@Override
 	public void publishTransitionEnd(Object source, Transition<?, ?> transition) {
 		if (applicationEventPublisher != null) {
-			applicationEventPublisher.publishEvent(new OnTransitionEndEvent(source, transition));
+			publishEvent(new OnTransitionEndEvent(source, transition));
 		}
 	}
 
 	@Override
 	public void publishTransition(Object source, Transition<?, ?> transition) {
 		if (applicationEventPublisher != null) {
-			applicationEventPublisher.publishEvent(new OnTransitionEvent(source, transition));
+			publishEvent(new OnTransitionEvent(source, transition));
 		}
 	}
 
 	@Override
 	public void publishStateMachineStart(Object source, StateMachine<?, ?> stateMachine) {
 		if (applicationEventPublisher != null) {
-			applicationEventPublisher.publishEvent(new OnStateMachineStart(source, stateMachine));
+			publishEvent(new OnStateMachineStart(source, stateMachine));
 		}
 	}
 
 	@Override
 	public void publishStateMachineStop(Object source, StateMachine<?, ?> stateMachine) {
 		if (applicationEventPublisher != null) {
-			applicationEventPublisher.publishEvent(new OnStateMachineStop(source, stateMachine));
+			publishEvent(new OnStateMachineStop(source, stateMachine));
 		}
 	}
 
 	@Override
 	public void publishStateMachineError(Object source, StateMachine<?, ?> stateMachine, Exception exception) {
 		if (applicationEventPublisher != null) {
-			applicationEventPublisher.publishEvent(new OnStateMachineError(source, stateMachine, exception));
+			publishEvent(new OnStateMachineError(source, stateMachine, exception));
 		}
 	}
 
 	@Override
 	public void publishExtendedStateChanged(Object source, Object key, Object value) {
 		if (applicationEventPublisher != null) {
-			applicationEventPublisher.publishEvent(new OnExtendedStateChanged(source, key, value));
+			publishEvent(new OnExtendedStateChanged(source, key, value));
 		}
 	}
 
+	/**
+	 * Publish a state machine event into an {@link ApplicationEventPublisher}.
+	 * Called only if application event publisher has been set.
+	 *
+	 * @param event the event
+	 */
+	protected void publishEvent(StateMachineEvent event) {
+		applicationEventPublisher.publishEvent(event);
+	}
+
 }
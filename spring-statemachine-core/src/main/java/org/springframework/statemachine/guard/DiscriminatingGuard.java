@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.guard;
+
+/**
+ * {@link Guard} which declares that it evaluates to {@code TRUE} only when
+ * an extended state variable with a discriminator key is equal to a
+ * discriminator value. Choice and junction pseudo states can use this
+ * information to route with a lookup instead of evaluating guards one by one.
+ * <p>
+ * Values are compared with {@code equals}, a variable which is a
+ * {@link CharSequence} is compared as a {@link String}. Guard which
+ * doesn't discriminate with these rules, should return {@code NULL} key.
+ *
+ * @author Janne Valkealahti
+ *
+ * @param <S> the type of state
+ * @param <E> the type of event
+ */
+public interface DiscriminatingGuard<S, E> extends Guard<S, E> {
+
+	/**
+	 * Gets the extended state variable key this guard discriminates on.
+	 *
+	 * @return the discriminator key or {@code NULL} if not discriminating
+	 */
+	Object getDiscriminatorKey();
+
+	/**
+	 * Gets the value an extended state variable needs to match.
+	 *
+	 * @return the discriminator value
+	 */
+	Object getDiscriminatorValue();
+}
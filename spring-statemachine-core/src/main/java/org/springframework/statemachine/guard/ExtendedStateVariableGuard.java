@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.guard;
+
+import org.springframework.statemachine.StateContext;
+import org.springframework.util.Assert;
+
+/**
+ * {@link DiscriminatingGuard} which evaluates to {@code TRUE} when an
+ * extended state variable is equal to a given value.
+ *
+ * @author Janne Valkealahti
+ *
+ * @param <S> the type of state
+ * @param <E> the type of event
+ */
+public class ExtendedStateVariableGuard<S, E> implements DiscriminatingGuard<S, E> {
+
+	private final Object key;
+	private final Object value;
+
+	/**
+	 * Instantiates a new extended state variable guard.
+	 *
+	 * @param key the extended state variable key
+	 * @param value the value to match
+	 */
+	public ExtendedStateVariableGuard(Object key, Object value) {
+		Assert.notNull(key, "Key cannot be null");
+		Assert.notNull(value, "Value cannot be null");
+		this.key = key;
+		this.value = value;
+	}
+
+	@Override
+	public boolean evaluate(StateContext<S, E> context) {
+		Object variable = context.getExtendedState().getVariables().get(key);
+		if (variable instanceof CharSequence) {
+			variable = variable.toString();
+		}
+		return value.equals(variable);
+	}
+
+	@Override
+	public Object getDiscriminatorKey() {
+		return key;
+	}
+
+	@Override
+	public Object getDiscriminatorValue() {
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return "ExtendedStateVariableGuard [key=" + key + ", value=" + value + "]";
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,22 +16,34 @@
 package org.springframework.statemachine.guard;
 
 import org.springframework.expression.Expression;
-import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.ast.CompoundExpression;
+import org.springframework.expression.spel.ast.Indexer;
+import org.springframework.expression.spel.ast.MethodReference;
+import org.springframework.expression.spel.ast.OpEQ;
+import org.springframework.expression.spel.ast.PropertyOrFieldReference;
+import org.springframework.expression.spel.ast.StringLiteral;
+import org.springframework.expression.spel.standard.SpelExpression;
 import org.springframework.statemachine.StateContext;
-import org.springframework.statemachine.support.StateContextExpressionMethods;
+import org.springframework.statemachine.support.StateContextExpression;
 import org.springframework.util.Assert;
 
 /**
  * {@link Guard} which uses Spring SpEL expression for condition evaluation.
+ * <p>
+ * Expression in a form of {@code extendedState.variables['key'] == 'value'}
+ * or {@code extendedState.variables.get('key') == 'value'} is recognised as
+ * a {@link DiscriminatingGuard}.
  *
  * @author Janne Valkealahti
  *
  */
-public class SpelExpressionGuard<S, E> implements Guard<S, E> {
+public class SpelExpressionGuard<S, E> implements DiscriminatingGuard<S, E> {
 
-	private final StateContextExpressionMethods methods;
-
-	private final Expression expression;
+	private final StateContextExpression expression;
+	private final Object discriminatorKey;
+	private final Object discriminatorValue;
 
 	/**
 	 * Instantiates a new spel expression guard.
@@ -39,14 +51,97 @@ public class SpelExpressionGuard<S, E> implements Guard<S, E> {
 	 * @param expression the expression
 	 */
 	public SpelExpressionGuard(Expression expression) {
+		this(expression, null);
+	}
+
+	/**
+	 * Instantiates a new spel expression guard. Knowing a configuration used
+	 * to parse an expression allows it to be compiled.
+	 *
+	 * @param expression the expression
+	 * @param configuration the configuration used to parse an expression
+	 */
+	public SpelExpressionGuard(Expression expression, SpelParserConfiguration configuration) {
 		Assert.notNull(expression, "Expression cannot be null");
-		this.expression = expression;
-		this.methods = new StateContextExpressionMethods(new StandardEvaluationContext());
+		this.expression = new StateContextExpression(expression, configuration);
+		Object[] discriminator = resolveDiscriminator(this.expression.getExpression());
+		this.discriminatorKey = discriminator != null ? discriminator[0] : null;
+		this.discriminatorValue = discriminator != null ? discriminator[1] : null;
 	}
 
 	@Override
 	public boolean evaluate(StateContext<S, E> context) {
-		return methods.getValue(expression, context, Boolean.class);
+		return expression.getValue(context, Boolean.class);
+	}
+
+	/**
+	 * Checks if expression has been compiled.
+	 *
+	 * @return true, if compiled
+	 */
+	public boolean isCompiled() {
+		return expression.isCompiled();
+	}
+
+	/**
+	 * Gets the original expression string.
+	 *
+	 * @return the expression string
+	 */
+	public String getExpressionString() {
+		return expression.getExpression().getExpressionString();
+	}
+
+	@Override
+	public Object getDiscriminatorKey() {
+		return discriminatorKey;
+	}
+
+	@Override
+	public Object getDiscriminatorValue() {
+		return discriminatorValue;
+	}
+
+	private static Object[] resolveDiscriminator(Expression expression) {
+		if (!(expression instanceof SpelExpression)) {
+			return null;
+		}
+		SpelNode node = ((SpelExpression) expression).getAST();
+		if (!(node instanceof OpEQ)) {
+			return null;
+		}
+		SpelNode left = node.getChild(0);
+		SpelNode right = node.getChild(1);
+		if (left instanceof StringLiteral) {
+			SpelNode tmp = left;
+			left = right;
+			right = tmp;
+		}
+		if (!(right instanceof StringLiteral)) {
+			return null;
+		}
+		String key = resolveVariableKey(left);
+		return key != null ? new Object[] { key, ((StringLiteral) right).getLiteralValue().getValue() } : null;
 	}
 
+	private static String resolveVariableKey(SpelNode node) {
+		// extendedState.variables['key'] or extendedState.variables.get('key')
+		if (!(node instanceof CompoundExpression) || node.getChildCount() != 3) {
+			return null;
+		}
+		if (!isProperty(node.getChild(0), "extendedState") || !isProperty(node.getChild(1), "variables")) {
+			return null;
+		}
+		SpelNode accessor = node.getChild(2);
+		boolean get = accessor instanceof MethodReference && ((MethodReference) accessor).getName().equals("get");
+		if ((accessor instanceof Indexer || get) && accessor.getChildCount() == 1
+				&& accessor.getChild(0) instanceof StringLiteral) {
+			return (String) ((StringLiteral) accessor.getChild(0)).getLiteralValue().getValue();
+		}
+		return null;
+	}
+
+	private static boolean isProperty(SpelNode node, String name) {
+		return node instanceof PropertyOrFieldReference && ((PropertyOrFieldReference) node).getName().equals(name);
+	}
 }
@@ -16,6 +16,7 @@
 package org.springframework.statemachine.monitor;
 
 import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.action.Action;
@@ -41,6 +42,14 @@ public class CompositeStateMachineMonitor<S, E> extends AbstractCompositeItems<S
 		}
 	}
 
+	@Override
+	public void transition(StateMachine<S, E> stateMachine, Transition<S, E> transition, long duration, TimeUnit unit) {
+		for (Iterator<StateMachineMonitor<S, E>> iterator = getItems().reverse(); iterator.hasNext();) {
+			StateMachineMonitor<S, E> monitor = iterator.next();
+			monitor.transition(stateMachine, transition, duration, unit);
+		}
+	}
+
 	@Override
 	public void action(StateMachine<S, E> stateMachine, Action<S, E> transition, long duration) {
 		for (Iterator<StateMachineMonitor<S, E>> iterator = getItems().reverse(); iterator.hasNext();) {
@@ -48,4 +57,12 @@ public class CompositeStateMachineMonitor<S, E> extends AbstractCompositeItems<S
 			monitor.action(stateMachine, transition, duration);
 		}
 	}
+
+	@Override
+	public void action(StateMachine<S, E> stateMachine, Action<S, E> action, long duration, TimeUnit unit) {
+		for (Iterator<StateMachineMonitor<S, E>> iterator = getItems().reverse(); iterator.hasNext();) {
+			StateMachineMonitor<S, E> monitor = iterator.next();
+			monitor.action(stateMachine, action, duration, unit);
+		}
+	}
 }
@@ -15,6 +15,8 @@
  */
 package org.springframework.statemachine.monitor;
 
+import java.util.concurrent.TimeUnit;
+
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.action.Action;
 import org.springframework.statemachine.transition.Transition;
@@ -34,16 +36,46 @@ public interface StateMachineMonitor<S, E> {
 	 *
 	 * @param stateMachine the state machine
 	 * @param transition the transition
-	 * @param duration the transition duration
+	 * @param duration the transition duration in milliseconds
 	 */
 	void transition(StateMachine<S, E> stateMachine, Transition<S, E> transition, long duration);
 
+	/**
+	 * Notified duration of a particular transition with a given time unit.
+	 * Machine itself measures durations in nanoseconds, default
+	 * implementation converts duration to milliseconds and delegates to
+	 * {@link #transition(StateMachine, Transition, long)}.
+	 *
+	 * @param stateMachine the state machine
+	 * @param transition the transition
+	 * @param duration the transition duration
+	 * @param unit the time unit of a duration
+	 */
+	default void transition(StateMachine<S, E> stateMachine, Transition<S, E> transition, long duration, TimeUnit unit) {
+		transition(stateMachine, transition, unit.toMillis(duration));
+	}
+
 	/**
 	 * Notified duration of a particular action.
 	 *
 	 * @param stateMachine the state machine
 	 * @param action the action
-	 * @param duration the transition duration
+	 * @param duration the action duration in milliseconds
 	 */
 	void action(StateMachine<S, E> stateMachine, Action<S, E> action, long duration);
+
+	/**
+	 * Notified duration of a particular action with a given time unit.
+	 * Machine itself measures durations in nanoseconds, default
+	 * implementation converts duration to milliseconds and delegates to
+	 * {@link #action(StateMachine, Action, long)}.
+	 *
+	 * @param stateMachine the state machine
+	 * @param action the action
+	 * @param duration the action duration
+	 * @param unit the time unit of a duration
+	 */
+	default void action(StateMachine<S, E> stateMachine, Action<S, E> action, long duration, TimeUnit unit) {
+		action(stateMachine, action, unit.toMillis(duration));
+	}
 }
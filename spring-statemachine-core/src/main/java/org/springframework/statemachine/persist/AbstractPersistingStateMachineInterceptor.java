@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 the original author or authors.
+ * Copyright 2017-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,10 +15,21 @@
  */
 package org.springframework.statemachine.persist;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.springframework.messaging.Message;
 import org.springframework.statemachine.ExtendedState;
@@ -26,6 +37,7 @@ import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.StateMachineContext;
 import org.springframework.statemachine.StateMachineException;
 import org.springframework.statemachine.StateMachinePersist;
+import org.springframework.statemachine.listener.StateMachineListenerAdapter;
 import org.springframework.statemachine.region.Region;
 import org.springframework.statemachine.state.AbstractState;
 import org.springframework.statemachine.state.HistoryPseudoState;
@@ -40,12 +52,32 @@ import org.springframework.statemachine.support.StateMachineInterceptorAdapter;
 import org.springframework.statemachine.transition.Transition;
 import org.springframework.statemachine.transition.TransitionKind;
 import org.springframework.util.Assert;
+import org.springframework.util.ConcurrentReferenceHashMap;
+import org.springframework.util.ConcurrentReferenceHashMap.ReferenceType;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.ReflectionUtils;
 
 /**
  * Base class for {@link StateMachineInterceptor} persisting {@link StateMachineContext}s.
  * This class is to be used as a base implementation which wants to persist a machine which
  * is about to kept running as normal use case for persistence is to stop machine, persist and
  * then start it again.
+ * <p>
+ * By default a full {@link StateMachineContext} is written on every state
+ * change. If {@link StateMachineDeltaPersist} is set, only a state skeleton
+ * and extended state variables changed since previous write are written as
+ * a {@link StateMachineContextDelta}, and a full context is written every
+ * {@link #setCompactionInterval(int) compaction interval} writes after which
+ * deltas are cleared. Only variables changed since previous write are
+ * written. Changes are tracked from extended state change notifications and
+ * by comparing values against what was previously written, immutable values
+ * like strings, numbers and enums by equality and other values, which may
+ * have been mutated in place, by their content hash code. Values of a type
+ * not overriding {@link Object#hashCode()} can't be compared and are
+ * written with every delta. Full context carries a
+ * generation in its event headers and deltas from older generations, left
+ * behind if clearing them failed, are skipped on replay. Subclasses should
+ * pass read contexts through {@link #replayDeltas(StateMachineContext, Object)}.
  *
  * @author Janne Valkealahti
  *
@@ -56,7 +88,20 @@ import org.springframework.util.Assert;
 public abstract class AbstractPersistingStateMachineInterceptor<S, E, T> extends StateMachineInterceptorAdapter<S, E>
 		implements StateMachinePersist<S, E, T> {
 
+	/** Event header of a full context written in delta mode carrying its generation */
+	public static final String SNAPSHOT_GENERATION_HEADER = "statemachineSnapshotGeneration";
+
+	private static final Set<Class<?>> VALUE_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(String.class,
+			Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class,
+			Double.class, BigInteger.class, BigDecimal.class, UUID.class));
+	private static final AtomicLong lastGeneration = new AtomicLong();
+	private static final Object UNTRACKED = new Object();
+	private static final Map<Class<?>, Boolean> contentHashTypes = new ConcurrentReferenceHashMap<Class<?>, Boolean>();
 	private Function<StateMachine<S, E>, Map<Object, Object>> extendedStateVariablesFunction = new AllVariablesFunction<>();
+	private StateMachineDeltaPersist<S, E> deltaPersist;
+	private int compactionInterval = 20;
+	private final Map<StateMachine<S, E>, DeltaTracker> deltaTrackers =
+			new ConcurrentReferenceHashMap<StateMachine<S, E>, DeltaTracker>(16, ReferenceType.WEAK);
 
 	@Override
 	public void preStateChange(State<S, E> state, Message<E> message, Transition<S, E> transition, StateMachine<S, E> stateMachine) {
@@ -64,7 +109,7 @@ public abstract class AbstractPersistingStateMachineInterceptor<S, E, T> extends
 		// call chain aborts transition
 		// TODO: should probably come up with a policy vs. not force feeding this functionality
 		try {
-			write(buildStateMachineContext(stateMachine, state), null);
+			persist(stateMachine, state);
 		} catch (Exception e) {
 			throw new StateMachineException("Unable to persist stateMachineContext", e);
 		}
@@ -77,7 +122,7 @@ public abstract class AbstractPersistingStateMachineInterceptor<S, E, T> extends
 		// TODO: consider intercept initial transition, but not aborting if error is thrown?
 		if (state != null && transition != null && transition.getKind() == TransitionKind.INITIAL) {
 			try {
-				write(buildStateMachineContext(stateMachine, state), null);
+				persist(stateMachine, state);
 			} catch (Exception e) {
 				throw new StateMachineException("Unable to persist stateMachineContext", e);
 			}
@@ -111,6 +156,71 @@ public abstract class AbstractPersistingStateMachineInterceptor<S, E, T> extends
 		this.extendedStateVariablesFunction = extendedStateVariablesFunction;
 	}
 
+	/**
+	 * Sets the delta persist enabling delta mode.
+	 *
+	 * @param deltaPersist the delta persist, {@code null} disables delta mode
+	 */
+	public void setDeltaPersist(StateMachineDeltaPersist<S, E> deltaPersist) {
+		this.deltaPersist = deltaPersist;
+		for (Entry<StateMachine<S, E>, DeltaTracker> entry : deltaTrackers.entrySet()) {
+			entry.getKey().removeStateListener(entry.getValue());
+		}
+		this.deltaTrackers.clear();
+	}
+
+	/**
+	 * Sets the compaction interval, meaning how many deltas are written
+	 * before a full context is written again. Defaults to {@code 20}.
+	 *
+	 * @param compactionInterval the compaction interval
+	 */
+	public void setCompactionInterval(int compactionInterval) {
+		Assert.isTrue(compactionInterval > 0, "'compactionInterval' must be greater than zero");
+		this.compactionInterval = compactionInterval;
+	}
+
+	/**
+	 * Replay deltas written after a given context was persisted. Returns
+	 * context as is if delta mode is not enabled or there are no deltas.
+	 *
+	 * @param context the context read from a persistent store
+	 * @param contextObj the context object
+	 * @return the state machine context with deltas applied
+	 * @throws Exception the exception
+	 */
+	protected StateMachineContext<S, E> replayDeltas(StateMachineContext<S, E> context, Object contextObj) throws Exception {
+		if (deltaPersist == null || contextObj == null) {
+			return context;
+		}
+		List<StateMachineContextDelta<S, E>> deltas = deltaPersist.readDeltas(contextObj.toString());
+		if (deltas == null || deltas.isEmpty()) {
+			return context;
+		}
+		long generation = getGeneration(context);
+		Map<Object, Object> variables = new HashMap<Object, Object>();
+		if (context != null && context.getExtendedState() != null) {
+			variables.putAll(context.getExtendedState().getVariables());
+		}
+		StateMachineContextDelta<S, E> last = null;
+		for (StateMachineContextDelta<S, E> delta : deltas) {
+			// deltas of an older snapshot are left behind if clearing
+			// those failed after a newer snapshot was written
+			if (delta.getGeneration() < generation) {
+				continue;
+			}
+			variables.putAll(delta.getChangedVariables());
+			for (Object key : delta.getRemovedVariables()) {
+				variables.remove(key);
+			}
+			last = delta;
+		}
+		if (last == null) {
+			return context;
+		}
+		return withExtendedState(last.getContext(), new DefaultExtendedState(variables));
+	}
+
 	/**
 	 * Builds the state machine context.
 	 *
@@ -119,8 +229,161 @@ public abstract class AbstractPersistingStateMachineInterceptor<S, E, T> extends
 	 * @return the state machine context
 	 */
 	protected StateMachineContext<S, E> buildStateMachineContext(StateMachine<S, E> stateMachine, State<S, E> state) {
-		ExtendedState extendedState = new DefaultExtendedState();
-		extendedState.getVariables().putAll(extendedStateVariablesFunction.apply(stateMachine));
+		return buildStateMachineContext(stateMachine, state, true);
+	}
+
+	private void persist(StateMachine<S, E> stateMachine, State<S, E> state) throws Exception {
+		String machineId = stateMachine.getId();
+		if (deltaPersist == null || machineId == null) {
+			write(buildStateMachineContext(stateMachine, state), null);
+			return;
+		}
+
+		Map<Object, Object> variables = extendedStateVariablesFunction.apply(stateMachine);
+		DeltaTracker tracker = deltaTrackers.get(stateMachine);
+		if (tracker == null) {
+			tracker = new DeltaTracker();
+			stateMachine.addStateListener(tracker);
+			deltaTrackers.put(stateMachine, tracker);
+		}
+		if (!tracker.valid || tracker.sequence >= compactionInterval) {
+			// invalidate tracker until snapshot is written and deltas cleared
+			// so that failure forces a new snapshot
+			tracker.valid = false;
+			tracker.dirty.clear();
+			long generation = nextGeneration();
+			write(withGeneration(buildStateMachineContext(stateMachine, state), generation), null);
+			deltaPersist.clearDeltas(machineId);
+			tracker.reset(generation, variables);
+			return;
+		}
+
+		Set<Object> dirty = new HashSet<Object>();
+		for (Iterator<Object> iterator = tracker.dirty.iterator(); iterator.hasNext();) {
+			// remove before values are read so that a change racing
+			// with this write is not lost
+			dirty.add(iterator.next());
+			iterator.remove();
+		}
+		Map<Object, Object> changed = new HashMap<Object, Object>();
+		for (Entry<Object, Object> entry : variables.entrySet()) {
+			Object key = entry.getKey();
+			Object value = entry.getValue();
+			// bulk map operations i.e. on reset don't notify and values may be
+			// mutated in place, thus compare against previously written value
+			if (dirty.contains(key) || !tracker.values.containsKey(key)
+					|| !matches(tracker.values.get(key), value)) {
+				changed.put(key, value);
+			}
+		}
+		List<Object> removed = new ArrayList<Object>();
+		for (Object key : tracker.values.keySet()) {
+			if (!variables.containsKey(key)) {
+				removed.add(key);
+			}
+		}
+		deltaPersist.writeDelta(machineId, new StateMachineContextDelta<S, E>(tracker.generation, tracker.sequence + 1,
+				buildStateMachineContext(stateMachine, state, false), changed, removed));
+		tracker.track(changed);
+		for (Object key : removed) {
+			tracker.values.remove(key);
+		}
+		tracker.sequence++;
+	}
+
+	private static long nextGeneration() {
+		// wall clock keeps generations increasing over restarts
+		long now = System.currentTimeMillis();
+		while (true) {
+			long last = lastGeneration.get();
+			long next = Math.max(now, last + 1);
+			if (lastGeneration.compareAndSet(last, next)) {
+				return next;
+			}
+		}
+	}
+
+	private static long getGeneration(StateMachineContext<?, ?> context) {
+		if (context != null && context.getEventHeaders() != null) {
+			Object generation = context.getEventHeaders().get(SNAPSHOT_GENERATION_HEADER);
+			if (generation instanceof Number) {
+				return ((Number) generation).longValue();
+			}
+		}
+		return 0;
+	}
+
+	private static boolean isValueType(Object value) {
+		return value == null || value instanceof Enum || VALUE_TYPES.contains(value.getClass());
+	}
+
+	private static Object track(Object value) {
+		// immutable values are kept as is, others as a content hash code
+		// so that tracker doesn't hold on to live objects
+		if (isValueType(value)) {
+			return value;
+		}
+		Integer hash = contentHash(value);
+		return hash != null ? new Fingerprint(hash) : UNTRACKED;
+	}
+
+	private static boolean matches(Object tracked, Object value) {
+		if (isValueType(value)) {
+			return ObjectUtils.nullSafeEquals(tracked, value);
+		}
+		if (!(tracked instanceof Fingerprint)) {
+			return false;
+		}
+		Integer hash = contentHash(value);
+		return hash != null && hash == ((Fingerprint) tracked).hash;
+	}
+
+	private static Integer contentHash(Object value) {
+		Class<?> type = value.getClass();
+		Boolean contentHashType = contentHashTypes.get(type);
+		if (contentHashType == null) {
+			contentHashType = type.isArray()
+					|| ReflectionUtils.findMethod(type, "hashCode").getDeclaringClass() != Object.class;
+			contentHashTypes.put(type, contentHashType);
+		}
+		if (!contentHashType) {
+			return null;
+		}
+		try {
+			return ObjectUtils.nullSafeHashCode(value);
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private StateMachineContext<S, E> withGeneration(StateMachineContext<S, E> context, long generation) {
+		Map<String, Object> headers = new HashMap<String, Object>();
+		if (context.getEventHeaders() != null) {
+			headers.putAll(context.getEventHeaders());
+		}
+		headers.put(SNAPSHOT_GENERATION_HEADER, generation);
+		return new DefaultStateMachineContext<S, E>(context.getChilds(), context.getState(), context.getEvent(),
+				headers, context.getExtendedState(), context.getHistoryStates(), context.getId());
+	}
+
+	private StateMachineContext<S, E> withExtendedState(StateMachineContext<S, E> context, ExtendedState extendedState) {
+		List<StateMachineContext<S, E>> childs = new ArrayList<StateMachineContext<S, E>>();
+		if (context.getChilds() != null) {
+			for (StateMachineContext<S, E> child : context.getChilds()) {
+				childs.add(withExtendedState(child, extendedState));
+			}
+		}
+		return new DefaultStateMachineContext<S, E>(childs, context.getState(), context.getEvent(),
+				context.getEventHeaders(), extendedState, context.getHistoryStates(), context.getId());
+	}
+
+	private StateMachineContext<S, E> buildStateMachineContext(StateMachine<S, E> stateMachine, State<S, E> state,
+			boolean includeVariables) {
+		ExtendedState extendedState = null;
+		if (includeVariables) {
+			extendedState = new DefaultExtendedState();
+			extendedState.getVariables().putAll(extendedStateVariablesFunction.apply(stateMachine));
+		}
 
 		ArrayList<StateMachineContext<S, E>> childs = new ArrayList<StateMachineContext<S, E>>();
 		S id = null;
@@ -130,7 +393,8 @@ public abstract class AbstractPersistingStateMachineInterceptor<S, E, T> extends
 			Collection<Region<S, E>> regions = ((AbstractState<S, E>)state).getRegions();
 			for (Region<S, E> r : regions) {
 				StateMachine<S, E> rsm = (StateMachine<S, E>) r;
-				childs.add(buildStateMachineContext(rsm, state));
+				childs.add(includeVariables ? buildStateMachineContext(rsm, state)
+						: buildStateMachineContext(rsm, state, false));
 			}
 			id = state.getId();
 		} else {
@@ -167,6 +431,43 @@ public abstract class AbstractPersistingStateMachineInterceptor<S, E, T> extends
 		return ids2[ids2.length-1];
 	}
 
+	private class DeltaTracker extends StateMachineListenerAdapter<S, E> {
+
+		final Set<Object> dirty = ConcurrentHashMap.<Object>newKeySet();
+		final Map<Object, Object> values = new HashMap<Object, Object>();
+		volatile boolean valid;
+		long generation;
+		long sequence;
+
+		@Override
+		public void extendedStateChanged(Object key, Object value) {
+			dirty.add(key);
+		}
+
+		void reset(long generation, Map<Object, Object> variables) {
+			this.generation = generation;
+			this.sequence = 0;
+			this.values.clear();
+			track(variables);
+			this.valid = true;
+		}
+
+		void track(Map<Object, Object> variables) {
+			for (Entry<Object, Object> entry : variables.entrySet()) {
+				values.put(entry.getKey(), AbstractPersistingStateMachineInterceptor.track(entry.getValue()));
+			}
+		}
+	}
+
+	private static class Fingerprint {
+
+		final int hash;
+
+		Fingerprint(int hash) {
+			this.hash = hash;
+		}
+	}
+
 	private static class AllVariablesFunction<S, E> implements Function<StateMachine<S, E>, Map<Object, Object>> {
 
 		@Override
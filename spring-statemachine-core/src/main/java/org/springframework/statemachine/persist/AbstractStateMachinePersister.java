@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 the original author or authors.
+ * Copyright 2016-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -67,7 +67,17 @@ public abstract class AbstractStateMachinePersister<S, E, T> implements StateMac
 
 	@Override
 	public final StateMachine<S, E> restore(StateMachine<S, E> stateMachine, T contextObj) throws Exception {
-		final StateMachineContext<S, E> context = stateMachinePersist.read(contextObj);
+		return resetStateMachine(stateMachine, stateMachinePersist.read(contextObj));
+	}
+
+	/**
+	 * Reset a state machine into an already read context.
+	 *
+	 * @param stateMachine the state machine
+	 * @param context the context
+	 * @return the restored state machine
+	 */
+	protected final StateMachine<S, E> resetStateMachine(StateMachine<S, E> stateMachine, final StateMachineContext<S, E> context) {
 		stateMachine.stop();
 		stateMachine.getStateMachineAccessor().doWithAllRegions(new StateMachineFunction<StateMachineAccess<S, E>>() {
 
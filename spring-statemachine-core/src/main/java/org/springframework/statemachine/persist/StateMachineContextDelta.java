@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.persist;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.springframework.statemachine.StateMachineContext;
+
+/**
+ * Changes of a state machine since its previous persisted write. Delta
+ * carries a state skeleton, meaning a {@link StateMachineContext} with state
+ * ids, child contexts and history mappings but without extended state
+ * variables, and extended state variables which were changed or removed.
+ * Generation identifies a full snapshot a delta was written on top of.
+ *
+ * @author Janne Valkealahti
+ *
+ * @param <S> the type of state
+ * @param <E> the type of event
+ */
+public class StateMachineContextDelta<S, E> {
+
+	private final long generation;
+	private final long sequence;
+	private final StateMachineContext<S, E> context;
+	private final Map<Object, Object> changedVariables;
+	private final Collection<Object> removedVariables;
+
+	/**
+	 * Instantiates a new state machine context delta.
+	 *
+	 * @param sequence the sequence since last snapshot
+	 * @param context the state skeleton context
+	 * @param changedVariables the changed variables
+	 * @param removedVariables the removed variable keys
+	 */
+	public StateMachineContextDelta(long sequence, StateMachineContext<S, E> context,
+			Map<Object, Object> changedVariables, Collection<Object> removedVariables) {
+		this(0, sequence, context, changedVariables, removedVariables);
+	}
+
+	/**
+	 * Instantiates a new state machine context delta.
+	 *
+	 * @param generation the generation of a snapshot
+	 * @param sequence the sequence since last snapshot
+	 * @param context the state skeleton context
+	 * @param changedVariables the changed variables
+	 * @param removedVariables the removed variable keys
+	 */
+	public StateMachineContextDelta(long generation, long sequence, StateMachineContext<S, E> context,
+			Map<Object, Object> changedVariables, Collection<Object> removedVariables) {
+		this.generation = generation;
+		this.sequence = sequence;
+		this.context = context;
+		this.changedVariables = changedVariables;
+		this.removedVariables = removedVariables;
+	}
+
+	/**
+	 * Gets the generation of a snapshot this delta was written on top of.
+	 *
+	 * @return the generation
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Gets the sequence of this delta since last snapshot.
+	 *
+	 * @return the sequence
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Gets the state skeleton context.
+	 *
+	 * @return the context
+	 */
+	public StateMachineContext<S, E> getContext() {
+		return context;
+	}
+
+	/**
+	 * Gets the changed variables.
+	 *
+	 * @return the changed variables
+	 */
+	public Map<Object, Object> getChangedVariables() {
+		return changedVariables;
+	}
+
+	/**
+	 * Gets the removed variable keys.
+	 *
+	 * @return the removed variable keys
+	 */
+	public Collection<Object> getRemovedVariables() {
+		return removedVariables;
+	}
+
+	@Override
+	public String toString() {
+		return "StateMachineContextDelta [generation=" + generation + ", sequence=" + sequence + ", context=" + context + ", changedVariables="
+				+ changedVariables.keySet() + ", removedVariables=" + removedVariables + "]";
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.persist;
+
+import java.util.List;
+
+/**
+ * Interface persisting {@link StateMachineContextDelta}s written between full
+ * snapshots of a machine by {@link AbstractPersistingStateMachineInterceptor}.
+ *
+ * @author Janne Valkealahti
+ *
+ * @param <S> the type of state
+ * @param <E> the type of event
+ */
+public interface StateMachineDeltaPersist<S, E> {
+
+	/**
+	 * Append a delta for a machine.
+	 *
+	 * @param machineId the machine id
+	 * @param delta the delta
+	 * @throws Exception the exception
+	 */
+	void writeDelta(String machineId, StateMachineContextDelta<S, E> delta) throws Exception;
+
+	/**
+	 * Read deltas for a machine written after its last snapshot, in order
+	 * they were written.
+	 *
+	 * @param machineId the machine id
+	 * @return the deltas
+	 * @throws Exception the exception
+	 */
+	List<StateMachineContextDelta<S, E>> readDeltas(String machineId) throws Exception;
+
+	/**
+	 * Clear deltas of a machine after a full snapshot has been written.
+	 *
+	 * @param machineId the machine id
+	 * @throws Exception the exception
+	 */
+	void clearDeltas(String machineId) throws Exception;
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -18,6 +18,8 @@ package org.springframework.statemachine.processor;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 
+import org.springframework.statemachine.StateContext;
+
 /**
  * A simple {@link StateMachineRuntimeProcessor} implementation using
  * methods from a state machine protected bean.
@@ -70,4 +72,13 @@ public class MethodInvokingStateMachineRuntimeProcessor<T, S, E> implements Stat
 			throw new RuntimeException("Error processing bean", e);
 		}
 	}
+
+	@Override
+	public T process(StateContext<S, E> stateContext) {
+		try {
+			return delegate.process(stateContext);
+		} catch (Throwable e) {
+			throw new RuntimeException("Error processing bean", e);
+		}
+	}
 }
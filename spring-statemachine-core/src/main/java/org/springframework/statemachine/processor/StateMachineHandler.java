@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -19,6 +19,7 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 
 import org.springframework.core.Ordered;
+import org.springframework.statemachine.StateContext;
 import org.springframework.statemachine.annotation.OnTransition;
 import org.springframework.statemachine.annotation.WithStateMachine;
 
@@ -135,6 +136,17 @@ public class StateMachineHandler<T extends Annotation, S, E> implements Ordered
 		return processor.process(stateMachineRuntime);
 	}
 
+	/**
+	 * Handle container using a {@link StateMachineRuntimeProcessor} directly
+	 * with a {@link StateContext}.
+	 *
+	 * @param stateContext the state context
+	 * @return the result value
+	 */
+	public Object handle(StateContext<S, E> stateContext) {
+		return processor.process(stateContext);
+	}
+
 	@Override
 	public String toString() {
 		return "StateMachineHandler [beanClass=" + beanClass + "]";
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2017 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,12 +16,16 @@
 package org.springframework.statemachine.processor;
 
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -48,6 +52,7 @@ import org.springframework.statemachine.config.configuration.StateMachineHandler
 import org.springframework.statemachine.state.State;
 import org.springframework.statemachine.support.StateMachineUtils;
 import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
 import org.springframework.util.StringUtils;
 
 /**
@@ -55,6 +60,15 @@ import org.springframework.util.StringUtils;
  * of StateMachineHandlers and provides needed caching so that a runtime calls
  * are fast. Also provides dedicated methods for each annotated methods so that
  * parameters are handled accordingly.
+ * <p>
+ * Handlers are kept in a routing table built in {@link #afterPropertiesSet()}
+ * where annotation attributes are already converted into string collections.
+ * Handlers matching a given source, target, event or variable key are resolved
+ * once and then cached, so repeated callbacks only do a lock-free lookup.
+ * Resolved routes are cached per callback kind, each kind having at most
+ * {@link #MAX_RESOLVED_ROUTES} entries. A kind whose cache gets full, i.e.
+ * from unbounded variable keys or events, is cleared and refilled by routes
+ * currently in use without affecting caches of other kinds.
  *
  * @author Janne Valkealahti
  *
@@ -63,11 +77,13 @@ import org.springframework.util.StringUtils;
  */
 public class StateMachineHandlerCallHelper<S, E> implements InitializingBean, BeanFactoryAware {
 
+	/** Max number of resolved routes cached per callback kind */
+	private static final int MAX_RESOLVED_ROUTES = 1024;
 	private final Log log = LogFactory.getLog(StateMachineHandlerCallHelper.class);
-	private final Map<String, List<CacheEntry>> cache = new HashMap<>();
+	private volatile RoutingTable routingTable = new RoutingTable(new HashMap<Class<?>, Map<String, Route[]>>());
 	private ListableBeanFactory beanFactory;
 	private StateMachineHandlerApplicationListener stateMachineHandlerApplicationListener;
-	private long last = Long.MIN_VALUE;
+	private volatile long last = Long.MIN_VALUE;
 
 	@SuppressWarnings("unchecked")
 	@Override
@@ -83,6 +99,7 @@ public class StateMachineHandlerCallHelper<S, E> implements InitializingBean, Be
 			this.stateMachineHandlerApplicationListener = beanFactory.getBean(StateMachineHandlerApplicationListener.BEAN_NAME,
 					StateMachineHandlerApplicationListener.class);
 		}
+		Map<Class<?>, Map<String, List<Route>>> routes = new HashMap<>();
 		for (StateMachineHandler<? extends Annotation, S, E> handler : beanFactory.getBeansOfType(StateMachineHandler.class).values()) {
 			Annotation annotation = handler.getAnnotation();
 			Annotation metaAnnotation = handler.getMetaAnnotation();
@@ -90,15 +107,24 @@ public class StateMachineHandlerCallHelper<S, E> implements InitializingBean, Be
 					WithStateMachine.class);
 
 			// don't check name if id is set as name defaults to
-			// 'stateMachine' and would cause additional cache entry
+			// 'stateMachine' and would cause additional route
 			if (StringUtils.hasText(withStateMachine.id())) {
-				updateCache(metaAnnotation.annotationType().getName() + withStateMachine.id(),
-						new CacheEntry(handler, annotation, metaAnnotation));
+				addRoute(routes, metaAnnotation.annotationType(), withStateMachine.id(),
+						new Route(handler, annotation, metaAnnotation));
 			} else if (StringUtils.hasText(withStateMachine.name())) {
-				updateCache(metaAnnotation.annotationType().getName() + withStateMachine.name(),
-						new CacheEntry(handler, annotation, metaAnnotation));
+				addRoute(routes, metaAnnotation.annotationType(), withStateMachine.name(),
+						new Route(handler, annotation, metaAnnotation));
 			}
 		}
+		Map<Class<?>, Map<String, Route[]>> table = new HashMap<>();
+		for (Entry<Class<?>, Map<String, List<Route>>> kind : routes.entrySet()) {
+			Map<String, Route[]> machines = new HashMap<>();
+			for (Entry<String, List<Route>> machine : kind.getValue().entrySet()) {
+				machines.put(machine.getKey(), toArray(machine.getValue()));
+			}
+			table.put(kind.getKey(), machines);
+		}
+		this.routingTable = new RoutingTable(table);
 	}
 
 	@Override
@@ -115,345 +141,346 @@ public class StateMachineHandlerCallHelper<S, E> implements InitializingBean, Be
 	}
 
 	public void callOnStateChanged(String stateMachineId, StateContext<S, E> stateContext) {
-		if (!StringUtils.hasText(stateMachineId)) {
-			return;
-		}
-		List<StateMachineHandler<? extends Annotation, S, E>> handlersList = new ArrayList<StateMachineHandler<? extends Annotation, S, E>>();
-		String cacheKey = OnStateChanged.class.getName() + stateMachineId;
-		List<CacheEntry> list = getCacheEntries(cacheKey);
-		if (list == null) {
-			return;
-		}
-		for (CacheEntry entry : list) {
-			if (annotationHandlerSourceTargetMatch((String[]) AnnotationUtils.getValue(entry.metaAnnotation, "source"),
-					(String[]) AnnotationUtils.getValue(entry.metaAnnotation, "target"), entry.annotation, stateContext.getSource(),
-					stateContext.getTarget())) {
-				handlersList.add(entry.handler);
-			}
-		}
-		getStateMachineHandlerResults(handlersList, stateContext);
+		callSourceTarget(OnStateChanged.class, stateMachineId, stateContext.getSource(), stateContext.getTarget(),
+				stateContext);
 	}
 
 	public void callOnStateEntry(String stateMachineId, StateContext<S, E> stateContext) {
-		if (!StringUtils.hasText(stateMachineId)) {
-			return;
-		}
-		List<StateMachineHandler<? extends Annotation, S, E>> handlersList = new ArrayList<StateMachineHandler<? extends Annotation, S, E>>();
-		String cacheKey = OnStateEntry.class.getName() + stateMachineId;
-		List<CacheEntry> list = getCacheEntries(cacheKey);
-		if (list == null) {
-			return;
-		}
-		for (CacheEntry entry : list) {
-			if (annotationHandlerSourceTargetMatch((String[]) AnnotationUtils.getValue(entry.metaAnnotation, "source"),
-					(String[]) AnnotationUtils.getValue(entry.metaAnnotation, "target"), entry.annotation, stateContext.getSource(),
-					stateContext.getTarget())) {
-				handlersList.add(entry.handler);
-			}
-		}
-		getStateMachineHandlerResults(handlersList, stateContext);
+		callSourceTarget(OnStateEntry.class, stateMachineId, stateContext.getSource(), stateContext.getTarget(),
+				stateContext);
 	}
 
 	public void callOnStateExit(String stateMachineId, StateContext<S, E> stateContext) {
-		if (!StringUtils.hasText(stateMachineId)) {
-			return;
-		}
-		List<StateMachineHandler<? extends Annotation, S, E>> handlersList = new ArrayList<StateMachineHandler<? extends Annotation, S, E>>();
-		String cacheKey = OnStateExit.class.getName() + stateMachineId;
-		List<CacheEntry> list = getCacheEntries(cacheKey);
-		if (list == null) {
-			return;
-		}
-		for (CacheEntry entry : list) {
-			if (annotationHandlerSourceTargetMatch((String[]) AnnotationUtils.getValue(entry.metaAnnotation, "source"),
-					(String[]) AnnotationUtils.getValue(entry.metaAnnotation, "target"), entry.annotation, stateContext.getSource(),
-					stateContext.getTarget())) {
-				handlersList.add(entry.handler);
-			}
-		}
-		getStateMachineHandlerResults(handlersList, stateContext);
+		callSourceTarget(OnStateExit.class, stateMachineId, stateContext.getSource(), stateContext.getTarget(),
+				stateContext);
 	}
 
 	public void callOnEventNotAccepted(String stateMachineId, StateContext<S, E> stateContext) {
 		if (!StringUtils.hasText(stateMachineId)) {
 			return;
 		}
-		List<StateMachineHandler<? extends Annotation, S, E>> handlersList = new ArrayList<StateMachineHandler<? extends Annotation, S, E>>();
-		String cacheKey = OnEventNotAccepted.class.getName() + stateMachineId;
-		List<CacheEntry> list = getCacheEntries(cacheKey);
-		if (list == null) {
+		RoutingTable table = getRoutingTable();
+		Route[] routes = table.getRoutes(OnEventNotAccepted.class, stateMachineId);
+		if (routes == null) {
 			return;
 		}
-		for (CacheEntry entry : list) {
-			E event = stateContext.getEvent();
-			if (event != null) {
-				if (annotationHandlerEventVariableMatch(entry.metaAnnotation, new String[]{event.toString()})) {
-					handlersList.add(entry.handler);
+		E event = stateContext.getEvent();
+		if (event != null) {
+			RouteKey key = new RouteKey(OnEventNotAccepted.class, stateMachineId, null, null, event);
+			Route[] resolved = table.getResolved(key);
+			if (resolved == null) {
+				List<Route> matching = new ArrayList<>();
+				Collection<String> events = StateMachineUtils.toStringCollection(event);
+				for (Route route : routes) {
+					if (route.events.isEmpty() || StateMachineUtils.containsAtleastOne(route.events, events)) {
+						matching.add(route);
+					}
 				}
-			} else {
-				handlersList.add(entry.handler);
+				resolved = table.resolve(key, matching);
 			}
+			routes = resolved;
 		}
-		getStateMachineHandlerResults(handlersList, stateContext);
+		handle(routes, stateContext);
 	}
 
-
 	public void callOnTransitionStart(String stateMachineId, StateContext<S, E> stateContext) {
-		if (!StringUtils.hasText(stateMachineId)) {
-			return;
-		}
-		List<StateMachineHandler<? extends Annotation, S, E>> handlersList = new ArrayList<StateMachineHandler<? extends Annotation, S, E>>();
-		String cacheKey = OnTransitionStart.class.getName() + stateMachineId;
-		List<CacheEntry> list = getCacheEntries(cacheKey);
-		if (list == null) {
-			return;
-		}
-		for (CacheEntry entry : list) {
-			if (annotationHandlerSourceTargetMatch((String[]) AnnotationUtils.getValue(entry.metaAnnotation, "source"),
-					(String[]) AnnotationUtils.getValue(entry.metaAnnotation, "target"), entry.annotation,
-					stateContext.getTransition().getSource(), stateContext.getTransition().getTarget())) {
-				handlersList.add(entry.handler);
-			}
-		}
-		getStateMachineHandlerResults(handlersList, stateContext);
+		callSourceTarget(OnTransitionStart.class, stateMachineId, stateContext.getTransition().getSource(),
+				stateContext.getTransition().getTarget(), stateContext);
 	}
 
 	public void callOnTransition(String stateMachineId, StateContext<S, E> stateContext) {
-		if (!StringUtils.hasText(stateMachineId)) {
-			return;
-		}
-		List<StateMachineHandler<? extends Annotation, S, E>> handlersList = new ArrayList<StateMachineHandler<? extends Annotation, S, E>>();
-		String cacheKey = OnTransition.class.getName() + stateMachineId;
-		List<CacheEntry> list = getCacheEntries(cacheKey);
-		if (list == null) {
-			return;
-		}
-		for (CacheEntry entry : list) {
-			if (annotationHandlerSourceTargetMatch((String[]) AnnotationUtils.getValue(entry.metaAnnotation, "source"),
-					(String[]) AnnotationUtils.getValue(entry.metaAnnotation, "target"), entry.annotation,
-					stateContext.getTransition().getSource(), stateContext.getTransition().getTarget())) {
-				handlersList.add(entry.handler);
-			}
-		}
-		getStateMachineHandlerResults(handlersList, stateContext);
+		callSourceTarget(OnTransition.class, stateMachineId, stateContext.getTransition().getSource(),
+				stateContext.getTransition().getTarget(), stateContext);
 	}
 
 	public void callOnTransitionEnd(String stateMachineId, StateContext<S, E> stateContext) {
-		if (!StringUtils.hasText(stateMachineId)) {
-			return;
-		}
-		List<StateMachineHandler<? extends Annotation, S, E>> handlersList = new ArrayList<StateMachineHandler<? extends Annotation, S, E>>();
-		String cacheKey = OnTransitionEnd.class.getName() + stateMachineId;
-		List<CacheEntry> list = getCacheEntries(cacheKey);
-		if (list == null) {
-			return;
-		}
-		for (CacheEntry entry : list) {
-			if (annotationHandlerSourceTargetMatch((String[]) AnnotationUtils.getValue(entry.metaAnnotation, "source"),
-					(String[]) AnnotationUtils.getValue(entry.metaAnnotation, "target"), entry.annotation,
-					stateContext.getTransition().getSource(), stateContext.getTransition().getTarget())) {
-				handlersList.add(entry.handler);
-			}
-		}
-		getStateMachineHandlerResults(handlersList, stateContext);
+		callSourceTarget(OnTransitionEnd.class, stateMachineId, stateContext.getTransition().getSource(),
+				stateContext.getTransition().getTarget(), stateContext);
 	}
 
 	public void callOnStateMachineStart(String stateMachineId, StateContext<S, E> stateContext) {
-		if (!StringUtils.hasText(stateMachineId)) {
-			return;
-		}
-		List<StateMachineHandler<? extends Annotation, S, E>> handlersList = new ArrayList<StateMachineHandler<? extends Annotation, S, E>>();
-		String cacheKey = OnStateMachineStart.class.getName() + stateMachineId;
-		List<CacheEntry> list = getCacheEntries(cacheKey);
-		if (list == null) {
-			return;
-		}
-		for (CacheEntry entry : list) {
-			handlersList.add(entry.handler);
-		}
-		getStateMachineHandlerResults(handlersList, stateContext);
+		callAll(OnStateMachineStart.class, stateMachineId, stateContext);
 	}
 
 	public void callOnStateMachineStop(String stateMachineId, StateContext<S, E> stateContext) {
+		callAll(OnStateMachineStop.class, stateMachineId, stateContext);
+	}
+
+	public void callOnStateMachineError(String stateMachineId, StateContext<S, E> stateContext) {
+		callAll(OnStateMachineError.class, stateMachineId, stateContext);
+	}
+
+	public void callOnExtendedStateChanged(String stateMachineId, Object key, Object value, StateContext<S, E> stateContext) {
 		if (!StringUtils.hasText(stateMachineId)) {
 			return;
 		}
-		List<StateMachineHandler<? extends Annotation, S, E>> handlersList = new ArrayList<StateMachineHandler<? extends Annotation, S, E>>();
-		String cacheKey = OnStateMachineStop.class.getName() + stateMachineId;
-		List<CacheEntry> list = getCacheEntries(cacheKey);
-		if (list == null) {
+		RoutingTable table = getRoutingTable();
+		Route[] routes = table.getRoutes(OnExtendedStateChanged.class, stateMachineId);
+		if (routes == null) {
 			return;
 		}
-		for (CacheEntry entry : list) {
-			handlersList.add(entry.handler);
+		RouteKey routeKey = new RouteKey(OnExtendedStateChanged.class, stateMachineId, null, null, key);
+		Route[] resolved = table.getResolved(routeKey);
+		if (resolved == null) {
+			List<Route> matching = new ArrayList<>();
+			Collection<String> keys = StateMachineUtils.toStringCollection(key);
+			for (Route route : routes) {
+				if (route.keys.isEmpty() || StateMachineUtils.containsAtleastOne(route.keys, keys)) {
+					matching.add(route);
+				}
+			}
+			resolved = table.resolve(routeKey, matching);
 		}
-		getStateMachineHandlerResults(handlersList, stateContext);
+		handle(resolved, stateContext);
 	}
 
-	public void callOnStateMachineError(String stateMachineId, StateContext<S, E> stateContext) {
+	private void callAll(Class<? extends Annotation> kind, String stateMachineId, StateContext<S, E> stateContext) {
 		if (!StringUtils.hasText(stateMachineId)) {
 			return;
 		}
-		List<StateMachineHandler<? extends Annotation, S, E>> handlersList = new ArrayList<StateMachineHandler<? extends Annotation, S, E>>();
-		String cacheKey = OnStateMachineError.class.getName() + stateMachineId;
-		List<CacheEntry> list = getCacheEntries(cacheKey);
-		if (list == null) {
+		Route[] routes = getRoutingTable().getRoutes(kind, stateMachineId);
+		if (routes == null) {
 			return;
 		}
-		for (CacheEntry entry : list) {
-			handlersList.add(entry.handler);
-		}
-		getStateMachineHandlerResults(handlersList, stateContext);
+		handle(routes, stateContext);
 	}
 
-	public void callOnExtendedStateChanged(String stateMachineId, Object key, Object value, StateContext<S, E> stateContext) {
+	private void callSourceTarget(Class<? extends Annotation> kind, String stateMachineId, State<S, E> sourceState,
+			State<S, E> targetState, StateContext<S, E> stateContext) {
 		if (!StringUtils.hasText(stateMachineId)) {
 			return;
 		}
-		List<StateMachineHandler<? extends Annotation, S, E>> handlersList = new ArrayList<StateMachineHandler<? extends Annotation, S, E>>();
-		String cacheKey = OnExtendedStateChanged.class.getName() + stateMachineId;
-		List<CacheEntry> list = getCacheEntries(cacheKey);
-		if (list == null) {
+		RoutingTable table = getRoutingTable();
+		Route[] routes = table.getRoutes(kind, stateMachineId);
+		if (routes == null) {
 			return;
 		}
-		for (CacheEntry entry : list) {
-			if (annotationHandlerVariableMatch(entry.metaAnnotation, key)) {
-				handlersList.add(entry.handler);
+		Collection<S> sourceIds = sourceState != null ? sourceState.getIds() : null;
+		Collection<S> targetIds = targetState != null ? targetState.getIds() : null;
+		RouteKey key = new RouteKey(kind, stateMachineId, sourceIds, targetIds, null);
+		Route[] resolved = table.getResolved(key);
+		if (resolved == null) {
+			List<Route> matching = new ArrayList<>();
+			Collection<String> sources = sourceIds != null ? StateMachineUtils.toStringCollection(sourceIds) : null;
+			Collection<String> targets = targetIds != null ? StateMachineUtils.toStringCollection(targetIds) : null;
+			for (Route route : routes) {
+				if (route.matchesSourceTarget(sources, targets)) {
+					matching.add(route);
+				}
 			}
+			resolved = table.resolve(key, matching);
 		}
-		getStateMachineHandlerResults(handlersList, stateContext);
+		handle(resolved, stateContext);
 	}
 
-	private void updateCache(String key, CacheEntry cacheEntry) {
-		List<CacheEntry> list = cache.get(key);
+	private void addRoute(Map<Class<?>, Map<String, List<Route>>> routes, Class<?> kind, String stateMachineId,
+			Route route) {
+		Map<String, List<Route>> machines = routes.get(kind);
+		if (machines == null) {
+			machines = new HashMap<>();
+			routes.put(kind, machines);
+		}
+		List<Route> list = machines.get(stateMachineId);
 		if (list == null) {
 			list = new ArrayList<>();
-			cache.put(key, list);
+			machines.put(stateMachineId, list);
 		}
-		list.add(cacheEntry);
+		list.add(route);
 	}
 
-	private synchronized List<CacheEntry> getCacheEntries(String cacheKey) {
+	private RoutingTable getRoutingTable() {
 		if (stateMachineHandlerApplicationListener != null) {
 			Long l = stateMachineHandlerApplicationListener.getLastRefreshTime();
-			if (l != null && l < System.currentTimeMillis() ) {
-				if (last != l) {
-					cache.clear();
-					try {
-						afterPropertiesSet();
-					} catch (Exception e) {
-						log.error("Unable to update handler cache", e);
+			if (l != null && l != last) {
+				synchronized (this) {
+					if (l != last) {
+						try {
+							afterPropertiesSet();
+						} catch (Exception e) {
+							log.error("Unable to update handler routing table", e);
+						}
+						last = l;
 					}
-					last = l;
 				}
 			}
 		}
-		return cache.get(cacheKey);
+		return routingTable;
 	}
 
-	private boolean annotationHandlerVariableMatch(Annotation annotation, Object key) {
-		boolean handle = false;
-		Map<String, Object> annotationAttributes = AnnotationUtils.getAnnotationAttributes(annotation);
-		Object object = annotationAttributes.get("key");
-		Collection<String> scoll = StateMachineUtils.toStringCollection(object);
-		if (!scoll.isEmpty()) {
-			if (StateMachineUtils.containsAtleastOne(scoll, StateMachineUtils.toStringCollection(key))) {
-				handle = true;
-			}
-		} else {
-			handle = true;
-		}
-		return handle;
+	@SuppressWarnings("unchecked")
+	private Route[] toArray(List<Route> routes) {
+		return routes.toArray((Route[]) Array.newInstance(StateMachineHandlerCallHelper.Route.class, routes.size()));
 	}
 
-	private boolean annotationHandlerEventVariableMatch(Annotation annotation, Object key) {
-		boolean handle = false;
-		Map<String, Object> annotationAttributes = AnnotationUtils.getAnnotationAttributes(annotation);
-		Object object = annotationAttributes.get("event");
-		Collection<String> scoll = StateMachineUtils.toStringCollection(object);
-		if (!scoll.isEmpty()) {
-			if (StateMachineUtils.containsAtleastOne(scoll, StateMachineUtils.toStringCollection(key))) {
-				handle = true;
+	private void handle(Route[] routes, StateContext<S, E> stateContext) {
+		for (Route route : routes) {
+			try {
+				route.handler.handle(stateContext);
+			} catch (Throwable e) {
+				log.error("Error processing handler " + route.handler, e);
 			}
-		} else {
-			handle = true;
 		}
-		return handle;
 	}
 
-	private boolean annotationHandlerSourceTargetMatch(String[] msources, String[] mtargets, Annotation methodAnnotation,
-			State<S, E> sourceState, State<S, E> targetState) {
-		Map<String, Object> annotationAttributes = AnnotationUtils.getAnnotationAttributes(methodAnnotation);
-		Object source = annotationAttributes.get("source");
-		Object target = annotationAttributes.get("target");
-
-		Collection<String> scoll = StateMachineUtils.toStringCollection(source);
-		if (scoll.isEmpty() && msources != null) {
-			scoll = Arrays.asList(msources);
-		}
-		Collection<String> tcoll = StateMachineUtils.toStringCollection(target);
-		if (tcoll.isEmpty() && mtargets != null) {
-			tcoll = Arrays.asList(mtargets);
-		}
-
-		boolean handle = false;
-		if (!scoll.isEmpty() && !tcoll.isEmpty()) {
-			if (sourceState != null
-					&& targetState != null
-					&& StateMachineUtils.containsAtleastOne(scoll,
-							StateMachineUtils.toStringCollection(sourceState.getIds()))
-					&& StateMachineUtils.containsAtleastOne(tcoll,
-							StateMachineUtils.toStringCollection(targetState.getIds()))) {
-				handle = true;
-			}
-		} else if (!scoll.isEmpty()) {
-			if (sourceState != null
-					&& StateMachineUtils.containsAtleastOne(scoll,
-							StateMachineUtils.toStringCollection(sourceState.getIds()))) {
-				handle = true;
-			}
-		} else if (!tcoll.isEmpty()) {
-			if (targetState != null
-					&& StateMachineUtils.containsAtleastOne(tcoll,
-							StateMachineUtils.toStringCollection(targetState.getIds()))) {
-				handle = true;
+	/**
+	 * Immutable snapshot of routes keyed by callback annotation type and
+	 * machine id together with a per kind cache of resolved matches.
+	 */
+	private class RoutingTable {
+		final Map<Class<?>, Map<String, Route[]>> routes;
+		final Map<Class<?>, ConcurrentHashMap<RouteKey, Route[]>> resolved = new HashMap<>();
+
+		RoutingTable(Map<Class<?>, Map<String, Route[]>> routes) {
+			this.routes = routes;
+			for (Class<?> kind : routes.keySet()) {
+				resolved.put(kind, new ConcurrentHashMap<RouteKey, Route[]>());
 			}
-		} else if (scoll.isEmpty() && tcoll.isEmpty()) {
-			handle = true;
 		}
 
-		return handle;
-	}
+		Route[] getResolved(RouteKey key) {
+			ConcurrentHashMap<RouteKey, Route[]> cache = resolved.get(key.kind);
+			return cache != null ? cache.get(key) : null;
+		}
 
-	private List<Object> getStateMachineHandlerResults(List<StateMachineHandler<? extends Annotation, S, E>> stateMachineHandlers,
-			final StateContext<S, E> stateContext) {
-		StateMachineRuntime<S, E> runtime = new StateMachineRuntime<S, E>() {
-			@Override
-			public StateContext<S, E> getStateContext() {
-				return stateContext;
-			}
-		};
-		List<Object> results = new ArrayList<Object>();
-		for (StateMachineHandler<? extends Annotation, S, E> handler : stateMachineHandlers) {
-			try {
-				results.add(handler.handle(runtime));
-			} catch (Throwable e) {
-				log.error("Error processing handler " + handler, e);
+		Route[] getRoutes(Class<?> kind, String stateMachineId) {
+			Map<String, Route[]> machines = routes.get(kind);
+			return machines != null ? machines.get(stateMachineId) : null;
+		}
+
+		Route[] resolve(RouteKey key, List<Route> matching) {
+			Route[] resolved = toArray(matching);
+			ConcurrentHashMap<RouteKey, Route[]> cache = this.resolved.get(key.kind);
+			if (cache != null) {
+				// variable keys and events are not bounded by a model, don't let those grow cache
+				// forever but start over so that routes in use get cached again
+				if (cache.size() >= MAX_RESOLVED_ROUTES) {
+					cache.clear();
+				}
+				cache.putIfAbsent(key.snapshot(), resolved);
 			}
+			return resolved;
 		}
-		return results;
 	}
 
-	private class CacheEntry {
+	/**
+	 * Handler with its annotation attributes converted into string
+	 * collections.
+	 */
+	private class Route {
 		final StateMachineHandler<? extends Annotation, S, E> handler;
-		final Annotation annotation;
-		final Annotation metaAnnotation;
+		final Collection<String> sources;
+		final Collection<String> targets;
+		final Collection<String> events;
+		final Collection<String> keys;
 
-		public CacheEntry(StateMachineHandler<? extends Annotation, S, E> handler, Annotation annotation, Annotation metaAnnotation) {
+		Route(StateMachineHandler<? extends Annotation, S, E> handler, Annotation annotation, Annotation metaAnnotation) {
 			this.handler = handler;
-			this.annotation = annotation;
-			this.metaAnnotation = metaAnnotation;
+			Map<String, Object> annotationAttributes = AnnotationUtils.getAnnotationAttributes(annotation);
+			Map<String, Object> metaAnnotationAttributes = AnnotationUtils.getAnnotationAttributes(metaAnnotation);
+			this.sources = toStringSet(annotationAttributes.get("source"), metaAnnotationAttributes.get("source"));
+			this.targets = toStringSet(annotationAttributes.get("target"), metaAnnotationAttributes.get("target"));
+			this.events = toStringSet(metaAnnotationAttributes.get("event"), null);
+			this.keys = toStringSet(metaAnnotationAttributes.get("key"), null);
+		}
+
+		boolean matchesSourceTarget(Collection<String> sourceIds, Collection<String> targetIds) {
+			if (!sources.isEmpty() && !targets.isEmpty()) {
+				return StateMachineUtils.containsAtleastOne(sources, sourceIds)
+						&& StateMachineUtils.containsAtleastOne(targets, targetIds);
+			} else if (!sources.isEmpty()) {
+				return StateMachineUtils.containsAtleastOne(sources, sourceIds);
+			} else if (!targets.isEmpty()) {
+				return StateMachineUtils.containsAtleastOne(targets, targetIds);
+			}
+			return true;
+		}
+
+		private Collection<String> toStringSet(Object value, Object fallback) {
+			Collection<String> collection = StateMachineUtils.toStringCollection(value);
+			if (collection.isEmpty()) {
+				collection = StateMachineUtils.toStringCollection(fallback);
+			}
+			return new HashSet<>(collection);
 		}
 	}
 
+	/**
+	 * Key for resolved routes. State id collections are compared by their
+	 * elements in iteration order, keys stored in a cache are snapshots so
+	 * that live collections from states are never retained.
+	 */
+	private static class RouteKey {
+		final Class<?> kind;
+		final String stateMachineId;
+		final Collection<?> sourceIds;
+		final Collection<?> targetIds;
+		final Object event;
+		final int hash;
+
+		RouteKey(Class<?> kind, String stateMachineId, Collection<?> sourceIds, Collection<?> targetIds, Object event) {
+			this.kind = kind;
+			this.stateMachineId = stateMachineId;
+			this.sourceIds = sourceIds;
+			this.targetIds = targetIds;
+			this.event = event;
+			int h = kind.hashCode();
+			h = 31 * h + stateMachineId.hashCode();
+			h = 31 * h + hash(sourceIds);
+			h = 31 * h + hash(targetIds);
+			h = 31 * h + ObjectUtils.nullSafeHashCode(event);
+			this.hash = h;
+		}
+
+		RouteKey snapshot() {
+			return new RouteKey(kind, stateMachineId, sourceIds != null ? new ArrayList<Object>(sourceIds) : null,
+					targetIds != null ? new ArrayList<Object>(targetIds) : null, event);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof RouteKey)) {
+				return false;
+			}
+			RouteKey other = (RouteKey) obj;
+			return hash == other.hash && kind == other.kind && stateMachineId.equals(other.stateMachineId)
+					&& ObjectUtils.nullSafeEquals(event, other.event) && elementsEqual(sourceIds, other.sourceIds)
+					&& elementsEqual(targetIds, other.targetIds);
+		}
+
+		private static int hash(Collection<?> ids) {
+			if (ids == null) {
+				return 0;
+			}
+			int h = 1;
+			for (Object id : ids) {
+				h = 31 * h + ObjectUtils.nullSafeHashCode(id);
+			}
+			return h;
+		}
+
+		private static boolean elementsEqual(Collection<?> left, Collection<?> right) {
+			if (left == right) {
+				return true;
+			}
+			if (left == null || right == null || left.size() != right.size()) {
+				return false;
+			}
+			Iterator<?> l = left.iterator();
+			Iterator<?> r = right.iterator();
+			while (l.hasNext()) {
+				if (!ObjectUtils.nullSafeEquals(l.next(), r.next())) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,6 +16,9 @@
 package org.springframework.statemachine.processor;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
@@ -49,12 +52,15 @@ import org.springframework.statemachine.support.AnnotatedMethodFilter;
 import org.springframework.statemachine.support.FixedMethodFilter;
 import org.springframework.statemachine.support.UniqueMethodFilter;
 import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
 import org.springframework.util.ReflectionUtils;
 import org.springframework.util.ReflectionUtils.MethodCallback;
 import org.springframework.util.ReflectionUtils.MethodFilter;
 
 /**
- * A helper class using spel to execute target methods.
+ * A helper class executing target methods. Methods are compiled into bound
+ * {@link MethodHandle}s with argument resolvers prepared at construction time,
+ * spel is used as a fallback for methods which cannot be compiled.
  *
  * @author Janne Valkealahti
  *
@@ -110,8 +116,18 @@ public class StateMachineMethodInvokerHelper<T, S, E> extends AbstractExpression
 	}
 
 	public T process(StateMachineRuntime<S, E> stateMachineRuntime) throws Exception {
-		ParametersWrapper<S, E> wrapper = new ParametersWrapper<S, E>(stateMachineRuntime.getStateContext());
-		return processInternal(wrapper);
+		return process(stateMachineRuntime.getStateContext());
+	}
+
+	/**
+	 * Process a target method against a given state context.
+	 *
+	 * @param stateContext the state context
+	 * @return the result
+	 * @throws Exception if target method invocation failed
+	 */
+	public T process(StateContext<S, E> stateContext) throws Exception {
+		return processInternal(stateContext);
 	}
 
 	@Override
@@ -130,7 +146,7 @@ public class StateMachineMethodInvokerHelper<T, S, E> extends AbstractExpression
 		}
 		Assert.notNull(targetObject, "targetObject must not be null");
 		this.targetObject = targetObject;
-		this.handlerMethod = new HandlerMethod(method);
+		this.handlerMethod = new HandlerMethod(method, targetObject);
 		this.handlerMethods = null;
 		this.handlerMessageMethods = null;
 		this.handlerMethodsList = null;
@@ -218,9 +234,13 @@ public class StateMachineMethodInvokerHelper<T, S, E> extends AbstractExpression
 		return false;
 	}
 
-	private T processInternal(ParametersWrapper<S, E> parameters) throws Exception {
-		HandlerMethod candidate = this.findHandlerMethodForParameters(parameters);
+	private T processInternal(StateContext<S, E> stateContext) throws Exception {
+		HandlerMethod candidate = this.findHandlerMethod();
 		Assert.notNull(candidate, "No candidate methods found for messages.");
+		if (candidate.isCompiled()) {
+			return invokeCompiled(candidate, stateContext);
+		}
+		ParametersWrapper<S, E> parameters = new ParametersWrapper<S, E>(stateContext);
 		Expression expression = candidate.getExpression();
 		Class<?> expectedType = this.expectedType != null ? this.expectedType : candidate.method.getReturnType();
 		try {
@@ -243,6 +263,27 @@ public class StateMachineMethodInvokerHelper<T, S, E> extends AbstractExpression
 		}
 	}
 
+	@SuppressWarnings("unchecked")
+	private T invokeCompiled(HandlerMethod candidate, StateContext<S, E> stateContext) throws Exception {
+		TypeConverter typeConverter = this.getEvaluationContext(false).getTypeConverter();
+		Object result;
+		try {
+			result = candidate.invoke(stateContext, typeConverter);
+		} catch (Exception e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException("Cannot process message", e);
+		}
+		if (result != null && this.expectedType != null && !ClassUtils.isAssignableValue(this.expectedType, result)) {
+			result = typeConverter.convertValue(result, TypeDescriptor.forObject(result),
+					TypeDescriptor.valueOf(this.expectedType));
+		}
+		if (this.requiresReply) {
+			Assert.notNull(result, "Method invocation result was null, but this processor requires a reply.");
+		}
+		return (T) result;
+	}
+
 	private Map<String, Map<Class<?>, HandlerMethod>> findHandlerMethodsForTarget(final Object targetObject,
 			final Class<? extends Annotation> annotationType, final String methodName, final boolean requiresReply) {
 
@@ -279,7 +320,7 @@ public class StateMachineMethodInvokerHelper<T, S, E> extends AbstractExpression
 				}
 				HandlerMethod handlerMethod = null;
 				try {
-					handlerMethod = new HandlerMethod(method);
+					handlerMethod = new HandlerMethod(method, targetObject);
 				}
 				catch (Exception e) {
 					if (logger.isDebugEnabled()) {
@@ -351,7 +392,7 @@ public class StateMachineMethodInvokerHelper<T, S, E> extends AbstractExpression
 		return targetClass;
 	}
 
-	private HandlerMethod findHandlerMethodForParameters(ParametersWrapper<S, E> parameters) {
+	private HandlerMethod findHandlerMethod() {
 		if (this.handlerMethod != null) {
 			return this.handlerMethod;
 		} else {
@@ -376,7 +417,8 @@ public class StateMachineMethodInvokerHelper<T, S, E> extends AbstractExpression
 
 	/**
 	 * Helper class for generating and exposing metadata for a candidate handler method. The metadata includes the SpEL
-	 * expression and the expected payload type.
+	 * expression, the expected payload type and, if method can be compiled, a bound {@link MethodHandle} together with
+	 * resolvers for its arguments.
 	 */
 	private static class HandlerMethod {
 
@@ -388,15 +430,33 @@ public class StateMachineMethodInvokerHelper<T, S, E> extends AbstractExpression
 
 		private final Expression expression;
 
+		private final MethodHandle invoker;
+
+		private final ParameterResolver[] parameterResolvers;
+
 		private volatile TypeDescriptor targetParameterTypeDescriptor;
 
 		private volatile Class<?> targetParameterType = Void.class;
 
 		private volatile boolean messageMethod;
 
-		HandlerMethod(Method method) {
+		HandlerMethod(Method method, Object targetObject) {
 			this.method = method;
 			this.expression = this.generateExpression(method);
+			this.parameterResolvers = this.generateParameterResolvers(method);
+			this.invoker = this.parameterResolvers != null ? this.compile(method, targetObject) : null;
+		}
+
+		boolean isCompiled() {
+			return this.invoker != null;
+		}
+
+		Object invoke(StateContext<?, ?> stateContext, TypeConverter typeConverter) throws Throwable {
+			Object[] args = new Object[this.parameterResolvers.length];
+			for (int i = 0; i < args.length; i++) {
+				args[i] = this.parameterResolvers[i].resolve(stateContext, typeConverter);
+			}
+			return (Object) this.invoker.invokeExact(args);
 		}
 
 
@@ -468,6 +528,64 @@ public class StateMachineMethodInvokerHelper<T, S, E> extends AbstractExpression
 			return EXPRESSION_PARSER.parseExpression(sb.toString());
 		}
 
+		private ParameterResolver[] generateParameterResolvers(Method method) {
+			Class<?>[] parameterTypes = method.getParameterTypes();
+			Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+			ParameterResolver[] resolvers = new ParameterResolver[parameterTypes.length];
+			for (int i = 0; i < parameterTypes.length; i++) {
+				TypeDescriptor parameterTypeDescriptor = new TypeDescriptor(new MethodParameter(method, i));
+				Class<?> parameterType = parameterTypeDescriptor.getObjectType();
+				Annotation mappingAnnotation = findMappingAnnotation(parameterAnnotations[i]);
+				ParameterSource source = null;
+				String key = null;
+				if (mappingAnnotation != null) {
+					Class<? extends Annotation> annotationType = mappingAnnotation.annotationType();
+					if (annotationType.equals(EventHeaders.class)) {
+						source = ParameterSource.HEADERS;
+					} else if (annotationType.equals(ExtendedStateVariable.class)) {
+						source = ParameterSource.VARIABLE;
+						key = AnnotationAttributes.fromMap(AnnotationUtils.getAnnotationAttributes(mappingAnnotation))
+								.getString("value");
+					}
+				} else if (StateContext.class.isAssignableFrom(parameterType)) {
+					source = ParameterSource.STATE_CONTEXT;
+				} else if (ExtendedState.class.isAssignableFrom(parameterType)) {
+					source = ParameterSource.EXTENDED_STATE;
+				} else if (StateMachine.class.isAssignableFrom(parameterType)) {
+					source = ParameterSource.STATE_MACHINE;
+				} else if (Message.class.isAssignableFrom(parameterType)) {
+					source = ParameterSource.MESSAGE;
+				} else if (Exception.class.isAssignableFrom(parameterType)) {
+					source = ParameterSource.EXCEPTION;
+				}
+				if (source == null) {
+					// leave unknown parameters to spel
+					return null;
+				}
+				resolvers[i] = new ParameterResolver(source, key, parameterTypeDescriptor);
+			}
+			return resolvers;
+		}
+
+		private MethodHandle compile(Method method, Object targetObject) {
+			boolean isStatic = Modifier.isStatic(method.getModifiers());
+			if (!isStatic && !method.getDeclaringClass().isInstance(targetObject)) {
+				// i.e. jdk proxy not implementing a method found from a target class
+				return null;
+			}
+			try {
+				ReflectionUtils.makeAccessible(method);
+				MethodHandle handle = MethodHandles.lookup().unreflect(method);
+				if (!isStatic) {
+					handle = handle.bindTo(targetObject);
+				}
+				return handle.asSpreader(Object[].class, method.getParameterCount())
+						.asType(MethodType.methodType(Object.class, Object[].class));
+			} catch (Exception e) {
+				return null;
+			}
+		}
+
 		private Annotation findMappingAnnotation(Annotation[] annotations) {
 			if (annotations == null || annotations.length == 0) {
 				return null;
@@ -498,6 +616,56 @@ public class StateMachineMethodInvokerHelper<T, S, E> extends AbstractExpression
 
 	}
 
+	/**
+	 * Where a compiled handler method argument is taken from.
+	 */
+	private enum ParameterSource {
+		HEADERS, VARIABLE, STATE_CONTEXT, EXTENDED_STATE, STATE_MACHINE, MESSAGE, EXCEPTION
+	}
+
+	/**
+	 * Resolves a single argument of a compiled handler method from a state context.
+	 */
+	private static class ParameterResolver {
+
+		private final ParameterSource source;
+
+		private final String key;
+
+		private final TypeDescriptor typeDescriptor;
+
+		ParameterResolver(ParameterSource source, String key, TypeDescriptor typeDescriptor) {
+			this.source = source;
+			this.key = key;
+			this.typeDescriptor = typeDescriptor;
+		}
+
+		Object resolve(StateContext<?, ?> stateContext, TypeConverter typeConverter) {
+			switch (source) {
+			case HEADERS:
+				return stateContext.getMessageHeaders();
+			case VARIABLE:
+				Object value = stateContext.getExtendedState().getVariables().get(key);
+				if (value != null && !ClassUtils.isAssignableValue(typeDescriptor.getType(), value)) {
+					value = typeConverter.convertValue(value, TypeDescriptor.forObject(value), typeDescriptor);
+				}
+				return value;
+			case STATE_CONTEXT:
+				return stateContext;
+			case EXTENDED_STATE:
+				return stateContext.getExtendedState();
+			case STATE_MACHINE:
+				return stateContext.getStateMachine();
+			case MESSAGE:
+				return stateContext.getMessage();
+			case EXCEPTION:
+				return stateContext.getException();
+			default:
+				return null;
+			}
+		}
+	}
+
 	/**
 	 * Wrapping everything we need to work with spel.
 	 */
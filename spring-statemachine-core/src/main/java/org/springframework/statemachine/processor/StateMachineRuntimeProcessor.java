@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,6 +15,8 @@
  */
 package org.springframework.statemachine.processor;
 
+import org.springframework.statemachine.StateContext;
+
 /**
  * Defines a strategy of processing a state machine and returning
  * some Object (or null).
@@ -36,4 +38,22 @@ public interface StateMachineRuntimeProcessor<T, S, E> {
 	 */
 	T process(StateMachineRuntime<S, E> stateMachineRuntime);
 
+	/**
+	 * Process the container based on a given {@link StateContext}. Default
+	 * implementation wraps context into a {@link StateMachineRuntime},
+	 * implementations should override this to avoid that allocation.
+	 *
+	 * @param stateContext the state context
+	 * @return the result
+	 */
+	default T process(StateContext<S, E> stateContext) {
+		return process(new StateMachineRuntime<S, E>() {
+
+			@Override
+			public StateContext<S, E> getStateContext() {
+				return stateContext;
+			}
+		});
+	}
+
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 the original author or authors.
+ * Copyright 2017-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,9 +16,15 @@
 package org.springframework.statemachine.service;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,10 +38,24 @@ import org.springframework.statemachine.access.StateMachineAccess;
 import org.springframework.statemachine.access.StateMachineFunction;
 import org.springframework.statemachine.config.StateMachineFactory;
 import org.springframework.statemachine.listener.StateMachineListenerAdapter;
+import org.springframework.statemachine.persist.DefaultStateMachinePersister;
 import org.springframework.util.Assert;
 
 /**
  * Default implementation of a {@link StateMachineService}.
+ * <p>
+ * Machines are kept in a concurrent map and creation of a machine, including
+ * possible read from a {@link StateMachinePersist}, is guarded by a lock
+ * owned by a machine id so that one slow acquire doesn't block acquires of
+ * other machines.
+ * <p>
+ * Amount of resident machines can be bounded with
+ * {@link #setMaxResidentStateMachines(int)} and machines can be expired after
+ * being idle with {@link #setIdleTimeout(long)}. Evicted machines are
+ * persisted, if {@link StateMachinePersist} is set, before those are stopped.
+ * Machine acquired while its eviction is in progress is not handed out
+ * until eviction completes, and eviction backs off if a machine is
+ * acquired at any point after it was chosen for eviction.
  *
  * @author Janne Valkealahti
  *
@@ -45,9 +65,17 @@ import org.springframework.util.Assert;
 public class DefaultStateMachineService<S, E> implements StateMachineService<S, E>, DisposableBean {
 
 	private final static Log log = LogFactory.getLog(DefaultStateMachineService.class);
+	private final static int EVICTION_QUEUE_SLACK = 64;
 	private final StateMachineFactory<S, E> stateMachineFactory;
-	private final Map<String, StateMachine<S, E>> machines = new HashMap<String, StateMachine<S, E>>();
+	private final ConcurrentMap<String, ResidentStateMachine<S, E>> machines = new ConcurrentHashMap<String, ResidentStateMachine<S, E>>();
+	private final Queue<ResidentStateMachine<S, E>> evictionQueue = new ConcurrentLinkedQueue<ResidentStateMachine<S, E>>();
+	private final AtomicInteger evictionQueueSize = new AtomicInteger();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
 	private StateMachinePersist<S, E, String> stateMachinePersist;
+	private volatile int maxResidentStateMachines = Integer.MAX_VALUE;
+	private volatile long idleTimeout = 0;
 
 	/**
 	 * Instantiates a new default state machine service.
@@ -83,48 +111,101 @@ public class DefaultStateMachineService<S, E> implements StateMachineService<S,
 
 	@Override
 	public StateMachine<S, E> acquireStateMachine(String machineId, boolean start) {
-		log.info("Acquiring machine with id " + machineId);
-		synchronized (machines) {
-			StateMachine<S,E> stateMachine = machines.get(machineId);
-			if (stateMachine == null) {
-				log.info("Getting new machine from factory with id " + machineId);
-				stateMachine = stateMachineFactory.getStateMachine(machineId);
-				if (stateMachinePersist != null) {
+		if (log.isDebugEnabled()) {
+			log.debug("Acquiring machine with id " + machineId);
+		}
+		while (true) {
+			ResidentStateMachine<S, E> resident = machines.get(machineId);
+			if (resident != null && resident.stateMachine != null) {
+				// touch before checking eviction so that either evict sees
+				// a new access or we see eviction in progress
+				resident.touch();
+				if (!resident.evicting && (!start || ((Lifecycle) resident.stateMachine).isRunning())) {
+					hitCount.incrementAndGet();
+					return resident.stateMachine;
+				}
+			}
+			if (resident == null) {
+				ResidentStateMachine<S, E> created = new ResidentStateMachine<S, E>(machineId);
+				resident = machines.putIfAbsent(machineId, created);
+				if (resident == null) {
+					resident = created;
+				}
+			}
+			StateMachine<S, E> stateMachine;
+			boolean created = false;
+			resident.lock.lock();
+			try {
+				if (resident.removed) {
+					// evicted or released while we were waiting
+					continue;
+				}
+				if (resident.stateMachine == null) {
+					missCount.incrementAndGet();
+					log.info("Getting new machine from factory with id " + machineId);
 					try {
-						StateMachineContext<S, E> stateMachineContext = stateMachinePersist.read(machineId);
-						stateMachine = restoreStateMachine(stateMachine, stateMachineContext);
-					} catch (Exception e) {
-						log.error("Error handling context", e);
-						throw new StateMachineException("Unable to read context from store", e);
+						stateMachine = stateMachineFactory.getStateMachine(machineId);
+						if (stateMachinePersist != null) {
+							try {
+								StateMachineContext<S, E> stateMachineContext = stateMachinePersist.read(machineId);
+								stateMachine = restoreStateMachine(stateMachine, stateMachineContext);
+							} catch (Exception e) {
+								log.error("Error handling context", e);
+								throw new StateMachineException("Unable to read context from store", e);
+							}
+						}
+					} catch (RuntimeException e) {
+						resident.removed = true;
+						machines.remove(machineId, resident);
+						throw e;
 					}
+					resident.stateMachine = stateMachine;
+					created = true;
+				} else {
+					hitCount.incrementAndGet();
+					stateMachine = resident.stateMachine;
+				}
+				handleStart(stateMachine, start);
+				// eviction which looked at this machine before we got here backs off
+				resident.touch();
+				if (created) {
+					// new machine doesn't count as referenced for a second chance
+					resident.checkedAccessCount = resident.accessCount.get();
 				}
-				machines.put(machineId, stateMachine);
+			} finally {
+				resident.lock.unlock();
 			}
-			return handleStart(stateMachine, start);
+			if (created && isEvictionEnabled()) {
+				enqueue(resident);
+				evictStateMachines(machineId);
+			}
+			return stateMachine;
 		}
 	}
 
 	@Override
 	public void releaseStateMachine(String machineId) {
-		log.info("Releasing machine with id " + machineId);
-		synchronized (machines) {
-			StateMachine<S, E> stateMachine = machines.remove(machineId);
-			if (stateMachine != null) {
-				log.info("Found machine with id " + machineId);
-				stateMachine.stop();
-			}
-		}
+		releaseStateMachine(machineId, true);
 	}
 
 	@Override
 	public void releaseStateMachine(String machineId, boolean stop) {
 		log.info("Releasing machine with id " + machineId);
-		synchronized (machines) {
-			StateMachine<S, E> stateMachine = machines.remove(machineId);
-			if (stateMachine != null) {
-				log.info("Found machine with id " + machineId);
-				handleStop(stateMachine, stop);
+		ResidentStateMachine<S, E> resident = machines.get(machineId);
+		if (resident == null) {
+			return;
+		}
+		resident.lock.lock();
+		try {
+			if (!resident.removed && machines.remove(machineId, resident)) {
+				resident.removed = true;
+				if (resident.stateMachine != null) {
+					log.info("Found machine with id " + machineId);
+					handleStop(resident.stateMachine, stop);
+				}
 			}
+		} finally {
+			resident.lock.unlock();
 		}
 	}
 
@@ -137,13 +218,112 @@ public class DefaultStateMachineService<S, E> implements StateMachineService<S,
 		this.stateMachinePersist = stateMachinePersist;
 	}
 
+	/**
+	 * Sets the maximum number of resident machines. When more machines are
+	 * acquired, least recently acquired machines are evicted. Default is
+	 * unbounded.
+	 *
+	 * @param maxResidentStateMachines the max resident state machines
+	 */
+	public void setMaxResidentStateMachines(int maxResidentStateMachines) {
+		Assert.isTrue(maxResidentStateMachines > 0, "'maxResidentStateMachines' must be positive");
+		this.maxResidentStateMachines = maxResidentStateMachines;
+	}
+
+	/**
+	 * Sets the idle timeout in milliseconds after which machine not acquired
+	 * is eligible for eviction. Idle machines are evicted when new machines
+	 * are acquired or when {@link #evictIdleStateMachines()} is called.
+	 * Default is {@code 0} meaning machines never expire.
+	 *
+	 * @param idleTimeout the idle timeout in milliseconds
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Evict all machines which have been idle longer than configured idle
+	 * timeout. This method can be called periodically, i.e. from a scheduler.
+	 *
+	 * @return the number of evicted machines
+	 */
+	public int evictIdleStateMachines() {
+		if (idleTimeout <= 0) {
+			return 0;
+		}
+		int count = 0;
+		long now = System.currentTimeMillis();
+		for (ResidentStateMachine<S, E> resident : machines.values()) {
+			// take access count before checking idle so that evict
+			// backs off if machine is acquired after this decision
+			long accessCount = resident.accessCount.get();
+			if (resident.isIdle(now, idleTimeout) && resident.stateMachine != null) {
+				if (evict(resident, accessCount)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of acquires which found machine already resident.
+	 *
+	 * @return the hit count
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Gets the number of acquires which created a new machine.
+	 *
+	 * @return the miss count
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Gets the number of evicted machines.
+	 *
+	 * @return the eviction count
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * Gets the number of currently resident machines.
+	 *
+	 * @return the resident count
+	 */
+	public int getResidentCount() {
+		return machines.size();
+	}
+
 	protected void doStop() {
 		log.info("Entering stop sequence, stopping all managed machines");
-		synchronized (machines) {
-			ArrayList<String> machineIds = new ArrayList<>(machines.keySet());
-			for (String machineId : machineIds) {
-				releaseStateMachine(machineId, true);
-			}
+		ArrayList<String> machineIds = new ArrayList<>(machines.keySet());
+		for (String machineId : machineIds) {
+			releaseStateMachine(machineId, true);
+		}
+		evictionQueue.clear();
+		evictionQueueSize.set(0);
+	}
+
+	/**
+	 * Persist a machine about to be evicted. Default implementation writes
+	 * machine context into a {@link StateMachinePersist} if one is set.
+	 *
+	 * @param machineId the machine id
+	 * @param stateMachine the state machine
+	 * @throws Exception if persisting fails in which case machine is not evicted
+	 */
+	protected void persistStateMachine(String machineId, StateMachine<S, E> stateMachine) throws Exception {
+		if (stateMachinePersist != null && stateMachine.getState() != null) {
+			new DefaultStateMachinePersister<S, E, String>(stateMachinePersist).persist(stateMachine, machineId);
 		}
 	}
 
@@ -192,6 +372,137 @@ public class DefaultStateMachineService<S, E> implements StateMachineService<S,
 		return stateMachine;
 	}
 
+	private boolean isEvictionEnabled() {
+		return maxResidentStateMachines < Integer.MAX_VALUE || idleTimeout > 0;
+	}
+
+	private void enqueue(ResidentStateMachine<S, E> resident) {
+		evictionQueue.add(resident);
+		// released machines are dropped from a queue lazily, purge those
+		// if queue grows clearly bigger than what is resident
+		if (evictionQueueSize.incrementAndGet() > 2 * machines.size() + EVICTION_QUEUE_SLACK) {
+			int removed = 0;
+			for (Iterator<ResidentStateMachine<S, E>> iterator = evictionQueue.iterator(); iterator.hasNext();) {
+				ResidentStateMachine<S, E> r = iterator.next();
+				if (machines.get(r.machineId) != r) {
+					iterator.remove();
+					removed++;
+				}
+			}
+			evictionQueueSize.addAndGet(-removed);
+		}
+	}
+
+	private ResidentStateMachine<S, E> dequeue() {
+		ResidentStateMachine<S, E> resident = evictionQueue.poll();
+		if (resident != null) {
+			evictionQueueSize.decrementAndGet();
+		}
+		return resident;
+	}
+
+	private void evictStateMachines(String acquiredMachineId) {
+		// go through eviction queue giving recently acquired machines
+		// a second chance, bounded so that one acquire can't loop forever
+		int max = evictionQueueSize.get();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < max; i++) {
+			ResidentStateMachine<S, E> head = evictionQueue.peek();
+			if (head == null) {
+				break;
+			}
+			if (machines.get(head.machineId) == head && !head.isIdle(now, idleTimeout)
+					&& machines.size() <= maxResidentStateMachines) {
+				break;
+			}
+			ResidentStateMachine<S, E> resident = dequeue();
+			if (resident == null) {
+				break;
+			}
+			if (machines.get(resident.machineId) != resident) {
+				// already released or evicted
+				continue;
+			}
+			long accessCount = resident.accessCount.get();
+			boolean idle = resident.isIdle(now, idleTimeout);
+			boolean referenced = resident.checkReferenced(accessCount);
+			if (!idle && (referenced || resident.machineId.equals(acquiredMachineId))) {
+				enqueue(resident);
+				continue;
+			}
+			if (!evict(resident, accessCount)) {
+				enqueue(resident);
+			}
+		}
+	}
+
+	private boolean evict(ResidentStateMachine<S, E> resident, long accessCount) {
+		resident.lock.lock();
+		try {
+			if (resident.removed || machines.get(resident.machineId) != resident) {
+				return false;
+			}
+			// flag eviction before checking accesses, acquire does it
+			// in reverse order so that one of us always backs off
+			resident.evicting = true;
+			if (resident.accessCount.get() != accessCount) {
+				resident.evicting = false;
+				return false;
+			}
+			try {
+				persistStateMachine(resident.machineId, resident.stateMachine);
+			} catch (Exception e) {
+				log.error("Unable to persist machine with id " + resident.machineId + ", keeping it resident", e);
+				resident.evicting = false;
+				return false;
+			}
+			machines.remove(resident.machineId, resident);
+			resident.removed = true;
+			evictionCount.incrementAndGet();
+			if (log.isDebugEnabled()) {
+				log.debug("Evicted machine with id " + resident.machineId);
+			}
+			handleStop(resident.stateMachine, true);
+			return true;
+		} finally {
+			resident.lock.unlock();
+		}
+	}
+
+	private static class ResidentStateMachine<S, E> {
+
+		final String machineId;
+		// not a monitor so that slow reads from a store don't pin virtual threads
+		final ReentrantLock lock = new ReentrantLock();
+		volatile StateMachine<S, E> stateMachine;
+		volatile long lastAccess;
+		final AtomicLong accessCount = new AtomicLong();
+		volatile boolean evicting;
+		volatile boolean removed;
+		// access count seen when eviction queue last checked this machine
+		volatile long checkedAccessCount;
+
+		ResidentStateMachine(String machineId) {
+			this.machineId = machineId;
+			this.lastAccess = System.currentTimeMillis();
+		}
+
+		void touch() {
+			lastAccess = System.currentTimeMillis();
+			accessCount.incrementAndGet();
+		}
+
+		boolean checkReferenced(long accessCount) {
+			boolean ret = accessCount != checkedAccessCount;
+			checkedAccessCount = accessCount;
+			return ret;
+		}
+
+		boolean isIdle(long now, long idleTimeout) {
+			return idleTimeout > 0 && now - lastAccess > idleTimeout;
+		}
+	}
+
 	private static class StartListener<S, E> extends StateMachineListenerAdapter<S, E> {
 
 		final CountDownLatch latch = new CountDownLatch(1);
@@ -15,7 +15,12 @@
  */
 package org.springframework.statemachine.service;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
 import org.springframework.statemachine.StateMachineContext;
+import org.springframework.util.StreamUtils;
 
 /**
  * Generic interface to handle serialisation in a state machine.
@@ -44,4 +49,51 @@ public interface StateMachineSerialisationService<S, E> {
 	 * @throws Exception the exception when deserialisation fails
 	 */
 	StateMachineContext<S, E> deserialiseStateMachineContext(byte[] data) throws Exception;
+
+	/**
+	 * Serialise state machine context into output stream. Stream is not
+	 * closed. Default implementation writes result of
+	 * {@link #serialiseStateMachineContext(StateMachineContext)}.
+	 *
+	 * @param context the context
+	 * @param outputStream the output stream
+	 * @throws Exception the exception when serialisation fails
+	 */
+	default void serialiseStateMachineContext(StateMachineContext<S, E> context, OutputStream outputStream) throws Exception {
+		outputStream.write(serialiseStateMachineContext(context));
+	}
+
+	/**
+	 * Deserialise state machine context from input stream. Stream is not
+	 * closed. Default implementation reads whole stream into a byte array,
+	 * other implementations may buffer and consume bytes past the end of
+	 * a context.
+	 *
+	 * @param inputStream the input stream
+	 * @return the state machine context
+	 * @throws Exception the exception when deserialisation fails
+	 */
+	default StateMachineContext<S, E> deserialiseStateMachineContext(InputStream inputStream) throws Exception {
+		return deserialiseStateMachineContext(StreamUtils.copyToByteArray(inputStream));
+	}
+
+	/**
+	 * Deserialise state machine context from remaining bytes of a byte
+	 * buffer. Default implementation copies remaining bytes into a byte array
+	 * unless buffer is backed by an array which can be used as is. Position
+	 * of a buffer is not changed.
+	 *
+	 * @param buffer the byte buffer
+	 * @return the state machine context
+	 * @throws Exception the exception when deserialisation fails
+	 */
+	default StateMachineContext<S, E> deserialiseStateMachineContext(ByteBuffer buffer) throws Exception {
+		if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+				&& buffer.remaining() == buffer.array().length) {
+			return deserialiseStateMachineContext(buffer.array());
+		}
+		byte[] data = new byte[buffer.remaining()];
+		buffer.duplicate().get(data);
+		return deserialiseStateMachineContext(data);
+	}
 }
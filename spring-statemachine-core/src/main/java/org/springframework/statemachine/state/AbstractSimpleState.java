@@ -15,7 +15,6 @@
  */
 package org.springframework.statemachine.state;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 
@@ -34,6 +33,7 @@ import org.springframework.statemachine.region.Region;
 public abstract class AbstractSimpleState<S, E> extends AbstractState<S, E> {
 
 	private final Collection<S> ids;
+	private final Collection<State<S, E>> states;
 
 	/**
 	 * Instantiates a new abstract simple state.
@@ -90,8 +90,8 @@ public abstract class AbstractSimpleState<S, E> extends AbstractState<S, E> {
 	public AbstractSimpleState(S id, Collection<E> deferred, Collection<? extends Action<S, E>> entryActions,
 			Collection<? extends Action<S, E>> exitActions, PseudoState<S, E> pseudoState, Collection<Region<S, E>> regions) {
 		super(id, deferred, entryActions, exitActions, pseudoState, regions);
-		this.ids = new ArrayList<S>();
-		this.ids.add(id);
+		this.ids = Collections.singletonList(id);
+		this.states = Collections.<State<S, E>>singletonList(this);
 	}
 
 	/**
@@ -107,8 +107,8 @@ public abstract class AbstractSimpleState<S, E> extends AbstractState<S, E> {
 	public AbstractSimpleState(S id, Collection<E> deferred, Collection<? extends Action<S, E>> entryActions,
 			Collection<? extends Action<S, E>> exitActions, PseudoState<S, E> pseudoState, StateMachine<S, E> submachine) {
 		super(id, deferred, entryActions, exitActions, pseudoState, submachine);
-		this.ids = new ArrayList<S>();
-		this.ids.add(id);
+		this.ids = Collections.singletonList(id);
+		this.states = Collections.<State<S, E>>singletonList(this);
 	}
 
 	/**
@@ -123,8 +123,8 @@ public abstract class AbstractSimpleState<S, E> extends AbstractState<S, E> {
 	public AbstractSimpleState(S id, Collection<E> deferred, Collection<? extends Action<S, E>> entryActions,
 			Collection<? extends Action<S, E>> exitActions, PseudoState<S, E> pseudoState) {
 		super(id, deferred, entryActions, exitActions, pseudoState);
-		this.ids = new ArrayList<S>();
-		this.ids.add(id);
+		this.ids = Collections.singletonList(id);
+		this.states = Collections.<State<S, E>>singletonList(this);
 	}
 
 	/**
@@ -143,19 +143,17 @@ public abstract class AbstractSimpleState<S, E> extends AbstractState<S, E> {
 			Collection<? extends Action<S, E>> exitActions, Collection<? extends Action<S, E>> stateActions,
 			PseudoState<S, E> pseudoState, Collection<Region<S, E>> regions, StateMachine<S, E> submachine) {
 		super(id, deferred, entryActions, exitActions, stateActions, pseudoState, regions, submachine);
-		this.ids = new ArrayList<S>();
-		this.ids.add(id);
+		this.ids = Collections.singletonList(id);
+		this.states = Collections.<State<S, E>>singletonList(this);
 	}
 
 	@Override
 	public Collection<S> getIds() {
-		return Collections.unmodifiableCollection(ids);
+		return ids;
 	}
 
 	@Override
 	public Collection<State<S, E>> getStates() {
-		ArrayList<State<S, E>> states = new ArrayList<State<S, E>>();
-		states.add(this);
 		return states;
 	}
 
@@ -22,6 +22,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
@@ -456,11 +457,11 @@ public abstract class AbstractState<S, E> extends LifecycleObjectSupport impleme
 	 * @param context the context
 	 */
 	protected void executeAction(Action<S, E> action, StateContext<S, E> context) {
-		long now = System.currentTimeMillis();
+		long now = System.nanoTime();
 		action.execute(context);
 		if (this.actionListener != null) {
 			try {
-				this.actionListener.onExecute(context.getStateMachine(), action, System.currentTimeMillis() - now);
+				this.actionListener.onExecute(context.getStateMachine(), action, System.nanoTime() - now, TimeUnit.NANOSECONDS);
 			} catch (Exception e) {
 				log.warn("Error with actionListener", e);
 			}
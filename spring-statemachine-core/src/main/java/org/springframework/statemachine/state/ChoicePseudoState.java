@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 the original author or authors.
+ * Copyright 2017-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,6 +15,7 @@
  */
 package org.springframework.statemachine.state;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -22,6 +23,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.statemachine.StateContext;
 import org.springframework.statemachine.action.Action;
+import org.springframework.statemachine.guard.DiscriminatingGuard;
 import org.springframework.statemachine.guard.Guard;
 import org.springframework.util.Assert;
 
@@ -37,6 +39,7 @@ public class ChoicePseudoState<S, E> implements PseudoState<S, E> {
 
 	private final static Log log = LogFactory.getLog(ChoicePseudoState.class);
 	private final List<ChoiceStateData<S, E>> choices;
+	private final GuardDecisionTable<S, E> decisionTable;
 
 	/**
 	 * Instantiates a new choice pseudo state.
@@ -44,7 +47,28 @@ public class ChoicePseudoState<S, E> implements PseudoState<S, E> {
 	 * @param choices the choices
 	 */
 	public ChoicePseudoState(List<ChoiceStateData<S, E>> choices) {
+		this(choices, false);
+	}
+
+	/**
+	 * Instantiates a new choice pseudo state. If decision table is enabled,
+	 * guards which are {@link DiscriminatingGuard}s are resolved with
+	 * a lookup instead of evaluating them in order.
+	 *
+	 * @param choices the choices
+	 * @param decisionTable the decision table flag
+	 */
+	public ChoicePseudoState(List<ChoiceStateData<S, E>> choices, boolean decisionTable) {
 		this.choices = choices;
+		if (decisionTable) {
+			List<Guard<S, E>> guards = new ArrayList<Guard<S, E>>(choices.size());
+			for (ChoiceStateData<S, E> d : choices) {
+				guards.add(d.guard);
+			}
+			this.decisionTable = new GuardDecisionTable<S, E>(guards);
+		} else {
+			this.decisionTable = null;
+		}
 	}
 
 	@Override
@@ -56,10 +80,17 @@ public class ChoicePseudoState<S, E> implements PseudoState<S, E> {
 	public State<S, E> entry(StateContext<S, E> context) {
 		State<S, E> s = null;
 		ChoiceStateData<S, E> csd = null;
-		for (ChoiceStateData<S, E> c : choices) {
-			csd = c;
-			if (c.guard != null && evaluateInternal(c.guard, context)) {
-				break;
+		if (decisionTable != null) {
+			int index = decisionTable.select(context);
+			if (index > -1) {
+				csd = choices.get(index);
+			}
+		} else {
+			for (ChoiceStateData<S, E> c : choices) {
+				csd = c;
+				if (c.guard != null && evaluateInternal(c.guard, context)) {
+					break;
+				}
 			}
 		}
 		if (csd != null) {
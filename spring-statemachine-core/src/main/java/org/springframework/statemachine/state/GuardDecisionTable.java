@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.state;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.guard.DiscriminatingGuard;
+import org.springframework.statemachine.guard.Guard;
+
+/**
+ * Selects a branch from an ordered list of guards same way as choice and
+ * junction pseudo states do, that is first branch whose guard evaluates to
+ * {@code TRUE} or last branch if none does.
+ * <p>
+ * Guards which are {@link DiscriminatingGuard}s on a same key are compiled
+ * into a lookup table and never evaluated, other guards are evaluated in
+ * order but only up to a branch found from a table. Key is chosen from a
+ * first discriminating guard, guards discriminating on other keys are
+ * handled as opaque guards.
+ *
+ * @author Janne Valkealahti
+ *
+ * @param <S> the type of state
+ * @param <E> the type of event
+ */
+class GuardDecisionTable<S, E> {
+
+	private final static Log log = LogFactory.getLog(GuardDecisionTable.class);
+	private final List<Guard<S, E>> guards;
+	private final Object key;
+	private final Map<Object, Integer> table = new HashMap<Object, Integer>();
+	private final int[] opaque;
+
+	/**
+	 * Instantiates a new guard decision table.
+	 *
+	 * @param guards the guards in branch order, {@code NULL} for a branch without a guard
+	 */
+	GuardDecisionTable(List<Guard<S, E>> guards) {
+		this.guards = guards;
+		Object key = null;
+		for (Guard<S, E> guard : guards) {
+			if (guard instanceof DiscriminatingGuard && ((DiscriminatingGuard<S, E>) guard).getDiscriminatorKey() != null) {
+				key = ((DiscriminatingGuard<S, E>) guard).getDiscriminatorKey();
+				break;
+			}
+		}
+		this.key = key;
+		List<Integer> opaque = new ArrayList<Integer>();
+		for (int i = 0; i < guards.size(); i++) {
+			Guard<S, E> guard = guards.get(i);
+			if (guard == null) {
+				continue;
+			}
+			if (key != null && guard instanceof DiscriminatingGuard
+					&& key.equals(((DiscriminatingGuard<S, E>) guard).getDiscriminatorKey())) {
+				Object value = ((DiscriminatingGuard<S, E>) guard).getDiscriminatorValue();
+				// earlier branch wins with same value
+				if (!table.containsKey(value)) {
+					table.put(value, i);
+				}
+			} else {
+				opaque.add(i);
+			}
+		}
+		this.opaque = new int[opaque.size()];
+		for (int i = 0; i < this.opaque.length; i++) {
+			this.opaque[i] = opaque.get(i);
+		}
+	}
+
+	/**
+	 * Select a branch index.
+	 *
+	 * @param context the state context
+	 * @return the index of selected branch or -1 if there are no branches
+	 */
+	int select(StateContext<S, E> context) {
+		Integer hit = null;
+		if (key != null) {
+			Object variable = context.getExtendedState().getVariables().get(key);
+			if (variable instanceof CharSequence) {
+				variable = variable.toString();
+			}
+			hit = table.get(variable);
+		}
+		int limit = hit != null ? hit : guards.size();
+		for (int i : opaque) {
+			if (i >= limit) {
+				break;
+			}
+			if (evaluateInternal(guards.get(i), context)) {
+				return i;
+			}
+		}
+		return hit != null ? hit : guards.size() - 1;
+	}
+
+	/**
+	 * Gets the count of branches resolved via a lookup table.
+	 *
+	 * @return the table size
+	 */
+	int getTableSize() {
+		return table.size();
+	}
+
+	private boolean evaluateInternal(Guard<S, E> guard, StateContext<S, E> context) {
+		try {
+			return guard.evaluate(context);
+		} catch (Throwable t) {
+			log.warn("Deny guard due to throw as GUARD should not error", t);
+			return false;
+		}
+	}
+}
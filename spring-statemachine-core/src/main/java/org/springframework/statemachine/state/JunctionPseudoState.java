@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2017 the original author or authors.
+ * Copyright 2016-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,6 +15,7 @@
  */
 package org.springframework.statemachine.state;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -22,6 +23,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.statemachine.StateContext;
 import org.springframework.statemachine.action.Action;
+import org.springframework.statemachine.guard.DiscriminatingGuard;
 import org.springframework.statemachine.guard.Guard;
 import org.springframework.util.Assert;
 
@@ -37,6 +39,7 @@ public class JunctionPseudoState<S, E> implements PseudoState<S, E> {
 
 	private final static Log log = LogFactory.getLog(JunctionPseudoState.class);
 	private final List<JunctionStateData<S, E>> junctions;
+	private final GuardDecisionTable<S, E> decisionTable;
 
 	/**
 	 * Instantiates a new junction pseudo state.
@@ -44,7 +47,28 @@ public class JunctionPseudoState<S, E> implements PseudoState<S, E> {
 	 * @param junctions the junctions
 	 */
 	public JunctionPseudoState(List<JunctionStateData<S, E>> junctions) {
+		this(junctions, false);
+	}
+
+	/**
+	 * Instantiates a new junction pseudo state. If decision table is enabled,
+	 * guards which are {@link DiscriminatingGuard}s are resolved with
+	 * a lookup instead of evaluating them in order.
+	 *
+	 * @param junctions the junctions
+	 * @param decisionTable the decision table flag
+	 */
+	public JunctionPseudoState(List<JunctionStateData<S, E>> junctions, boolean decisionTable) {
 		this.junctions = junctions;
+		if (decisionTable) {
+			List<Guard<S, E>> guards = new ArrayList<Guard<S, E>>(junctions.size());
+			for (JunctionStateData<S, E> d : junctions) {
+				guards.add(d.guard);
+			}
+			this.decisionTable = new GuardDecisionTable<S, E>(guards);
+		} else {
+			this.decisionTable = null;
+		}
 	}
 
 	@Override
@@ -56,10 +80,17 @@ public class JunctionPseudoState<S, E> implements PseudoState<S, E> {
 	public State<S, E> entry(StateContext<S, E> context) {
 		State<S, E> s = null;
 		JunctionStateData<S, E> jsd = null;
-		for (JunctionStateData<S, E> j : junctions) {
-			jsd = j;
-			if (j.guard != null && evaluateInternal(j.guard, context)) {
-				break;
+		if (decisionTable != null) {
+			int index = decisionTable.select(context);
+			if (index > -1) {
+				jsd = junctions.get(index);
+			}
+		} else {
+			for (JunctionStateData<S, E> j : junctions) {
+				jsd = j;
+				if (j.guard != null && evaluateInternal(j.guard, context)) {
+					break;
+				}
 			}
 		}
 		if (jsd != null) {
@@ -17,6 +17,7 @@ package org.springframework.statemachine.state;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 
 import org.springframework.messaging.Message;
 import org.springframework.statemachine.StateContext;
@@ -34,6 +35,12 @@ import org.springframework.statemachine.support.StateMachineUtils;
  */
 public class RegionState<S, E> extends AbstractState<S, E> {
 
+	// cached active ids, rebuilt only when some region state or its ids change
+	private volatile ActiveIds<S, E> activeIds;
+
+	// static state hierarchy, resolved lazily once regions are fully built
+	private volatile Collection<State<S, E>> states;
+
 	/**
 	 * Instantiates a new region state.
 	 *
@@ -166,29 +173,50 @@ public class RegionState<S, E> extends AbstractState<S, E> {
 
 	@Override
 	public Collection<S> getIds() {
+		ActiveIds<S, E> cached = activeIds;
+		if (cached != null && cached.isValid(getRegions())) {
+			return cached.ids;
+		}
+		Collection<Region<S, E>> regions = getRegions();
+		int size = regions.size();
+		@SuppressWarnings("unchecked")
+		State<S, E>[] regionStates = new State[size];
+		@SuppressWarnings("unchecked")
+		Collection<S>[] regionIds = new Collection[size];
 		ArrayList<S> ids = new ArrayList<S>();
 		if (getId() != null) {
 			ids.add(getId());
 		}
-		for (Region<S, E> r : getRegions()) {
+		int i = 0;
+		for (Region<S, E> r : regions) {
 			State<S, E> s = r.getState();
+			regionStates[i] = s;
 			if (s != null) {
-				ids.addAll(s.getIds());
+				regionIds[i] = s.getIds();
+				ids.addAll(regionIds[i]);
 			}
+			i++;
 		}
-		return ids;
+		cached = new ActiveIds<S, E>(regionStates, regionIds, Collections.unmodifiableCollection(ids));
+		activeIds = cached;
+		return cached.ids;
 	}
 
 	@Override
 	public Collection<State<S, E>> getStates() {
-		ArrayList<State<S, E>> states = new ArrayList<State<S, E>>();
-		states.add(this);
-		for (Region<S, E> r : getRegions()) {
-			for (State<S, E> s : r.getStates()) {
-				states.addAll(s.getStates());
+		Collection<State<S, E>> ret = states;
+		if (ret == null) {
+			ArrayList<State<S, E>> all = new ArrayList<State<S, E>>();
+			all.add(this);
+			for (Region<S, E> r : getRegions()) {
+				for (State<S, E> s : r.getStates()) {
+					all.addAll(s.getStates());
+				}
 			}
+			ret = Collections.unmodifiableList(all);
+			states = ret;
 		}
-		return states;
+		return ret;
 	}
 
 	@Override
@@ -197,4 +225,34 @@ public class RegionState<S, E> extends AbstractState<S, E> {
 				+ ", toString()=" + super.toString() + "]";
 	}
 
+	private static class ActiveIds<S, E> {
+		final State<S, E>[] regionStates;
+		final Collection<S>[] regionIds;
+		final Collection<S> ids;
+
+		ActiveIds(State<S, E>[] regionStates, Collection<S>[] regionIds, Collection<S> ids) {
+			this.regionStates = regionStates;
+			this.regionIds = regionIds;
+			this.ids = ids;
+		}
+
+		boolean isValid(Collection<Region<S, E>> regions) {
+			if (regions.size() != regionStates.length) {
+				return false;
+			}
+			int i = 0;
+			for (Region<S, E> r : regions) {
+				State<S, E> s = r.getState();
+				if (s != regionStates[i]) {
+					return false;
+				}
+				if (s != null && s.getIds() != regionIds[i]) {
+					return false;
+				}
+				i++;
+			}
+			return true;
+		}
+	}
+
 }
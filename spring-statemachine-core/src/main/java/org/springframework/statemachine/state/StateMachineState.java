@@ -17,6 +17,7 @@ package org.springframework.statemachine.state;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
@@ -41,6 +42,12 @@ public class StateMachineState<S, E> extends AbstractState<S, E> {
 
 	private final Collection<S> ids;
 
+	// cached active ids, rebuilt only when submachine state or its ids change
+	private volatile ActiveIds<S, E> activeIds;
+
+	// static state hierarchy, resolved lazily once submachine is fully built
+	private volatile Collection<State<S, E>> states;
+
 	/**
 	 * Instantiates a new state machine state.
 	 *
@@ -115,23 +122,34 @@ public class StateMachineState<S, E> extends AbstractState<S, E> {
 
 	@Override
 	public Collection<S> getIds() {
-
-		Collection<S> ret = new ArrayList<S>(ids);
 		State<S, E> state = getSubmachine().getState();
-		if (state != null) {
-			ret.addAll(state.getIds());
+		Collection<S> subIds = state != null ? state.getIds() : null;
+		ActiveIds<S, E> cached = activeIds;
+		if (cached != null && cached.state == state && cached.subIds == subIds) {
+			return cached.ids;
 		}
-		return ret;
+		Collection<S> ret = new ArrayList<S>(ids);
+		if (subIds != null) {
+			ret.addAll(subIds);
+		}
+		cached = new ActiveIds<S, E>(state, subIds, Collections.unmodifiableCollection(ret));
+		activeIds = cached;
+		return cached.ids;
 	}
 
 	@Override
 	public Collection<State<S, E>> getStates() {
-		ArrayList<State<S, E>> states = new ArrayList<State<S, E>>();
-		states.add(this);
-		for (State<S, E> s : getSubmachine().getStates()) {
-			states.addAll(s.getStates());
+		Collection<State<S, E>> ret = states;
+		if (ret == null) {
+			ArrayList<State<S, E>> all = new ArrayList<State<S, E>>();
+			all.add(this);
+			for (State<S, E> s : getSubmachine().getStates()) {
+				all.addAll(s.getStates());
+			}
+			ret = Collections.unmodifiableList(all);
+			states = ret;
 		}
-		return states;
+		return ret;
 	}
 
 	@Override
@@ -279,4 +297,16 @@ public class StateMachineState<S, E> extends AbstractState<S, E> {
 				+ getClass() + "]";
 	}
 
+	private static class ActiveIds<S, E> {
+		final State<S, E> state;
+		final Collection<S> subIds;
+		final Collection<S> ids;
+
+		ActiveIds(State<S, E> state, Collection<S> subIds, Collection<S> ids) {
+			this.state = state;
+			this.subIds = subIds;
+			this.ids = ids;
+		}
+	}
+
 }
@@ -55,7 +55,6 @@ import org.springframework.statemachine.transition.InitialTransition;
 import org.springframework.statemachine.transition.Transition;
 import org.springframework.statemachine.transition.TransitionConflictPolicy;
 import org.springframework.statemachine.transition.TransitionKind;
-import org.springframework.statemachine.trigger.DefaultTriggerContext;
 import org.springframework.statemachine.trigger.Trigger;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
@@ -67,7 +66,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Base implementation of a {@link StateMachine} loosely modelled from UML state
@@ -96,6 +97,8 @@ public abstract class AbstractStateMachine<S, E> extends StateMachineObjectSuppo
 
 	private TransitionConflictPolicy transitionConflictPolicy;
 
+	private Integer maxEventsPerRun;
+
 	private volatile State<S,E> currentState;
 
 	// using this to log last state when machine stops, as
@@ -114,6 +117,8 @@ public abstract class AbstractStateMachine<S, E> extends StateMachineObjectSuppo
 
 	private StateMachineExecutor<S, E> stateMachineExecutor;
 
+	private TransitionDispatchIndex<S, E> transitionDispatchIndex;
+
 	private Boolean initialEnabled = null;
 
 	private final UUID uuid;
@@ -123,7 +128,10 @@ public abstract class AbstractStateMachine<S, E> extends StateMachineObjectSuppo
 	private volatile Message<E> forwardedInitialEvent;
 
 	private final Object lock = new Object();
-	private final Object lock2 = new Object();
+	// explicit locks instead of monitors so that threads executing
+	// actions can park without pinning, i.e. virtual threads
+	private final ReentrantLock lock2 = new ReentrantLock();
+	private final ReentrantLock acceptLock = new ReentrantLock();
 
 	private StateMachine<S, E> parentMachine;
 
@@ -218,8 +226,11 @@ public abstract class AbstractStateMachine<S, E> extends StateMachineObjectSuppo
 
 	@Override
 	public boolean sendEvent(Message<E> event) {
-		synchronized (lock2) {
+		lock2.lock();
+		try {
 			return sendEventInternal(event);
+		} finally {
+			lock2.unlock();
 		}
 	}
 
@@ -285,11 +296,19 @@ public abstract class AbstractStateMachine<S, E> extends StateMachineObjectSuppo
 			}
 		}
 
+		// event dispatch is resolved via index shared with executor,
+		// transitions don't change after this point
+		transitionDispatchIndex = new TransitionDispatchIndex<S, E>(transitions,
+				new TransitionComparator<S, E>(transitionConflictPolicy));
 		DefaultStateMachineExecutor<S, E> executor = new DefaultStateMachineExecutor<S, E>(this, getRelayStateMachine(), transitions,
-				triggerToTransitionMap, triggerlessTransitions, initialTransition, initialEvent, transitionConflictPolicy);
+				triggerToTransitionMap, triggerlessTransitions, initialTransition, initialEvent, transitionConflictPolicy,
+				transitionDispatchIndex);
 		if (getBeanFactory() != null) {
 			executor.setBeanFactory(getBeanFactory());
 		}
+		if (maxEventsPerRun != null) {
+			executor.setMaxEventsPerRun(maxEventsPerRun);
+		}
 		if (getTaskExecutor() != null){
 			// parent machine is set when we're on substates(not regions)
 			// so then force sync executor which makes things a bit more reliable
@@ -318,7 +337,7 @@ public abstract class AbstractStateMachine<S, E> extends StateMachineObjectSuppo
 						lock.unlock();
 					}
 				}
-				long now = System.currentTimeMillis();
+				long now = System.nanoTime();
 				// TODO: fix above stateContext as it's not used
 				notifyTransitionStart(buildStateContext(Stage.TRANSITION_START, message, t, getRelayStateMachine()));
 				try {
@@ -342,7 +361,7 @@ public abstract class AbstractStateMachine<S, E> extends StateMachineObjectSuppo
 				}
 				// TODO: looks like events should be called here and anno processing earlier
 				notifyTransitionEnd(buildStateContext(Stage.TRANSITION_END, message, t, getRelayStateMachine()));
-				notifyTransitionMonitor(getRelayStateMachine(), t, System.currentTimeMillis() - now);
+				notifyTransitionMonitor(getRelayStateMachine(), t, System.nanoTime() - now, TimeUnit.NANOSECONDS);
 			}
 		});
 		stateMachineExecutor = executor;
@@ -352,7 +371,12 @@ public abstract class AbstractStateMachine<S, E> extends StateMachineObjectSuppo
 
 				@Override
 				public void onExecute(StateMachine<S, E> stateMachine, Action<S, E> action, long duration) {
-					notifyActionMonitor(stateMachine, action, duration);
+					onExecute(stateMachine, action, duration, TimeUnit.MILLISECONDS);
+				}
+
+				@Override
+				public void onExecute(StateMachine<S, E> stateMachine, Action<S, E> action, long duration, TimeUnit unit) {
+					notifyActionMonitor(stateMachine, action, duration, unit);
 				}
 			});
 		}
@@ -360,7 +384,12 @@ public abstract class AbstractStateMachine<S, E> extends StateMachineObjectSuppo
 			s.addActionListener(new ActionListener<S, E>() {
 				@Override
 				public void onExecute(StateMachine<S, E> stateMachine, Action<S, E> action, long duration) {
-					notifyActionMonitor(stateMachine, action, duration);
+					onExecute(stateMachine, action, duration, TimeUnit.MILLISECONDS);
+				}
+
+				@Override
+				public void onExecute(StateMachine<S, E> stateMachine, Action<S, E> action, long duration, TimeUnit unit) {
+					notifyActionMonitor(stateMachine, action, duration, unit);
 				}
 			});
 		}
@@ -502,6 +531,11 @@ public abstract class AbstractStateMachine<S, E> extends StateMachineObjectSuppo
 		initialEnabled = enabled;
 	}
 
+	@Override
+	public Lock getExecutorLock() {
+		return stateMachineExecutor != null ? stateMachineExecutor.getLock() : null;
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public StateMachineAccessor<S, E> getStateMachineAccessor() {
@@ -586,6 +620,15 @@ public abstract class AbstractStateMachine<S, E> extends StateMachineObjectSuppo
 		this.transitionConflictPolicy = transitionConflictPolicy;
 	}
 
+	/**
+	 * Sets the max events processed in one run of a state machine executor.
+	 *
+	 * @param maxEventsPerRun the max events per run, {@code NULL} for no limit
+	 */
+	public void setMaxEventsPerRun(Integer maxEventsPerRun) {
+		this.maxEventsPerRun = maxEventsPerRun;
+	}
+
 	private boolean sendEventInternal(Message<E> event) {
 		if (hasStateMachineError()) {
 			// TODO: should we throw exception?
@@ -823,7 +866,16 @@ public abstract class AbstractStateMachine<S, E> extends StateMachineObjectSuppo
 		return stateMachineExecutor;
 	}
 
-	protected synchronized boolean acceptEvent(Message<E> message) {
+	protected boolean acceptEvent(Message<E> message) {
+		acceptLock.lock();
+		try {
+			return acceptEventInternal(message);
+		} finally {
+			acceptLock.unlock();
+		}
+	}
+
+	private boolean acceptEventInternal(Message<E> message) {
 		if ((currentState != null && currentState.shouldDefer(message))) {
 			log.info("Current state " + currentState + " deferred event " + message);
 			stateMachineExecutor.queueDeferredEvent(message);
@@ -837,16 +889,10 @@ public abstract class AbstractStateMachine<S, E> extends StateMachineObjectSuppo
 			log.debug("Queue event " + message + " " + this);
 		}
 
-		for (Transition<S,E> transition : transitions) {
-			State<S,E> source = transition.getSource();
-			Trigger<S, E> trigger = transition.getTrigger();
-
-			if (currentState != null && StateMachineUtils.containsAtleastOne(source.getIds(), currentState.getIds())) {
-				if (trigger != null && trigger.evaluate(new DefaultTriggerContext<S, E>(message.getPayload()))) {
-					stateMachineExecutor.queueEvent(message);
-					return true;
-				}
-			}
+		if (currentState != null
+				&& transitionDispatchIndex.findTriggered(currentState.getIds(), message.getPayload()) != null) {
+			stateMachineExecutor.queueEvent(message);
+			return true;
 		}
 		// if we're about to not accept event, check defer again in case
 		// state was changed between original check and now
@@ -1014,8 +1060,11 @@ public abstract class AbstractStateMachine<S, E> extends StateMachineObjectSuppo
 
 	void setCurrentState(State<S, E> state, Message<E> message, Transition<S, E> transition, boolean exit,
 			StateMachine<S, E> stateMachine, Collection<State<S, E>> sources, Collection<State<S, E>> targets) {
-		synchronized (lock2) {
+		lock2.lock();
+		try {
 			setCurrentStateInternal(state, message, transition, exit, stateMachine, sources, targets);
+		} finally {
+			lock2.unlock();
 		}
 	}
 
@@ -24,18 +24,19 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.context.Lifecycle;
+import org.springframework.core.task.SyncTaskExecutor;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHeaders;
@@ -49,13 +50,28 @@ import org.springframework.statemachine.state.State;
 import org.springframework.statemachine.transition.AbstractTransition;
 import org.springframework.statemachine.transition.Transition;
 import org.springframework.statemachine.transition.TransitionConflictPolicy;
-import org.springframework.statemachine.trigger.DefaultTriggerContext;
 import org.springframework.statemachine.trigger.TimerTrigger;
 import org.springframework.statemachine.trigger.Trigger;
 import org.springframework.statemachine.trigger.TriggerListener;
+import org.springframework.util.Assert;
 
 /**
  * Default implementation of a {@link StateMachineExecutor}.
+ * <p>
+ * Executor works like an actor having event queue as its mailbox. Queue
+ * is drained by a single shared task which is scheduled into a
+ * {@link TaskExecutor} only when a machine goes from idle to having work,
+ * thus there is no task allocation per event and at most one thread
+ * processes events of a machine at a time. Requests for processing while
+ * a task is running are counted and the task keeps draining until all
+ * requests are seen, which guarantees that queued work is never left
+ * behind.
+ * <p>
+ * When many machines share a pool of threads, {@link #setMaxEventsPerRun(int)}
+ * can be used to limit how many events a machine processes before its
+ * task is put back into an executor, giving other machines a fair turn.
+ * Executor doesn't pin threads with monitors during execution so it can
+ * be used with an executor running tasks in virtual threads.
  *
  * @author Janne Valkealahti
  *
@@ -78,19 +94,21 @@ public class DefaultStateMachineExecutor<S, E> extends LifecycleObjectSupport im
 
 	private final Collection<Transition<S,E>> transitions;
 
-	private final AtomicBoolean requestTask = new AtomicBoolean(false);
-
 	private final Map<Trigger<S, E>, Transition<S,E>> triggerToTransitionMap;
 
 	private final List<Transition<S, E>> triggerlessTransitions;
 
+	private final List<Transition<S, E>> triggerlessTransitionsWithGuards;
+
 	private final Transition<S, E> initialTransition;
 
 	private final Message<E> initialEvent;
 
 	private final AtomicBoolean initialHandled = new AtomicBoolean(false);
 
-	private final AtomicReference<Runnable> taskRef = new AtomicReference<Runnable>();
+	private final AtomicInteger wip = new AtomicInteger();
+
+	private volatile int maxEventsPerRun = Integer.MAX_VALUE;
 
 	private StateMachineExecutorTransit<S, E> stateMachineExecutorTransit;
 
@@ -107,6 +125,54 @@ public class DefaultStateMachineExecutor<S, E> extends LifecycleObjectSupport im
 
 	private final TransitionConflictPolicy transitionConflictPolicy;
 
+	private final TransitionDispatchIndex<S, E> transitionDispatchIndex;
+
+	private final Runnable eventQueueTask = new Runnable() {
+		@Override
+		public void run() {
+			for (;;) {
+				// requests seen so far, anything arriving while draining
+				// leaves wip above zero and causes another round
+				int missed = wip.get();
+				boolean yielded = false;
+				boolean completed = false;
+				// lock operation, see AbstractStateMachine
+				// how this is used.
+				lock.lock();
+				try {
+					yielded = processQueues();
+					completed = true;
+				} finally {
+					lock.unlock();
+					if (!completed) {
+						// allow next request to schedule again
+						wip.set(0);
+					}
+				}
+				if (yielded && resubmit()) {
+					return;
+				}
+				if (!yielded && wip.addAndGet(-missed) == 0) {
+					return;
+				}
+			}
+		}
+
+		private boolean resubmit() {
+			TaskExecutor executor = getTaskExecutor();
+			if (executor == null || executor instanceof SyncTaskExecutor) {
+				return false;
+			}
+			try {
+				executor.execute(this);
+				return true;
+			} catch (RejectedExecutionException e) {
+				// keep draining on this thread
+				return false;
+			}
+		}
+	};
+
 	/**
 	 * Instantiates a new default state machine executor.
 	 *
@@ -123,6 +189,27 @@ public class DefaultStateMachineExecutor<S, E> extends LifecycleObjectSupport im
 			Collection<Transition<S, E>> transitions, Map<Trigger<S, E>, Transition<S, E>> triggerToTransitionMap,
 			List<Transition<S, E>> triggerlessTransitions, Transition<S, E> initialTransition, Message<E> initialEvent,
 			TransitionConflictPolicy transitionConflictPolicy) {
+		this(stateMachine, relayStateMachine, transitions, triggerToTransitionMap, triggerlessTransitions,
+				initialTransition, initialEvent, transitionConflictPolicy, null);
+	}
+
+	/**
+	 * Instantiates a new default state machine executor.
+	 *
+	 * @param stateMachine the state machine
+	 * @param relayStateMachine the relay state machine
+	 * @param transitions the transitions
+	 * @param triggerToTransitionMap the trigger to transition map
+	 * @param triggerlessTransitions the triggerless transitions
+	 * @param initialTransition the initial transition
+	 * @param initialEvent the initial event
+	 * @param transitionConflictPolicy the transition conflict policy
+	 * @param transitionDispatchIndex the prebuilt transition dispatch index, built from transitions if {@code null}
+	 */
+	DefaultStateMachineExecutor(StateMachine<S, E> stateMachine, StateMachine<S, E> relayStateMachine,
+			Collection<Transition<S, E>> transitions, Map<Trigger<S, E>, Transition<S, E>> triggerToTransitionMap,
+			List<Transition<S, E>> triggerlessTransitions, Transition<S, E> initialTransition, Message<E> initialEvent,
+			TransitionConflictPolicy transitionConflictPolicy, TransitionDispatchIndex<S, E> transitionDispatchIndex) {
 		this.stateMachine = stateMachine;
 		this.relayStateMachine = relayStateMachine;
 		this.triggerToTransitionMap = triggerToTransitionMap;
@@ -134,6 +221,14 @@ public class DefaultStateMachineExecutor<S, E> extends LifecycleObjectSupport im
 		this.transitionConflictPolicy = transitionConflictPolicy;
 		// anonymous transitions are fixed, sort those now
 		this.triggerlessTransitions.sort(transitionComparator);
+		this.triggerlessTransitionsWithGuards = new ArrayList<Transition<S, E>>();
+		for (Transition<S, E> t : this.triggerlessTransitions) {
+			if (((AbstractTransition<S, E>)t).getGuard() != null) {
+				this.triggerlessTransitionsWithGuards.add(t);
+			}
+		}
+		this.transitionDispatchIndex = transitionDispatchIndex != null ? transitionDispatchIndex
+				: new TransitionDispatchIndex<S, E>(transitions, transitionComparator);
 		registerTriggerListener();
 	}
 
@@ -163,6 +258,18 @@ public class DefaultStateMachineExecutor<S, E> extends LifecycleObjectSupport im
 		scheduleEventQueueProcessing();
 	}
 
+	/**
+	 * Sets the maximum number of events processed in one run of an executor
+	 * task before it is given back to a {@link TaskExecutor}. Defaults to
+	 * no limit. Has no effect with a {@link SyncTaskExecutor}.
+	 *
+	 * @param maxEventsPerRun the max events per run
+	 */
+	public void setMaxEventsPerRun(int maxEventsPerRun) {
+		Assert.isTrue(maxEventsPerRun > 0, "Max events per run must be positive");
+		this.maxEventsPerRun = maxEventsPerRun;
+	}
+
 	@Override
 	public void setStateMachineExecutorTransit(StateMachineExecutorTransit<S, E> stateMachineExecutorTransit) {
 		this.stateMachineExecutorTransit = stateMachineExecutorTransit;
@@ -307,52 +414,38 @@ public class DefaultStateMachineExecutor<S, E> extends LifecycleObjectSupport im
 			return;
 		}
 
-		// TODO: it'd be nice not to create runnable if
-		//       current ref is null, we use atomic reference
-		//       to play safe with concurrency.
-		Runnable task = new Runnable() {
-			@Override
-			public void run() {
-				// lock operation, see AbstractStateMachine
-				// how this is used.
-				lock.lock();
-				try {
-					boolean eventProcessed = false;
-					while (processEventQueue()) {
-						eventProcessed = true;
-						processTriggerQueue();
-						while (processDeferList()) {
-							processTriggerQueue();
-						}
-					}
-					if (!eventProcessed) {
-						processTriggerQueue();
-						while (processDeferList()) {
-							processTriggerQueue();
-						}
-					}
-
-					if (requestTask.getAndSet(false)) {
-						scheduleEventQueueProcessing();
-					}
-					taskRef.set(null);
-				} finally {
-					lock.unlock();
-				}
-
-				// do second attempt which should reduse risk
-				// of threading causing failed run to completion
-				if (requestTask.getAndSet(false)) {
-					scheduleEventQueueProcessing();
-				}
+		// task is stateless and shared, only a request which finds
+		// executor idle schedules it, others are picked up by a running task.
+		if (wip.getAndIncrement() == 0) {
+			try {
+				executor.execute(eventQueueTask);
+			} catch (RuntimeException e) {
+				wip.set(0);
+				throw e;
 			}
-		};
+		}
+	}
 
-		if (taskRef.compareAndSet(null, task)) {
-			executor.execute(task);
-		} else {
-			requestTask.set(true);
+	private boolean processQueues() {
+		int processed = 0;
+		boolean eventProcessed = false;
+		while (processEventQueue()) {
+			eventProcessed = true;
+			processTriggerQueue();
+			while (processDeferList()) {
+				processTriggerQueue();
+			}
+			if (++processed >= maxEventsPerRun && !eventQueue.isEmpty()) {
+				return true;
+			}
+		}
+		if (!eventProcessed) {
+			processTriggerQueue();
+			while (processDeferList()) {
+				processTriggerQueue();
+			}
 		}
+		return false;
 	}
 
 	private boolean processEventQueue() {
@@ -367,16 +460,11 @@ public class DefaultStateMachineExecutor<S, E> extends LifecycleObjectSupport im
 				queueDeferredEvent(queuedEvent);
 				return true;
 			}
-			for (Transition<S,E> transition : transitions) {
-				State<S,E> source = transition.getSource();
-				Trigger<S, E> trigger = transition.getTrigger();
-
-				if (StateMachineUtils.containsAtleastOne(source.getIds(), currentState.getIds())) {
-					if (trigger != null && trigger.evaluate(new DefaultTriggerContext<S, E>(queuedEvent.getPayload()))) {
-						queueTrigger(trigger, queuedEvent);
-						return true;
-					}
-				}
+			Transition<S, E> transition = currentState != null
+					? transitionDispatchIndex.findTriggered(currentState.getIds(), queuedEvent.getPayload()) : null;
+			if (transition != null) {
+				queueTrigger(transition.getTrigger(), queuedEvent);
+				return true;
 			}
 		}
 		return false;
@@ -387,8 +475,6 @@ public class DefaultStateMachineExecutor<S, E> extends LifecycleObjectSupport im
 			return;
 		}
 		if (!initialHandled.getAndSet(true)) {
-			ArrayList<Transition<S, E>> trans = new ArrayList<Transition<S, E>>();
-			trans.add(initialTransition);
 			// TODO: should we merge if initial event is actually used?
 			if (initialEvent != null) {
 				handleInitialTrans(initialTransition, initialEvent);
@@ -418,49 +504,24 @@ public class DefaultStateMachineExecutor<S, E> extends LifecycleObjectSupport im
 			// multiple
 			// need to go up from substates and ask if trigger transit, if not
 			// check super
-			ArrayList<Transition<S, E>> trans = new ArrayList<Transition<S, E>>();
-
-			if (event != null) {
-				ArrayList<S> ids = new ArrayList<S>(currentState.getIds());
-				Collections.reverse(ids);
-				for (S id : ids) {
-					for (Entry<Trigger<S, E>, Transition<S, E>> e : triggerToTransitionMap.entrySet()) {
-						Trigger<S, E> tri = e.getKey();
-						E ee = tri.getEvent();
-						Transition<S, E> tra = e.getValue();
-						if (event.equals(ee)) {
-							if (tra.getSource().getId().equals(id) && !trans.contains(tra)) {
-								trans.add(tra);
-								continue;
-							}
-						}
-					}
-				}
-			}
+			// candidates come out of dispatch index already sorted
+			List<Transition<S, E>> trans = transitionDispatchIndex.getCandidates(currentState.getIds(), event);
 
 			// most likely timer
 			if (trans.isEmpty()) {
 				trans.add(triggerToTransitionMap.get(queueItem.trigger));
 			}
 
-			// go through candidates and transit max one, sort before handling
-			trans.sort(transitionComparator);
+			// go through candidates and transit max one
 			handleTriggerTrans(trans, queuedMessage);
 		}
 
-		List<Transition<S, E>> transWithGuards = new ArrayList<>();
-		for (Transition<S, E> t : triggerlessTransitions) {
-			if (((AbstractTransition<S, E>)t).getGuard() != null) {
-				transWithGuards.add(t);
-			}
-		}
-
 		if (stateMachine.getState() != null) {
 			// loop triggerless transitions here so that
 			// all "chained" transitions will get queue message
 			boolean transit = false;
 			do {
-				transit = handleTriggerTrans(transWithGuards, queuedMessage);
+				transit = handleTriggerTrans(triggerlessTransitionsWithGuards, queuedMessage);
 			} while (transit);
 		}
 
@@ -485,17 +546,13 @@ public class DefaultStateMachineExecutor<S, E> extends LifecycleObjectSupport im
 				// if current state still defers, just continue with others
 				continue;
 			}
-			for (Transition<S, E> transition : transitions) {
-				State<S, E> source = transition.getSource();
-				Trigger<S, E> trigger = transition.getTrigger();
-				if (source.equals(currentState)) {
-					if (trigger != null && trigger.evaluate(new DefaultTriggerContext<S, E>(event.getPayload()))) {
-						triggerQueue.add(new TriggerQueueItem(trigger, event));
-						iterator.remove();
-						// bail out when first deferred message is causing a trigger to fire
-						return true;
-					}
-				}
+			Transition<S, E> transition = transitionDispatchIndex.findTriggered(Collections.singletonList(currentState.getId()),
+					event.getPayload());
+			if (transition != null && transition.getSource().equals(currentState)) {
+				triggerQueue.add(new TriggerQueueItem(transition.getTrigger(), event));
+				iterator.remove();
+				// bail out when first deferred message is causing a trigger to fire
+				return true;
 			}
 		}
 		return false;
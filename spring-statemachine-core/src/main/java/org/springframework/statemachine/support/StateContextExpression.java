@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.support;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.expression.EvaluationException;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.statemachine.StateContext;
+import org.springframework.util.Assert;
+
+/**
+ * Wrapper for an {@link Expression} evaluated against a {@link StateContext}
+ * which compiles spel expressions into bytecode.
+ * <p>
+ * If a {@link SpelParserConfiguration} used to parse a spel expression is
+ * given, expression parsed with a compiler mode is used as is and expression
+ * parsed in {@link SpelCompilerMode#OFF} mode is re-parsed in
+ * {@link SpelCompilerMode#MIXED} mode keeping rest of the given
+ * configuration. Compilation is then attempted right after first
+ * evaluations instead of waiting spel's own interpretation threshold.
+ * Without a configuration a compiler mode of an expression is not known,
+ * thus expression is used as is and compiled only if spel itself decides
+ * to do so.
+ * Compilation needs type information collected during interpreted
+ * evaluations, thus it's retried for a few first evaluations. If compilation
+ * doesn't succeed, expression keeps running interpreted which is counted as
+ * a fallback. In mixed mode a compiled expression which fails at runtime is
+ * reverted to interpreted mode by spel itself.
+ * <p>
+ * Expressions are evaluated using a shared {@link StateContextExpressionMethods}
+ * unless an explicit one is given.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class StateContextExpression {
+
+	private static final Log log = LogFactory.getLog(StateContextExpression.class);
+	private static final int COMPILE_ATTEMPTS = 3;
+	private static final AtomicLong compiledCount = new AtomicLong();
+	private static final AtomicLong fallbackCount = new AtomicLong();
+	private final Expression expression;
+	private final SpelParserConfiguration configuration;
+	private final StateContextExpressionMethods methods;
+	private final AtomicInteger compileAttempts;
+	private volatile boolean compiled;
+
+	/**
+	 * Instantiates a new state context expression using shared
+	 * {@link StateContextExpressionMethods}.
+	 *
+	 * @param expression the expression
+	 */
+	public StateContextExpression(Expression expression) {
+		this(expression, null, StateContextExpressionMethods.shared());
+	}
+
+	/**
+	 * Instantiates a new state context expression using shared
+	 * {@link StateContextExpressionMethods}.
+	 *
+	 * @param expression the expression
+	 * @param configuration the configuration used to parse an expression
+	 */
+	public StateContextExpression(Expression expression, SpelParserConfiguration configuration) {
+		this(expression, configuration, StateContextExpressionMethods.shared());
+	}
+
+	/**
+	 * Instantiates a new state context expression.
+	 *
+	 * @param expression the expression
+	 * @param methods the state context expression methods
+	 */
+	public StateContextExpression(Expression expression, StateContextExpressionMethods methods) {
+		this(expression, null, methods);
+	}
+
+	/**
+	 * Instantiates a new state context expression.
+	 *
+	 * @param expression the expression
+	 * @param configuration the configuration used to parse an expression
+	 * @param methods the state context expression methods
+	 */
+	public StateContextExpression(Expression expression, SpelParserConfiguration configuration,
+			StateContextExpressionMethods methods) {
+		Assert.notNull(expression, "Expression cannot be null");
+		Assert.notNull(methods, "Expression methods cannot be null");
+		if (expression instanceof SpelExpression && configuration != null) {
+			if (configuration.getCompilerMode() == SpelCompilerMode.OFF) {
+				configuration = new SpelParserConfiguration(SpelCompilerMode.MIXED,
+						configuration.getCompilerClassLoader(), configuration.isAutoGrowNullReferences(),
+						configuration.isAutoGrowCollections(), configuration.getMaximumAutoGrowSize());
+				this.expression = new SpelExpressionParser(configuration).parseExpression(expression.getExpressionString());
+			} else {
+				this.expression = expression;
+			}
+			this.compileAttempts = new AtomicInteger(COMPILE_ATTEMPTS);
+		} else {
+			this.expression = expression;
+			this.compileAttempts = new AtomicInteger();
+		}
+		this.configuration = configuration;
+		this.methods = methods;
+	}
+
+	/**
+	 * Gets the value.
+	 *
+	 * @param <T> the generic type
+	 * @param stateContext the state context
+	 * @param desiredResultType the desired result type
+	 * @return the value
+	 * @throws EvaluationException the evaluation exception
+	 */
+	public <T> T getValue(StateContext<?, ?> stateContext, Class<T> desiredResultType) throws EvaluationException {
+		T value = methods.getValue(expression, stateContext, desiredResultType);
+		if (compileAttempts.get() > 0) {
+			compile();
+		}
+		return value;
+	}
+
+	/**
+	 * Gets the wrapped expression.
+	 *
+	 * @return the expression
+	 */
+	public Expression getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Gets the configuration used to parse a wrapped expression.
+	 *
+	 * @return the configuration, {@code NULL} if not known
+	 */
+	public SpelParserConfiguration getConfiguration() {
+		return configuration;
+	}
+
+	/**
+	 * Checks if expression has been compiled.
+	 *
+	 * @return true, if compiled
+	 */
+	public boolean isCompiled() {
+		return compiled;
+	}
+
+	/**
+	 * Gets the count of expressions successfully compiled.
+	 *
+	 * @return the compiled count
+	 */
+	public static long getCompiledCount() {
+		return compiledCount.get();
+	}
+
+	/**
+	 * Gets the count of expressions which could not be compiled and
+	 * fell back to interpretation.
+	 *
+	 * @return the fallback count
+	 */
+	public static long getFallbackCount() {
+		return fallbackCount.get();
+	}
+
+	private void compile() {
+		int remaining = compileAttempts.decrementAndGet();
+		if (remaining < 0) {
+			return;
+		}
+		boolean success;
+		try {
+			success = ((SpelExpression) expression).compileExpression();
+		} catch (Exception e) {
+			log.debug("Error compiling expression " + expression.getExpressionString(), e);
+			success = false;
+		}
+		if (success) {
+			compileAttempts.set(0);
+			compiled = true;
+			compiledCount.incrementAndGet();
+		} else if (remaining == 0) {
+			fallbackCount.incrementAndGet();
+			if (log.isDebugEnabled()) {
+				log.debug("Expression " + expression.getExpressionString() + " not compilable, using interpreter");
+			}
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,8 +15,22 @@
  */
 package org.springframework.statemachine.support;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.expression.BeanResolver;
+import org.springframework.expression.ConstructorResolver;
+import org.springframework.expression.EvaluationContext;
 import org.springframework.expression.EvaluationException;
 import org.springframework.expression.Expression;
+import org.springframework.expression.MethodResolver;
+import org.springframework.expression.OperatorOverloader;
+import org.springframework.expression.PropertyAccessor;
+import org.springframework.expression.TypeComparator;
+import org.springframework.expression.TypeConverter;
+import org.springframework.expression.TypeLocator;
+import org.springframework.expression.TypedValue;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.statemachine.StateContext;
 import org.springframework.util.Assert;
@@ -29,7 +43,10 @@ import org.springframework.util.Assert;
  */
 public class StateContextExpressionMethods {
 
+	private static final StateContextExpressionMethods SHARED = new StateContextExpressionMethods(
+			initialize(new StandardEvaluationContext()), true);
 	private final StandardEvaluationContext context;
+	private final boolean scopedVariables;
 
 	/**
 	 * Instantiates a new state context expression methods
@@ -38,7 +55,12 @@ public class StateContextExpressionMethods {
 	 * @param evaluationContext the spel evaluation context
 	 */
 	public StateContextExpressionMethods(StandardEvaluationContext evaluationContext) {
+		this(evaluationContext, false);
+	}
+
+	private StateContextExpressionMethods(StandardEvaluationContext evaluationContext, boolean scopedVariables) {
 		this.context = evaluationContext;
+		this.scopedVariables = scopedVariables;
 	}
 
 	/**
@@ -54,7 +76,105 @@ public class StateContextExpressionMethods {
 	public <T> T getValue(Expression expression, StateContext<?, ?> stateContext, Class<T> desiredResultType)
 			throws EvaluationException {
 		Assert.notNull(expression, "Expression cannot be null");
-		return expression.getValue(context, stateContext, desiredResultType);
+		EvaluationContext evaluationContext = scopedVariables ? new VariableScopedEvaluationContext(context) : context;
+		return expression.getValue(evaluationContext, stateContext, desiredResultType);
+	}
+
+	/**
+	 * Gets a shared instance of state context expression methods. Shared
+	 * evaluation context is fully initialized upfront so that it can be used
+	 * concurrently, root object is always a {@link StateContext} given per
+	 * evaluation. Variables assigned by an expression, like {@code #foo = 1},
+	 * are visible only within a same evaluation and never shared between
+	 * machines or threads.
+	 *
+	 * @return the shared state context expression methods
+	 */
+	public static StateContextExpressionMethods shared() {
+		return SHARED;
+	}
+
+	private static StandardEvaluationContext initialize(StandardEvaluationContext context) {
+		// resolvers and accessors are created lazily, touch those
+		// here so that concurrent evaluations only read
+		context.getPropertyAccessors();
+		context.getConstructorResolvers();
+		context.getMethodResolvers();
+		context.getTypeLocator();
+		context.getTypeConverter();
+		return context;
+	}
+
+	/**
+	 * {@link EvaluationContext} delegating to a shared context while keeping
+	 * variables local to one evaluation.
+	 */
+	private static class VariableScopedEvaluationContext implements EvaluationContext {
+
+		private final EvaluationContext delegate;
+		private Map<String, Object> variables;
+
+		VariableScopedEvaluationContext(EvaluationContext delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public TypedValue getRootObject() {
+			return delegate.getRootObject();
+		}
+
+		@Override
+		public List<PropertyAccessor> getPropertyAccessors() {
+			return delegate.getPropertyAccessors();
+		}
+
+		@Override
+		public List<ConstructorResolver> getConstructorResolvers() {
+			return delegate.getConstructorResolvers();
+		}
+
+		@Override
+		public List<MethodResolver> getMethodResolvers() {
+			return delegate.getMethodResolvers();
+		}
+
+		@Override
+		public BeanResolver getBeanResolver() {
+			return delegate.getBeanResolver();
+		}
+
+		@Override
+		public TypeLocator getTypeLocator() {
+			return delegate.getTypeLocator();
+		}
+
+		@Override
+		public TypeConverter getTypeConverter() {
+			return delegate.getTypeConverter();
+		}
+
+		@Override
+		public TypeComparator getTypeComparator() {
+			return delegate.getTypeComparator();
+		}
+
+		@Override
+		public OperatorOverloader getOperatorOverloader() {
+			return delegate.getOperatorOverloader();
+		}
+
+		@Override
+		public void setVariable(String name, Object value) {
+			if (variables == null) {
+				variables = new HashMap<String, Object>();
+			}
+			variables.put(name, value);
+		}
+
+		@Override
+		public Object lookupVariable(String name) {
+			return variables != null ? variables.get(name) : null;
+		}
 	}
 
 }
@@ -17,6 +17,7 @@ package org.springframework.statemachine.support;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -323,16 +324,25 @@ public abstract class StateMachineObjectSupport<S, E> extends LifecycleObjectSup
 	}
 
 	protected void notifyTransitionMonitor(StateMachine<S, E> stateMachine, Transition<S, E> transition, long duration) {
+		notifyTransitionMonitor(stateMachine, transition, duration, TimeUnit.MILLISECONDS);
+	}
+
+	protected void notifyTransitionMonitor(StateMachine<S, E> stateMachine, Transition<S, E> transition, long duration,
+			TimeUnit unit) {
 		try {
-			stateMachineMonitor.transition(stateMachine, transition, duration);
+			stateMachineMonitor.transition(stateMachine, transition, duration, unit);
 		} catch (Exception e) {
 			log.warn("Error during notifyTransitionMonitor", e);
 		}
 	}
 
 	protected void notifyActionMonitor(StateMachine<S, E> stateMachine, Action<S, E> action, long duration) {
+		notifyActionMonitor(stateMachine, action, duration, TimeUnit.MILLISECONDS);
+	}
+
+	protected void notifyActionMonitor(StateMachine<S, E> stateMachine, Action<S, E> action, long duration, TimeUnit unit) {
 		try {
-			stateMachineMonitor.action(stateMachine, action, duration);
+			stateMachineMonitor.action(stateMachine, action, duration, unit);
 		} catch (Exception e) {
 			log.warn("Error during notifyTransitionMonitor", e);
 		}
@@ -44,9 +44,19 @@ public abstract class StateMachineUtils {
 		if (left == null) {
 			return false;
 		}
-		Collection<State<S, E>> c = left.getStates();
-		c.remove(left);
-		return c.contains(right);
+		// states are shared and unmodifiable, skip left itself
+		// instead of removing it from a copy
+		boolean skipped = false;
+		for (State<S, E> s : left.getStates()) {
+			if (!skipped && ObjectUtils.nullSafeEquals(left, s)) {
+				skipped = true;
+				continue;
+			}
+			if (ObjectUtils.nullSafeEquals(right, s)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
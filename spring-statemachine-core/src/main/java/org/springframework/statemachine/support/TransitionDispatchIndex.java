@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.support;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+import org.springframework.statemachine.state.State;
+import org.springframework.statemachine.transition.Transition;
+import org.springframework.statemachine.trigger.DefaultTriggerContext;
+import org.springframework.statemachine.trigger.Trigger;
+import org.springframework.statemachine.trigger.TriggerContext;
+
+/**
+ * Immutable dispatch index for triggered {@link Transition}s. Transitions are
+ * grouped once by their source state id and trigger event so that resolving
+ * candidates for an event only needs a lookup per active state id instead of
+ * a scan over all known transitions.
+ * <p>
+ * Transitions whose trigger doesn't expose an event, i.e. timers or custom
+ * triggers, are kept aside and evaluated sequentially as before.
+ *
+ * @author Janne Valkealahti
+ *
+ * @param <S> the type of state
+ * @param <E> the type of event
+ */
+class TransitionDispatchIndex<S, E> {
+
+	private final Map<S, Map<E, Transition<S, E>[]>> index;
+	private final Transition<S, E>[] opaqueTransitions;
+	private final TransitionComparator<S, E> transitionComparator;
+
+	/**
+	 * Instantiates a new transition dispatch index.
+	 *
+	 * @param transitions the transitions
+	 * @param transitionComparator the transition comparator
+	 */
+	@SuppressWarnings("unchecked")
+	public TransitionDispatchIndex(Collection<Transition<S, E>> transitions, TransitionComparator<S, E> transitionComparator) {
+		this.transitionComparator = transitionComparator;
+		Map<S, Map<E, List<Transition<S, E>>>> buckets = new HashMap<S, Map<E, List<Transition<S, E>>>>();
+		List<Transition<S, E>> opaque = new ArrayList<Transition<S, E>>();
+		for (Transition<S, E> transition : transitions) {
+			Trigger<S, E> trigger = transition.getTrigger();
+			State<S, E> source = transition.getSource();
+			if (trigger == null || source == null) {
+				continue;
+			}
+			E event = trigger.getEvent();
+			if (event == null) {
+				opaque.add(transition);
+				continue;
+			}
+			Map<E, List<Transition<S, E>>> byEvent = buckets.get(source.getId());
+			if (byEvent == null) {
+				byEvent = new HashMap<E, List<Transition<S, E>>>();
+				buckets.put(source.getId(), byEvent);
+			}
+			List<Transition<S, E>> bucket = byEvent.get(event);
+			if (bucket == null) {
+				bucket = new ArrayList<Transition<S, E>>(1);
+				byEvent.put(event, bucket);
+			}
+			bucket.add(transition);
+		}
+
+		Map<S, Map<E, Transition<S, E>[]>> compiled = new HashMap<S, Map<E, Transition<S, E>[]>>(buckets.size());
+		for (Map.Entry<S, Map<E, List<Transition<S, E>>>> entry : buckets.entrySet()) {
+			Map<E, Transition<S, E>[]> byEvent = new HashMap<E, Transition<S, E>[]>(entry.getValue().size());
+			for (Map.Entry<E, List<Transition<S, E>>> e : entry.getValue().entrySet()) {
+				List<Transition<S, E>> bucket = e.getValue();
+				bucket.sort(transitionComparator);
+				byEvent.put(e.getKey(), bucket.toArray(new Transition[bucket.size()]));
+			}
+			compiled.put(entry.getKey(), Collections.unmodifiableMap(byEvent));
+		}
+		this.index = Collections.unmodifiableMap(compiled);
+		this.opaqueTransitions = opaque.toArray(new Transition[opaque.size()]);
+	}
+
+	/**
+	 * Find a transition whose source is one of the given active state ids and
+	 * whose trigger accepts the given event.
+	 *
+	 * @param ids the active state ids
+	 * @param event the event
+	 * @return the matching transition or {@code null} if none found
+	 */
+	public Transition<S, E> findTriggered(Collection<S> ids, E event) {
+		if (ids == null || event == null) {
+			return null;
+		}
+		TriggerContext<S, E> triggerContext = new DefaultTriggerContext<S, E>(event);
+		for (S id : ids) {
+			Map<E, Transition<S, E>[]> byEvent = index.get(id);
+			if (byEvent == null) {
+				continue;
+			}
+			Transition<S, E>[] candidates = byEvent.get(event);
+			if (candidates == null) {
+				continue;
+			}
+			for (Transition<S, E> candidate : candidates) {
+				if (candidate.getTrigger().evaluate(triggerContext)) {
+					return candidate;
+				}
+			}
+		}
+		for (Transition<S, E> transition : opaqueTransitions) {
+			if (StateMachineUtils.containsAtleastOne(transition.getSource().getIds(), ids)
+					&& transition.getTrigger().evaluate(triggerContext)) {
+				return transition;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets candidate transitions for an event. Active state ids are visited
+	 * from the deepest state up and returned transitions are sorted with the
+	 * configured {@link TransitionComparator}.
+	 *
+	 * @param ids the active state ids
+	 * @param event the event
+	 * @return the candidate transitions, never {@code null}
+	 */
+	public List<Transition<S, E>> getCandidates(Collection<S> ids, E event) {
+		List<Transition<S, E>> candidates = new ArrayList<Transition<S, E>>();
+		if (ids == null || event == null) {
+			return candidates;
+		}
+		List<S> list = ids instanceof List ? (List<S>) ids : new ArrayList<S>(ids);
+		int buckets = 0;
+		ListIterator<S> iterator = list.listIterator(list.size());
+		while (iterator.hasPrevious()) {
+			Map<E, Transition<S, E>[]> byEvent = index.get(iterator.previous());
+			if (byEvent == null) {
+				continue;
+			}
+			Transition<S, E>[] bucket = byEvent.get(event);
+			if (bucket == null) {
+				continue;
+			}
+			buckets++;
+			for (Transition<S, E> transition : bucket) {
+				if (!candidates.contains(transition)) {
+					candidates.add(transition);
+				}
+			}
+		}
+		// single bucket is already sorted
+		if (buckets > 1) {
+			candidates.sort(transitionComparator);
+		}
+		return candidates;
+	}
+}
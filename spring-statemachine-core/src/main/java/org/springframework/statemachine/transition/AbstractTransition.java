@@ -16,6 +16,7 @@
 package org.springframework.statemachine.transition;
 
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -166,10 +167,10 @@ public abstract class AbstractTransition<S, E> implements Transition<S, E> {
 		}
 
 		for (Action<S, E> action : actions) {
-			long now = System.currentTimeMillis();
+			long now = System.nanoTime();
 			action.execute(context);
 			if (this.actionListener != null) {
-				this.actionListener.onExecute(context.getStateMachine(), action, System.currentTimeMillis() - now);
+				this.actionListener.onExecute(context.getStateMachine(), action, System.nanoTime() - now, TimeUnit.NANOSECONDS);
 			}
 		}
 	}
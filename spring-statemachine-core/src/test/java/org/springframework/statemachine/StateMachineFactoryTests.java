@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -39,8 +39,11 @@ import org.springframework.statemachine.config.StateMachineFactory;
 import org.springframework.statemachine.config.builders.StateMachineConfigurationConfigurer;
 import org.springframework.statemachine.config.builders.StateMachineStateConfigurer;
 import org.springframework.statemachine.config.builders.StateMachineTransitionConfigurer;
+import org.springframework.statemachine.config.model.StateMachineModel;
+import org.springframework.statemachine.config.model.verifier.CompositeStateMachineModelVerifier;
 import org.springframework.statemachine.listener.StateMachineListenerAdapter;
 import org.springframework.statemachine.state.State;
+import org.springframework.statemachine.transition.Transition;
 
 public class StateMachineFactoryTests extends AbstractStateMachineTests {
 
@@ -146,6 +149,26 @@ public class StateMachineFactoryTests extends AbstractStateMachineTests {
 		assertThat(machine.getState().getIds(), contains(TestStates.S2));
 	}
 
+	@SuppressWarnings({ "unchecked" })
+	@Test
+	public void testMachinesShareVerifiedBlueprint() {
+		context.register(Config8.class);
+		context.refresh();
+		StateMachineFactory<TestStates, TestEvents> stateMachineFactory =
+				context.getBean(StateMachineSystemConstants.DEFAULT_ID_STATEMACHINEFACTORY, StateMachineFactory.class);
+		CountingStateMachineModelVerifier verifier = context.getBean(CountingStateMachineModelVerifier.class);
+
+		StateMachine<TestStates,TestEvents> machine1 = stateMachineFactory.getStateMachine();
+		StateMachine<TestStates,TestEvents> machine2 = stateMachineFactory.getStateMachine();
+		machine1.start();
+		machine2.start();
+		assertThat(verifier.count, is(1));
+
+		machine1.sendEvent(TestEvents.E1);
+		assertThat(machine1.getState().getIds(), contains(TestStates.S2));
+		assertThat(machine2.getState().getIds(), contains(TestStates.S1));
+	}
+
 	@Configuration
 	@EnableStateMachineFactory
 	static class Config1 extends EnumStateMachineConfigurerAdapter<TestStates, TestEvents> {
@@ -175,6 +198,130 @@ public class StateMachineFactoryTests extends AbstractStateMachineTests {
 
 	}
 
+	@SuppressWarnings({ "unchecked" })
+	@Test
+	public void testStructureCachingSharesTriggers() {
+		context.register(Config9.class);
+		context.refresh();
+		StateMachineFactory<TestStates, TestEvents> stateMachineFactory =
+				context.getBean(StateMachineSystemConstants.DEFAULT_ID_STATEMACHINEFACTORY, StateMachineFactory.class);
+
+		StateMachine<TestStates,TestEvents> machine1 = stateMachineFactory.getStateMachine();
+		StateMachine<TestStates,TestEvents> machine2 = stateMachineFactory.getStateMachine();
+		Transition<TestStates, TestEvents> transition1 = machine1.getTransitions().iterator().next();
+		Transition<TestStates, TestEvents> transition2 = machine2.getTransitions().iterator().next();
+		assertThat(transition1 == transition2, is(false));
+		assertThat(transition1.getSource() == transition2.getSource(), is(false));
+		assertThat(transition1.getTrigger() == transition2.getTrigger(), is(true));
+
+		machine1.start();
+		machine2.start();
+		machine1.sendEvent(TestEvents.E1);
+		assertThat(machine1.getState().getIds(), contains(TestStates.S2));
+		assertThat(machine2.getState().getIds(), contains(TestStates.S1));
+		machine2.sendEvent(TestEvents.E1);
+		machine2.sendEvent(TestEvents.E2);
+		assertThat(machine1.getState().getIds(), contains(TestStates.S2));
+		assertThat(machine2.getState().getIds(), contains(TestStates.S3));
+	}
+
+	@SuppressWarnings({ "unchecked" })
+	@Test
+	public void testNoStructureCachingByDefault() {
+		context.register(Config8.class);
+		context.refresh();
+		StateMachineFactory<TestStates, TestEvents> stateMachineFactory =
+				context.getBean(StateMachineSystemConstants.DEFAULT_ID_STATEMACHINEFACTORY, StateMachineFactory.class);
+
+		StateMachine<TestStates,TestEvents> machine1 = stateMachineFactory.getStateMachine();
+		StateMachine<TestStates,TestEvents> machine2 = stateMachineFactory.getStateMachine();
+		Transition<TestStates, TestEvents> transition1 = machine1.getTransitions().iterator().next();
+		Transition<TestStates, TestEvents> transition2 = machine2.getTransitions().iterator().next();
+		assertThat(transition1.getTrigger() == transition2.getTrigger(), is(false));
+	}
+
+	@Configuration
+	@EnableStateMachineFactory
+	static class Config9 extends EnumStateMachineConfigurerAdapter<TestStates, TestEvents> {
+
+		@Override
+		public void configure(StateMachineConfigurationConfigurer<TestStates, TestEvents> config) throws Exception {
+			config
+				.withConfiguration()
+					.structureCaching(true);
+		}
+
+		@Override
+		public void configure(StateMachineStateConfigurer<TestStates, TestEvents> states) throws Exception {
+			states
+				.withStates()
+					.initial(TestStates.S1)
+					.state(TestStates.S2)
+					.state(TestStates.S3);
+		}
+
+		@Override
+		public void configure(StateMachineTransitionConfigurer<TestStates, TestEvents> transitions) throws Exception {
+			transitions
+				.withExternal()
+					.source(TestStates.S1)
+					.target(TestStates.S2)
+					.event(TestEvents.E1)
+					.and()
+				.withExternal()
+					.source(TestStates.S2)
+					.target(TestStates.S3)
+					.event(TestEvents.E2);
+		}
+	}
+
+	@Configuration
+	@EnableStateMachineFactory
+	static class Config8 extends EnumStateMachineConfigurerAdapter<TestStates, TestEvents> {
+
+		@Override
+		public void configure(StateMachineConfigurationConfigurer<TestStates, TestEvents> config) throws Exception {
+			config
+				.withVerifier()
+					.enabled(true)
+					.verifier(verifier());
+		}
+
+		@Override
+		public void configure(StateMachineStateConfigurer<TestStates, TestEvents> states) throws Exception {
+			states
+				.withStates()
+					.initial(TestStates.S1)
+					.state(TestStates.S1)
+					.state(TestStates.S2);
+		}
+
+		@Override
+		public void configure(StateMachineTransitionConfigurer<TestStates, TestEvents> transitions) throws Exception {
+			transitions
+				.withExternal()
+					.source(TestStates.S1)
+					.target(TestStates.S2)
+					.event(TestEvents.E1);
+		}
+
+		@Bean
+		public CountingStateMachineModelVerifier verifier() {
+			return new CountingStateMachineModelVerifier();
+		}
+	}
+
+	static class CountingStateMachineModelVerifier extends CompositeStateMachineModelVerifier<TestStates, TestEvents> {
+
+		int count;
+
+		@Override
+		public void verify(StateMachineModel<TestStates, TestEvents> model) {
+			count++;
+			super.verify(model);
+		}
+	}
+
 	@Configuration
 	@EnableStateMachineFactory
 	public static class Config2 extends EnumStateMachineConfigurerAdapter<TestStates, TestEvents> {
@@ -81,6 +81,30 @@ public class MethodAnnotationTests extends AbstractStateMachineTests {
 		assertThat(bean1.onTransitionCount, is(1));
 	}
 
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testOnTransitionRepeatedRoutes() throws Exception {
+		context.register(BaseConfig.class, BeanConfig1.class, Config1.class);
+		context.refresh();
+
+		ObjectStateMachine<TestStates,TestEvents> machine =
+				context.getBean(StateMachineSystemConstants.DEFAULT_ID_STATEMACHINE, ObjectStateMachine.class);
+		Bean1 bean1 = context.getBean(Bean1.class);
+
+		for (int i = 0; i < 3; i++) {
+			machine.stop();
+			bean1.reset(1, 3, 1, 1, 1, 1, 1, 1);
+			machine.start();
+			machine.sendEvent(MessageBuilder.withPayload(TestEvents.E1).build());
+			machine.sendEvent(MessageBuilder.withPayload(TestEvents.E2).build());
+
+			assertThat(bean1.onTransitionFromS1ToS2Latch.await(1, TimeUnit.SECONDS), is(true));
+			assertThat(bean1.onTransitionLatch.await(1, TimeUnit.SECONDS), is(true));
+			assertThat(bean1.onTransitionFromS1ToS2Count, is(1));
+			assertThat(bean1.onTransitionCount, is(3));
+		}
+	}
+
 	@Test
 	@SuppressWarnings("unchecked")
 	public void testOnStateChanged() throws Exception {
@@ -163,6 +187,28 @@ public class MethodAnnotationTests extends AbstractStateMachineTests {
 		assertThat(bean5.onExtendedStateChangedKeyV2Count, is(0));
 	}
 
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testOnExtendedStateChangedManyKeys() throws Exception {
+		context.register(BaseConfig.class, BeanConfig5.class, Config1.class);
+		context.refresh();
+
+		ObjectStateMachine<TestStates,TestEvents> machine =
+				context.getBean(StateMachineSystemConstants.DEFAULT_ID_STATEMACHINE, ObjectStateMachine.class);
+		Bean5 bean5 = context.getBean(Bean5.class);
+		machine.start();
+		// more distinct keys than resolved routes cached per kind
+		for (int i = 0; i < 3000; i++) {
+			machine.getExtendedState().getVariables().put("K" + i, i);
+		}
+		machine.getExtendedState().getVariables().put("V1", "V1val");
+
+		assertThat(bean5.onExtendedStateChangedKeyV1Latch.await(1, TimeUnit.SECONDS), is(true));
+		assertThat(bean5.onExtendedStateChangedKeyV1Count, is(1));
+		assertThat(bean5.onExtendedStateChanged1Count, is(3001));
+		assertThat(bean5.onExtendedStateChangedKeyV2Count, is(0));
+	}
+
 	@Test
 	@SuppressWarnings("unchecked")
 	public void testMethodAnnotations2() throws Exception {
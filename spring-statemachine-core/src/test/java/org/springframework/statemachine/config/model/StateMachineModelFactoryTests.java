@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2017 the original author or authors.
+ * Copyright 2016-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -22,6 +22,7 @@ import static org.junit.Assert.assertThat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Test;
 import org.springframework.beans.BeansException;
@@ -129,6 +130,107 @@ public class StateMachineModelFactoryTests extends AbstractStateMachineTests {
 		assertThat(((List<?>)o3).size(), is(1));
 	}
 
+	@Test
+	public void testCachedModel() throws Exception {
+		context.register(Config6.class);
+		context.refresh();
+		@SuppressWarnings("unchecked")
+		StateMachineFactory<String, String> stateMachineFactory = context.getBean(StateMachineFactory.class);
+		@SuppressWarnings("unchecked")
+		CachingStateMachineModelFactory<String, String> cachingFactory = context.getBean(CachingStateMachineModelFactory.class);
+		TestStateMachineModelFactory modelFactory = TestUtils.readField("delegate", cachingFactory);
+
+		StateMachine<String,String> stateMachine = stateMachineFactory.getStateMachine();
+		stateMachine.start();
+		assertThat(stateMachine.getState().getIds(), contains("S1"));
+		stateMachine.stop();
+		stateMachine = stateMachineFactory.getStateMachine();
+		assertThat(cachingFactory.getBuildCount(), is(1L));
+		assertThat(cachingFactory.getHitCount(), is(1L));
+
+		// no version, cached model used until invalidated
+		modelFactory.state1 = "SS1";
+		modelFactory.state2 = "SS2";
+		modelFactory.event1 = "EE1";
+		stateMachine = stateMachineFactory.getStateMachine();
+		stateMachine.start();
+		assertThat(stateMachine.getState().getIds(), contains("S1"));
+		stateMachine.stop();
+
+		cachingFactory.invalidate(null);
+		stateMachine = stateMachineFactory.getStateMachine();
+		stateMachine.start();
+		assertThat(stateMachine.getState().getIds(), contains("SS1"));
+		stateMachine.sendEvent("EE1");
+		assertThat(stateMachine.getState().getIds(), contains("SS2"));
+		stateMachine.stop();
+		assertThat(cachingFactory.getBuildCount(), is(2L));
+
+		// changed version rebuilds
+		modelFactory.version = "1";
+		stateMachine = stateMachineFactory.getStateMachine();
+		modelFactory.state1 = "SSS1";
+		stateMachine = stateMachineFactory.getStateMachine();
+		assertThat(cachingFactory.getBuildCount(), is(3L));
+		modelFactory.version = "2";
+		stateMachine = stateMachineFactory.getStateMachine();
+		stateMachine.start();
+		assertThat(stateMachine.getState().getIds(), contains("SSS1"));
+		stateMachine.stop();
+		assertThat(cachingFactory.getBuildCount(), is(4L));
+	}
+
+	@Test
+	public void testCachedModelEntriesRemoved() throws Exception {
+		context.register(Config6.class);
+		context.refresh();
+		@SuppressWarnings("unchecked")
+		StateMachineFactory<String, String> stateMachineFactory = context.getBean(StateMachineFactory.class);
+		@SuppressWarnings("unchecked")
+		CachingStateMachineModelFactory<String, String> cachingFactory = context.getBean(CachingStateMachineModelFactory.class);
+		Map<?, ?> models = TestUtils.readField("models", cachingFactory);
+		Map<?, ?> blueprints = TestUtils.readField("modelFactoryBlueprints", stateMachineFactory);
+
+		for (int i = 0; i < 10; i++) {
+			stateMachineFactory.getStateMachine("machine" + i);
+		}
+		stateMachineFactory.getStateMachine();
+		assertThat(models.size(), is(11));
+		assertThat(blueprints.size(), is(11));
+
+		cachingFactory.invalidate("machine0");
+		cachingFactory.invalidate(null);
+		assertThat(models.size(), is(9));
+		assertThat(blueprints.size(), is(9));
+
+		cachingFactory.invalidateAll();
+		assertThat(models.size(), is(0));
+		assertThat(blueprints.size(), is(0));
+	}
+
+	@Test
+	public void testCachedModelBounded() throws Exception {
+		context.register(Config6.class);
+		context.refresh();
+		@SuppressWarnings("unchecked")
+		StateMachineFactory<String, String> stateMachineFactory = context.getBean(StateMachineFactory.class);
+		@SuppressWarnings("unchecked")
+		CachingStateMachineModelFactory<String, String> cachingFactory = context.getBean(CachingStateMachineModelFactory.class);
+		cachingFactory.setMaxSize(5);
+		Map<?, ?> blueprints = TestUtils.readField("modelFactoryBlueprints", stateMachineFactory);
+
+		for (int i = 0; i < 20; i++) {
+			stateMachineFactory.getStateMachine("machine" + i);
+			// keep first one recently used
+			stateMachineFactory.getStateMachine("machine0");
+		}
+		assertThat(cachingFactory.getSize(), is(5));
+		assertThat(blueprints.size(), is(5));
+		assertThat(cachingFactory.isCached("machine0"), is(true));
+		assertThat(cachingFactory.isCached("machine19"), is(true));
+		assertThat(cachingFactory.isCached("machine1"), is(false));
+	}
+
 	@Configuration
 	static class Config1 {
 		@Bean
@@ -269,12 +371,39 @@ public class StateMachineModelFactoryTests extends AbstractStateMachineTests {
 		}
 	}
 
+	@Configuration
+	@EnableStateMachineFactory
+	public static class Config6 extends StateMachineConfigurerAdapter<String, String> {
+
+		@Override
+		public void configure(StateMachineModelConfigurer<String, String> model) throws Exception {
+			model
+				.withModel()
+					.factory(modelFactory());
+		}
+
+		@Bean
+		public StateMachineModelFactory<String, String> modelFactory() {
+			return new CachingStateMachineModelFactory<>(new TestStateMachineModelFactory());
+		}
+
+		@Bean
+		public Action<String, String> action1() {
+			return new Action<String, String>() {
+				@Override
+				public void execute(StateContext<String, String> context) {
+				}
+			};
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	private static class TestStateMachineModelFactory implements StateMachineModelFactory<String, String>, BeanFactoryAware {
 		private BeanFactory beanFactory;
 		String state1 = "S1";
 		String state2 = "S2";
 		String event1 = "E1";
+		String version;
 
 		@Override
 		public StateMachineModel<String, String> build() {
@@ -307,6 +436,11 @@ public class StateMachineModelFactoryTests extends AbstractStateMachineTests {
 		public StateMachineModel<String, String> build(String machineId) {
 			return build();
 		}
+
+		@Override
+		public String getModelVersion(String machineId) {
+			return version;
+		}
 	}
 
 	@SuppressWarnings("unchecked")
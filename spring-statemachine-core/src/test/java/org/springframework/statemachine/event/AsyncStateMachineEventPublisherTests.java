@@ -0,0 +1,242 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.event;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.statemachine.event.AsyncStateMachineEventPublisher.OverflowPolicy;
+
+/**
+ * Tests for {@link AsyncStateMachineEventPublisher}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class AsyncStateMachineEventPublisherTests {
+
+	@Test
+	public void testPublishesOnPublisherThread() throws Exception {
+		RecordingApplicationEventPublisher recorder = new RecordingApplicationEventPublisher(3);
+		AsyncStateMachineEventPublisher publisher = new AsyncStateMachineEventPublisher(recorder, 16);
+		publisher.afterPropertiesSet();
+		Object source = new Object();
+
+		publisher.publishExtendedStateChanged(source, "V1", 1);
+		publisher.publishExtendedStateChanged(source, "V2", 2);
+		publisher.publishStateMachineStart(source, null);
+
+		assertThat(recorder.latch.await(2, TimeUnit.SECONDS), is(true));
+		publisher.destroy();
+		assertThat(recorder.events.size(), is(3));
+		assertThat(recorder.events.get(2), instanceOf(OnStateMachineStart.class));
+		assertThat(recorder.threads.contains(Thread.currentThread()), is(false));
+		assertThat(publisher.getPublishedCount(), is(3L));
+	}
+
+	@Test
+	public void testDropWhenFull() throws Exception {
+		RecordingApplicationEventPublisher recorder = new RecordingApplicationEventPublisher(1);
+		recorder.block = new CountDownLatch(1);
+		AsyncStateMachineEventPublisher publisher = new AsyncStateMachineEventPublisher(recorder, 2);
+		publisher.setOverflowPolicy(OverflowPolicy.DROP);
+		publisher.afterPropertiesSet();
+		Object source = new Object();
+
+		// first one is taken by publisher thread which then blocks
+		publisher.publishStateMachineStart(source, null);
+		assertThat(recorder.latch.await(2, TimeUnit.SECONDS), is(true));
+		publisher.publishStateMachineStop(source, null);
+		publisher.publishStateMachineStop(source, null);
+		publisher.publishStateMachineStop(source, null);
+		publisher.publishStateMachineStop(source, null);
+
+		assertThat(publisher.getDroppedCount(), is(2L));
+		recorder.block.countDown();
+		publisher.destroy();
+		assertThat(publisher.getPublishedCount(), is(3L));
+	}
+
+	@Test
+	public void testCoalesceWhenFull() throws Exception {
+		RecordingApplicationEventPublisher recorder = new RecordingApplicationEventPublisher(1);
+		recorder.block = new CountDownLatch(1);
+		AsyncStateMachineEventPublisher publisher = new AsyncStateMachineEventPublisher(recorder, 1);
+		publisher.afterPropertiesSet();
+		Object source = new Object();
+
+		publisher.publishStateMachineStart(source, null);
+		assertThat(recorder.latch.await(2, TimeUnit.SECONDS), is(true));
+		publisher.publishExtendedStateChanged(source, "V1", 1);
+		publisher.publishExtendedStateChanged(source, "V1", 2);
+		publisher.publishExtendedStateChanged(source, "V1", 3);
+		publisher.publishExtendedStateChanged(source, "V1", 4);
+
+		assertThat(publisher.getCoalescedCount(), is(3L));
+		assertThat(publisher.getDroppedCount(), is(0L));
+		recorder.block.countDown();
+		publisher.destroy();
+		assertThat(recorder.events.size(), is(2));
+		OnExtendedStateChanged last = (OnExtendedStateChanged) recorder.events.get(1);
+		assertThat(last.getValue(), is((Object) 4));
+	}
+
+	@Test
+	public void testCoalesceKeepsOrder() throws Exception {
+		RecordingApplicationEventPublisher recorder = new RecordingApplicationEventPublisher(1);
+		recorder.block = new CountDownLatch(1);
+		AsyncStateMachineEventPublisher publisher = new AsyncStateMachineEventPublisher(recorder, 2);
+		publisher.afterPropertiesSet();
+		Object source = new Object();
+
+		publisher.publishStateMachineStart(source, null);
+		assertThat(recorder.latch.await(2, TimeUnit.SECONDS), is(true));
+		publisher.publishExtendedStateChanged(source, "V1", 1);
+		publisher.publishStateMachineStop(source, null);
+		publisher.publishExtendedStateChanged(source, "V1", 2);
+		publisher.publishExtendedStateChanged(source, "V2", 1);
+		publisher.publishExtendedStateChanged(source, "V1", 3);
+
+		assertThat(publisher.getCoalescedCount(), is(2L));
+		assertThat(publisher.getPendingCount(), is(3));
+		recorder.block.countDown();
+		publisher.destroy();
+		assertThat(recorder.events.size(), is(4));
+		assertThat(((OnExtendedStateChanged) recorder.events.get(1)).getKey(), is((Object) "V1"));
+		assertThat(((OnExtendedStateChanged) recorder.events.get(1)).getValue(), is((Object) 3));
+		assertThat(recorder.events.get(2), instanceOf(OnStateMachineStop.class));
+		assertThat(((OnExtendedStateChanged) recorder.events.get(3)).getKey(), is((Object) "V2"));
+	}
+
+	@Test
+	public void testPublishDuringStop() throws Exception {
+		RecordingApplicationEventPublisher recorder = new RecordingApplicationEventPublisher(1);
+		final AsyncStateMachineEventPublisher publisher = new AsyncStateMachineEventPublisher(recorder, 8);
+		publisher.setOverflowPolicy(OverflowPolicy.CALLER_RUNS);
+		final AtomicInteger threadCount = new AtomicInteger();
+		publisher.setThreadFactory(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				threadCount.incrementAndGet();
+				Thread thread = new Thread(r);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		publisher.afterPropertiesSet();
+		final Object source = new Object();
+		final int perThread = 2000;
+		final CountDownLatch started = new CountDownLatch(4);
+		List<Thread> publishers = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			Thread thread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					started.countDown();
+					for (int j = 0; j < perThread; j++) {
+						publisher.publishStateMachineStop(source, null);
+					}
+				}
+			});
+			publishers.add(thread);
+			thread.start();
+		}
+
+		assertThat(started.await(2, TimeUnit.SECONDS), is(true));
+		publisher.stop();
+		for (Thread thread : publishers) {
+			thread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+
+		assertThat(threadCount.get(), is(1));
+		assertThat(publisher.getPendingCount(), is(0));
+		assertThat(publisher.getDroppedCount(), is(0L));
+		assertThat(publisher.getPublishedCount(), is(4L * perThread));
+		assertThat(recorder.events.size(), is(4 * perThread));
+	}
+
+	@Test
+	public void testCallerRunsWhenFull() throws Exception {
+		RecordingApplicationEventPublisher recorder = new RecordingApplicationEventPublisher(1);
+		recorder.block = new CountDownLatch(1);
+		AsyncStateMachineEventPublisher publisher = new AsyncStateMachineEventPublisher(recorder, 1);
+		publisher.setOverflowPolicy(OverflowPolicy.CALLER_RUNS);
+		publisher.afterPropertiesSet();
+		Object source = new Object();
+
+		publisher.publishStateMachineStart(source, null);
+		assertThat(recorder.latch.await(2, TimeUnit.SECONDS), is(true));
+		publisher.publishStateMachineStop(source, null);
+		publisher.publishStateMachineStop(source, null);
+		recorder.block.countDown();
+		publisher.destroy();
+
+		assertThat(recorder.threads.contains(Thread.currentThread()), is(true));
+		assertThat(publisher.getDroppedCount(), is(0L));
+		assertThat(publisher.getPublishedCount(), is(3L));
+	}
+
+	@Test
+	public void testPublishesInlineAfterStop() throws Exception {
+		RecordingApplicationEventPublisher recorder = new RecordingApplicationEventPublisher(1);
+		AsyncStateMachineEventPublisher publisher = new AsyncStateMachineEventPublisher(recorder, 16);
+		publisher.afterPropertiesSet();
+		publisher.destroy();
+
+		publisher.publishStateMachineStop(new Object(), null);
+		assertThat(recorder.events.size(), is(1));
+		assertThat(recorder.threads.get(0), is(Thread.currentThread()));
+	}
+
+	private static class RecordingApplicationEventPublisher implements ApplicationEventPublisher {
+
+		final List<Object> events = Collections.synchronizedList(new ArrayList<Object>());
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		final CountDownLatch latch;
+		volatile CountDownLatch block;
+
+		RecordingApplicationEventPublisher(int count) {
+			this.latch = new CountDownLatch(count);
+		}
+
+		@Override
+		public void publishEvent(Object event) {
+			events.add(event);
+			threads.add(Thread.currentThread());
+			latch.countDown();
+			CountDownLatch b = block;
+			if (b != null && Thread.currentThread().isDaemon()) {
+				try {
+					b.await(2, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+				}
+			}
+		}
+	}
+}
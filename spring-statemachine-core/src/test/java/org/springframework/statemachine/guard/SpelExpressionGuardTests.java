@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,6 +17,8 @@ package org.springframework.statemachine.guard;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -41,6 +43,7 @@ import org.springframework.statemachine.config.EnumStateMachineConfigurerAdapter
 import org.springframework.statemachine.config.builders.StateMachineStateConfigurer;
 import org.springframework.statemachine.config.builders.StateMachineTransitionConfigurer;
 import org.springframework.statemachine.support.DefaultStateContext;
+import org.springframework.statemachine.support.StateContextExpression;
 
 /**
  * Tests for using spel expressions in guards.
@@ -64,6 +67,37 @@ public class SpelExpressionGuardTests extends AbstractStateMachineTests {
 		assertThat(guard.evaluate(stateContext), is(true));
 	}
 
+	@Test
+	public void testSpelCompiled() {
+		SpelParserConfiguration configuration = new SpelParserConfiguration();
+		SpelExpressionParser parser = new SpelExpressionParser(configuration);
+		Expression expression = parser.parseExpression("messageHeaders.get('foo')=='bar'");
+		SpelExpressionGuard<TestStates, TestEvents> guard = new SpelExpressionGuard<TestStates, TestEvents>(expression, configuration);
+		long compiled = StateContextExpression.getCompiledCount();
+
+		assertThat(guard.evaluate(stateContext("bar")), is(true));
+		assertThat(guard.isCompiled(), is(true));
+		assertThat(StateContextExpression.getCompiledCount(), greaterThan(compiled));
+		assertThat(guard.evaluate(stateContext("bar")), is(true));
+		assertThat(guard.evaluate(stateContext("foo")), is(false));
+	}
+
+	@Test
+	public void testSpelFallbackToInterpreted() {
+		SpelParserConfiguration configuration = new SpelParserConfiguration();
+		SpelExpressionParser parser = new SpelExpressionParser(configuration);
+		// right side is never evaluated so its types are unknown to compiler
+		Expression expression = parser.parseExpression("messageHeaders.get('foo')=='bar' or messageHeaders.get('bar')=='foo'");
+		SpelExpressionGuard<TestStates, TestEvents> guard = new SpelExpressionGuard<TestStates, TestEvents>(expression, configuration);
+		long fallback = StateContextExpression.getFallbackCount();
+
+		for (int i = 0; i < 5; i++) {
+			assertThat(guard.evaluate(stateContext("bar")), is(true));
+		}
+		assertThat(guard.isCompiled(), is(false));
+		assertThat(StateContextExpression.getFallbackCount(), greaterThan(fallback));
+	}
+
 	@SuppressWarnings({ "unchecked" })
 	@Test
 	public void testGuardDenyStateChange() throws Exception {
@@ -79,6 +113,32 @@ public class SpelExpressionGuardTests extends AbstractStateMachineTests {
 		ctx.close();
 	}
 
+	@Test
+	public void testSpelDiscriminator() {
+		SpelExpressionParser parser = new SpelExpressionParser();
+		SpelExpressionGuard<TestStates, TestEvents> guard = new SpelExpressionGuard<TestStates, TestEvents>(
+				parser.parseExpression("extendedState.variables['tier'] == 'GOLD'"));
+		assertThat(guard.getDiscriminatorKey(), is((Object) "tier"));
+		assertThat(guard.getDiscriminatorValue(), is((Object) "GOLD"));
+		guard = new SpelExpressionGuard<TestStates, TestEvents>(
+				parser.parseExpression("'GOLD' == extendedState.variables.get('tier')"));
+		assertThat(guard.getDiscriminatorKey(), is((Object) "tier"));
+		assertThat(guard.getDiscriminatorValue(), is((Object) "GOLD"));
+		guard = new SpelExpressionGuard<TestStates, TestEvents>(
+				parser.parseExpression("extendedState.variables['tier'] != 'GOLD'"));
+		assertThat(guard.getDiscriminatorKey(), nullValue());
+		guard = new SpelExpressionGuard<TestStates, TestEvents>(
+				parser.parseExpression("messageHeaders['tier'] == 'GOLD'"));
+		assertThat(guard.getDiscriminatorKey(), nullValue());
+	}
+
+	private static DefaultStateContext<TestStates, TestEvents> stateContext(String foo) {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("foo", foo);
+		return new DefaultStateContext<TestStates, TestEvents>(null, null, new MessageHeaders(map), null, null, null,
+				null, null, null);
+	}
+
 	@Configuration
 	@EnableStateMachine
 	public static class Config1 extends EnumStateMachineConfigurerAdapter<TestStates, TestEvents> {
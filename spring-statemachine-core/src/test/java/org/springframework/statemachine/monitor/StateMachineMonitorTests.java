@@ -17,6 +17,7 @@ package org.springframework.statemachine.monitor;
 
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 
@@ -72,6 +73,25 @@ public class StateMachineMonitorTests extends AbstractStateMachineTests {
 		assertThat(machine.getState().getIds(), contains("S1"));
 	}
 
+	@SuppressWarnings({ "unchecked" })
+	@Test
+	public void testMonitorNanoDurations() throws Exception {
+		context.register(Config2.class);
+		context.refresh();
+		StateMachine<String, String> machine =
+				context.getBean(StateMachineSystemConstants.DEFAULT_ID_STATEMACHINE, StateMachine.class);
+
+		NanoStateMachineMonitor monitor = context.getBean(NanoStateMachineMonitor.class);
+
+		machine.start();
+		machine.sendEvent("E1");
+		assertThat(machine.getState().getIds(), contains("S2"));
+		assertThat(monitor.transitionUnit, is(TimeUnit.NANOSECONDS));
+		assertThat(monitor.transitionDuration, greaterThan(0L));
+		assertThat(monitor.actionUnit, is(TimeUnit.NANOSECONDS));
+		assertThat(monitor.actionDuration, greaterThan(0L));
+	}
+
 	@Configuration
 	@EnableStateMachine
 	public static class Config1 extends StateMachineConfigurerAdapter<String, String> {
@@ -160,6 +180,42 @@ public class StateMachineMonitorTests extends AbstractStateMachineTests {
 
 	}
 
+	@Configuration
+	@EnableStateMachine
+	public static class Config2 extends StateMachineConfigurerAdapter<String, String> {
+
+		@Override
+		public void configure(StateMachineConfigurationConfigurer<String, String> config)
+				throws Exception {
+			config
+				.withMonitoring()
+					.monitor(stateMachineMonitor());
+		}
+
+		@Override
+		public void configure(StateMachineStateConfigurer<String, String> states) throws Exception {
+			states
+				.withStates()
+					.initial("S1")
+					.state("S2");
+		}
+
+		@Override
+		public void configure(StateMachineTransitionConfigurer<String, String> transitions) throws Exception {
+			transitions
+				.withExternal()
+					.source("S1")
+					.target("S2")
+					.action(new LatchAction())
+					.event("E1");
+		}
+
+		@Bean
+		public NanoStateMachineMonitor stateMachineMonitor() {
+			return new NanoStateMachineMonitor();
+		}
+	}
+
 	private static class LatchAction implements Action<String, String> {
 		final CountDownLatch latch = new CountDownLatch(1);
 		@Override
@@ -222,4 +278,26 @@ public class StateMachineMonitorTests extends AbstractStateMachineTests {
 			}
 		}
 	}
+
+	private static class NanoStateMachineMonitor extends AbstractStateMachineMonitor<String, String> {
+
+		volatile TimeUnit transitionUnit;
+		volatile long transitionDuration;
+		volatile TimeUnit actionUnit;
+		volatile long actionDuration;
+
+		@Override
+		public void transition(StateMachine<String, String> stateMachine, Transition<String, String> transition,
+				long duration, TimeUnit unit) {
+			transitionUnit = unit;
+			transitionDuration = duration;
+		}
+
+		@Override
+		public void action(StateMachine<String, String> stateMachine, Action<String, String> action, long duration,
+				TimeUnit unit) {
+			actionUnit = unit;
+			actionDuration = duration;
+		}
+	}
 }
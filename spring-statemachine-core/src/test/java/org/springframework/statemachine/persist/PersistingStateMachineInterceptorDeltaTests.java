@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.persist;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.access.StateMachineAccess;
+import org.springframework.statemachine.access.StateMachineFunction;
+import org.springframework.statemachine.config.StateMachineBuilder;
+import org.springframework.statemachine.config.StateMachineBuilder.Builder;
+
+/**
+ * Tests for delta mode of {@link AbstractPersistingStateMachineInterceptor}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class PersistingStateMachineInterceptorDeltaTests {
+
+	@Test
+	public void testDeltasAndCompaction() throws Exception {
+		final InMemoryPersistingStateMachineInterceptor interceptor = new InMemoryPersistingStateMachineInterceptor();
+		InMemoryStateMachineDeltaPersist deltaPersist = new InMemoryStateMachineDeltaPersist();
+		interceptor.setDeltaPersist(deltaPersist);
+		interceptor.setCompactionInterval(2);
+
+		StateMachine<String, String> stateMachine = buildMachine();
+		stateMachine.getStateMachineAccessor().doWithAllRegions(new StateMachineFunction<StateMachineAccess<String, String>>() {
+
+			@Override
+			public void apply(StateMachineAccess<String, String> function) {
+				function.addStateMachineInterceptor(interceptor);
+			}
+		});
+		stateMachine.start();
+		assertThat(interceptor.writes, is(1));
+		assertThat(deltaPersist.deltas.isEmpty(), is(true));
+
+		String big = "big";
+		stateMachine.getExtendedState().getVariables().put("big", big);
+		stateMachine.getExtendedState().getVariables().put("small", 1);
+		stateMachine.sendEvent("E1");
+		stateMachine.getExtendedState().getVariables().put("small", 2);
+		stateMachine.sendEvent("E2");
+
+		assertThat(interceptor.writes, is(1));
+		List<StateMachineContextDelta<String, String>> deltas = deltaPersist.readDeltas("machine1");
+		assertThat(deltas.size(), is(2));
+		assertThat(deltas.get(1).getChangedVariables().keySet(), contains((Object) "small"));
+
+		StateMachineContext<String, String> context = interceptor.read("machine1");
+		assertThat(context.getState(), is("S1"));
+		assertThat(context.getExtendedState().getVariables().get("big"), is(big));
+		assertThat(context.getExtendedState().getVariables().get("small"), is((Object) 2));
+
+		stateMachine.getExtendedState().getVariables().remove("small");
+		stateMachine.sendEvent("E1");
+		assertThat(interceptor.writes, is(2));
+		assertThat(deltaPersist.readDeltas("machine1").isEmpty(), is(true));
+
+		context = interceptor.read("machine1");
+		assertThat(context.getState(), is("S2"));
+		assertThat(context.getExtendedState().getVariables().get("big"), is(big));
+		assertThat(context.getExtendedState().getVariables().get("small"), nullValue());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testVariableMutatedInPlace() throws Exception {
+		final InMemoryPersistingStateMachineInterceptor interceptor = new InMemoryPersistingStateMachineInterceptor();
+		InMemoryStateMachineDeltaPersist deltaPersist = new InMemoryStateMachineDeltaPersist();
+		interceptor.setDeltaPersist(deltaPersist);
+		StateMachine<String, String> stateMachine = buildMachine(interceptor);
+
+		List<String> list = new ArrayList<>();
+		stateMachine.getExtendedState().getVariables().put("list", list);
+		stateMachine.sendEvent("E1");
+		list.add("a");
+		stateMachine.sendEvent("E2");
+		list.add("b");
+		stateMachine.getExtendedState().getVariables().put("list", list);
+		stateMachine.sendEvent("E1");
+
+		assertThat(interceptor.writes, is(1));
+		assertThat(deltaPersist.readDeltas("machine1").size(), is(3));
+		StateMachineContext<String, String> context = interceptor.read("machine1");
+		assertThat(context.getState(), is("S2"));
+		assertThat((List<String>) context.getExtendedState().getVariables().get("list"), contains("a", "b"));
+	}
+
+	@Test
+	public void testUnchangedMutableVariableNotWritten() throws Exception {
+		final InMemoryPersistingStateMachineInterceptor interceptor = new InMemoryPersistingStateMachineInterceptor();
+		InMemoryStateMachineDeltaPersist deltaPersist = new InMemoryStateMachineDeltaPersist();
+		interceptor.setDeltaPersist(deltaPersist);
+		StateMachine<String, String> stateMachine = buildMachine(interceptor);
+
+		List<String> list = new ArrayList<>();
+		list.add("a");
+		stateMachine.getExtendedState().getVariables().put("list", list);
+		stateMachine.getExtendedState().getVariables().put("small", 1);
+		stateMachine.sendEvent("E1");
+		stateMachine.getExtendedState().getVariables().put("small", 2);
+		stateMachine.sendEvent("E2");
+		list.add("b");
+		stateMachine.sendEvent("E1");
+
+		List<StateMachineContextDelta<String, String>> deltas = deltaPersist.readDeltas("machine1");
+		assertThat(deltas.size(), is(3));
+		assertThat(deltas.get(0).getChangedVariables().keySet(), containsInAnyOrder((Object) "list", "small"));
+		assertThat(deltas.get(1).getChangedVariables().keySet(), contains((Object) "small"));
+		assertThat(deltas.get(2).getChangedVariables().keySet(), contains((Object) "list"));
+	}
+
+	@Test
+	public void testStaleDeltasSkipped() throws Exception {
+		final InMemoryPersistingStateMachineInterceptor interceptor = new InMemoryPersistingStateMachineInterceptor();
+		InMemoryStateMachineDeltaPersist deltaPersist = new InMemoryStateMachineDeltaPersist();
+		interceptor.setDeltaPersist(deltaPersist);
+		interceptor.setCompactionInterval(1);
+		StateMachine<String, String> stateMachine = buildMachine(interceptor);
+
+		stateMachine.getExtendedState().getVariables().put("small", 1);
+		stateMachine.sendEvent("E1");
+		assertThat(deltaPersist.readDeltas("machine1").size(), is(1));
+
+		// crash between writing a snapshot and clearing deltas
+		deltaPersist.failClear = true;
+		stateMachine.getExtendedState().getVariables().put("small", 2);
+		try {
+			stateMachine.sendEvent("E2");
+		} catch (Exception e) {
+		}
+		assertThat(interceptor.writes, is(2));
+		assertThat(deltaPersist.readDeltas("machine1").size(), is(1));
+
+		StateMachineContext<String, String> context = interceptor.read("machine1");
+		assertThat(context.getState(), is("S1"));
+		assertThat(context.getExtendedState().getVariables().get("small"), is((Object) 2));
+	}
+
+	private static StateMachine<String, String> buildMachine(final InMemoryPersistingStateMachineInterceptor interceptor)
+			throws Exception {
+		StateMachine<String, String> stateMachine = buildMachine();
+		stateMachine.getStateMachineAccessor().doWithAllRegions(new StateMachineFunction<StateMachineAccess<String, String>>() {
+
+			@Override
+			public void apply(StateMachineAccess<String, String> function) {
+				function.addStateMachineInterceptor(interceptor);
+			}
+		});
+		stateMachine.start();
+		return stateMachine;
+	}
+
+	private static StateMachine<String, String> buildMachine() throws Exception {
+		Builder<String, String> builder = StateMachineBuilder.builder();
+		builder.configureConfiguration()
+			.withConfiguration()
+				.machineId("machine1");
+		builder.configureStates()
+			.withStates()
+				.initial("S1")
+				.state("S2");
+		builder.configureTransitions()
+			.withExternal()
+				.source("S1").target("S2").event("E1")
+				.and()
+			.withExternal()
+				.source("S2").target("S1").event("E2");
+		return builder.build();
+	}
+
+	private static class InMemoryPersistingStateMachineInterceptor
+			extends AbstractPersistingStateMachineInterceptor<String, String, String> {
+
+		final Map<String, StateMachineContext<String, String>> contexts = new HashMap<>();
+		int writes;
+
+		@Override
+		public void write(StateMachineContext<String, String> context, String contextObj) throws Exception {
+			contexts.put(context.getId(), context);
+			writes++;
+		}
+
+		@Override
+		public StateMachineContext<String, String> read(String contextObj) throws Exception {
+			return replayDeltas(contexts.get(contextObj), contextObj);
+		}
+	}
+
+	private static class InMemoryStateMachineDeltaPersist implements StateMachineDeltaPersist<String, String> {
+
+		final Map<String, List<StateMachineContextDelta<String, String>>> deltas = new HashMap<>();
+		boolean failClear;
+
+		@Override
+		public void writeDelta(String machineId, StateMachineContextDelta<String, String> delta) throws Exception {
+			List<StateMachineContextDelta<String, String>> list = deltas.get(machineId);
+			if (list == null) {
+				list = new ArrayList<>();
+				deltas.put(machineId, list);
+			}
+			// copy collections like a real store would serialize those
+			Map<Object, Object> changed = new HashMap<>();
+			for (Map.Entry<Object, Object> entry : delta.getChangedVariables().entrySet()) {
+				Object value = entry.getValue();
+				changed.put(entry.getKey(), value instanceof List ? new ArrayList<>((List<?>) value) : value);
+			}
+			list.add(new StateMachineContextDelta<>(delta.getGeneration(), delta.getSequence(), delta.getContext(),
+					changed, delta.getRemovedVariables()));
+		}
+
+		@Override
+		public List<StateMachineContextDelta<String, String>> readDeltas(String machineId) throws Exception {
+			List<StateMachineContextDelta<String, String>> list = deltas.get(machineId);
+			return list != null ? list : new ArrayList<StateMachineContextDelta<String, String>>();
+		}
+
+		@Override
+		public void clearDeltas(String machineId) throws Exception {
+			if (failClear) {
+				throw new RuntimeException("clear failed");
+			}
+			deltas.remove(machineId);
+		}
+	}
+}
@@ -15,6 +15,7 @@
  */
 package org.springframework.statemachine.processor;
 
+import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
@@ -32,6 +33,7 @@ import org.springframework.statemachine.StateContext;
 import org.springframework.statemachine.StateContext.Stage;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.annotation.EventHeaders;
+import org.springframework.statemachine.annotation.ExtendedStateVariable;
 import org.springframework.statemachine.annotation.OnTransition;
 import org.springframework.statemachine.state.State;
 import org.springframework.statemachine.support.DefaultExtendedState;
@@ -71,6 +73,26 @@ public class MethodParameterTests {
 		handler.handle(runtime);
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testOnTransitionWithStateContext() {
+		Bean2 bean2 = new Bean2();
+		Method method = ReflectionUtils.findMethod(Bean2.class, "onTransition", Integer.class, Message.class);
+		OnTransition annotation = AnnotationUtils.findAnnotation(method, OnTransition.class);
+		StateMachineHandler<OnTransition, String, String> handler = new StateMachineHandler<OnTransition, String, String>(Bean2.class,
+				bean2, method, annotation, annotation);
+
+		Message<String> message = MessageBuilder.withPayload("S").build();
+		ExtendedState extendedState = new DefaultExtendedState();
+		extendedState.getVariables().put("count", "2");
+		StateContext<String, String> stateContext = new DefaultStateContext<String, String>(Stage.TRANSITION, message,
+				message.getHeaders(), extendedState, mock(Transition.class), mock(StateMachine.class), null, null, null);
+
+		handler.handle(stateContext);
+		handler.handle(stateContext);
+		assertThat(bean2.count, is(4));
+	}
+
 	public static class Bean1 {
 
 		@OnTransition
@@ -86,4 +108,16 @@ public class MethodParameterTests {
 
 	}
 
+	public static class Bean2 {
+
+		int count;
+
+		@OnTransition
+		public void onTransition(@ExtendedStateVariable("count") Integer count, Message<?> message) {
+			assertThat(message, notNullValue());
+			this.count += count;
+		}
+
+	}
+
 }
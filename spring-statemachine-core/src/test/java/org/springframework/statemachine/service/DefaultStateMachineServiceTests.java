@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 the original author or authors.
+ * Copyright 2017-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,9 +16,21 @@
 package org.springframework.statemachine.service;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 import org.springframework.context.Lifecycle;
@@ -29,6 +41,8 @@ import org.springframework.core.task.TaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.statemachine.AbstractStateMachineTests;
 import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.StateMachinePersist;
 import org.springframework.statemachine.StateMachineSystemConstants;
 import org.springframework.statemachine.TestUtils;
 import org.springframework.statemachine.config.EnableStateMachineFactory;
@@ -174,6 +188,237 @@ public class DefaultStateMachineServiceTests extends AbstractStateMachineTests {
 		assertThat(machines.size(), is(0));
 	}
 
+	@Test
+	public void testEvictsWhenOverCapacity() throws Exception {
+		context.register(Config1.class);
+		context.refresh();
+		StateMachineFactory<TestStates, TestEvents> stateMachineFactory =
+				context.getBean(StateMachineSystemConstants.DEFAULT_ID_STATEMACHINEFACTORY, StateMachineFactory.class);
+
+		InMemoryStateMachinePersist stateMachinePersist = new InMemoryStateMachinePersist();
+		DefaultStateMachineService<TestStates, TestEvents> service = new DefaultStateMachineService<>(stateMachineFactory,
+				stateMachinePersist);
+		service.setMaxResidentStateMachines(1);
+		StateMachine<TestStates,TestEvents> machine1 = service.acquireStateMachine("m1", true);
+		machine1.sendEvent(TestEvents.E1);
+		assertThat(machine1.getState().getId(), is(TestStates.S2));
+
+		StateMachine<TestStates,TestEvents> machine2 = service.acquireStateMachine("m2", true);
+		assertThat(((Lifecycle)machine1).isRunning(), is(false));
+		assertThat(((Lifecycle)machine2).isRunning(), is(true));
+		assertThat(service.getResidentCount(), is(1));
+		assertThat(service.getEvictionCount(), is(1L));
+		assertThat(stateMachinePersist.contexts.get("m1").getState(), is(TestStates.S2));
+
+		machine1 = service.acquireStateMachine("m1", true);
+		assertThat(machine1.getState().getId(), is(TestStates.S2));
+		assertThat(service.getMissCount(), is(3L));
+		assertThat(service.getEvictionCount(), is(2L));
+
+		service.acquireStateMachine("m1", true);
+		assertThat(service.getHitCount(), is(1L));
+		service.destroy();
+	}
+
+	@Test
+	public void testEvictsIdle() throws Exception {
+		context.register(Config1.class);
+		context.refresh();
+		StateMachineFactory<TestStates, TestEvents> stateMachineFactory =
+				context.getBean(StateMachineSystemConstants.DEFAULT_ID_STATEMACHINEFACTORY, StateMachineFactory.class);
+
+		DefaultStateMachineService<TestStates, TestEvents> service = new DefaultStateMachineService<>(stateMachineFactory);
+		service.setIdleTimeout(1);
+		StateMachine<TestStates,TestEvents> machine1 = service.acquireStateMachine("m1", true);
+		Thread.sleep(20);
+		assertThat(service.evictIdleStateMachines(), is(1));
+		assertThat(((Lifecycle)machine1).isRunning(), is(false));
+		assertThat(service.getResidentCount(), is(0));
+	}
+
+	@Test
+	public void testAcquireDuringEviction() throws Exception {
+		context.register(Config1.class);
+		context.refresh();
+		StateMachineFactory<TestStates, TestEvents> stateMachineFactory =
+				context.getBean(StateMachineSystemConstants.DEFAULT_ID_STATEMACHINEFACTORY, StateMachineFactory.class);
+
+		final CountDownLatch persistLatch = new CountDownLatch(1);
+		final CountDownLatch releaseLatch = new CountDownLatch(1);
+		final DefaultStateMachineService<TestStates, TestEvents> service = new DefaultStateMachineService<TestStates, TestEvents>(
+				stateMachineFactory) {
+
+			@Override
+			protected void persistStateMachine(String machineId, StateMachine<TestStates, TestEvents> stateMachine)
+					throws Exception {
+				persistLatch.countDown();
+				releaseLatch.await(5, TimeUnit.SECONDS);
+			}
+		};
+		service.setIdleTimeout(1);
+		StateMachine<TestStates,TestEvents> machine1 = service.acquireStateMachine("m1", true);
+		Thread.sleep(20);
+
+		Thread evictor = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				service.evictIdleStateMachines();
+			}
+		});
+		evictor.start();
+		assertThat(persistLatch.await(5, TimeUnit.SECONDS), is(true));
+
+		final AtomicReference<StateMachine<TestStates, TestEvents>> acquired = new AtomicReference<>();
+		Thread acquirer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				acquired.set(service.acquireStateMachine("m1", true));
+			}
+		});
+		acquirer.start();
+		Thread.sleep(100);
+		releaseLatch.countDown();
+		evictor.join(5000);
+		acquirer.join(5000);
+
+		assertThat(((Lifecycle)machine1).isRunning(), is(false));
+		assertThat(acquired.get(), not(sameInstance(machine1)));
+		assertThat(((Lifecycle)acquired.get()).isRunning(), is(true));
+		assertThat(service.getEvictionCount(), is(1L));
+		assertThat(service.getResidentCount(), is(1));
+		service.destroy();
+	}
+
+	@Test
+	public void testConcurrentAcquireAndEviction() throws Exception {
+		context.register(Config1.class);
+		context.refresh();
+		StateMachineFactory<TestStates, TestEvents> stateMachineFactory =
+				context.getBean(StateMachineSystemConstants.DEFAULT_ID_STATEMACHINEFACTORY, StateMachineFactory.class);
+
+		final long idleTimeout = 20;
+		final Map<StateMachine<TestStates, TestEvents>, Long> evictedAt = new ConcurrentHashMap<>();
+		final DefaultStateMachineService<TestStates, TestEvents> service = new DefaultStateMachineService<TestStates, TestEvents>(
+				stateMachineFactory) {
+
+			@Override
+			protected void persistStateMachine(String machineId, StateMachine<TestStates, TestEvents> stateMachine)
+					throws Exception {
+				evictedAt.put(stateMachine, System.nanoTime());
+			}
+		};
+		service.setIdleTimeout(idleTimeout);
+
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicInteger violations = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+		threads.add(new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				while (running.get()) {
+					service.evictIdleStateMachines();
+				}
+			}
+		}));
+		for (int i = 0; i < 4; i++) {
+			final Random random = new Random(i);
+			threads.add(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					while (running.get()) {
+						long start = System.nanoTime();
+						StateMachine<TestStates, TestEvents> machine = service.acquireStateMachine("m" + random.nextInt(5), true);
+						long end = System.nanoTime();
+						Long evicted = evictedAt.get(machine);
+						// eviction of a machine we just got can only happen after it has
+						// been idle, thus never within a quick acquire
+						if (end - start < TimeUnit.MILLISECONDS.toNanos(idleTimeout)
+								&& ((evicted != null && evicted > start) || !((Lifecycle) machine).isRunning())) {
+							violations.incrementAndGet();
+						}
+						try {
+							Thread.sleep(random.nextInt(2 * (int) idleTimeout));
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		Thread.sleep(2000);
+		running.set(false);
+		for (Thread thread : threads) {
+			thread.join(5000);
+		}
+
+		assertThat(violations.get(), is(0));
+		assertThat(service.getEvictionCount() > 0, is(true));
+		service.destroy();
+	}
+
+	@Test
+	public void testSlowReadDoesNotBlockOtherMachines() throws Exception {
+		context.register(Config1.class);
+		context.refresh();
+		StateMachineFactory<TestStates, TestEvents> stateMachineFactory =
+				context.getBean(StateMachineSystemConstants.DEFAULT_ID_STATEMACHINEFACTORY, StateMachineFactory.class);
+
+		final CountDownLatch readLatch = new CountDownLatch(1);
+		final CountDownLatch releaseLatch = new CountDownLatch(1);
+		InMemoryStateMachinePersist stateMachinePersist = new InMemoryStateMachinePersist() {
+
+			@Override
+			public StateMachineContext<TestStates, TestEvents> read(String contextObj) throws Exception {
+				if ("m1".equals(contextObj)) {
+					readLatch.countDown();
+					releaseLatch.await(5, TimeUnit.SECONDS);
+				}
+				return super.read(contextObj);
+			}
+		};
+		final DefaultStateMachineService<TestStates, TestEvents> service = new DefaultStateMachineService<>(stateMachineFactory,
+				stateMachinePersist);
+		Thread acquirer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				service.acquireStateMachine("m1", true);
+			}
+		});
+		acquirer.start();
+		assertThat(readLatch.await(5, TimeUnit.SECONDS), is(true));
+
+		StateMachine<TestStates,TestEvents> machine2 = service.acquireStateMachine("m2", true);
+		assertThat(((Lifecycle)machine2).isRunning(), is(true));
+		assertThat(releaseLatch.getCount(), is(1L));
+		releaseLatch.countDown();
+		acquirer.join(5000);
+		assertThat(service.getMissCount(), is(2L));
+		service.destroy();
+	}
+
+	private static class InMemoryStateMachinePersist implements StateMachinePersist<TestStates, TestEvents, String> {
+
+		final Map<String, StateMachineContext<TestStates, TestEvents>> contexts = new HashMap<>();
+
+		@Override
+		public void write(StateMachineContext<TestStates, TestEvents> context, String contextObj) throws Exception {
+			contexts.put(contextObj, context);
+		}
+
+		@Override
+		public StateMachineContext<TestStates, TestEvents> read(String contextObj) throws Exception {
+			return contexts.get(contextObj);
+		}
+	}
+
 	@Configuration
 	@EnableStateMachineFactory
 	static class Config1 extends EnumStateMachineConfigurerAdapter<TestStates, TestEvents> {
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2017 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -25,22 +25,29 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.statemachine.AbstractStateMachineTests;
 import org.springframework.statemachine.ObjectStateMachine;
 import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.StateMachineSystemConstants;
 import org.springframework.statemachine.action.Action;
 import org.springframework.statemachine.config.EnableStateMachine;
 import org.springframework.statemachine.config.EnumStateMachineConfigurerAdapter;
+import org.springframework.statemachine.config.StateMachineBuilder;
+import org.springframework.statemachine.config.StateMachineBuilder.Builder;
 import org.springframework.statemachine.config.builders.StateMachineStateConfigurer;
 import org.springframework.statemachine.config.builders.StateMachineTransitionConfigurer;
+import org.springframework.statemachine.guard.ExtendedStateVariableGuard;
 import org.springframework.statemachine.guard.Guard;
+import org.springframework.statemachine.guard.SpelExpressionGuard;
 import org.springframework.statemachine.listener.StateMachineListenerAdapter;
 import org.springframework.util.ObjectUtils;
 
@@ -197,6 +204,90 @@ public class ChoiceStateTests extends AbstractStateMachineTests {
 		assertThat(machine.getState().getIds(), contains(TestStates.S33));
 	}
 
+	@Test
+	public void testDecisionTable() throws Exception {
+		CountingGuard opaque = new CountingGuard(false);
+		CountingVariableGuard gold = new CountingVariableGuard("tier", "GOLD");
+		StateMachine<String, String> machine = buildDecisionTableMachine(opaque, gold);
+		machine.start();
+		machine.getExtendedState().getVariables().put("tier", "SILVER");
+		machine.sendEvent("E1");
+
+		assertThat(machine.getState().getIds(), contains("S3"));
+		assertThat(opaque.count.get(), is(1));
+		assertThat(gold.count.get(), is(0));
+	}
+
+	@Test
+	public void testDecisionTableSpelGuard() throws Exception {
+		CountingGuard opaque = new CountingGuard(false);
+		CountingVariableGuard gold = new CountingVariableGuard("tier", "GOLD");
+		StateMachine<String, String> machine = buildDecisionTableMachine(opaque, gold);
+		machine.start();
+		machine.getExtendedState().getVariables().put("tier", "BRONZE");
+		machine.sendEvent("E1");
+
+		assertThat(machine.getState().getIds(), contains("S4"));
+		assertThat(gold.count.get(), is(0));
+	}
+
+	@Test
+	public void testDecisionTableOpaqueGuardFirst() throws Exception {
+		CountingGuard opaque = new CountingGuard(true);
+		CountingVariableGuard gold = new CountingVariableGuard("tier", "GOLD");
+		StateMachine<String, String> machine = buildDecisionTableMachine(opaque, gold);
+		machine.start();
+		machine.getExtendedState().getVariables().put("tier", "GOLD");
+		machine.sendEvent("E1");
+
+		assertThat(machine.getState().getIds(), contains("S6"));
+		assertThat(opaque.count.get(), is(1));
+		assertThat(gold.count.get(), is(0));
+	}
+
+	@Test
+	public void testDecisionTableLast() throws Exception {
+		CountingGuard opaque = new CountingGuard(false);
+		CountingVariableGuard gold = new CountingVariableGuard("tier", "GOLD");
+		StateMachine<String, String> machine = buildDecisionTableMachine(opaque, gold);
+		machine.start();
+		machine.sendEvent("E1");
+
+		assertThat(machine.getState().getIds(), contains("S5"));
+		assertThat(opaque.count.get(), is(1));
+		assertThat(gold.count.get(), is(0));
+	}
+
+	private static StateMachine<String, String> buildDecisionTableMachine(Guard<String, String> opaque,
+			Guard<String, String> gold) throws Exception {
+		Builder<String, String> builder = StateMachineBuilder.builder();
+		builder.configureConfiguration()
+			.withConfiguration()
+				.pseudoStateDecisionTables(true);
+		builder.configureStates()
+			.withStates()
+				.initial("S1")
+				.choice("C1")
+				.state("S2")
+				.state("S3")
+				.state("S4")
+				.state("S5")
+				.state("S6");
+		builder.configureTransitions()
+			.withExternal()
+				.source("S1").target("C1").event("E1")
+				.and()
+			.withChoice()
+				.source("C1")
+				.first("S6", opaque)
+				.then("S2", gold)
+				.then("S3", new ExtendedStateVariableGuard<String, String>("tier", "SILVER"))
+				.then("S4", new SpelExpressionGuard<String, String>(
+						new SpelExpressionParser().parseExpression("extendedState.variables['tier'] == 'BRONZE'")))
+				.last("S5");
+		return builder.build();
+	}
+
 	@Configuration
 	@EnableStateMachine
 	static class Config1 extends EnumStateMachineConfigurerAdapter<TestStates, TestEvents> {
@@ -467,6 +558,37 @@ public class ChoiceStateTests extends AbstractStateMachineTests {
 		}
 	}
 
+	private static class CountingGuard implements Guard<String, String> {
+
+		final AtomicInteger count = new AtomicInteger();
+		final boolean result;
+
+		CountingGuard(boolean result) {
+			this.result = result;
+		}
+
+		@Override
+		public boolean evaluate(StateContext<String, String> context) {
+			count.incrementAndGet();
+			return result;
+		}
+	}
+
+	private static class CountingVariableGuard extends ExtendedStateVariableGuard<String, String> {
+
+		final AtomicInteger count = new AtomicInteger();
+
+		CountingVariableGuard(Object key, Object value) {
+			super(key, value);
+		}
+
+		@Override
+		public boolean evaluate(StateContext<String, String> context) {
+			count.incrementAndGet();
+			return super.evaluate(context);
+		}
+	}
+
 	private static class LatchAction implements Action<TestStates, TestEvents> {
 		CountDownLatch latch = new CountDownLatch(1);
 
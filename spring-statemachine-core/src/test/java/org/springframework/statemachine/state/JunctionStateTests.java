@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 the original author or authors.
+ * Copyright 2016-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -32,12 +32,16 @@ import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.statemachine.AbstractStateMachineTests;
 import org.springframework.statemachine.ObjectStateMachine;
 import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.StateMachineSystemConstants;
 import org.springframework.statemachine.action.Action;
 import org.springframework.statemachine.config.EnableStateMachine;
 import org.springframework.statemachine.config.EnumStateMachineConfigurerAdapter;
+import org.springframework.statemachine.config.StateMachineBuilder;
+import org.springframework.statemachine.config.StateMachineBuilder.Builder;
 import org.springframework.statemachine.config.builders.StateMachineStateConfigurer;
 import org.springframework.statemachine.config.builders.StateMachineTransitionConfigurer;
+import org.springframework.statemachine.guard.ExtendedStateVariableGuard;
 import org.springframework.statemachine.guard.Guard;
 import org.springframework.util.ObjectUtils;
 
@@ -170,6 +174,36 @@ public class JunctionStateTests extends AbstractStateMachineTests {
 		assertThat(machine.getState().getIds(), contains(TestStates.S33));
 	}
 
+	@Test
+	public void testDecisionTable() throws Exception {
+		Builder<String, String> builder = StateMachineBuilder.builder();
+		builder.configureConfiguration()
+			.withConfiguration()
+				.pseudoStateDecisionTables(true);
+		builder.configureStates()
+			.withStates()
+				.initial("S1")
+				.junction("J1")
+				.state("S2")
+				.state("S3")
+				.state("S4");
+		builder.configureTransitions()
+			.withExternal()
+				.source("S1").target("J1").event("E1")
+				.and()
+			.withJunction()
+				.source("J1")
+				.first("S2", new ExtendedStateVariableGuard<String, String>("tier", "GOLD"))
+				.then("S3", new ExtendedStateVariableGuard<String, String>("tier", "SILVER"))
+				.last("S4");
+		StateMachine<String, String> machine = builder.build();
+		machine.start();
+		machine.getExtendedState().getVariables().put("tier", new StringBuilder("SILVER"));
+		machine.sendEvent("E1");
+
+		assertThat(machine.getState().getIds(), contains("S3"));
+	}
+
 	@Configuration
 	@EnableStateMachine
 	static class Config1 extends EnumStateMachineConfigurerAdapter<TestStates, TestEvents> {
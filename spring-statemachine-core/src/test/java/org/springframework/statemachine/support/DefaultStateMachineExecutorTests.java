@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 the original author or authors.
+ * Copyright 2017-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -29,14 +29,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.springframework.core.task.SyncTaskExecutor;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.statemachine.StateContext;
 import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.action.Action;
+import org.springframework.statemachine.config.StateMachineBuilder;
+import org.springframework.statemachine.config.StateMachineBuilder.Builder;
 import org.springframework.statemachine.state.State;
 import org.springframework.statemachine.support.StateMachineExecutor.StateMachineExecutorTransit;
 import org.springframework.statemachine.transition.Transition;
@@ -254,6 +259,81 @@ public class DefaultStateMachineExecutorTests {
 		assertThat(transit.transitions.size(), is(2));
 	}
 
+	@Test
+	public void testManyMachinesSharingPool() throws Exception {
+		ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+		taskExecutor.setCorePoolSize(2);
+		taskExecutor.afterPropertiesSet();
+		int machineCount = 100;
+		int eventCount = 50;
+		AtomicInteger count = new AtomicInteger();
+		CountDownLatch latch = new CountDownLatch(machineCount * eventCount);
+		List<StateMachine<String, String>> machines = new ArrayList<>();
+		for (int i = 0; i < machineCount; i++) {
+			StateMachine<String, String> machine = buildToggleMachine(taskExecutor, count, latch);
+			machine.start();
+			machines.add(machine);
+		}
+		for (StateMachine<String, String> machine : machines) {
+			long end = System.currentTimeMillis() + 2000;
+			while (machine.getState() == null && System.currentTimeMillis() < end) {
+				Thread.sleep(10);
+			}
+		}
+
+		Thread[] senders = new Thread[4];
+		for (int i = 0; i < senders.length; i++) {
+			final int offset = i;
+			senders[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int j = offset; j < eventCount; j += senders.length) {
+						for (StateMachine<String, String> machine : machines) {
+							machine.sendEvent("E1");
+						}
+					}
+				}
+			});
+			senders[i].start();
+		}
+		for (Thread sender : senders) {
+			sender.join();
+		}
+
+		assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+		assertThat(count.get(), is(machineCount * eventCount));
+		taskExecutor.shutdown();
+	}
+
+	private static StateMachine<String, String> buildToggleMachine(ThreadPoolTaskExecutor taskExecutor,
+			AtomicInteger count, CountDownLatch latch) throws Exception {
+		Action<String, String> action = new Action<String, String>() {
+
+			@Override
+			public void execute(StateContext<String, String> context) {
+				count.incrementAndGet();
+				latch.countDown();
+			}
+		};
+		Builder<String, String> builder = StateMachineBuilder.builder();
+		builder.configureConfiguration()
+			.withConfiguration()
+				.taskExecutor(taskExecutor)
+				.maxEventsPerRun(1);
+		builder.configureStates()
+			.withStates()
+				.initial("S1")
+				.state("S2");
+		builder.configureTransitions()
+			.withExternal()
+				.source("S1").target("S2").event("E1").action(action)
+				.and()
+			.withExternal()
+				.source("S2").target("S1").event("E1").action(action);
+		return builder.build();
+	}
+
 	private static class TestStateMachineExecutorTransit implements StateMachineExecutorTransit<String, String> {
 
 		ArrayList<Transition<String, String>> transitions = new ArrayList<>();
@@ -16,6 +16,9 @@
 package org.springframework.statemachine.support;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 import java.util.ArrayList;
@@ -25,7 +28,10 @@ import java.util.Map;
 import java.util.UUID;
 
 import org.junit.Test;
+import org.springframework.expression.Expression;
 import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.messaging.Message;
@@ -77,6 +83,53 @@ public class StateContextExpressionMethodsTests {
 		assertThat(stateMachine.events.size(), is(1));
 	}
 
+	@Test
+	public void testSharedVariablesNotLeaking() {
+		ExpressionParser parser = new SpelExpressionParser();
+		StateContextExpressionMethods methods = StateContextExpressionMethods.shared();
+		StateContext<SpelStates, SpelEvents> stateContext = mockStateContext(null);
+
+		assertThat(methods.getValue(parser.parseExpression("(#foo = 'bar') == #foo"), stateContext, Boolean.class), is(true));
+		assertThat(methods.getValue(parser.parseExpression("#foo"), stateContext, Object.class), nullValue());
+	}
+
+	@Test
+	public void testCompilerModeExpressionReused() {
+		SpelParserConfiguration mixedConfiguration = new SpelParserConfiguration(SpelCompilerMode.MIXED, null);
+		Expression mixed = new SpelExpressionParser(mixedConfiguration).parseExpression("true");
+		assertThat(new StateContextExpression(mixed, mixedConfiguration).getExpression(), sameInstance(mixed));
+
+		SpelParserConfiguration offConfiguration = new SpelParserConfiguration(true, true);
+		Expression off = new SpelExpressionParser(offConfiguration).parseExpression("true");
+		StateContextExpression expression = new StateContextExpression(off, offConfiguration);
+		assertThat(expression.getExpression(), not(sameInstance(off)));
+		assertThat(expression.getValue(mockStateContext(null), Boolean.class), is(true));
+		assertThat(expression.isCompiled(), is(true));
+	}
+
+	@Test
+	public void testOffModeExpressionKeepsConfiguration() throws Exception {
+		SpelParserConfiguration offConfiguration = new SpelParserConfiguration(true, true);
+		Expression off = new SpelExpressionParser(offConfiguration).parseExpression("true");
+		StateContextExpression expression = new StateContextExpression(off, offConfiguration);
+		SpelParserConfiguration configuration = expression.getConfiguration();
+
+		assertThat(configuration.getCompilerMode(), is(SpelCompilerMode.MIXED));
+		assertThat(configuration.isAutoGrowNullReferences(), is(true));
+		assertThat(configuration.isAutoGrowCollections(), is(true));
+	}
+
+	@Test
+	public void testUnknownConfigurationExpressionUsedAsIs() throws Exception {
+		Expression off = new SpelExpressionParser().parseExpression("true");
+		StateContextExpression expression = new StateContextExpression(off);
+
+		assertThat(expression.getExpression(), sameInstance(off));
+		assertThat(expression.getConfiguration(), nullValue());
+		assertThat(expression.getValue(mockStateContext(null), Boolean.class), is(true));
+		assertThat(expression.isCompiled(), is(false));
+	}
+
 	enum SpelStates {
 		SI,S1,S2,S3,S4,SF,SH
 	}
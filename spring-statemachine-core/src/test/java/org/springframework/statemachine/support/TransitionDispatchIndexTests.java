@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.support;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.statemachine.AbstractStateMachineTests.TestEvents;
+import org.springframework.statemachine.AbstractStateMachineTests.TestStates;
+import org.springframework.statemachine.state.EnumState;
+import org.springframework.statemachine.state.State;
+import org.springframework.statemachine.transition.DefaultExternalTransition;
+import org.springframework.statemachine.transition.Transition;
+import org.springframework.statemachine.trigger.EventTrigger;
+import org.springframework.statemachine.trigger.TimerTrigger;
+
+/**
+ * Tests for {@link TransitionDispatchIndex}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class TransitionDispatchIndexTests {
+
+	@Test
+	public void testFindTriggered() {
+		State<TestStates, TestEvents> stateS1 = new EnumState<TestStates, TestEvents>(TestStates.S1);
+		State<TestStates, TestEvents> stateS2 = new EnumState<TestStates, TestEvents>(TestStates.S2);
+		State<TestStates, TestEvents> stateS3 = new EnumState<TestStates, TestEvents>(TestStates.S3);
+
+		DefaultExternalTransition<TestStates, TestEvents> transitionFromS1ToS2 = new DefaultExternalTransition<TestStates, TestEvents>(
+				stateS1, stateS2, null, TestEvents.E1, null, new EventTrigger<TestStates, TestEvents>(TestEvents.E1));
+		DefaultExternalTransition<TestStates, TestEvents> transitionFromS2ToS3 = new DefaultExternalTransition<TestStates, TestEvents>(
+				stateS2, stateS3, null, TestEvents.E2, null, new EventTrigger<TestStates, TestEvents>(TestEvents.E2));
+		DefaultExternalTransition<TestStates, TestEvents> transitionFromS3ToS1 = new DefaultExternalTransition<TestStates, TestEvents>(
+				stateS3, stateS1, null, null, null, new TimerTrigger<TestStates, TestEvents>(1000));
+
+		Collection<Transition<TestStates, TestEvents>> transitions = new ArrayList<Transition<TestStates, TestEvents>>();
+		transitions.add(transitionFromS1ToS2);
+		transitions.add(transitionFromS2ToS3);
+		transitions.add(transitionFromS3ToS1);
+
+		TransitionDispatchIndex<TestStates, TestEvents> index = new TransitionDispatchIndex<TestStates, TestEvents>(transitions,
+				new TransitionComparator<TestStates, TestEvents>(null));
+
+		assertThat(index.findTriggered(Arrays.asList(TestStates.S1), TestEvents.E1),
+				sameInstance((Transition<TestStates, TestEvents>) transitionFromS1ToS2));
+		assertThat(index.findTriggered(Arrays.asList(TestStates.S2), TestEvents.E2),
+				sameInstance((Transition<TestStates, TestEvents>) transitionFromS2ToS3));
+		assertThat(index.findTriggered(Arrays.asList(TestStates.S1), TestEvents.E2), nullValue());
+		assertThat(index.findTriggered(Arrays.asList(TestStates.S3), TestEvents.E1), nullValue());
+		assertThat(index.findTriggered(Arrays.asList(TestStates.S1, TestStates.S2), TestEvents.E2),
+				sameInstance((Transition<TestStates, TestEvents>) transitionFromS2ToS3));
+	}
+
+	@Test
+	public void testCandidatesDeepestFirst() {
+		State<TestStates, TestEvents> stateS1 = new EnumState<TestStates, TestEvents>(TestStates.S1);
+		State<TestStates, TestEvents> stateS11 = new EnumState<TestStates, TestEvents>(TestStates.S11);
+		State<TestStates, TestEvents> stateS2 = new EnumState<TestStates, TestEvents>(TestStates.S2);
+
+		DefaultExternalTransition<TestStates, TestEvents> transitionFromS1ToS2 = new DefaultExternalTransition<TestStates, TestEvents>(
+				stateS1, stateS2, null, TestEvents.E1, null, new EventTrigger<TestStates, TestEvents>(TestEvents.E1));
+		DefaultExternalTransition<TestStates, TestEvents> transitionFromS11ToS2 = new DefaultExternalTransition<TestStates, TestEvents>(
+				stateS11, stateS2, null, TestEvents.E1, null, new EventTrigger<TestStates, TestEvents>(TestEvents.E1));
+
+		Collection<Transition<TestStates, TestEvents>> transitions = new ArrayList<Transition<TestStates, TestEvents>>();
+		transitions.add(transitionFromS1ToS2);
+		transitions.add(transitionFromS11ToS2);
+
+		TransitionDispatchIndex<TestStates, TestEvents> index = new TransitionDispatchIndex<TestStates, TestEvents>(transitions,
+				new TransitionComparator<TestStates, TestEvents>(null));
+
+		List<Transition<TestStates, TestEvents>> candidates = index.getCandidates(Arrays.asList(TestStates.S11), TestEvents.E1);
+		assertThat(candidates.size(), is(1));
+		assertThat(candidates.get(0), sameInstance((Transition<TestStates, TestEvents>) transitionFromS11ToS2));
+
+		candidates = index.getCandidates(Arrays.asList(TestStates.S1, TestStates.S11), TestEvents.E1);
+		assertThat(candidates.size(), is(2));
+		assertThat(candidates.contains(transitionFromS1ToS2), is(true));
+		assertThat(candidates.contains(transitionFromS11ToS2), is(true));
+
+		assertThat(index.getCandidates(Arrays.asList(TestStates.S2), TestEvents.E1).isEmpty(), is(true));
+		assertThat(index.getCandidates(Arrays.asList(TestStates.S1), null).isEmpty(), is(true));
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.data.jpa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.kryo.KryoStateMachineSerialisationService;
+import org.springframework.statemachine.persist.StateMachineContextDelta;
+import org.springframework.statemachine.persist.StateMachineDeltaPersist;
+import org.springframework.statemachine.service.StateMachineSerialisationService;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+import org.springframework.util.Assert;
+
+/**
+ * {@code JPA} based implementation of a {@link StateMachineDeltaPersist}.
+ * <p>
+ * Every delta is stored as its own row so that writing a delta only costs
+ * its changed variables. Delta is serialised as a {@link StateMachineContext}
+ * carrying changed variables as its extended state, state skeleton as its
+ * only child and removed variable keys in its event headers.
+ *
+ * @author Janne Valkealahti
+ *
+ * @param <S> the type of state
+ * @param <E> the type of event
+ */
+public class JpaRepositoryStateMachineDeltaPersist<S, E> implements StateMachineDeltaPersist<S, E> {
+
+	private static final String REMOVED_VARIABLES_HEADER = "statemachineRemovedVariables";
+	private final JpaStateMachineDeltaRepository jpaStateMachineDeltaRepository;
+	private final StateMachineSerialisationService<S, E> serialisationService;
+
+	/**
+	 * Instantiates a new jpa repository state machine delta persist.
+	 *
+	 * @param jpaStateMachineDeltaRepository the jpa state machine delta repository
+	 */
+	public JpaRepositoryStateMachineDeltaPersist(JpaStateMachineDeltaRepository jpaStateMachineDeltaRepository) {
+		this(jpaStateMachineDeltaRepository, new KryoStateMachineSerialisationService<S, E>());
+	}
+
+	/**
+	 * Instantiates a new jpa repository state machine delta persist.
+	 *
+	 * @param jpaStateMachineDeltaRepository the jpa state machine delta repository
+	 * @param serialisationService the serialisation service
+	 */
+	public JpaRepositoryStateMachineDeltaPersist(JpaStateMachineDeltaRepository jpaStateMachineDeltaRepository,
+			StateMachineSerialisationService<S, E> serialisationService) {
+		Assert.notNull(jpaStateMachineDeltaRepository, "'jpaStateMachineDeltaRepository' must be set");
+		Assert.notNull(serialisationService, "'serialisationService' must be set");
+		this.jpaStateMachineDeltaRepository = jpaStateMachineDeltaRepository;
+		this.serialisationService = serialisationService;
+	}
+
+	@Override
+	public void writeDelta(String machineId, StateMachineContextDelta<S, E> delta) throws Exception {
+		Map<String, Object> headers = new HashMap<String, Object>();
+		headers.put(REMOVED_VARIABLES_HEADER, new ArrayList<Object>(delta.getRemovedVariables()));
+		List<StateMachineContext<S, E>> childs = new ArrayList<StateMachineContext<S, E>>();
+		childs.add(delta.getContext());
+		StateMachineContext<S, E> context = new DefaultStateMachineContext<S, E>(childs, null, null, headers,
+				new DefaultExtendedState(new HashMap<Object, Object>(delta.getChangedVariables())), null, machineId);
+
+		JpaRepositoryStateMachineDelta entity = new JpaRepositoryStateMachineDelta();
+		entity.setMachineId(machineId);
+		entity.setGeneration(delta.getGeneration());
+		entity.setSequence(delta.getSequence());
+		entity.setDelta(serialisationService.serialiseStateMachineContext(context));
+		jpaStateMachineDeltaRepository.save(entity);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<StateMachineContextDelta<S, E>> readDeltas(String machineId) throws Exception {
+		List<StateMachineContextDelta<S, E>> deltas = new ArrayList<StateMachineContextDelta<S, E>>();
+		for (JpaRepositoryStateMachineDelta entity : jpaStateMachineDeltaRepository.findByMachineIdOrderByIdAsc(machineId)) {
+			StateMachineContext<S, E> context = serialisationService.deserialiseStateMachineContext(entity.getDelta());
+			Collection<Object> removed = (Collection<Object>) context.getEventHeaders().get(REMOVED_VARIABLES_HEADER);
+			deltas.add(new StateMachineContextDelta<S, E>(entity.getGeneration(), entity.getSequence(),
+					context.getChilds().get(0), context.getExtendedState().getVariables(),
+					removed != null ? removed : new ArrayList<Object>()));
+		}
+		return deltas;
+	}
+
+	@Override
+	public void clearDeltas(String machineId) throws Exception {
+		jpaStateMachineDeltaRepository.deleteByMachineId(machineId);
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.data.jpa;
+
+import java.util.List;
+
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * A {@link CrudRepository} interface for JPA used for state machine context
+ * deltas.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public interface JpaStateMachineDeltaRepository extends CrudRepository<JpaRepositoryStateMachineDelta, Long> {
+
+	/**
+	 * Find deltas of a machine in order those were written.
+	 *
+	 * @param machineId the machine id
+	 * @return the deltas
+	 */
+	List<JpaRepositoryStateMachineDelta> findByMachineIdOrderByIdAsc(String machineId);
+
+	/**
+	 * Delete deltas of a machine.
+	 *
+	 * @param machineId the machine id
+	 */
+	@Transactional
+	void deleteByMachineId(String machineId);
+}
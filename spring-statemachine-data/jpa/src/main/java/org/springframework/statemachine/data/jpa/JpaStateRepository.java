@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 the original author or authors.
+ * Copyright 2016-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,6 +15,11 @@
  */
 package org.springframework.statemachine.data.jpa;
 
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.statemachine.data.StateRepository;
 
 /**
@@ -24,4 +29,10 @@ import org.springframework.statemachine.data.StateRepository;
  *
  */
 public interface JpaStateRepository extends StateRepository<JpaRepositoryState> {
+
+	@Override
+	@Query("select distinct s from JpaRepositoryState s where s.machineId in ?1")
+	@EntityGraph(attributePaths = { "initialAction", "parentState", "stateActions", "entryActions", "exitActions",
+			"deferredEvents" })
+	List<JpaRepositoryState> findByMachineIdIn(Collection<String> machineIds);
 }
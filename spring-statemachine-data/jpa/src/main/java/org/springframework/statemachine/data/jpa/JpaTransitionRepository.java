@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 the original author or authors.
+ * Copyright 2016-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,6 +15,11 @@
  */
 package org.springframework.statemachine.data.jpa;
 
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.statemachine.data.StateRepository;
 import org.springframework.statemachine.data.TransitionRepository;
 
@@ -25,4 +30,9 @@ import org.springframework.statemachine.data.TransitionRepository;
  *
  */
 public interface JpaTransitionRepository extends TransitionRepository<JpaRepositoryTransition> {
+
+	@Override
+	@Query("select distinct t from JpaRepositoryTransition t where t.machineId in ?1")
+	@EntityGraph(attributePaths = { "source", "target", "actions", "guard" })
+	List<JpaRepositoryTransition> findByMachineIdIn(Collection<String> machineIds);
 }
@@ -16,8 +16,11 @@
 package org.springframework.statemachine.data.jpa;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertThat;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -30,19 +33,33 @@ import org.springframework.context.annotation.AnnotationConfigApplicationContext
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.access.StateMachineAccess;
+import org.springframework.statemachine.access.StateMachineFunction;
+import org.springframework.statemachine.config.StateMachineBuilder;
+import org.springframework.statemachine.config.StateMachineBuilder.Builder;
 import org.springframework.statemachine.config.EnableStateMachine;
 import org.springframework.statemachine.config.StateMachineConfigurerAdapter;
 import org.springframework.statemachine.config.builders.StateMachineConfigurationConfigurer;
 import org.springframework.statemachine.config.builders.StateMachineStateConfigurer;
 import org.springframework.statemachine.config.builders.StateMachineTransitionConfigurer;
+import org.springframework.statemachine.config.model.StateData;
+import org.springframework.statemachine.config.model.StateMachineModel;
 import org.springframework.statemachine.data.AbstractRepositoryTests;
+import org.springframework.statemachine.data.RepositoryStateMachinePersist.Durability;
 import org.springframework.statemachine.data.RepositoryState;
+import org.springframework.statemachine.data.RepositoryStateMachineModelFactory;
 import org.springframework.statemachine.data.RepositoryTransition;
 import org.springframework.statemachine.data.StateMachineRepository;
 import org.springframework.statemachine.data.StateRepository;
 import org.springframework.statemachine.data.TransitionRepository;
+import org.springframework.statemachine.persist.StateMachineContextDelta;
 import org.springframework.statemachine.persist.StateMachineRuntimePersister;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
 import org.springframework.statemachine.transition.TransitionKind;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * JPA repository config tests.
@@ -278,6 +295,42 @@ public class JpaRepositoryTests extends AbstractRepositoryTests {
 		return new Class<?>[] { TestConfig.class };
 	}
 
+	@Test
+	public void testModelLoadedInBulk() {
+		context.register(TestConfig.class);
+		context.refresh();
+
+		JpaStateRepository statesRepository = context.getBean(JpaStateRepository.class);
+		JpaTransitionRepository transitionsRepository = context.getBean(JpaTransitionRepository.class);
+		JpaRepositoryState stateS1 = new JpaRepositoryState("m1", "S1", true);
+		JpaRepositoryState stateS2 = new JpaRepositoryState("m1", "S2", false);
+		stateS2.setSubmachineId("sub1");
+		JpaRepositoryState stateS21 = new JpaRepositoryState("sub1", "S21", true);
+		JpaRepositoryState stateS22 = new JpaRepositoryState("sub1", "S22", false);
+		statesRepository.saveAll(Arrays.asList(stateS1, stateS2, stateS21, stateS22));
+		transitionsRepository.save(new JpaRepositoryTransition("m1", stateS1, stateS2, "E1"));
+		transitionsRepository.save(new JpaRepositoryTransition("sub1", stateS21, stateS22, "E2"));
+
+		assertThat(statesRepository.findByMachineIdIn(Arrays.asList("m1", "sub1")).size(), is(4));
+		assertThat(transitionsRepository.findByMachineIdIn(Arrays.asList("m1", "sub1")).size(), is(2));
+
+		RepositoryStateMachineModelFactory modelFactory = new RepositoryStateMachineModelFactory(statesRepository,
+				transitionsRepository);
+		modelFactory.setTransactionOperations(new TransactionTemplate(context.getBean(PlatformTransactionManager.class)));
+		StateMachineModel<String, String> model = modelFactory.build("m1");
+		assertThat(model.getStatesData().getStateData().size(), is(2));
+		assertThat(model.getTransitionsData().getTransitions().size(), is(1));
+		StateData<String, String> s2 = null;
+		for (StateData<String, String> stateData : model.getStatesData().getStateData()) {
+			if ("S2".equals(stateData.getState())) {
+				s2 = stateData;
+			}
+		}
+		assertThat(s2.getSubmachineStateData().size(), is(2));
+
+		context.close();
+	}
+
 	@Test
 	public void testAutowire() {
 		context.register(TestConfig.class, WireConfig.class);
@@ -314,6 +367,112 @@ public class JpaRepositoryTests extends AbstractRepositoryTests {
 		assertThat(stateMachine.getState().getId(), is(PersistTestStates.S1));
 	}
 
+	@Test
+	public void testWriteBehindPersist() throws Exception {
+		context.register(TestConfig.class);
+		context.refresh();
+
+		JpaStateMachineRepository repository = context.getBean(JpaStateMachineRepository.class);
+		JpaRepositoryStateMachinePersist<String, String> persist = new JpaRepositoryStateMachinePersist<>(repository);
+		persist.setDurability(Durability.ASYNC);
+		persist.setGroupCommitWindow(1000);
+
+		persist.write(new DefaultStateMachineContext<String, String>("S1", null, null, new DefaultExtendedState(), null, "m1"), "m1");
+		persist.write(new DefaultStateMachineContext<String, String>("S2", null, null, new DefaultExtendedState(), null, "m1"), "m1");
+		persist.write(new DefaultStateMachineContext<String, String>("S1", null, null, new DefaultExtendedState(), null, "m2"), "m2");
+
+		// queued write is visible before it's saved
+		assertThat(persist.read("m1").getState(), is("S2"));
+		assertThat(persist.getCoalescedCount(), is(1L));
+
+		persist.destroy();
+		assertThat(persist.getSavedCount(), is(2L));
+		assertThat(repository.count(), is(2L));
+		assertThat(repository.findById("m1").get().getState(), is("S2"));
+	}
+
+	@Test
+	public void testAsyncWriteAfterDestroy() throws Exception {
+		context.register(TestConfig.class);
+		context.refresh();
+
+		JpaStateMachineRepository repository = context.getBean(JpaStateMachineRepository.class);
+		JpaRepositoryStateMachinePersist<String, String> persist = new JpaRepositoryStateMachinePersist<>(repository);
+		persist.setDurability(Durability.ASYNC);
+		persist.setGroupCommitWindow(1000);
+
+		persist.write(new DefaultStateMachineContext<String, String>("S1", null, null, new DefaultExtendedState(), null, "m1"), "m1");
+		persist.destroy();
+		persist.write(new DefaultStateMachineContext<String, String>("S2", null, null, new DefaultExtendedState(), null, "m1"), "m1");
+
+		// saved synchronously, not queued anymore
+		assertThat(repository.findById("m1").get().getState(), is("S2"));
+		persist.flush();
+		assertThat(repository.findById("m1").get().getState(), is("S2"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testDeltaPersistWritesChangedVariables() throws Exception {
+		context.register(TestConfig.class);
+		context.refresh();
+
+		JpaStateMachineDeltaRepository deltaRepository = context.getBean(JpaStateMachineDeltaRepository.class);
+		JpaRepositoryStateMachineDeltaPersist<String, String> deltaPersist =
+				new JpaRepositoryStateMachineDeltaPersist<>(deltaRepository);
+		final JpaPersistingStateMachineInterceptor<String, String, String> interceptor =
+				new JpaPersistingStateMachineInterceptor<>(context.getBean(JpaStateMachineRepository.class));
+		interceptor.setDeltaPersist(deltaPersist);
+
+		Builder<String, String> builder = StateMachineBuilder.builder();
+		builder.configureConfiguration()
+			.withConfiguration()
+				.machineId("machine1");
+		builder.configureStates()
+			.withStates()
+				.initial("S1")
+				.state("S2");
+		builder.configureTransitions()
+			.withExternal()
+				.source("S1").target("S2").event("E1")
+				.and()
+			.withExternal()
+				.source("S2").target("S1").event("E2");
+		StateMachine<String, String> stateMachine = builder.build();
+		stateMachine.getStateMachineAccessor().doWithAllRegions(new StateMachineFunction<StateMachineAccess<String, String>>() {
+
+			@Override
+			public void apply(StateMachineAccess<String, String> function) {
+				function.addStateMachineInterceptor(interceptor);
+			}
+		});
+		stateMachine.start();
+
+		ArrayList<String> list = new ArrayList<>();
+		list.add("a");
+		stateMachine.getExtendedState().getVariables().put("list", list);
+		stateMachine.getExtendedState().getVariables().put("small", 1);
+		stateMachine.sendEvent("E1");
+		stateMachine.getExtendedState().getVariables().put("small", 2);
+		stateMachine.sendEvent("E2");
+		list.add("b");
+		stateMachine.getExtendedState().getVariables().remove("small");
+		stateMachine.sendEvent("E1");
+
+		assertThat(deltaRepository.count(), is(3L));
+		List<StateMachineContextDelta<String, String>> deltas = deltaPersist.readDeltas("machine1");
+		assertThat(deltas.size(), is(3));
+		assertThat(deltas.get(0).getChangedVariables().keySet(), containsInAnyOrder((Object) "list", "small"));
+		assertThat(deltas.get(1).getChangedVariables().keySet(), contains((Object) "small"));
+		assertThat(deltas.get(2).getChangedVariables().keySet(), contains((Object) "list"));
+		assertThat(deltas.get(2).getRemovedVariables(), contains((Object) "small"));
+
+		StateMachineContext<String, String> stateMachineContext = interceptor.read("machine1");
+		assertThat(stateMachineContext.getState(), is("S2"));
+		assertThat((List<String>) stateMachineContext.getExtendedState().getVariables().get("list"), contains("a", "b"));
+		assertThat(stateMachineContext.getExtendedState().getVariables().containsKey("small"), is(false));
+	}
+
 	@EnableAutoConfiguration
 	static class TestConfig {
 	}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 the original author or authors.
+ * Copyright 2016-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,6 +15,9 @@
  */
 package org.springframework.statemachine.data.mongodb;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.springframework.statemachine.data.StateRepository;
 
 /**
@@ -24,4 +27,7 @@ import org.springframework.statemachine.data.StateRepository;
  *
  */
 public interface MongoDbStateRepository extends StateRepository<MongoDbRepositoryState> {
+
+	@Override
+	List<MongoDbRepositoryState> findByMachineIdIn(Collection<String> machineIds);
 }
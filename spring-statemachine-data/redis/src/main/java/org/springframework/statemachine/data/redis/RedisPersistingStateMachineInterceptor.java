@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 the original author or authors.
+ * Copyright 2017-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,6 +15,7 @@
  */
 package org.springframework.statemachine.data.redis;
 
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.statemachine.StateMachineContext;
 import org.springframework.statemachine.data.redis.RedisRepositoryStateMachinePersist;
 import org.springframework.statemachine.data.redis.RedisStateMachineRepository;
@@ -33,7 +34,7 @@ import org.springframework.util.Assert;
  * @param <T> the type of persister context object
  */
 public class RedisPersistingStateMachineInterceptor<S, E, T> extends AbstractPersistingStateMachineInterceptor<S, E, T>
-		implements StateMachineRuntimePersister<S, E, T> {
+		implements StateMachineRuntimePersister<S, E, T>, DisposableBean {
 
 	private final RedisRepositoryStateMachinePersist<S, E> persist;
 
@@ -69,6 +70,12 @@ public class RedisPersistingStateMachineInterceptor<S, E, T> extends AbstractPer
 
 	@Override
 	public StateMachineContext<S, E> read(Object contextObj) throws Exception {
-		return persist.read(contextObj);
+		return replayDeltas(persist.read(contextObj), contextObj);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		// saves writes still queued by a write-behind persist
+		persist.destroy();
 	}
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2017 the original author or authors.
+ * Copyright 2016-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,7 +17,9 @@ package org.springframework.statemachine.data;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -45,11 +47,21 @@ import org.springframework.statemachine.guard.Guard;
 import org.springframework.statemachine.guard.SpelExpressionGuard;
 import org.springframework.statemachine.state.PseudoStateKind;
 import org.springframework.statemachine.transition.TransitionKind;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.util.StringUtils;
 
 /**
  * A generic {@link StateMachineModelFactory} which is backed by a Spring Data
  * Repository abstraction.
+ * <p>
+ * Whole machine definition is loaded upfront using a bulk query for states
+ * per submachine nesting level and a single query for transitions of all
+ * machines, thus a number of queries doesn't depend on a size of a machine.
+ * If {@link TransactionOperations} is set, loading happens within a single
+ * transaction allowing a store to resolve references from already loaded
+ * entities.
  *
  * @author Janne Valkealahti
  *
@@ -59,6 +71,7 @@ public class RepositoryStateMachineModelFactory extends AbstractStateMachineMode
 
 	private final StateRepository<? extends RepositoryState> stateRepository;
 	private final TransitionRepository<? extends RepositoryTransition> transitionRepository;
+	private TransactionOperations transactionOperations;
 
 	/**
 	 * Instantiates a new repository state machine model factory.
@@ -78,15 +91,75 @@ public class RepositoryStateMachineModelFactory extends AbstractStateMachineMode
 	}
 
 	@Override
-	public StateMachineModel<String, String> build(String machineId) {
+	public StateMachineModel<String, String> build(final String machineId) {
+		if (transactionOperations == null) {
+			return load(machineId == null ? "" : machineId);
+		}
+		return transactionOperations.execute(new TransactionCallback<StateMachineModel<String, String>>() {
+
+			@Override
+			public StateMachineModel<String, String> doInTransaction(TransactionStatus status) {
+				return load(machineId == null ? "" : machineId);
+			}
+		});
+	}
+
+	/**
+	 * Sets the transaction operations used to load a machine definition
+	 * within a single transaction.
+	 *
+	 * @param transactionOperations the new transaction operations
+	 */
+	public void setTransactionOperations(TransactionOperations transactionOperations) {
+		this.transactionOperations = transactionOperations;
+	}
+
+	private StateMachineModel<String, String> load(String machineId) {
+		// states level by level as submachine ids are known only
+		// after its parent machine has been loaded
+		Map<String, List<RepositoryState>> states = new HashMap<>();
+		Collection<String> machineIds = Collections.singleton(machineId);
+		while (!machineIds.isEmpty()) {
+			for (String id : machineIds) {
+				states.put(id, new ArrayList<RepositoryState>());
+			}
+			Set<String> submachineIds = new LinkedHashSet<>();
+			for (RepositoryState s : stateRepository.findByMachineIdIn(machineIds)) {
+				List<RepositoryState> list = states.get(s.getMachineId() == null ? "" : s.getMachineId());
+				if (list != null) {
+					list.add(s);
+				}
+				String submachineId = s.getSubmachineId();
+				if (submachineId != null && !states.containsKey(submachineId)) {
+					submachineIds.add(submachineId);
+				}
+			}
+			machineIds = submachineIds;
+		}
+
+		Map<String, List<RepositoryTransition>> transitions = new HashMap<>();
+		for (String id : states.keySet()) {
+			transitions.put(id, new ArrayList<RepositoryTransition>());
+		}
+		for (RepositoryTransition t : transitionRepository.findByMachineIdIn(states.keySet())) {
+			List<RepositoryTransition> list = transitions.get(t.getMachineId() == null ? "" : t.getMachineId());
+			if (list != null) {
+				list.add(t);
+			}
+		}
+		return build(machineId, states, transitions);
+	}
+
+	private StateMachineModel<String, String> build(String machineId, Map<String, List<RepositoryState>> states,
+			Map<String, List<RepositoryTransition>> transitions) {
 		Collection<StateData<String, String>> stateDatas = new ArrayList<>();
-		for (RepositoryState s : stateRepository.findByMachineId(machineId == null ? "" : machineId)) {
+		for (RepositoryState s : states.get(machineId)) {
 
 			// do recursive build to get states for a submachine
 			StateMachineModel<String, String> subStateMachineModel = null;
 			String submachineId = s.getSubmachineId();
 			if (submachineId != null) {
-				subStateMachineModel = build(submachineId);
+				subStateMachineModel = build(submachineId, states, transitions);
 			}
 
 			Collection<Action<String, String>> stateActions = new ArrayList<Action<String, String>>();
@@ -97,10 +170,10 @@ public class RepositoryStateMachineModelFactory extends AbstractStateMachineMode
 					if (StringUtils.hasText(repositoryAction.getName())) {
 						action = resolveAction(repositoryAction.getName());
 					} else if (StringUtils.hasText(repositoryAction.getSpel())) {
-						SpelExpressionParser parser = new SpelExpressionParser(
-								new SpelParserConfiguration(SpelCompilerMode.MIXED, null));
+						SpelParserConfiguration spelConfiguration = new SpelParserConfiguration(SpelCompilerMode.MIXED, null);
+						SpelExpressionParser parser = new SpelExpressionParser(spelConfiguration);
 
-						action = new SpelExpressionAction<String, String>(parser.parseExpression(repositoryAction.getSpel()));
+						action = new SpelExpressionAction<String, String>(parser.parseExpression(repositoryAction.getSpel()), spelConfiguration);
 					}
 					if (action != null) {
 						stateActions.add(action);
@@ -116,10 +189,10 @@ public class RepositoryStateMachineModelFactory extends AbstractStateMachineMode
 					if (StringUtils.hasText(repositoryAction.getName())) {
 						action = resolveAction(repositoryAction.getName());
 					} else if (StringUtils.hasText(repositoryAction.getSpel())) {
-						SpelExpressionParser parser = new SpelExpressionParser(
-								new SpelParserConfiguration(SpelCompilerMode.MIXED, null));
+						SpelParserConfiguration spelConfiguration = new SpelParserConfiguration(SpelCompilerMode.MIXED, null);
+						SpelExpressionParser parser = new SpelExpressionParser(spelConfiguration);
 
-						action = new SpelExpressionAction<String, String>(parser.parseExpression(repositoryAction.getSpel()));
+						action = new SpelExpressionAction<String, String>(parser.parseExpression(repositoryAction.getSpel()), spelConfiguration);
 					}
 					if (action != null) {
 						stateActions.add(action);
@@ -135,10 +208,10 @@ public class RepositoryStateMachineModelFactory extends AbstractStateMachineMode
 					if (StringUtils.hasText(repositoryAction.getName())) {
 						action = resolveAction(repositoryAction.getName());
 					} else if (StringUtils.hasText(repositoryAction.getSpel())) {
-						SpelExpressionParser parser = new SpelExpressionParser(
-								new SpelParserConfiguration(SpelCompilerMode.MIXED, null));
+						SpelParserConfiguration spelConfiguration = new SpelParserConfiguration(SpelCompilerMode.MIXED, null);
+						SpelExpressionParser parser = new SpelExpressionParser(spelConfiguration);
 
-						action = new SpelExpressionAction<String, String>(parser.parseExpression(repositoryAction.getSpel()));
+						action = new SpelExpressionAction<String, String>(parser.parseExpression(repositoryAction.getSpel()), spelConfiguration);
 					}
 					if (action != null) {
 						stateActions.add(action);
@@ -155,10 +228,10 @@ public class RepositoryStateMachineModelFactory extends AbstractStateMachineMode
 				if (StringUtils.hasText(s.getInitialAction().getName())) {
 					initialAction = resolveAction(s.getInitialAction().getName());
 				} else if (StringUtils.hasText(s.getInitialAction().getSpel())) {
-					SpelExpressionParser parser = new SpelExpressionParser(
-							new SpelParserConfiguration(SpelCompilerMode.MIXED, null));
+					SpelParserConfiguration spelConfiguration = new SpelParserConfiguration(SpelCompilerMode.MIXED, null);
+					SpelExpressionParser parser = new SpelExpressionParser(spelConfiguration);
 
-					initialAction = new SpelExpressionAction<String, String>(parser.parseExpression(s.getInitialAction().getSpel()));
+					initialAction = new SpelExpressionAction<String, String>(parser.parseExpression(s.getInitialAction().getSpel()), spelConfiguration);
 				}
 			}
 			stateData.setInitialAction(initialAction);
@@ -196,7 +269,7 @@ public class RepositoryStateMachineModelFactory extends AbstractStateMachineMode
 		Map<String, List<String>> forks = new HashMap<String, List<String>>();
 		Map<String, List<String>> joins = new HashMap<String, List<String>>();
 
-		for (RepositoryTransition t : transitionRepository.findByMachineId(machineId == null ? "" : machineId)) {
+		for (RepositoryTransition t : transitions.get(machineId)) {
 
 			Collection<Action<String, String>> actions = new ArrayList<Action<String, String>>();
 			Set<? extends RepositoryAction> repositoryActions = t.getActions();
@@ -206,10 +279,10 @@ public class RepositoryStateMachineModelFactory extends AbstractStateMachineMode
 					if (StringUtils.hasText(repositoryAction.getName())) {
 						action = resolveAction(repositoryAction.getName());
 					} else if (StringUtils.hasText(repositoryAction.getSpel())) {
-						SpelExpressionParser parser = new SpelExpressionParser(
-								new SpelParserConfiguration(SpelCompilerMode.MIXED, null));
+						SpelParserConfiguration spelConfiguration = new SpelParserConfiguration(SpelCompilerMode.MIXED, null);
+						SpelExpressionParser parser = new SpelExpressionParser(spelConfiguration);
 
-						action = new SpelExpressionAction<String, String>(parser.parseExpression(repositoryAction.getSpel()));
+						action = new SpelExpressionAction<String, String>(parser.parseExpression(repositoryAction.getSpel()), spelConfiguration);
 					}
 					if (action != null) {
 						actions.add(action);
@@ -291,9 +364,9 @@ public class RepositoryStateMachineModelFactory extends AbstractStateMachineMode
 			if (StringUtils.hasText(repositoryGuard.getName())) {
 				guard = resolveGuard(repositoryGuard.getName());
 			} else if (StringUtils.hasText(repositoryGuard.getSpel())) {
-				SpelExpressionParser parser = new SpelExpressionParser(
-						new SpelParserConfiguration(SpelCompilerMode.MIXED, null));
-				guard = new SpelExpressionGuard<>(parser.parseExpression(repositoryGuard.getSpel()));
+				SpelParserConfiguration spelConfiguration = new SpelParserConfiguration(SpelCompilerMode.MIXED, null);
+				SpelExpressionParser parser = new SpelExpressionParser(spelConfiguration);
+				guard = new SpelExpressionGuard<>(parser.parseExpression(repositoryGuard.getSpel()), spelConfiguration);
 			}
 		}
 		return guard;
@@ -15,8 +15,20 @@
  */
 package org.springframework.statemachine.data;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.statemachine.StateMachineContext;
 import org.springframework.statemachine.StateMachinePersist;
 import org.springframework.statemachine.kryo.KryoStateMachineSerialisationService;
@@ -25,6 +37,18 @@ import org.springframework.util.Assert;
 
 /**
  * Base implementation of a {@link StateMachinePersist} using Spring Data Repositories.
+ * <p>
+ * By default every write is saved into a repository before returning. With
+ * {@link Durability#GROUP_COMMIT} or {@link Durability#ASYNC} writes are
+ * queued and saved in batches by a dedicated thread, successive writes of a
+ * same machine id replacing each other while still queued. Queued writes
+ * are saved when {@link #flush()} or {@link #destroy()} is called.
+ * <p>
+ * With {@link Durability#ASYNC} a batch failing to save is queued again,
+ * with a backoff, unless a newer write of a same machine id has been
+ * queued meanwhile. Writes failing during {@link #flush()} or
+ * {@link #destroy()} are dropped, logged and counted in
+ * {@link #getFailedCount()}.
  *
  * @author Janne Valkealahti
  *
@@ -32,10 +56,44 @@ import org.springframework.util.Assert;
  * @param <E> the type of event
  * @param <M> the type of entity
  */
-public abstract class RepositoryStateMachinePersist<M extends RepositoryStateMachine, S, E> implements StateMachinePersist<S, E, Object> {
+public abstract class RepositoryStateMachinePersist<M extends RepositoryStateMachine, S, E>
+		implements StateMachinePersist<S, E, Object>, DisposableBean {
 
 	private final Log log = LogFactory.getLog(RepositoryStateMachinePersist.class);
 	private final StateMachineSerialisationService<S, E> serialisationService;
+	private final Object pendingLock = new Object();
+	private final Object flushLock = new Object();
+	private final Map<String, PendingWrite> pending = new LinkedHashMap<String, PendingWrite>();
+	private final Map<String, M> inFlight = new HashMap<String, M>();
+	private final AtomicLong savedCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private Durability durability = Durability.SYNC;
+	private long groupCommitWindow = 5;
+	private int maxBatchSize = 256;
+	private int maxPendingWrites = 1024;
+	private boolean flusherRunning;
+	private Thread flusherThread;
+	private volatile boolean destroyed;
+	private int failures;
+
+	/**
+	 * Durability of a {@link RepositoryStateMachinePersist#write(StateMachineContext, Object)}.
+	 */
+	public enum Durability {
+
+		/** Every write is saved before write returns. */
+		SYNC,
+
+		/**
+		 * Writes are saved in batches and write returns when a batch
+		 * containing it has been saved.
+		 */
+		GROUP_COMMIT,
+
+		/** Writes are saved in batches and write returns immediately. */
+		ASYNC
+	}
 
 	/**
 	 * Instantiates a new repository state machine persist.
@@ -54,24 +112,149 @@ public abstract class RepositoryStateMachinePersist<M extends RepositoryStateMac
 		this.serialisationService = serialisationService;
 	}
 
+	/**
+	 * Sets the durability. Default is {@link Durability#SYNC}.
+	 *
+	 * @param durability the new durability
+	 */
+	public void setDurability(Durability durability) {
+		Assert.notNull(durability, "'durability' must be set");
+		this.durability = durability;
+	}
+
+	/**
+	 * Sets the time in milliseconds queued writes are collected before a
+	 * batch is saved unless batch gets full earlier. Default is 5.
+	 *
+	 * @param groupCommitWindow the group commit window
+	 */
+	public void setGroupCommitWindow(long groupCommitWindow) {
+		Assert.isTrue(groupCommitWindow >= 0, "'groupCommitWindow' must not be negative");
+		this.groupCommitWindow = groupCommitWindow;
+	}
+
+	/**
+	 * Sets the maximum number of entities saved in one batch. Default is 256.
+	 *
+	 * @param maxBatchSize the max batch size
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		Assert.isTrue(maxBatchSize > 0, "'maxBatchSize' must be greater than zero");
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Sets the maximum number of machine ids having a queued write. When
+	 * reached, writes block until queued writes are saved. Default is 1024.
+	 *
+	 * @param maxPendingWrites the max pending writes
+	 */
+	public void setMaxPendingWrites(int maxPendingWrites) {
+		Assert.isTrue(maxPendingWrites > 0, "'maxPendingWrites' must be greater than zero");
+		this.maxPendingWrites = maxPendingWrites;
+	}
+
+	/**
+	 * Gets the count of entities saved via batches.
+	 *
+	 * @return the saved count
+	 */
+	public long getSavedCount() {
+		return savedCount.get();
+	}
+
+	/**
+	 * Gets the count of queued writes replaced by a newer write of a same
+	 * machine id.
+	 *
+	 * @return the coalesced count
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * Gets the count of entities whose batch failed to save.
+	 *
+	 * @return the failed count
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
 	@Override
 	public void write(StateMachineContext<S, E> context, Object contextObj) throws Exception {
 		if (log.isDebugEnabled()) {
 			log.debug("Persisting context " + context + " using contextObj " + contextObj);
 		}
 		M build = build(context, serialisationService.serialiseStateMachineContext(context));
-		getRepository().save(build);
+		if (durability == Durability.SYNC) {
+			getRepository().save(build);
+			return;
+		}
+		CompletableFuture<Void> future = enqueue(build);
+		if (future == null) {
+			// destroyed, writes are saved synchronously
+			saveReplacingPending(build);
+			return;
+		}
+		if (durability == Durability.GROUP_COMMIT) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				throw cause instanceof Exception ? (Exception) cause : e;
+			}
+		}
 	}
 
 	@Override
 	public StateMachineContext<S, E> read(Object contextObj) throws Exception {
-		M repositoryStateMachine = getRepository().findById(contextObj.toString()).orElse(null);
+		M repositoryStateMachine = null;
+		if (durability != Durability.SYNC) {
+			// queued or being saved writes are newer than what repository has
+			synchronized (pendingLock) {
+				PendingWrite pendingWrite = pending.get(contextObj.toString());
+				repositoryStateMachine = pendingWrite != null ? pendingWrite.entity : inFlight.get(contextObj.toString());
+			}
+		}
+		if (repositoryStateMachine == null) {
+			repositoryStateMachine = getRepository().findById(contextObj.toString()).orElse(null);
+		}
 		if (repositoryStateMachine != null) {
 			return serialisationService.deserialiseStateMachineContext(repositoryStateMachine.getStateMachineContext());
 		}
 		return null;
 	}
 
+	/**
+	 * Saves all queued writes on a calling thread.
+	 */
+	public void flush() {
+		while (flushBatch(Integer.MAX_VALUE, false)) {
+		}
+	}
+
+	/**
+	 * Stops a thread saving queued writes and saves writes still queued.
+	 * Writes after this are saved synchronously.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		Thread thread;
+		synchronized (pendingLock) {
+			destroyed = true;
+			thread = flusherThread;
+			flusherRunning = false;
+			flusherThread = null;
+			pendingLock.notifyAll();
+		}
+		if (thread != null) {
+			thread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+		flush();
+	}
+
 	/**
 	 * Gets the repository.
 	 *
@@ -87,4 +270,175 @@ public abstract class RepositoryStateMachinePersist<M extends RepositoryStateMac
 	 * @return the repository state machine entity
 	 */
 	protected abstract M build(StateMachineContext<S, E> context, byte[] serialisedContext);
+
+	private CompletableFuture<Void> enqueue(M entity) throws InterruptedException {
+		String machineId = entity.getMachineId();
+		synchronized (pendingLock) {
+			if (destroyed) {
+				return null;
+			}
+			startFlusher();
+			while (true) {
+				PendingWrite pendingWrite = pending.get(machineId);
+				if (pendingWrite != null) {
+					pendingWrite.entity = entity;
+					coalescedCount.incrementAndGet();
+					return pendingWrite.future;
+				}
+				if (pending.size() < maxPendingWrites || !flusherRunning) {
+					break;
+				}
+				pendingLock.wait();
+			}
+			PendingWrite pendingWrite = new PendingWrite(entity);
+			pending.put(machineId, pendingWrite);
+			if (pending.size() == 1 || pending.size() >= maxBatchSize) {
+				pendingLock.notifyAll();
+			}
+			return pendingWrite.future;
+		}
+	}
+
+	/**
+	 * Saves an entity on a calling thread so that a queued older write of a
+	 * same machine id can't be saved over it.
+	 *
+	 * @param entity the entity
+	 */
+	private void saveReplacingPending(M entity) {
+		synchronized (flushLock) {
+			PendingWrite superseded;
+			synchronized (pendingLock) {
+				superseded = pending.remove(entity.getMachineId());
+				pendingLock.notifyAll();
+			}
+			getRepository().save(entity);
+			if (superseded != null) {
+				coalescedCount.incrementAndGet();
+				superseded.future.complete(null);
+			}
+		}
+	}
+
+	private void startFlusher() {
+		if (flusherRunning) {
+			return;
+		}
+		flusherRunning = true;
+		flusherThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				flushLoop();
+			}
+		}, "statemachine-persist-" + getClass().getSimpleName());
+		flusherThread.setDaemon(true);
+		flusherThread.start();
+	}
+
+	private void flushLoop() {
+		while (true) {
+			try {
+				synchronized (pendingLock) {
+					while (pending.isEmpty() && flusherRunning) {
+						pendingLock.wait();
+					}
+					if (!flusherRunning) {
+						return;
+					}
+					if (failures > 0) {
+						// back off after a failed batch
+						pendingLock.wait(Math.min(100L * failures, 5000));
+						if (!flusherRunning) {
+							return;
+						}
+					} else if (pending.size() < maxBatchSize && groupCommitWindow > 0) {
+						pendingLock.wait(groupCommitWindow);
+					}
+				}
+				flushBatch(maxBatchSize, durability == Durability.ASYNC);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Saves at most a given number of queued writes.
+	 *
+	 * @param max the max number of writes to save
+	 * @param requeue whether to queue again writes of a failed batch
+	 * @return true if something was saved
+	 */
+	private boolean flushBatch(int max, boolean requeue) {
+		// only one batch is saved at a time so that older write of a machine
+		// can't be saved after a newer one
+		synchronized (flushLock) {
+			List<PendingWrite> batch = new ArrayList<PendingWrite>();
+			synchronized (pendingLock) {
+				Iterator<PendingWrite> iterator = pending.values().iterator();
+				while (iterator.hasNext() && batch.size() < max) {
+					PendingWrite pendingWrite = iterator.next();
+					iterator.remove();
+					batch.add(pendingWrite);
+					inFlight.put(pendingWrite.entity.getMachineId(), pendingWrite.entity);
+				}
+				// wake up writers waiting for space
+				pendingLock.notifyAll();
+			}
+			if (batch.isEmpty()) {
+				return false;
+			}
+			List<M> entities = new ArrayList<M>(batch.size());
+			for (PendingWrite pendingWrite : batch) {
+				entities.add(pendingWrite.entity);
+			}
+			try {
+				getRepository().saveAll(entities);
+				savedCount.addAndGet(entities.size());
+				for (PendingWrite pendingWrite : batch) {
+					pendingWrite.future.complete(null);
+				}
+				synchronized (pendingLock) {
+					failures = 0;
+				}
+			} catch (Exception e) {
+				log.error("Error saving batch of " + entities.size() + " state machines", e);
+				failedCount.addAndGet(entities.size());
+				synchronized (pendingLock) {
+					failures++;
+					for (PendingWrite pendingWrite : batch) {
+						String machineId = pendingWrite.entity.getMachineId();
+						if (!requeue || destroyed) {
+							pendingWrite.future.completeExceptionally(e);
+						} else if (!pending.containsKey(machineId)) {
+							pending.put(machineId, pendingWrite);
+						} else {
+							// superseded by a newer queued write
+							pendingWrite.future.complete(null);
+						}
+					}
+				}
+			} finally {
+				synchronized (pendingLock) {
+					for (M entity : entities) {
+						inFlight.remove(entity.getMachineId());
+					}
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Queued write of a machine id, entity replaced by newer writes.
+	 */
+	private class PendingWrite {
+		private final CompletableFuture<Void> future = new CompletableFuture<Void>();
+		private M entity;
+
+		PendingWrite(M entity) {
+			this.entity = entity;
+		}
+	}
 }
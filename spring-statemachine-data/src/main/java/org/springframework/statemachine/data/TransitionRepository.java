@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 the original author or authors.
+ * Copyright 2016-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,6 +15,8 @@
  */
 package org.springframework.statemachine.data;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.repository.CrudRepository;
@@ -38,4 +40,20 @@ public interface TransitionRepository<T extends RepositoryTransition> extends Cr
 	 * @return the list of transitions
 	 */
 	List<T> findByMachineId(String machineId);
+
+	/**
+	 * Find transitions by multiple machine ids. Default implementation queries
+	 * machine ids one by one, store specific repositories should override
+	 * this with a single query.
+	 *
+	 * @param machineIds the machine ids
+	 * @return the list of transitions
+	 */
+	default List<T> findByMachineIdIn(Collection<String> machineIds) {
+		List<T> transitions = new ArrayList<>();
+		for (String machineId : machineIds) {
+			transitions.addAll(findByMachineId(machineId));
+		}
+		return transitions;
+	}
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 the original author or authors.
+ * Copyright 2017-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,16 +15,16 @@
  */
 package org.springframework.statemachine.kryo;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import org.springframework.statemachine.StateMachineContext;
 import org.springframework.statemachine.service.StateMachineSerialisationService;
 import org.springframework.util.Assert;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.pool.KryoCallback;
@@ -33,6 +33,16 @@ import com.esotericsoftware.kryo.pool.KryoPool;
 
 /**
  * Abstract base implementation for {@link StateMachineSerialisationService} using kryo.
+ * <p>
+ * Kryo {@link Output} and {@link Input} instances are kept per thread and
+ * reused between calls. Output buffer grows as needed and is discarded
+ * after use if it grew over {@link #MAX_POOLED_BUFFER_SIZE}.
+ * <p>
+ * Deserialising from an {@link InputStream} reads the stream in chunks of
+ * {@link #INPUT_BUFFER_SIZE} bytes, thus up to that many bytes past the end
+ * of a context may get consumed from a stream. A stream shared with other
+ * data needs to be framed by a caller, i.e. with a length prefix and a
+ * bounded stream per context.
  *
  * @author Janne Valkealahti
  *
@@ -41,8 +51,25 @@ import com.esotericsoftware.kryo.pool.KryoPool;
  */
 public abstract class AbstractKryoStateMachineSerialisationService<S, E> implements StateMachineSerialisationService<S, E> {
 
+	/** Initial size of a pooled output buffer */
+	protected static final int INITIAL_BUFFER_SIZE = 1024;
+
+	/** Size over which pooled output buffer is not kept */
+	protected static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+	/** Size of a pooled stream input buffer */
+	protected static final int INPUT_BUFFER_SIZE = 1024;
+
+	private static final byte[] EMPTY_BUFFER = new byte[0];
+
 	protected final KryoPool pool;
 
+	private final ThreadLocal<Output> outputs = new ThreadLocal<Output>();
+
+	private final ThreadLocal<Input> inputs = new ThreadLocal<Input>();
+
+	private final ThreadLocal<Input> streamInputs = new ThreadLocal<Input>();
+
 	protected AbstractKryoStateMachineSerialisationService() {
 		KryoFactory factory = new KryoFactory() {
 
@@ -58,13 +85,72 @@ public abstract class AbstractKryoStateMachineSerialisationService<S, E> impleme
 
 	@Override
 	public byte[] serialiseStateMachineContext(StateMachineContext<S, E> context) throws Exception {
-		return encode(context);
+		Output output = borrowOutput();
+		try {
+			encode(context, output);
+			return output.toBytes();
+		} finally {
+			releaseOutput(output);
+		}
+	}
+
+	@Override
+	public void serialiseStateMachineContext(StateMachineContext<S, E> context, OutputStream outputStream) throws Exception {
+		Assert.notNull(outputStream, "'outputStream' cannot be null");
+		Output output = borrowOutput();
+		try {
+			encode(context, output);
+			outputStream.write(output.getBuffer(), 0, output.position());
+		} finally {
+			releaseOutput(output);
+		}
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public StateMachineContext<S, E> deserialiseStateMachineContext(byte[] data) throws Exception {
-		return decode(data, StateMachineContext.class);
+		Assert.notNull(data, "'data' cannot be null");
+		Input input = inputs.get();
+		if (input == null) {
+			input = new Input();
+		} else {
+			// borrowed, nested call on same thread gets its own
+			inputs.remove();
+		}
+		try {
+			input.setBuffer(data);
+			return decode(input, StateMachineContext.class);
+		} finally {
+			input.setBuffer(EMPTY_BUFFER);
+			inputs.set(input);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public StateMachineContext<S, E> deserialiseStateMachineContext(InputStream inputStream) throws Exception {
+		Assert.notNull(inputStream, "'inputStream' cannot be null");
+		Input input = streamInputs.get();
+		if (input == null) {
+			input = new Input(INPUT_BUFFER_SIZE);
+		} else {
+			// borrowed, nested call on same thread gets its own
+			streamInputs.remove();
+		}
+		try {
+			input.setInputStream(inputStream);
+			return decode(input, StateMachineContext.class);
+		} finally {
+			input.setInputStream(null);
+			streamInputs.set(input);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public StateMachineContext<S, E> deserialiseStateMachineContext(ByteBuffer buffer) throws Exception {
+		Assert.notNull(buffer, "'buffer' cannot be null");
+		return decode(new ByteBufferInput(buffer.duplicate()), StateMachineContext.class);
 	}
 
 	/**
@@ -95,18 +181,26 @@ public abstract class AbstractKryoStateMachineSerialisationService<S, E> impleme
 	 */
 	protected abstract void configureKryoInstance(Kryo kryo);
 
-	private byte[] encode(Object object) throws IOException {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		encode(object, bos);
-		byte[] bytes = bos.toByteArray();
-		bos.close();
-		return bytes;
+	private Output borrowOutput() {
+		Output output = outputs.get();
+		if (output == null) {
+			output = new Output(INITIAL_BUFFER_SIZE, -1);
+		} else {
+			// borrowed, nested call on same thread gets its own
+			outputs.remove();
+		}
+		return output;
 	}
 
-	private void encode(final Object object, OutputStream outputStream) throws IOException {
+	private void releaseOutput(Output output) {
+		if (output.getBuffer().length <= MAX_POOLED_BUFFER_SIZE) {
+			output.clear();
+			outputs.set(output);
+		}
+	}
+
+	private void encode(final Object object, final Output output) {
 		Assert.notNull(object, "cannot encode a null object");
-		Assert.notNull(outputStream, "'outputSteam' cannot be null");
-		final Output output = (outputStream instanceof Output ? (Output) outputStream : new Output(outputStream));
 		this.pool.run(new KryoCallback<Void>() {
 
 			@Override
@@ -115,37 +209,17 @@ public abstract class AbstractKryoStateMachineSerialisationService<S, E> impleme
 				return null;
 			}
 		});
-		output.close();
-	}
-
-	private <T> T decode(byte[] bytes, Class<T> type) throws IOException {
-		Assert.notNull(bytes, "'bytes' cannot be null");
-		final Input input = new Input(bytes);
-		try {
-			return decode(input, type);
-		}
-		finally {
-			input.close();
-		}
+		output.flush();
 	}
 
-	private <T> T decode(InputStream inputStream, final Class<T> type) throws IOException {
-		Assert.notNull(inputStream, "'inputStream' cannot be null");
+	private <T> T decode(final Input input, final Class<T> type) {
 		Assert.notNull(type, "'type' cannot be null");
-		final Input input = (inputStream instanceof Input ? (Input) inputStream : new Input(inputStream));
-		T result = null;
-		try {
-			result = this.pool.run(new KryoCallback<T>(){
+		return this.pool.run(new KryoCallback<T>(){
 
-				@Override
-				public T execute(Kryo kryo) {
-					return doDecode(kryo, input, type);
-				}
-			});
-		}
-		finally {
-			input.close();
-		}
-		return result;
+			@Override
+			public T execute(Kryo kryo) {
+				return doDecode(kryo, input, type);
+			}
+		});
 	}
 }
@@ -15,11 +15,17 @@
  */
 package org.springframework.statemachine.kryo;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.statemachine.StateMachineContext;
 import org.springframework.statemachine.service.StateMachineSerialisationService;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+import org.springframework.statemachine.support.ObservableMap;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
@@ -27,6 +33,15 @@ import com.esotericsoftware.kryo.io.Output;
 
 /**
  * Implementation for {@link StateMachineSerialisationService} using kryo.
+ * <p>
+ * Classes commonly found from a {@link StateMachineContext} are registered
+ * with fixed ids starting from {@link #REGISTRATION_ID_BASE} so that those
+ * are written as a small class id instead of a full class name. Data
+ * written with class names is still readable. Subclasses may register
+ * their own state and event types by overriding
+ * {@link #configureKryoInstance(Kryo)} and using ids above
+ * {@link #REGISTRATION_ID_USER_BASE}, ids must be stable between writers and
+ * readers.
  *
  * @author Janne Valkealahti
  *
@@ -35,6 +50,12 @@ import com.esotericsoftware.kryo.io.Output;
  */
 public class KryoStateMachineSerialisationService<S, E> extends AbstractKryoStateMachineSerialisationService<S, E> {
 
+	/** Base id for built-in class registrations */
+	public static final int REGISTRATION_ID_BASE = 100;
+
+	/** Base id for user class registrations */
+	public static final int REGISTRATION_ID_USER_BASE = 200;
+
 	@Override
 	protected void doEncode(Kryo kryo, Object object, Output output) {
 		kryo.writeObject(output, object);
@@ -50,5 +71,14 @@ public class KryoStateMachineSerialisationService<S, E> extends AbstractKryoStat
 		kryo.addDefaultSerializer(StateMachineContext.class, new StateMachineContextSerializer<S, E>());
 		kryo.addDefaultSerializer(MessageHeaders.class, new MessageHeadersSerializer());
 		kryo.addDefaultSerializer(UUID.class, new UUIDSerializer());
+		// default serializers above needs to be in place before registration
+		kryo.register(DefaultStateMachineContext.class, REGISTRATION_ID_BASE);
+		kryo.register(MessageHeaders.class, REGISTRATION_ID_BASE + 1);
+		kryo.register(UUID.class, REGISTRATION_ID_BASE + 2);
+		kryo.register(HashMap.class, REGISTRATION_ID_BASE + 3);
+		kryo.register(LinkedHashMap.class, REGISTRATION_ID_BASE + 4);
+		kryo.register(ArrayList.class, REGISTRATION_ID_BASE + 5);
+		kryo.register(ConcurrentHashMap.class, REGISTRATION_ID_BASE + 6);
+		kryo.register(ObservableMap.class, REGISTRATION_ID_BASE + 7);
 	}
 }
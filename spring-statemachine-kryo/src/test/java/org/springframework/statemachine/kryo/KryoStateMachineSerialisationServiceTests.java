@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.kryo;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Tests for {@link KryoStateMachineSerialisationService}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class KryoStateMachineSerialisationServiceTests {
+
+	@Test
+	public void testBytesRoundTrip() throws Exception {
+		KryoStateMachineSerialisationService<String, String> service = new KryoStateMachineSerialisationService<>();
+		byte[] data = service.serialiseStateMachineContext(buildContext());
+		assertContext(service.deserialiseStateMachineContext(data));
+		// pooled buffers are reused between calls
+		assertThat(service.serialiseStateMachineContext(buildContext()), is(data));
+		// registered classes are not written by name
+		assertThat(new String(data, StandardCharsets.ISO_8859_1).contains("java.util.HashMap"), is(false));
+	}
+
+	@Test
+	public void testStreamRoundTrip() throws Exception {
+		KryoStateMachineSerialisationService<String, String> service = new KryoStateMachineSerialisationService<>();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		service.serialiseStateMachineContext(buildContext(), out);
+		assertThat(out.toByteArray(), is(service.serialiseStateMachineContext(buildContext())));
+		assertContext(service.deserialiseStateMachineContext(new ByteArrayInputStream(out.toByteArray())));
+	}
+
+	@Test
+	public void testByteBufferRoundTrip() throws Exception {
+		KryoStateMachineSerialisationService<String, String> service = new KryoStateMachineSerialisationService<>();
+		byte[] data = service.serialiseStateMachineContext(buildContext());
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+		buffer.put(data);
+		buffer.flip();
+		assertContext(service.deserialiseStateMachineContext(buffer));
+		assertThat(buffer.position(), is(0));
+	}
+
+	@Test
+	public void testStreamInputReused() throws Exception {
+		KryoStateMachineSerialisationService<String, String> service = new KryoStateMachineSerialisationService<>();
+		byte[] data = service.serialiseStateMachineContext(buildContext());
+		assertContext(service.deserialiseStateMachineContext(new ByteArrayInputStream(data)));
+		assertContext(service.deserialiseStateMachineContext(new ByteArrayInputStream(data)));
+
+		Map<Object, Object> variables = new HashMap<Object, Object>();
+		StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			buf.append('x');
+		}
+		variables.put("big", buf.toString());
+		data = service.serialiseStateMachineContext(new DefaultStateMachineContext<String, String>("S1", "E1", null,
+				new DefaultExtendedState(variables)));
+		StateMachineContext<String, String> context = service.deserialiseStateMachineContext(new ByteArrayInputStream(data));
+		assertThat(context.getExtendedState().getVariables().get("big"), is(buf.toString()));
+	}
+
+	@Test
+	public void testClassNameEncodedDataReadable() throws Exception {
+		// data written before classes were registered with ids
+		Kryo kryo = new Kryo();
+		kryo.addDefaultSerializer(StateMachineContext.class, new StateMachineContextSerializer<String, String>());
+		kryo.addDefaultSerializer(MessageHeaders.class, new MessageHeadersSerializer());
+		kryo.addDefaultSerializer(UUID.class, new UUIDSerializer());
+		Output output = new Output(1024, -1);
+		kryo.writeObject(output, buildContext());
+		byte[] data = output.toBytes();
+		assertThat(new String(data, StandardCharsets.ISO_8859_1).contains("java.util.HashMap"), is(true));
+
+		KryoStateMachineSerialisationService<String, String> service = new KryoStateMachineSerialisationService<>();
+		assertContext(service.deserialiseStateMachineContext(data));
+		assertContext(service.deserialiseStateMachineContext(new ByteArrayInputStream(data)));
+	}
+
+	private static StateMachineContext<String, String> buildContext() {
+		Map<Object, Object> variables = new HashMap<Object, Object>();
+		variables.put("foo", 1);
+		List<StateMachineContext<String, String>> childs = new ArrayList<StateMachineContext<String, String>>();
+		childs.add(new DefaultStateMachineContext<String, String>("S11", null, null, null));
+		return new DefaultStateMachineContext<String, String>(childs, "S1", "E1", null,
+				new DefaultExtendedState(variables), null, "machine1");
+	}
+
+	private static void assertContext(StateMachineContext<String, String> context) {
+		assertThat(context.getState(), is("S1"));
+		assertThat(context.getEvent(), is("E1"));
+		assertThat(context.getId(), is("machine1"));
+		assertThat(context.getExtendedState().getVariables().get("foo"), is(1));
+		assertThat(context.getChilds().size(), is(1));
+		assertThat(context.getChilds().get(0).getState(), is("S11"));
+	}
+}
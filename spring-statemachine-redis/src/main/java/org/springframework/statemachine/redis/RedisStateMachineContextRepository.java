@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,25 +17,40 @@ package org.springframework.statemachine.redis;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.util.UUID;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
-import org.springframework.messaging.MessageHeaders;
 import org.springframework.statemachine.StateMachineContext;
 import org.springframework.statemachine.StateMachineContextRepository;
-import org.springframework.statemachine.kryo.MessageHeadersSerializer;
-import org.springframework.statemachine.kryo.StateMachineContextSerializer;
-import org.springframework.statemachine.kryo.UUIDSerializer;
-
-import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
+import org.springframework.statemachine.StateMachineException;
+import org.springframework.statemachine.kryo.KryoStateMachineSerialisationService;
+import org.springframework.statemachine.service.StateMachineSerialisationService;
+import org.springframework.util.Assert;
 
 /**
  * A {@link StateMachineContextRepository} backed by a redis and kryo serialization.
+ * <p>
+ * Contexts can be saved and read in bulk with {@link #saveAll(Map)} and
+ * {@link #getContexts(Collection)}, which send all commands in one redis
+ * pipeline. Optionally keys are given a time to live and serialized
+ * contexts above a size threshold are compressed.
  *
  * @author Janne Valkealahti
  *
@@ -44,20 +59,14 @@ import com.esotericsoftware.kryo.io.Output;
  */
 public class RedisStateMachineContextRepository<S, E> implements StateMachineContextRepository<S, E, StateMachineContext<S, E>> {
 
-	private static final ThreadLocal<Kryo> kryoThreadLocal = new ThreadLocal<Kryo>() {
-
-		@SuppressWarnings("rawtypes")
-		@Override
-		protected Kryo initialValue() {
-			Kryo kryo = new Kryo();
-			kryo.addDefaultSerializer(StateMachineContext.class, new StateMachineContextSerializer());
-			kryo.addDefaultSerializer(MessageHeaders.class, new MessageHeadersSerializer());
-			kryo.addDefaultSerializer(UUID.class, new UUIDSerializer());
-			return kryo;
-		}
-	};
-
+	private final static byte[] COMPRESSED_HEADER = new byte[] { (byte) 0x8f, 'S', 'M', 'Z' };
 	private final RedisOperations<String,byte[]> redisOperations;
+	private final StateMachineSerialisationService<S, E> serialisationService;
+	private final StringRedisSerializer keySerializer = new StringRedisSerializer();
+	private final RedisSerializer<byte[]> valueSerializer;
+	private Duration timeToLive;
+	private int compressionThreshold = -1;
+	private int batchSize = 512;
 
 	/**
 	 * Instantiates a new redis state machine context repository.
@@ -65,12 +74,68 @@ public class RedisStateMachineContextRepository<S, E> implements StateMachineCon
 	 * @param redisConnectionFactory the redis connection factory
 	 */
 	public RedisStateMachineContextRepository(RedisConnectionFactory redisConnectionFactory) {
-		redisOperations = createDefaultTemplate(redisConnectionFactory);
+		this(redisConnectionFactory, new KryoStateMachineSerialisationService<S, E>());
+	}
+
+	/**
+	 * Instantiates a new redis state machine context repository.
+	 *
+	 * @param redisConnectionFactory the redis connection factory
+	 * @param serialisationService the serialisation service
+	 */
+	@SuppressWarnings("unchecked")
+	public RedisStateMachineContextRepository(RedisConnectionFactory redisConnectionFactory,
+			StateMachineSerialisationService<S, E> serialisationService) {
+		Assert.notNull(serialisationService, "'serialisationService' must be set");
+		RedisTemplate<String, byte[]> template = createDefaultTemplate(redisConnectionFactory);
+		this.redisOperations = template;
+		// bulk operations use raw connection, values still need to go
+		// through template's serializer to keep stored format same
+		this.valueSerializer = (RedisSerializer<byte[]>) template.getValueSerializer();
+		this.serialisationService = serialisationService;
+	}
+
+	/**
+	 * Sets the time to live given to every saved key. Keys never expire by
+	 * default.
+	 *
+	 * @param timeToLive the time to live
+	 */
+	public void setTimeToLive(Duration timeToLive) {
+		Assert.isTrue(timeToLive == null || !timeToLive.isNegative(), "'timeToLive' must not be negative");
+		this.timeToLive = timeToLive != null && !timeToLive.isZero() ? timeToLive : null;
+	}
+
+	/**
+	 * Sets the size in bytes above which serialized contexts are compressed
+	 * using deflate. Negative value disables compression which is a default.
+	 * Contexts are always read regardless if those were compressed or not.
+	 *
+	 * @param compressionThreshold the compression threshold
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * Sets the maximum number of keys read with one {@code MGET} command by
+	 * {@link #getContexts(Collection)} and written with one {@code MSET}
+	 * command by {@link #saveAll(Map)}. Default is 512.
+	 *
+	 * @param batchSize the batch size
+	 */
+	public void setBatchSize(int batchSize) {
+		Assert.isTrue(batchSize > 0, "'batchSize' must be greater than zero");
+		this.batchSize = batchSize;
 	}
 
 	@Override
 	public void save(StateMachineContext<S, E> context, String id) {
-		redisOperations.opsForValue().set(id, serialize(context));
+		if (timeToLive != null) {
+			redisOperations.opsForValue().set(id, serialize(context), timeToLive.toMillis(), TimeUnit.MILLISECONDS);
+		} else {
+			redisOperations.opsForValue().set(id, serialize(context));
+		}
 	}
 
 	@Override
@@ -78,6 +143,89 @@ public class RedisStateMachineContextRepository<S, E> implements StateMachineCon
 		return deserialize(redisOperations.opsForValue().get(id));
 	}
 
+	/**
+	 * Save contexts by their ids. Contexts are written in batches of
+	 * {@code MSET} commands all sent in a single pipeline.
+	 *
+	 * @param contexts the contexts keyed by id
+	 */
+	public void saveAll(Map<String, ? extends StateMachineContext<S, E>> contexts) {
+		if (contexts.isEmpty()) {
+			return;
+		}
+		final List<Map<byte[], byte[]>> batches = new ArrayList<Map<byte[], byte[]>>();
+		Map<byte[], byte[]> batch = null;
+		for (Map.Entry<String, ? extends StateMachineContext<S, E>> entry : contexts.entrySet()) {
+			if (batch == null || batch.size() == batchSize) {
+				batch = new LinkedHashMap<byte[], byte[]>(Math.min(batchSize, contexts.size()));
+				batches.add(batch);
+			}
+			batch.put(keySerializer.serialize(entry.getKey()), valueSerializer.serialize(serialize(entry.getValue())));
+		}
+		final Duration ttl = timeToLive;
+		redisOperations.executePipelined(new RedisCallback<Object>() {
+
+			@Override
+			public Object doInRedis(RedisConnection connection) throws DataAccessException {
+				for (Map<byte[], byte[]> entries : batches) {
+					if (ttl == null) {
+						connection.mSet(entries);
+					} else {
+						for (Map.Entry<byte[], byte[]> entry : entries.entrySet()) {
+							connection.pSetEx(entry.getKey(), ttl.toMillis(), entry.getValue());
+						}
+					}
+				}
+				return null;
+			}
+		}, null);
+	}
+
+	/**
+	 * Gets contexts for given ids. Ids are read in batches of
+	 * {@code MGET} commands all sent in a single pipeline. Ids not having a
+	 * context are not present in a returned map.
+	 *
+	 * @param ids the ids
+	 * @return the contexts keyed by id
+	 */
+	public Map<String, StateMachineContext<S, E>> getContexts(Collection<String> ids) {
+		final List<String> keys = new ArrayList<String>(ids);
+		Map<String, StateMachineContext<S, E>> contexts = new LinkedHashMap<String, StateMachineContext<S, E>>(keys.size());
+		if (keys.isEmpty()) {
+			return contexts;
+		}
+		List<Object> results = redisOperations.executePipelined(new RedisCallback<Object>() {
+
+			@Override
+			public Object doInRedis(RedisConnection connection) throws DataAccessException {
+				for (int i = 0; i < keys.size(); i += batchSize) {
+					List<String> batch = keys.subList(i, Math.min(i + batchSize, keys.size()));
+					byte[][] rawKeys = new byte[batch.size()][];
+					for (int j = 0; j < rawKeys.length; j++) {
+						rawKeys[j] = keySerializer.serialize(batch.get(j));
+					}
+					connection.mGet(rawKeys);
+				}
+				return null;
+			}
+		}, null);
+		int index = 0;
+		for (Object result : results) {
+			for (Object value : (List<?>) result) {
+				String key = keys.get(index++);
+				if (value != null) {
+					StateMachineContext<S, E> context = deserialize(valueSerializer.deserialize((byte[]) value));
+					if (context != null) {
+						contexts.put(key, context);
+					}
+				}
+			}
+		}
+		return contexts;
+	}
+
+
 	private static RedisTemplate<String,byte[]> createDefaultTemplate(RedisConnectionFactory connectionFactory) {
 		RedisTemplate<String,byte[]> template = new RedisTemplate<String,byte[]>();
 		template.setKeySerializer(new StringRedisSerializer());
@@ -88,23 +236,68 @@ public class RedisStateMachineContextRepository<S, E> implements StateMachineCon
 	}
 
 	private byte[] serialize(StateMachineContext<S, E> context) {
-		Kryo kryo = kryoThreadLocal.get();
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		Output output = new Output(out);
-		kryo.writeObject(output, context);
-		output.close();
-		return out.toByteArray();
+		try {
+			byte[] data = serialisationService.serialiseStateMachineContext(context);
+			if (compressionThreshold >= 0 && data.length > compressionThreshold) {
+				data = compress(data);
+			}
+			return data;
+		} catch (Exception e) {
+			throw new StateMachineException("Unable to serialise context", e);
+		}
 	}
 
-	@SuppressWarnings("unchecked")
 	private StateMachineContext<S, E> deserialize(byte[] data) {
 		if (data == null || data.length == 0) {
 			return null;
 		}
-		Kryo kryo = kryoThreadLocal.get();
-		ByteArrayInputStream in = new ByteArrayInputStream(data);
-		Input input = new Input(in);
-		return kryo.readObject(input, StateMachineContext.class);
+		try {
+			if (isCompressed(data)) {
+				data = decompress(data);
+			}
+			return serialisationService.deserialiseStateMachineContext(data);
+		} catch (Exception e) {
+			throw new StateMachineException("Unable to deserialise context", e);
+		}
+	}
+
+	private static byte[] compress(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + COMPRESSED_HEADER.length);
+		out.write(COMPRESSED_HEADER);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater);
+			deflaterOut.write(data);
+			deflaterOut.close();
+		} finally {
+			deflater.end();
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] decompress(byte[] data) throws IOException {
+		InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(data, COMPRESSED_HEADER.length,
+				data.length - COMPRESSED_HEADER.length));
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 2);
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	private static boolean isCompressed(byte[] data) {
+		if (data.length < COMPRESSED_HEADER.length) {
+			return false;
+		}
+		for (int i = 0; i < COMPRESSED_HEADER.length; i++) {
+			if (data[i] != COMPRESSED_HEADER[i]) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 the original author or authors.
+ * Copyright 2016-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,8 +15,13 @@
  */
 package org.springframework.statemachine.redis;
 
+import java.util.Map;
+
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.StateMachineContext;
 import org.springframework.statemachine.StateMachinePersist;
 import org.springframework.statemachine.persist.AbstractStateMachinePersister;
+import org.springframework.statemachine.persist.RepositoryStateMachinePersist;
 import org.springframework.statemachine.persist.StateMachinePersister;
 
 /**
@@ -29,6 +34,8 @@ import org.springframework.statemachine.persist.StateMachinePersister;
  */
 public class RedisStateMachinePersister<S, E> extends AbstractStateMachinePersister<S, E, String> {
 
+	private final RedisStateMachineContextRepository<S, E> repository;
+
 	/**
 	 * Instantiates a new redis state machine persister.
 	 *
@@ -36,5 +43,41 @@ public class RedisStateMachinePersister<S, E> extends AbstractStateMachinePersis
 	 */
 	public RedisStateMachinePersister(StateMachinePersist<S, E, String> stateMachinePersist) {
 		super(stateMachinePersist);
+		this.repository = null;
+	}
+
+	/**
+	 * Instantiates a new redis state machine persister using a repository
+	 * directly, allowing machines to be restored in batches.
+	 *
+	 * @param repository the redis state machine context repository
+	 */
+	public RedisStateMachinePersister(RedisStateMachineContextRepository<S, E> repository) {
+		super(new RepositoryStateMachinePersist<S, E>(repository));
+		this.repository = repository;
+	}
+
+	/**
+	 * Restore state machines keyed by their context objects. If this
+	 * persister was created with a {@link RedisStateMachineContextRepository},
+	 * all contexts are read in a single pipeline, otherwise machines are
+	 * restored one by one.
+	 *
+	 * @param stateMachines the state machines keyed by context object
+	 * @return the restored state machines
+	 * @throws Exception if restore failed
+	 */
+	public Map<String, StateMachine<S, E>> restore(Map<String, StateMachine<S, E>> stateMachines) throws Exception {
+		if (repository == null) {
+			for (Map.Entry<String, StateMachine<S, E>> entry : stateMachines.entrySet()) {
+				restore(entry.getValue(), entry.getKey());
+			}
+			return stateMachines;
+		}
+		Map<String, StateMachineContext<S, E>> contexts = repository.getContexts(stateMachines.keySet());
+		for (Map.Entry<String, StateMachine<S, E>> entry : stateMachines.entrySet()) {
+			resetStateMachine(entry.getValue(), contexts.get(entry.getKey()));
+		}
+		return stateMachines;
 	}
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.redis;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.kryo.KryoStateMachineSerialisationService;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+
+/**
+ * Tests for {@link RedisStateMachineContextRepository}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class RedisStateMachineContextRepositoryTests {
+
+	private static final byte[] COMPRESSED_HEADER = new byte[] { (byte) 0x8f, 'S', 'M', 'Z' };
+	private static final String KEY_PREFIX = "RedisStateMachineContextRepositoryTests";
+
+	@Rule
+	public RedisRule redisAvailableRule = new RedisRule();
+
+	private JedisConnectionFactory connectionFactory;
+	private RedisTemplate<String, byte[]> rawTemplate;
+
+	@Before
+	public void setup() {
+		connectionFactory = new JedisConnectionFactory();
+		connectionFactory.afterPropertiesSet();
+		rawTemplate = new RedisTemplate<String, byte[]>();
+		rawTemplate.setKeySerializer(new StringRedisSerializer());
+		rawTemplate.setConnectionFactory(connectionFactory);
+		rawTemplate.afterPropertiesSet();
+	}
+
+	@After
+	public void clean() {
+		rawTemplate.delete(rawTemplate.keys(KEY_PREFIX + "*"));
+		connectionFactory.destroy();
+	}
+
+	@Test
+	public void testCompressedRoundTrip() throws Exception {
+		RedisStateMachineContextRepository<String, String> repository =
+				new RedisStateMachineContextRepository<String, String>(connectionFactory);
+		repository.setCompressionThreshold(0);
+		String id = KEY_PREFIX + "1";
+		StateMachineContext<String, String> context = buildContext(id);
+
+		repository.save(context, id);
+		byte[] data = rawTemplate.opsForValue().get(id);
+		assertThat(Arrays.copyOf(data, COMPRESSED_HEADER.length), is(COMPRESSED_HEADER));
+		assertContext(repository.getContext(id), id);
+	}
+
+	@Test
+	public void testBelowThresholdNotCompressed() throws Exception {
+		RedisStateMachineContextRepository<String, String> repository =
+				new RedisStateMachineContextRepository<String, String>(connectionFactory);
+		repository.setCompressionThreshold(Integer.MAX_VALUE);
+		String id = KEY_PREFIX + "1";
+		StateMachineContext<String, String> context = buildContext(id);
+
+		repository.save(context, id);
+		assertThat(rawTemplate.opsForValue().get(id), is(serializePlain(context)));
+		assertContext(repository.getContext(id), id);
+	}
+
+	@Test
+	public void testPlainValuePassthrough() throws Exception {
+		String id = KEY_PREFIX + "1";
+		StateMachineContext<String, String> context = buildContext(id);
+		rawTemplate.opsForValue().set(id, serializePlain(context));
+
+		RedisStateMachineContextRepository<String, String> repository =
+				new RedisStateMachineContextRepository<String, String>(connectionFactory);
+		assertContext(repository.getContext(id), id);
+
+		// values written without compression are read when compression is enabled
+		repository.setCompressionThreshold(0);
+		assertContext(repository.getContext(id), id);
+		assertThat(repository.getContext(KEY_PREFIX + "Missing"), nullValue());
+	}
+
+	@Test
+	public void testSaveAllInBatches() throws Exception {
+		AtomicInteger mSetCount = new AtomicInteger();
+		RedisStateMachineContextRepository<String, String> repository =
+				new RedisStateMachineContextRepository<String, String>(countingMSet(connectionFactory, mSetCount));
+		repository.setBatchSize(2);
+		repository.setCompressionThreshold(0);
+		Map<String, StateMachineContext<String, String>> contexts = new LinkedHashMap<String, StateMachineContext<String, String>>();
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < 5; i++) {
+			String id = KEY_PREFIX + i;
+			contexts.put(id, buildContext(id));
+			ids.add(id);
+		}
+		repository.saveAll(contexts);
+		assertThat(mSetCount.get(), is(3));
+		ids.add(KEY_PREFIX + "Missing");
+
+		Map<String, StateMachineContext<String, String>> read = repository.getContexts(ids);
+		assertThat(read.size(), is(5));
+		for (int i = 0; i < 5; i++) {
+			String id = KEY_PREFIX + i;
+			assertContext(read.get(id), id);
+			assertContext(repository.getContext(id), id);
+		}
+	}
+
+	/**
+	 * Wraps a connection factory so that connections it gives out count
+	 * {@code MSET} commands.
+	 */
+	private static RedisConnectionFactory countingMSet(final RedisConnectionFactory factory, final AtomicInteger count) {
+		return (RedisConnectionFactory) Proxy.newProxyInstance(RedisConnectionFactory.class.getClassLoader(),
+				new Class<?>[] { RedisConnectionFactory.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						Object result = invokeDelegate(factory, method, args);
+						if (method.getName().equals("getConnection")) {
+							final RedisConnection connection = (RedisConnection) result;
+							result = Proxy.newProxyInstance(RedisConnection.class.getClassLoader(),
+									new Class<?>[] { RedisConnection.class }, new InvocationHandler() {
+
+										@Override
+										public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+											if (method.getName().equals("mSet")) {
+												count.incrementAndGet();
+											}
+											return invokeDelegate(connection, method, args);
+										}
+									});
+						}
+						return result;
+					}
+				});
+	}
+
+	private static Object invokeDelegate(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+	private static byte[] serializePlain(StateMachineContext<String, String> context) throws Exception {
+		return new KryoStateMachineSerialisationService<String, String>().serialiseStateMachineContext(context);
+	}
+
+	private static StateMachineContext<String, String> buildContext(String id) {
+		Map<Object, Object> variables = new HashMap<Object, Object>();
+		variables.put("foo", 1);
+		return new DefaultStateMachineContext<String, String>(new ArrayList<StateMachineContext<String, String>>(),
+				"S1", "E1", null, new DefaultExtendedState(variables), null, id);
+	}
+
+	private static void assertContext(StateMachineContext<String, String> context, String id) {
+		assertThat(context.getState(), is("S1"));
+		assertThat(context.getEvent(), is("E1"));
+		assertThat(context.getId(), is(id));
+		assertThat(context.getExtendedState().getVariables().get("foo"), is(1));
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.uml;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.eclipse.uml2.uml.Model;
+import org.springframework.statemachine.config.model.DefaultStateMachineModel;
+import org.springframework.statemachine.config.model.SnapshotStateMachineModelFactory;
+import org.springframework.statemachine.config.model.StateMachineModel;
+import org.springframework.statemachine.config.model.StateMachineModelSnapshot;
+import org.springframework.statemachine.uml.support.UmlModelParser;
+import org.springframework.statemachine.uml.support.UmlModelParser.DataHolder;
+import org.springframework.statemachine.uml.support.UmlUtils;
+
+/**
+ * Compiles uml models into snapshots which can be loaded with
+ * {@link SnapshotStateMachineModelFactory} without having uml and eclipse
+ * libraries on a runtime classpath. Meant to be run at build time, either
+ * programmatically or via {@link #main(String[])} with pairs of uml model
+ * and snapshot paths.
+ *
+ * @author Janne Valkealahti
+ */
+public class UmlModelSnapshotCompiler {
+
+	/**
+	 * Parses an uml model keeping action and guard references unresolved.
+	 *
+	 * @param modelPath the uml model file path
+	 * @return the state machine model
+	 */
+	public static StateMachineModel<String, String> parse(String modelPath) {
+		Model model = UmlUtils.getModel(modelPath);
+		UmlModelParser parser = new UmlModelParser(model, StateMachineModelSnapshot.referenceResolver());
+		DataHolder dataHolder = parser.parseModel();
+		return new DefaultStateMachineModel<String, String>(null, dataHolder.getStatesData(), dataHolder.getTransitionsData());
+	}
+
+	/**
+	 * Compiles an uml model into a snapshot.
+	 *
+	 * @param modelPath the uml model file path
+	 * @param out the output stream for a snapshot
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void compile(String modelPath, OutputStream out) throws IOException {
+		StateMachineModelSnapshot.write(parse(modelPath), out);
+	}
+
+	/**
+	 * Compiles uml models given as pairs of uml model and snapshot paths.
+	 *
+	 * @param args the uml model and snapshot path pairs
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0 || args.length % 2 != 0) {
+			throw new IllegalArgumentException("Usage: UmlModelSnapshotCompiler <model.uml> <snapshot> [<model.uml> <snapshot>...]");
+		}
+		for (int i = 0; i < args.length; i += 2) {
+			File snapshot = new File(args[i + 1]);
+			if (snapshot.getParentFile() != null) {
+				snapshot.getParentFile().mkdirs();
+			}
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(snapshot));
+			try {
+				compile(new File(args[i]).getAbsolutePath(), out);
+			} finally {
+				out.close();
+			}
+		}
+	}
+}
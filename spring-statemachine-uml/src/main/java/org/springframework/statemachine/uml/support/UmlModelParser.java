@@ -389,9 +389,9 @@ public class UmlModelParser {
 				} else {
 					String expression = UmlUtils.resolveBodyByLanguage(LANGUAGE_SPEL, (OpaqueExpression)c.getSpecification());
 					if (StringUtils.hasText(expression)) {
-						SpelExpressionParser parser = new SpelExpressionParser(
-								new SpelParserConfiguration(SpelCompilerMode.MIXED, null));
-						guard = new SpelExpressionGuard<String, String>(parser.parseExpression(expression));
+						SpelParserConfiguration spelConfiguration = new SpelParserConfiguration(SpelCompilerMode.MIXED, null);
+						SpelExpressionParser parser = new SpelExpressionParser(spelConfiguration);
+						guard = new SpelExpressionGuard<String, String>(parser.parseExpression(expression), spelConfiguration);
 					}
 				}
 			}
@@ -456,10 +456,10 @@ public class UmlModelParser {
 			} else {
 				String expression = UmlUtils.resolveBodyByLanguage(LANGUAGE_SPEL, (OpaqueBehavior)state.getEntry());
 				if (StringUtils.hasText(expression)) {
-					SpelExpressionParser parser = new SpelExpressionParser(
-							new SpelParserConfiguration(SpelCompilerMode.MIXED, null));
+					SpelParserConfiguration spelConfiguration = new SpelParserConfiguration(SpelCompilerMode.MIXED, null);
+					SpelExpressionParser parser = new SpelExpressionParser(spelConfiguration);
 					ArrayList<Action<String, String>> entrys = new ArrayList<Action<String, String>>();
-					entrys.add(new SpelExpressionAction<String, String>(parser.parseExpression(expression)));
+					entrys.add(new SpelExpressionAction<String, String>(parser.parseExpression(expression), spelConfiguration));
 					stateData.setEntryActions(entrys);
 				}
 			}
@@ -476,10 +476,10 @@ public class UmlModelParser {
 			} else {
 				String expression = UmlUtils.resolveBodyByLanguage(LANGUAGE_SPEL, (OpaqueBehavior)state.getExit());
 				if (StringUtils.hasText(expression)) {
-					SpelExpressionParser parser = new SpelExpressionParser(
-							new SpelParserConfiguration(SpelCompilerMode.MIXED, null));
+					SpelParserConfiguration spelConfiguration = new SpelParserConfiguration(SpelCompilerMode.MIXED, null);
+					SpelExpressionParser parser = new SpelExpressionParser(spelConfiguration);
 					ArrayList<Action<String, String>> exits = new ArrayList<Action<String, String>>();
-					exits.add(new SpelExpressionAction<String, String>(parser.parseExpression(expression)));
+					exits.add(new SpelExpressionAction<String, String>(parser.parseExpression(expression), spelConfiguration));
 					stateData.setExitActions(exits);
 				}
 			}
@@ -496,10 +496,10 @@ public class UmlModelParser {
 			} else {
 				String expression = UmlUtils.resolveBodyByLanguage(LANGUAGE_SPEL, (OpaqueBehavior)state.getDoActivity());
 				if (StringUtils.hasText(expression)) {
-					SpelExpressionParser parser = new SpelExpressionParser(
-							new SpelParserConfiguration(SpelCompilerMode.MIXED, null));
+					SpelParserConfiguration spelConfiguration = new SpelParserConfiguration(SpelCompilerMode.MIXED, null);
+					SpelExpressionParser parser = new SpelExpressionParser(spelConfiguration);
 					ArrayList<Action<String, String>> stateActions = new ArrayList<Action<String, String>>();
-					stateActions.add(new SpelExpressionAction<String, String>(parser.parseExpression(expression)));
+					stateActions.add(new SpelExpressionAction<String, String>(parser.parseExpression(expression), spelConfiguration));
 					stateData.setStateActions(stateActions);
 				}
 			}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.uml;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.EnableStateMachine;
+import org.springframework.statemachine.config.StateMachineConfigurerAdapter;
+import org.springframework.statemachine.config.builders.StateMachineModelConfigurer;
+import org.springframework.statemachine.config.model.SnapshotStateMachineModelFactory;
+import org.springframework.statemachine.config.model.StateData;
+import org.springframework.statemachine.config.model.StateMachineModel;
+import org.springframework.statemachine.config.model.StateMachineModelFactory;
+import org.springframework.statemachine.config.model.TransitionData;
+import org.springframework.statemachine.guard.Guard;
+
+/**
+ * Tests for {@link UmlModelSnapshotCompiler}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class UmlModelSnapshotCompilerTests extends AbstractUmlTests {
+
+	@Override
+	protected AnnotationConfigApplicationContext buildContext() {
+		return new AnnotationConfigApplicationContext();
+	}
+
+	@Test
+	public void testSnapshotMatchesUmlModel() throws Exception {
+		context.refresh();
+		String path = "org/springframework/statemachine/uml/simple-guards.uml";
+		UmlStateMachineModelFactory umlFactory = new UmlStateMachineModelFactory(new ClassPathResource(path));
+		umlFactory.registerGuard("denyGuard", new SimpleGuard(false));
+		SnapshotStateMachineModelFactory snapshotFactory = new SnapshotStateMachineModelFactory(snapshot(path));
+		snapshotFactory.registerGuard("denyGuard", new SimpleGuard(false));
+
+		StateMachineModel<String, String> umlModel = umlFactory.build();
+		StateMachineModel<String, String> snapshotModel = snapshotFactory.build();
+
+		assertThat(states(snapshotModel), containsInAnyOrder(states(umlModel).toArray()));
+		assertThat(transitions(snapshotModel), containsInAnyOrder(transitions(umlModel).toArray()));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testGuardsResolvedFromBeans() throws Exception {
+		context.register(Config1.class);
+		context.refresh();
+		StateMachine<String, String> stateMachine = context.getBean(StateMachine.class);
+		stateMachine.start();
+		assertThat(stateMachine.getState().getIds(), containsInAnyOrder("S1"));
+		stateMachine.sendEvent("E1");
+		assertThat(stateMachine.getState().getIds(), containsInAnyOrder("S1"));
+		stateMachine.sendEvent("E2");
+		assertThat(stateMachine.getState().getIds(), containsInAnyOrder("S3"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testSpels() throws Exception {
+		context.register(Config2.class);
+		context.refresh();
+		StateMachine<String, String> stateMachine = context.getBean(StateMachine.class);
+		stateMachine.start();
+		assertThat(stateMachine.getState().getIds(), containsInAnyOrder("S1"));
+		stateMachine.sendEvent(MessageBuilder.withPayload("E1").setHeader("foo", "bar").build());
+		assertThat(stateMachine.getState().getIds(), containsInAnyOrder("S2"));
+		assertThat(stateMachine.getExtendedState().get("myvar1", String.class), is("myvalue1"));
+		assertThat(stateMachine.getExtendedState().get("myvar2", String.class), is("myvalue2"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotSnapshot() throws Exception {
+		new SnapshotStateMachineModelFactory(new ByteArrayResource(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 })).build();
+	}
+
+	private static ByteArrayResource snapshot(String path) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		UmlModelSnapshotCompiler.compile(new ClassPathResource(path).getFile().getAbsolutePath(), out);
+		return new ByteArrayResource(out.toByteArray());
+	}
+
+	private static List<String> states(StateMachineModel<String, String> model) {
+		List<String> states = new ArrayList<>();
+		for (StateData<String, String> s : model.getStatesData().getStateData()) {
+			states.add(s.getParent() + "/" + s.getState() + "/" + s.isInitial() + "/" + s.isEnd() + "/" + s.getPseudoStateKind());
+		}
+		return states;
+	}
+
+	private static List<String> transitions(StateMachineModel<String, String> model) {
+		List<String> transitions = new ArrayList<>();
+		for (TransitionData<String, String> t : model.getTransitionsData().getTransitions()) {
+			transitions.add(t.getSource() + "/" + t.getTarget() + "/" + t.getEvent() + "/" + t.getKind() + "/"
+					+ (t.getGuard() != null));
+		}
+		return transitions;
+	}
+
+	@Configuration
+	@EnableStateMachine
+	public static class Config1 extends StateMachineConfigurerAdapter<String, String> {
+
+		@Override
+		public void configure(StateMachineModelConfigurer<String, String> model) throws Exception {
+			model
+				.withModel()
+					.factory(modelFactory());
+		}
+
+		@Bean
+		public StateMachineModelFactory<String, String> modelFactory() throws IOException {
+			return new SnapshotStateMachineModelFactory(snapshot("org/springframework/statemachine/uml/simple-guards.uml"));
+		}
+
+		@Bean
+		public SimpleGuard denyGuard() {
+			return new SimpleGuard(false);
+		}
+	}
+
+	@Configuration
+	@EnableStateMachine
+	public static class Config2 extends StateMachineConfigurerAdapter<String, String> {
+
+		@Override
+		public void configure(StateMachineModelConfigurer<String, String> model) throws Exception {
+			model
+				.withModel()
+					.factory(modelFactory());
+		}
+
+		@Bean
+		public StateMachineModelFactory<String, String> modelFactory() throws IOException {
+			return new SnapshotStateMachineModelFactory(snapshot("org/springframework/statemachine/uml/simple-spels.uml"));
+		}
+	}
+
+	private static class SimpleGuard implements Guard<String, String> {
+
+		private final boolean deny;
+
+		public SimpleGuard(boolean deny) {
+			this.deny = deny;
+		}
+
+		@Override
+		public boolean evaluate(StateContext<String, String> context) {
+			return deny;
+		}
+	}
+}
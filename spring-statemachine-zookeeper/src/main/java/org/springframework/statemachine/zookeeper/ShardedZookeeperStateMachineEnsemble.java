@@ -0,0 +1,661 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.zookeeper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
+import org.apache.curator.framework.imps.CuratorFrameworkState;
+import org.apache.curator.framework.recipes.nodes.PersistentNode;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.data.Stat;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.StateMachineException;
+import org.springframework.statemachine.ensemble.StateMachineEnsemble;
+import org.springframework.statemachine.ensemble.StateMachineEnsembleException;
+import org.springframework.statemachine.ensemble.StateMachineEnsembleObjectSupport;
+import org.springframework.statemachine.support.LifecycleObjectSupport;
+import org.springframework.statemachine.zookeeper.ZookeeperStateMachinePersist.LogEntry;
+import org.springframework.util.Assert;
+
+/**
+ * Provides {@link StateMachineEnsemble}s for many distributed machines over
+ * one zookeeper session. Where {@link ZookeeperStateMachineEnsemble} uses its
+ * own member node and watcher for one shared machine, this class multiplexes
+ * machine ids into a fixed number of partitions, each watched by a single
+ * watcher. Every write stores its machine id into a partition node of its
+ * machine. If a partition node advanced by one version since it was last
+ * seen, only a machine whose id it holds is refreshed, otherwise versions of
+ * all locally joined machines in that partition are checked with background
+ * requests. Notifications arriving while a partition is already being
+ * refreshed are folded into one refresh.
+ * <p>
+ * Nodes of a particular machine are created when an ensemble for it is
+ * used for a first time. Existing state is always preserved. Ensemble of a
+ * machine id is forgotten when its last machine leaves.
+ *
+ * @author Janne Valkealahti
+ *
+ * @param <S> the type of state
+ * @param <E> the type of event
+ */
+public class ShardedZookeeperStateMachineEnsemble<S, E> extends LifecycleObjectSupport {
+
+	private final static Log log = LogFactory.getLog(ShardedZookeeperStateMachineEnsemble.class);
+	private final static int DEFAULT_PARTITIONS = 64;
+	private final static int DEFAULT_LOGSIZE = 32;
+	private final static long READ_TIMEOUT_SECONDS = 10;
+	private final static String PATH_CURRENT = "current";
+	private final static String PATH_LOG = "log";
+	private final static String PATH_MACHINES = "machines";
+	private final static String PATH_MEMBERS = "members";
+	private final static String PATH_PARTITIONS = "partitions";
+	private final String uuid = UUID.randomUUID().toString();
+	private final CuratorFramework curatorClient;
+	private final String basePath;
+	private final int logSize;
+	private final Partition[] partitions;
+	private final ConcurrentHashMap<String, MachineEnsemble> ensembles = new ConcurrentHashMap<String, MachineEnsemble>();
+	private final ConnectionStateListener connectionListener = new LocalConnectionStateListener();
+	private final AtomicLong resyncCount = new AtomicLong();
+	private int refreshThreads = 1;
+	private volatile ExecutorService refreshExecutor;
+	private PersistentNode node;
+
+	/**
+	 * Instantiates a new sharded zookeeper state machine ensemble with 64
+	 * partitions and a log size of 32.
+	 *
+	 * @param curatorClient the curator client
+	 * @param basePath the base zookeeper path
+	 */
+	public ShardedZookeeperStateMachineEnsemble(CuratorFramework curatorClient, String basePath) {
+		this(curatorClient, basePath, DEFAULT_PARTITIONS, DEFAULT_LOGSIZE);
+	}
+
+	/**
+	 * Instantiates a new sharded zookeeper state machine ensemble.
+	 *
+	 * @param curatorClient the curator client
+	 * @param basePath the base zookeeper path
+	 * @param partitions the number of partitions
+	 * @param logSize the log size per machine
+	 */
+	@SuppressWarnings("unchecked")
+	public ShardedZookeeperStateMachineEnsemble(CuratorFramework curatorClient, String basePath, int partitions,
+			int logSize) {
+		Assert.notNull(curatorClient, "Curator client must be set");
+		Assert.hasText(basePath, "Base path must be set");
+		Assert.isTrue(partitions > 0, "Partitions must be greater than zero");
+		Assert.isTrue(logSize > 0 && ((logSize & -logSize) == logSize), "Log size must be positive and power of two");
+		this.curatorClient = curatorClient;
+		this.basePath = basePath;
+		this.logSize = logSize;
+		this.partitions = new ShardedZookeeperStateMachineEnsemble.Partition[partitions];
+		for (int i = 0; i < partitions; i++) {
+			this.partitions[i] = new Partition(i);
+		}
+		setAutoStartup(true);
+	}
+
+	/**
+	 * Sets the number of threads refreshing changed partitions. Needs to be
+	 * set before ensemble is started. Default is 1.
+	 *
+	 * @param refreshThreads the refresh threads
+	 */
+	public void setRefreshThreads(int refreshThreads) {
+		Assert.isTrue(refreshThreads > 0, "Refresh threads must be greater than zero");
+		this.refreshThreads = refreshThreads;
+	}
+
+	/**
+	 * Gets an ensemble for a given machine id. Same instance is returned for
+	 * every call with a same id as long as it has joined machines.
+	 *
+	 * @param machineId the machine id
+	 * @return the state machine ensemble
+	 */
+	public StateMachineEnsemble<S, E> getEnsemble(String machineId) {
+		Assert.hasText(machineId, "Machine id must be set");
+		Assert.isTrue(machineId.indexOf('/') < 0, "Machine id must not contain '/'");
+		MachineEnsemble ensemble = ensembles.get(machineId);
+		if (ensemble == null) {
+			MachineEnsemble created = new MachineEnsemble(machineId, partitions[getPartition(machineId)]);
+			ensemble = ensembles.putIfAbsent(machineId, created);
+			if (ensemble == null) {
+				ensemble = created;
+			}
+		}
+		return ensemble;
+	}
+
+	/**
+	 * Gets a partition of a given machine id.
+	 *
+	 * @param machineId the machine id
+	 * @return the partition
+	 */
+	public int getPartition(String machineId) {
+		return (machineId.hashCode() & Integer.MAX_VALUE) % partitions.length;
+	}
+
+	/**
+	 * Gets the count of machine ids having locally joined machines.
+	 *
+	 * @return the active machine count
+	 */
+	public int getActiveMachineCount() {
+		int count = 0;
+		for (Partition partition : partitions) {
+			count += partition.machines.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the count of snapshot resyncs done because missed history could
+	 * not be replayed from a log.
+	 *
+	 * @return the resync count
+	 */
+	public long getResyncCount() {
+		return resyncCount.get();
+	}
+
+	@Override
+	protected void onInit() throws Exception {
+		initPaths();
+	}
+
+	@Override
+	protected void doStart() {
+		final AtomicInteger threadCount = new AtomicInteger();
+		refreshExecutor = Executors.newFixedThreadPool(refreshThreads, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "zk-sharded-ensemble-" + threadCount.incrementAndGet() + "-" + uuid);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		curatorClient.getConnectionStateListenable().addListener(connectionListener);
+		if (curatorClient.getState() != CuratorFrameworkState.STARTED) {
+			curatorClient.start();
+		}
+		for (Partition partition : partitions) {
+			if (!partition.machines.isEmpty()) {
+				partition.scheduleRefresh();
+			}
+		}
+	}
+
+	@Override
+	protected void doStop() {
+		curatorClient.getConnectionStateListenable().removeListener(connectionListener);
+		if (refreshExecutor != null) {
+			refreshExecutor.shutdown();
+			refreshExecutor = null;
+		}
+		if (node != null && curatorClient.getState() != CuratorFrameworkState.STOPPED) {
+			try {
+				node.close();
+			} catch (IOException e) {
+			} finally {
+				node = null;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ShardedZookeeperStateMachineEnsemble [uuid=" + uuid + ", basePath=" + basePath + "]";
+	}
+
+	private void initPaths() {
+		try {
+			node = new PersistentNode(curatorClient, CreateMode.EPHEMERAL, true,
+					basePath + "/" + PATH_MEMBERS + "/" + uuid, new byte[0]);
+			node.start();
+			node.waitForInitialCreate(60, TimeUnit.SECONDS);
+			createIfNeeded(basePath + "/" + PATH_MACHINES);
+			createIfNeeded(basePath + "/" + PATH_PARTITIONS);
+			for (Partition partition : partitions) {
+				createIfNeeded(partition.path);
+			}
+		} catch (Exception e) {
+			log.warn("Error in initPaths", e);
+		}
+	}
+
+	private void createIfNeeded(String path) throws Exception {
+		if (curatorClient.checkExists().forPath(path) == null) {
+			try {
+				curatorClient.create().creatingParentsIfNeeded().forPath(path, new byte[0]);
+			} catch (KeeperException.NodeExistsException e) {
+			}
+		}
+	}
+
+	/**
+	 * Machines sharing one partition node and its watcher.
+	 */
+	private class Partition implements CuratorWatcher {
+
+		private final String path;
+		private final Set<MachineEnsemble> machines = ConcurrentHashMap.newKeySet();
+		// joined machines not yet checked against a partition version
+		private final Set<MachineEnsemble> unchecked = ConcurrentHashMap.newKeySet();
+		private final AtomicBoolean refreshPending = new AtomicBoolean();
+		private final AtomicBoolean watching = new AtomicBoolean();
+		private int lastVersion = -1;
+
+		Partition(int index) {
+			this.path = basePath + "/" + PATH_PARTITIONS + "/" + index;
+		}
+
+		void activate(MachineEnsemble machine) {
+			unchecked.add(machine);
+			machines.add(machine);
+			if (watching.compareAndSet(false, true)) {
+				registerWatcher(new Stat());
+			}
+		}
+
+		void deactivate(MachineEnsemble machine) {
+			// watcher is simply not re-registered after
+			// it fires if nobody is active anymore
+			machines.remove(machine);
+			unchecked.remove(machine);
+		}
+
+		@Override
+		public void process(WatchedEvent event) throws Exception {
+			if (event.getType() == EventType.NodeDataChanged) {
+				scheduleRefresh();
+			} else {
+				registerWatcher(new Stat());
+			}
+		}
+
+		void scheduleRefresh() {
+			ExecutorService executor = refreshExecutor;
+			if (executor != null && refreshPending.compareAndSet(false, true)) {
+				try {
+					executor.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							refresh();
+						}
+					});
+				} catch (Exception e) {
+					refreshPending.set(false);
+					log.warn("Unable to schedule refresh of " + path, e);
+				}
+			}
+		}
+
+		private byte[] registerWatcher(Stat stat) {
+			if (machines.isEmpty()) {
+				watching.set(false);
+				// machine may have been activated concurrently
+				if (machines.isEmpty() || !watching.compareAndSet(false, true)) {
+					return null;
+				}
+			}
+			try {
+				if (curatorClient.getState() != CuratorFrameworkState.STOPPED) {
+					return curatorClient.getData().storingStatIn(stat).usingWatcher(this).forPath(path);
+				}
+			} catch (Exception e) {
+				log.warn("Registering watcher for path " + path + " threw error", e);
+			}
+			return null;
+		}
+
+		private synchronized void refresh() {
+			// clear pending flag before reading so that changes
+			// happening during a refresh get another round
+			refreshPending.set(false);
+			Stat stat = new Stat();
+			byte[] data = registerWatcher(stat);
+			Set<MachineEnsemble> targets = new LinkedHashSet<MachineEnsemble>();
+			for (Iterator<MachineEnsemble> iterator = unchecked.iterator(); iterator.hasNext();) {
+				targets.add(iterator.next());
+				iterator.remove();
+			}
+			if (data == null || lastVersion < 0 || stat.getVersion() > lastVersion + 1) {
+				// changes missed or not known, check everything
+				targets.addAll(machines);
+			} else if (stat.getVersion() == lastVersion + 1) {
+				String machineId = new String(data, StandardCharsets.UTF_8);
+				for (MachineEnsemble machine : machines) {
+					if (machine.machineId.equals(machineId)) {
+						targets.add(machine);
+					}
+				}
+			}
+			if (data != null) {
+				lastVersion = stat.getVersion();
+			}
+			List<MachineEnsemble> active = new ArrayList<MachineEnsemble>(targets);
+			if (active.isEmpty()) {
+				return;
+			}
+			final int[] versions = new int[active.size()];
+			final CountDownLatch latch = new CountDownLatch(active.size());
+			try {
+				for (int i = 0; i < active.size(); i++) {
+					final int index = i;
+					versions[index] = -1;
+					curatorClient.checkExists().inBackground(new BackgroundCallback() {
+
+						@Override
+						public void processResult(CuratorFramework client, CuratorEvent event) throws Exception {
+							if (event.getStat() != null) {
+								versions[index] = event.getStat().getVersion();
+							}
+							latch.countDown();
+						}
+					}).forPath(active.get(i).statePath);
+				}
+				if (!latch.await(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+					throw new StateMachineException("Timeout reading versions of partition " + path);
+				}
+			} catch (Exception e) {
+				log.error("Error refreshing partition " + path, e);
+				// force full check on next round
+				lastVersion = -1;
+				return;
+			}
+			for (int i = 0; i < active.size(); i++) {
+				if (versions[i] > -1) {
+					try {
+						active.get(i).replay(versions[i]);
+					} catch (Exception e) {
+						log.error("Error replaying " + active.get(i), e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@link StateMachineEnsemble} of a one machine id.
+	 */
+	private class MachineEnsemble extends StateMachineEnsembleObjectSupport<S, E> {
+
+		private final String machineId;
+		private final Partition partition;
+		private final String machinePath;
+		private final String statePath;
+		private final String logPath;
+		private final ZookeeperStateMachinePersist<S, E> persist;
+		private final List<StateMachine<S, E>> joined = new CopyOnWriteArrayList<StateMachine<S, E>>();
+		private final AtomicReference<StateWrapper> stateRef = new AtomicReference<StateWrapper>();
+		private final AtomicReference<StateWrapper> notifyRef = new AtomicReference<StateWrapper>();
+		private volatile boolean created;
+
+		MachineEnsemble(String machineId, Partition partition) {
+			this.machineId = machineId;
+			this.partition = partition;
+			this.machinePath = basePath + "/" + PATH_MACHINES + "/" + machineId;
+			this.statePath = machinePath + "/" + PATH_CURRENT;
+			this.logPath = machinePath + "/" + PATH_LOG;
+			this.persist = new ZookeeperStateMachinePersist<S, E>(curatorClient, statePath, logPath, logSize);
+			this.persist.setChangePath(partition.path, machineId.getBytes(StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public void join(StateMachine<S, E> stateMachine) {
+			StateWrapper wrapper = initialize();
+			// may have been forgotten when all machines left
+			ensembles.putIfAbsent(machineId, this);
+			joined.add(stateMachine);
+			partition.activate(this);
+			notifyJoined(stateMachine, wrapper.context);
+			// catch up changes done before partition was watched
+			partition.scheduleRefresh();
+		}
+
+		@Override
+		public void leave(StateMachine<S, E> stateMachine) {
+			if (joined.remove(stateMachine)) {
+				if (joined.isEmpty()) {
+					partition.deactivate(this);
+					ensembles.remove(machineId, this);
+				}
+				StateWrapper wrapper = stateRef.get();
+				notifyLeft(stateMachine, wrapper != null ? wrapper.context : null);
+			}
+		}
+
+		@Override
+		public synchronized void setState(StateMachineContext<S, E> context) {
+			StateWrapper wrapper = initialize();
+			Stat stat = new Stat();
+			stat.setVersion(wrapper.version);
+			persist.write(context, stat);
+			advance(new StateWrapper(context, stat.getVersion()));
+		}
+
+		@Override
+		public StateMachineContext<S, E> getState() {
+			return readCurrentContext().context;
+		}
+
+		@Override
+		public StateMachine<S, E> getLeader() {
+			return null;
+		}
+
+		@Override
+		public String toString() {
+			return "MachineEnsemble [machineId=" + machineId + "]";
+		}
+
+		/**
+		 * Replays changes up to a given version, either from a log or via a
+		 * snapshot resync if history is already overwritten.
+		 *
+		 * @param version the current version in zookeeper
+		 * @throws Exception if error occurred
+		 */
+		private void replay(int version) throws Exception {
+			StateWrapper notifyWrapper = notifyRef.get();
+			if (notifyWrapper == null) {
+				return;
+			}
+			int from = notifyWrapper.version;
+			int count = version - from;
+			if (count <= 0) {
+				return;
+			}
+			if (count > logSize) {
+				resync();
+				return;
+			}
+			List<LogEntry<S, E>> entries = persist.readLogs(from, count, READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			for (int n = 0; n < count; n++) {
+				int i = from + n;
+				LogEntry<S, E> entry = entries.get(n);
+				int ver = (entry.getSlotVersion() - 1) * logSize + (i % logSize) + 1;
+				if (ver > i + 1) {
+					resync();
+					return;
+				}
+				StateWrapper wrapper = new StateWrapper(entry.getContext(), ver);
+				advance(wrapper);
+				notifyRef.set(wrapper);
+				notifyStateChanged(wrapper.context);
+			}
+		}
+
+		private void resync() {
+			StateWrapper snapshot = readCurrentContext();
+			log.warn("Version behind more than log size, resyncing " + this + " from snapshot version "
+					+ snapshot.version);
+			resyncCount.incrementAndGet();
+			advance(snapshot);
+			notifyRef.set(snapshot);
+			for (StateMachine<S, E> stateMachine : joined) {
+				notifyJoined(stateMachine, snapshot.context);
+			}
+		}
+
+		private void advance(StateWrapper wrapper) {
+			StateWrapper current = stateRef.get();
+			while (current == null || current.version < wrapper.version) {
+				if (stateRef.compareAndSet(current, wrapper)) {
+					break;
+				}
+				current = stateRef.get();
+			}
+		}
+
+		private StateWrapper initialize() {
+			StateWrapper wrapper = stateRef.get();
+			if (wrapper != null) {
+				return wrapper;
+			}
+			synchronized (this) {
+				createPaths();
+				StateWrapper current = readCurrentContext();
+				notifyRef.compareAndSet(null, current);
+				advance(current);
+				return stateRef.get();
+			}
+		}
+
+		private void createPaths() {
+			if (created) {
+				return;
+			}
+			try {
+				if (curatorClient.checkExists().forPath(machinePath) == null) {
+					CuratorTransactionFinal tt = curatorClient.inTransaction().create().forPath(machinePath).and();
+					tt = tt.create().forPath(statePath, new byte[0]).and();
+					tt = tt.create().forPath(logPath).and();
+					for (int i = 0; i < logSize; i++) {
+						tt = tt.create().forPath(logPath + "/" + i, new byte[0]).and();
+					}
+					tt.commit();
+				}
+			} catch (KeeperException.NodeExistsException e) {
+				// created by other member
+			} catch (Exception e) {
+				throw new StateMachineException("Error creating paths for " + this, e);
+			}
+			created = true;
+		}
+
+		private StateWrapper readCurrentContext() {
+			try {
+				Stat stat = new Stat();
+				StateMachineContext<S, E> context = persist.read(stat);
+				return new StateWrapper(context, stat.getVersion());
+			} catch (Exception e) {
+				throw new StateMachineException("Error reading data", e);
+			}
+		}
+
+		private void notifyError() {
+			notifyError(new StateMachineEnsembleException("Lost connection to zookeeper"));
+		}
+	}
+
+	private class LocalConnectionStateListener implements ConnectionStateListener {
+
+		@Override
+		public void stateChanged(CuratorFramework client, ConnectionState newState) {
+			if (curatorClient != client) {
+				return;
+			}
+			switch (newState) {
+			case CONNECTED:
+			case RECONNECTED:
+				// watchers may have been lost, check everything
+				for (Partition partition : partitions) {
+					if (!partition.machines.isEmpty()) {
+						partition.scheduleRefresh();
+					}
+				}
+				break;
+			case LOST:
+			case SUSPENDED:
+				for (Partition partition : partitions) {
+					for (MachineEnsemble machine : partition.machines) {
+						machine.notifyError();
+					}
+				}
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Wrapper object for a {@link StateMachineContext} and its
+	 * current version.
+	 */
+	private class StateWrapper {
+		private final StateMachineContext<S, E> context;
+		private final int version;
+
+		public StateWrapper(StateMachineContext<S, E> context, int version) {
+			this.context = context;
+			this.version = version;
+		}
+
+		@Override
+		public String toString() {
+			return "StateWrapper [context=" + context + ", version=" + version + "]";
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2017 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -20,8 +20,16 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
@@ -36,18 +44,29 @@ import org.apache.curator.framework.recipes.nodes.PersistentNode;
 import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.framework.state.ConnectionStateListener;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.data.Stat;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.StateMachineContext;
 import org.springframework.statemachine.StateMachineException;
 import org.springframework.statemachine.StateMachinePersist;
+import org.springframework.statemachine.ensemble.EnsembleListener;
 import org.springframework.statemachine.ensemble.StateMachineEnsemble;
 import org.springframework.statemachine.ensemble.StateMachineEnsembleException;
 import org.springframework.statemachine.ensemble.StateMachineEnsembleObjectSupport;
+import org.springframework.statemachine.zookeeper.ZookeeperStateMachinePersist.LogEntry;
+import org.springframework.util.Assert;
 
 /**
  * {@link StateMachineEnsemble} backed by a zookeeper.
+ * <p>
+ * By default {@link #setState(StateMachineContext)} blocks until state has
+ * been written into zookeeper. With pipelined writes enabled, states are
+ * queued and written by a dedicated thread which groups all queued states
+ * into one versioned multi-op transaction. Rejected and retried writes are
+ * reported via {@link EnsembleListener#stateWriteConflict(StateMachineContext, StateMachineEnsembleException)}
+ * and {@link EnsembleListener#stateWriteRetry(int, StateMachineEnsembleException)}.
  *
  * @author Janne Valkealahti
  *
@@ -63,6 +82,7 @@ public class ZookeeperStateMachineEnsemble<S, E> extends StateMachineEnsembleObj
 	private final static String PATH_LOG = "log";
 	private final static String PATH_MEMBERS = "members";
 	private final static String PATH_MUTEX = "mutex";
+	private final static long REPLAY_TIMEOUT_SECONDS = 10;
 	private final CuratorFramework curatorClient;
 	private final String baseDataPath;
 	private final String statePath;
@@ -80,6 +100,20 @@ public class ZookeeperStateMachineEnsemble<S, E> extends StateMachineEnsembleObj
 	private final List<StateMachine<S, E>> joined = new ArrayList<StateMachine<S,E>>();
 	private final Object joinLock = new Object();
 	private final ConnectionStateListener connectionListener = new LocalConnectionStateListener();
+	private boolean pipelined;
+	private int maxPendingWrites = 256;
+	private int maxWriteRetries = 3;
+	private final BlockingQueue<PendingWrite> writeQueue = new LinkedBlockingQueue<PendingWrite>();
+	private final AtomicInteger pendingWrites = new AtomicInteger();
+	private final Object pipelineLock = new Object();
+	private int pipelineVersion;
+	private Semaphore writePermits;
+	private volatile boolean writerRunning;
+	private Thread writerThread;
+	private boolean snapshotResync = true;
+	private volatile int latestVersion;
+	private volatile ExecutorService replayExecutor;
+	private final AtomicLong resyncCount = new AtomicLong();
 
 	/**
 	 * Instantiates a new zookeeper state machine ensemble.
@@ -117,8 +151,83 @@ public class ZookeeperStateMachineEnsemble<S, E> extends StateMachineEnsembleObj
 		initPaths();
 	}
 
+	/**
+	 * Sets if state writes are pipelined. Needs to be set before ensemble is
+	 * started. Default is {@code false}.
+	 *
+	 * @param pipelined the pipelined flag
+	 */
+	public void setPipelined(boolean pipelined) {
+		this.pipelined = pipelined;
+	}
+
+	/**
+	 * Sets the maximum number of pipelined writes not yet completed. When
+	 * reached, {@link #setState(StateMachineContext)} blocks. Default is 256.
+	 *
+	 * @param maxPendingWrites the max pending writes
+	 */
+	public void setMaxPendingWrites(int maxPendingWrites) {
+		Assert.isTrue(maxPendingWrites > 0, "Max pending writes must be greater than zero");
+		this.maxPendingWrites = maxPendingWrites;
+	}
+
+	/**
+	 * Sets how many times a failed pipelined write is retried before it is
+	 * discarded and an ensemble error is notified. Version conflicts are never
+	 * retried. Default is 3.
+	 *
+	 * @param maxWriteRetries the max write retries
+	 */
+	public void setMaxWriteRetries(int maxWriteRetries) {
+		this.maxWriteRetries = maxWriteRetries;
+	}
+
+	/**
+	 * Sets if joined machines are resynced from a current snapshot when this
+	 * ensemble is behind more than a log size and missed history cannot be
+	 * replayed. Resync is done by notifying machines to be joined again with
+	 * a current context. If disabled, ensemble error is notified instead.
+	 * Default is {@code true}.
+	 *
+	 * @param snapshotResync the snapshot resync flag
+	 */
+	public void setSnapshotResync(boolean snapshotResync) {
+		this.snapshotResync = snapshotResync;
+	}
+
+	/**
+	 * Gets the replay lag, meaning how many versions latest known state in
+	 * zookeeper is ahead of a state last notified to joined machines.
+	 *
+	 * @return the replay lag
+	 */
+	public int getReplayLag() {
+		StateWrapper notifyWrapper = notifyRef.get();
+		return Math.max(0, latestVersion - (notifyWrapper != null ? notifyWrapper.version : 0));
+	}
+
+	/**
+	 * Gets the count of snapshot resyncs done because missed history could
+	 * not be replayed from a log.
+	 *
+	 * @return the resync count
+	 */
+	public long getResyncCount() {
+		return resyncCount.get();
+	}
+
 	@Override
 	protected void doStart() {
+		replayExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "zk-ensemble-replay-" + uuid);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 		// initially setting a watcher here, further watchers
 		// will be set when events are received.
 		registerWatcherForStatePath();
@@ -133,6 +242,9 @@ public class ZookeeperStateMachineEnsemble<S, E> extends StateMachineEnsembleObj
 				log.error("Error reading current state during start", e);
 			}
 		}
+		if (pipelined) {
+			startWriter();
+		}
 		curatorClient.getConnectionStateListenable().addListener(connectionListener);
 		if (curatorClient.getState() == CuratorFrameworkState.STARTED) {
 			handleZkConnect();
@@ -143,6 +255,11 @@ public class ZookeeperStateMachineEnsemble<S, E> extends StateMachineEnsembleObj
 
 	@Override
 	protected void doStop() {
+		stopWriter();
+		if (replayExecutor != null) {
+			replayExecutor.shutdown();
+			replayExecutor = null;
+		}
 		if (node != null && curatorClient.getState() != CuratorFrameworkState.STOPPED) {
 			try {
 				node.close();
@@ -219,7 +336,15 @@ public class ZookeeperStateMachineEnsemble<S, E> extends StateMachineEnsembleObj
 	}
 
 	@Override
-	public synchronized void setState(StateMachineContext<S, E> context) {
+	public void setState(StateMachineContext<S, E> context) {
+		if (writerRunning) {
+			queueState(context);
+		} else {
+			writeState(context);
+		}
+	}
+
+	private synchronized void writeState(StateMachineContext<S, E> context) {
 		if (log.isDebugEnabled()) {
 			log.debug("Setting state context=" + context);
 		}
@@ -247,6 +372,158 @@ public class ZookeeperStateMachineEnsemble<S, E> extends StateMachineEnsembleObj
 		return readCurrentContext().context;
 	}
 
+	private void queueState(StateMachineContext<S, E> context) {
+		try {
+			writePermits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StateMachineException("Interrupted while queueing state write", e);
+		}
+		synchronized (pipelineLock) {
+			// expect version on top of writes still pending, otherwise what we
+			// currently know, all queued writes are then contiguous
+			int version;
+			if (pendingWrites.get() > 0) {
+				version = pipelineVersion;
+			} else {
+				StateWrapper stateWrapper = stateRef.get();
+				version = stateWrapper != null ? stateWrapper.version : 0;
+			}
+			pipelineVersion = version + 1;
+			pendingWrites.incrementAndGet();
+			writeQueue.add(new PendingWrite(context, version));
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Queued state context=" + context + " for ensemble " + uuid);
+		}
+	}
+
+	private synchronized void startWriter() {
+		if (writerRunning) {
+			return;
+		}
+		writePermits = new Semaphore(maxPendingWrites);
+		writerRunning = true;
+		writerThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "zk-ensemble-writer-" + uuid);
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	private void stopWriter() {
+		Thread thread;
+		synchronized (this) {
+			if (!writerRunning) {
+				return;
+			}
+			writerRunning = false;
+			thread = writerThread;
+			writerThread = null;
+		}
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeLoop() {
+		List<PendingWrite> batch = new ArrayList<PendingWrite>();
+		while (writerRunning || !writeQueue.isEmpty()) {
+			try {
+				PendingWrite write = writeQueue.poll(100, TimeUnit.MILLISECONDS);
+				if (write == null) {
+					continue;
+				}
+				batch.add(write);
+				// log slot is used per version, can't write more than that at once
+				writeQueue.drainTo(batch, logSize - 1);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			writeBatch(batch);
+			batch.clear();
+		}
+	}
+
+	private void writeBatch(List<PendingWrite> batch) {
+		List<StateMachineContext<S, E>> contexts = new ArrayList<StateMachineContext<S, E>>(batch.size());
+		for (PendingWrite write : batch) {
+			contexts.add(write.context);
+		}
+		int version = batch.get(0).version;
+		int attempt = 0;
+		while (true) {
+			Stat stat = new Stat();
+			stat.setVersion(version);
+			try {
+				((ZookeeperStateMachinePersist<S, E>) persist).write(contexts, stat);
+				if (log.isDebugEnabled()) {
+					log.debug("Pipelined write of " + contexts.size() + " contexts ok, new version " + stat.getVersion()
+							+ " for ensemble " + uuid);
+				}
+				stateRef.set(new StateWrapper(contexts.get(contexts.size() - 1), stat.getVersion()));
+				completeWrites(batch.size());
+				return;
+			} catch (Exception e) {
+				if (e.getCause() instanceof KeeperException.BadVersionException) {
+					discardWrites(batch, new StateMachineEnsembleException(
+							"Ensemble state changed before write with version " + version, e), true);
+					return;
+				}
+				StateMachineEnsembleException exception = new StateMachineEnsembleException("Error persisting data", e);
+				if (++attempt > maxWriteRetries || !writerRunning) {
+					discardWrites(batch, exception, false);
+					return;
+				}
+				try {
+					notifyStateWriteRetry(attempt, exception);
+					Thread.sleep(100L * attempt);
+				} catch (InterruptedException ie) {
+				} catch (Exception ne) {
+					log.warn("Error notifying write retry", ne);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Discards a failed batch together with writes queued after it as those
+	 * expected versions which are never going to exist.
+	 */
+	private void discardWrites(List<PendingWrite> batch, StateMachineEnsembleException exception, boolean conflict) {
+		List<PendingWrite> discarded = new ArrayList<PendingWrite>(batch);
+		// drain and reset under a lock so that a write queued meanwhile
+		// can't expect a version of a discarded write
+		synchronized (pipelineLock) {
+			writeQueue.drainTo(discarded);
+			pendingWrites.addAndGet(-discarded.size());
+		}
+		writePermits.release(discarded.size());
+		log.warn("Discarding " + discarded.size() + " pipelined writes for ensemble " + uuid, exception);
+		try {
+			if (conflict) {
+				for (PendingWrite write : discarded) {
+					notifyStateWriteConflict(write.context, exception);
+				}
+			} else {
+				notifyError(exception);
+			}
+		} catch (Exception e) {
+			log.warn("Error notifying discarded writes", e);
+		}
+	}
+
+	private void completeWrites(int count) {
+		pendingWrites.addAndGet(-count);
+		writePermits.release(count);
+	}
+
 	private void handleZkConnect() {
 		log.info("Handling Zookeeper connect");
 		joinQueued();
@@ -385,16 +662,28 @@ public class ZookeeperStateMachineEnsemble<S, E> extends StateMachineEnsembleObj
 			}
 			switch (event.getType()) {
 			case NodeDataChanged:
-				try {
-					// re-read once if we did read log history
-					// there might be unread change
-					if (handleDataChange()) {
-						handleDataChange();
-					}
-				} catch (Exception e) {
-					log.error("Error handling event", e);
+				// log replay waits for background reads which are
+				// completed by zookeeper event thread, thus we can't
+				// replay on a thread calling this watcher
+				ExecutorService executor = replayExecutor;
+				if (executor != null) {
+					executor.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							try {
+								// re-read once if we did read log history
+								// there might be unread change
+								if (handleDataChange()) {
+									handleDataChange();
+								}
+							} catch (Exception e) {
+								log.error("Error handling event", e);
+							}
+							registerWatcherForStatePath();
+						}
+					});
 				}
-				registerWatcherForStatePath();
 				break;
 			default:
 				registerWatcherForStatePath();
@@ -415,6 +704,7 @@ public class ZookeeperStateMachineEnsemble<S, E> extends StateMachineEnsembleObj
 		StateWrapper currentWrapper = stateRef.get();
 		StateWrapper notifyWrapper = notifyRef.get();
 		StateWrapper newWrapper = readCurrentContext();
+		latestVersion = newWrapper.version;
 		traceLogWrappers(currentWrapper, notifyWrapper, newWrapper);
 
 		if (currentWrapper.version + 1 == newWrapper.version
@@ -424,28 +714,39 @@ public class ZookeeperStateMachineEnsemble<S, E> extends StateMachineEnsembleObj
 			// we can just try to notify
 			mayNotifyStateChanged(newWrapper);
 		} else {
-			final int start = (notifyWrapper != null ? (notifyWrapper.version) : 0) % logSize;
-			int count = newWrapper.version - (notifyWrapper != null ? (notifyWrapper.version) : 0);
+			final int from = notifyWrapper != null ? notifyWrapper.version : 0;
+			final int count = newWrapper.version - from;
+			if (count <= 0) {
+				return false;
+			}
 			if (log.isDebugEnabled()) {
-				log.debug("Events missed, trying to replay start " + start + " count " + count);
+				log.debug("Events missed, trying to replay from " + from + " count " + count);
 			}
-			for (int i = start; i < (start + count); i++) {
-				Stat stat = new Stat();
-				StateMachineContext<S, E> context = ((ZookeeperStateMachinePersist<S, E>) persist).readLog(i, stat);
-				int ver = (stat.getVersion() - 1) * logSize + (i + 1);
-
-				// check if we're behind more than a log size meaning we can't
-				// replay full history, notify and break out from a loop
-				if (i + logSize < ver) {
-					notifyError(new StateMachineEnsembleException("Current version behind more than log size"));
+			// we're behind more than a log size meaning we can't
+			// replay full history, no point reading logs
+			if (count > logSize) {
+				handleLogOverflow(newWrapper);
+				return true;
+			}
+			List<LogEntry<S, E>> entries = ((ZookeeperStateMachinePersist<S, E>) persist).readLogs(from, count,
+					REPLAY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			for (int n = 0; n < count; n++) {
+				int i = from + n;
+				LogEntry<S, E> entry = entries.get(n);
+				int ver = (entry.getSlotVersion() - 1) * logSize + (i % logSize) + 1;
+
+				// slot already overwritten by a newer version meaning
+				// history was lost while we were reading it
+				if (ver > i + 1) {
+					handleLogOverflow(readCurrentContext());
 					break;
 				}
 				if (log.isDebugEnabled()) {
 					log.debug("Replay position " + i + " with version " + ver);
-					log.debug("Context in position " + i + " " + context);
+					log.debug("Context in position " + i + " " + entry.getContext());
 				}
 
-				StateWrapper wrapper = new StateWrapper(context, ver);
+				StateWrapper wrapper = new StateWrapper(entry.getContext(), ver);
 
 				// need to set stateRef when replaying if its
 				// context is not set or otherwise just set
@@ -459,11 +760,36 @@ public class ZookeeperStateMachineEnsemble<S, E> extends StateMachineEnsembleObj
 				mayNotifyStateChanged(wrapper);
 			}
 			// did we replay
-			return count > 0;
+			return true;
 		}
 		return false;
 	}
 
+	/**
+	 * Handles a case where log history needed for a replay is already
+	 * overwritten. Either resyncs all joined machines from a given snapshot
+	 * or notifies an error if snapshot resync is disabled.
+	 *
+	 * @param snapshot the current context snapshot
+	 */
+	private void handleLogOverflow(StateWrapper snapshot) {
+		if (!snapshotResync) {
+			notifyError(new StateMachineEnsembleException("Current version behind more than log size"));
+			return;
+		}
+		StateWrapper notifyWrapper = notifyRef.get();
+		log.warn("Current version " + (notifyWrapper != null ? notifyWrapper.version : 0)
+				+ " behind more than log size, resyncing from snapshot version " + snapshot.version + " for " + this);
+		resyncCount.incrementAndGet();
+		stateRef.set(snapshot);
+		notifyRef.set(snapshot);
+		synchronized (joinLock) {
+			for (StateMachine<S, E> stateMachine : joined) {
+				notifyJoined(stateMachine, snapshot.context);
+			}
+		}
+	}
+
 	private class LocalConnectionStateListener implements ConnectionStateListener {
 
 		@Override
@@ -488,6 +814,19 @@ public class ZookeeperStateMachineEnsemble<S, E> extends StateMachineEnsembleObj
 
 	};
 
+	/**
+	 * Queued pipelined write and a version it expects to write on top of.
+	 */
+	private class PendingWrite {
+		private final StateMachineContext<S, E> context;
+		private final int version;
+
+		public PendingWrite(StateMachineContext<S, E> context, int version) {
+			this.context = context;
+			this.version = version;
+		}
+	}
+
 	/**
 	 * Wrapper object for a {@link StateMachineContext} and its
 	 * current version.
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,13 +17,21 @@ package org.springframework.statemachine.zookeeper;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
 import org.apache.curator.framework.api.transaction.CuratorTransaction;
 import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
 import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.data.Stat;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.statemachine.StateMachineContext;
@@ -68,6 +76,8 @@ public class ZookeeperStateMachinePersist<S, E> implements StateMachinePersist<S
 	private final String path;
 	private final String logPath;
 	private final int logSize;
+	private String changePath;
+	private byte[] changeData = new byte[0];
 
 	/**
 	 * Instantiates a new zookeeper state machine persist.
@@ -97,22 +107,75 @@ public class ZookeeperStateMachinePersist<S, E> implements StateMachinePersist<S
 		this.logSize = logSize;
 	}
 
+	/**
+	 * Sets a path which is touched in every write transaction. This allows
+	 * a single watcher to get notified about changes of many persisted
+	 * contexts.
+	 *
+	 * @param changePath the change path
+	 */
+	public void setChangePath(String changePath) {
+		setChangePath(changePath, null);
+	}
+
+	/**
+	 * Sets a path which is touched in every write transaction together with
+	 * a data identifying a writer, thus a watcher of a change path can see
+	 * what was changed.
+	 *
+	 * @param changePath the change path
+	 * @param changeData the data written into a change path
+	 */
+	public void setChangePath(String changePath, byte[] changeData) {
+		this.changePath = changePath;
+		this.changeData = changeData != null ? changeData : new byte[0];
+	}
+
 	@Override
 	public void write(StateMachineContext<S,E> context, Stat stat) {
-		byte[] data = serialize(context);
+		write(Collections.singletonList(context), stat);
+	}
+
+	/**
+	 * Write multiple contexts in one transaction. Every context is written
+	 * into a current state path with a version incremented by one from a
+	 * previous write, first one using version from a given {@link Stat}, thus
+	 * whole transaction fails if any other party wrote in between. On success
+	 * stat is updated with a version of a last write.
+	 *
+	 * @param contexts the contexts
+	 * @param stat the stat
+	 */
+	public void write(List<? extends StateMachineContext<S, E>> contexts, Stat stat) {
+		Assert.notEmpty(contexts, "Contexts must be set");
+		if (logPath != null) {
+			Assert.state(contexts.size() <= logSize, "Can't write more contexts than log size in one transaction");
+		}
 		CuratorTransaction tx = curatorClient.inTransaction();
 		try {
-			CuratorTransactionFinal tt = tx.setData().withVersion(stat.getVersion()).forPath(path, data).and();
-			if (logPath != null) {
-				tt = tt.setData().forPath(logPath + "/" + stat.getVersion() % logSize, data).and();
+			int version = stat.getVersion();
+			CuratorTransactionFinal tt = null;
+			for (StateMachineContext<S, E> context : contexts) {
+				byte[] data = serialize(context);
+				tt = (tt != null ? tt : tx).setData().withVersion(version).forPath(path, data).and();
+				if (logPath != null) {
+					tt = tt.setData().forPath(logPath + "/" + version % logSize, data).and();
+				}
+				version++;
+			}
+			if (changePath != null) {
+				tt = tt.setData().forPath(changePath, changeData).and();
 			}
 			Collection<CuratorTransactionResult> results = tt.commit();
-			int version = results.iterator().next().getResultStat().getVersion();
+			for (CuratorTransactionResult result : results) {
+				if (path.equals(result.getForPath())) {
+					version = result.getResultStat().getVersion();
+				}
+			}
 			stat.setVersion(version);
 		} catch (Exception e) {
 			throw new StateMachineException("Error persisting data", e);
 		}
-
 	}
 
 	@Override
@@ -124,6 +187,83 @@ public class ZookeeperStateMachinePersist<S, E> implements StateMachinePersist<S
 		return deserialize(curatorClient.getData().storingStatIn(stat).forPath(logPath + "/" + version));
 	}
 
+	/**
+	 * Read log entries for a range of versions. All log slots are read with
+	 * background requests issued at once, thus whole range is fetched within
+	 * roughly one round trip. Returned entries are in version order.
+	 *
+	 * @param fromVersion the first version to read
+	 * @param count the number of versions to read, at most a log size
+	 * @param timeout the timeout for all reads
+	 * @param unit the timeout unit
+	 * @return the log entries
+	 * @throws Exception if reading failed
+	 */
+	public List<LogEntry<S, E>> readLogs(int fromVersion, int count, long timeout, TimeUnit unit) throws Exception {
+		Assert.state(logPath != null, "Log path not set");
+		Assert.isTrue(count >= 0 && count <= logSize, "Count must be between 0 and log size");
+		final CuratorEvent[] events = new CuratorEvent[count];
+		final CountDownLatch latch = new CountDownLatch(count);
+		for (int i = 0; i < count; i++) {
+			final int index = i;
+			curatorClient.getData().inBackground(new BackgroundCallback() {
+
+				@Override
+				public void processResult(CuratorFramework client, CuratorEvent event) throws Exception {
+					events[index] = event;
+					latch.countDown();
+				}
+			}).forPath(logPath + "/" + (fromVersion + i) % logSize);
+		}
+		if (!latch.await(timeout, unit)) {
+			throw new StateMachineException("Timeout reading " + count + " log entries from version " + fromVersion);
+		}
+		List<LogEntry<S, E>> entries = new ArrayList<LogEntry<S, E>>(count);
+		for (CuratorEvent event : events) {
+			if (event.getResultCode() != KeeperException.Code.OK.intValue()) {
+				throw KeeperException.create(KeeperException.Code.get(event.getResultCode()), event.getPath());
+			}
+			entries.add(new LogEntry<S, E>(deserialize(event.getData()), event.getStat().getVersion()));
+		}
+		return entries;
+	}
+
+	/**
+	 * Context read from a log slot together with a version of that slot.
+	 *
+	 * @param <S> the type of state
+	 * @param <E> the type of event
+	 */
+	public static class LogEntry<S, E> {
+
+		private final StateMachineContext<S, E> context;
+		private final int slotVersion;
+
+		LogEntry(StateMachineContext<S, E> context, int slotVersion) {
+			this.context = context;
+			this.slotVersion = slotVersion;
+		}
+
+		/**
+		 * Gets the context.
+		 *
+		 * @return the context
+		 */
+		public StateMachineContext<S, E> getContext() {
+			return context;
+		}
+
+		/**
+		 * Gets the version of a log slot, meaning how many times slot has
+		 * been written.
+		 *
+		 * @return the slot version
+		 */
+		public int getSlotVersion() {
+			return slotVersion;
+		}
+	}
+
 	private byte[] serialize(StateMachineContext<S, E> context) {
 		Kryo kryo = kryoThreadLocal.get();
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
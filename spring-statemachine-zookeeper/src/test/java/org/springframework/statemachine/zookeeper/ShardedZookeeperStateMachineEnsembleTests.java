@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.statemachine.zookeeper;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.config.StateMachineBuilder;
+import org.springframework.statemachine.config.StateMachineBuilder.Builder;
+import org.springframework.statemachine.ensemble.EnsembleListenerAdapter;
+import org.springframework.statemachine.ensemble.StateMachineEnsemble;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+
+/**
+ * Tests for {@link ShardedZookeeperStateMachineEnsemble}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class ShardedZookeeperStateMachineEnsembleTests extends AbstractZookeeperTests {
+
+	@Override
+	protected AnnotationConfigApplicationContext buildContext() {
+		return new AnnotationConfigApplicationContext();
+	}
+
+	@Test
+	public void testMachinePathsCreatedLazily() throws Exception {
+		context.register(ZkServerConfig.class, BaseConfig.class);
+		context.refresh();
+		CuratorFramework curatorClient = context.getBean("curatorClient", CuratorFramework.class);
+		ShardedZookeeperStateMachineEnsemble<String, String> sharded =
+				new ShardedZookeeperStateMachineEnsemble<String, String>(curatorClient, "/sharded", 4, 4);
+		sharded.afterPropertiesSet();
+		sharded.start();
+
+		StateMachineEnsemble<String, String> ensemble = sharded.getEnsemble("m1");
+		assertThat(sharded.getEnsemble("m1"), sameInstance(ensemble));
+		assertThat(curatorClient.checkExists().forPath("/sharded/machines/m1"), nullValue());
+
+		ensemble.setState(context("S1"));
+		assertThat(curatorClient.checkExists().forPath("/sharded/machines/m1"), notNullValue());
+		assertThat(curatorClient.checkExists().forPath("/sharded/machines/m2"), nullValue());
+		assertThat(ensemble.getState().getState(), is("S1"));
+		sharded.stop();
+	}
+
+	@Test
+	public void testChangesNotifiedPerMachine() throws Exception {
+		context.register(ZkServerConfig.class, BaseConfig.class);
+		context.refresh();
+		CuratorFramework curatorClient = context.getBean("curatorClient", CuratorFramework.class);
+		ShardedZookeeperStateMachineEnsemble<String, String> sharded1 =
+				new ShardedZookeeperStateMachineEnsemble<String, String>(curatorClient, "/sharded", 4, 4);
+		ShardedZookeeperStateMachineEnsemble<String, String> sharded2 =
+				new ShardedZookeeperStateMachineEnsemble<String, String>(curatorClient, "/sharded", 4, 4);
+		sharded1.afterPropertiesSet();
+		sharded2.afterPropertiesSet();
+		sharded1.start();
+		sharded2.start();
+
+		StateMachineEnsemble<String, String> writer = sharded1.getEnsemble("m1");
+		StateMachineEnsemble<String, String> reader1 = sharded2.getEnsemble("m1");
+		StateMachineEnsemble<String, String> reader2 = sharded2.getEnsemble("m2");
+		TestEnsembleListener listener1 = new TestEnsembleListener(2);
+		TestEnsembleListener listener2 = new TestEnsembleListener(1);
+		reader1.addEnsembleListener(listener1);
+		reader2.addEnsembleListener(listener2);
+		reader1.join(buildMachine());
+		reader2.join(buildMachine());
+		assertThat(sharded2.getActiveMachineCount(), is(2));
+
+		writer.setState(context("S1"));
+		writer.setState(context("S2"));
+		assertThat(listener1.latch.await(3, TimeUnit.SECONDS), is(true));
+		assertThat(listener1.events.size(), is(2));
+		assertThat(listener1.events.get(0).getState(), is("S1"));
+		assertThat(listener1.events.get(1).getState(), is("S2"));
+		assertThat(listener2.latch.await(1, TimeUnit.SECONDS), is(false));
+		assertThat(sharded2.getResyncCount(), is(0L));
+
+		sharded1.stop();
+		sharded2.stop();
+	}
+
+	@Test
+	public void testEnsembleForgottenWhenLastMachineLeaves() throws Exception {
+		context.register(ZkServerConfig.class, BaseConfig.class);
+		context.refresh();
+		CuratorFramework curatorClient = context.getBean("curatorClient", CuratorFramework.class);
+		ShardedZookeeperStateMachineEnsemble<String, String> sharded =
+				new ShardedZookeeperStateMachineEnsemble<String, String>(curatorClient, "/sharded", 4, 4);
+		sharded.afterPropertiesSet();
+		sharded.start();
+
+		StateMachineEnsemble<String, String> ensemble = sharded.getEnsemble("m1");
+		StateMachine<String, String> machine1 = buildMachine();
+		StateMachine<String, String> machine2 = buildMachine();
+		ensemble.join(machine1);
+		ensemble.join(machine2);
+		ensemble.setState(context("S1"));
+		String partitionPath = "/sharded/partitions/" + sharded.getPartition("m1");
+		assertThat(new String(curatorClient.getData().forPath(partitionPath), StandardCharsets.UTF_8), is("m1"));
+
+		Map<?, ?> ensembles = TestUtils.readField("ensembles", sharded);
+		ensemble.leave(machine1);
+		assertThat(ensembles.size(), is(1));
+		ensemble.leave(machine2);
+		assertThat(ensembles.size(), is(0));
+		assertThat(sharded.getActiveMachineCount(), is(0));
+
+		StateMachineEnsemble<String, String> ensemble2 = sharded.getEnsemble("m1");
+		assertThat(ensemble2, not(sameInstance(ensemble)));
+		assertThat(ensemble2.getState().getState(), is("S1"));
+		sharded.stop();
+	}
+
+	private static StateMachineContext<String, String> context(String state) {
+		return new DefaultStateMachineContext<String, String>(state, null, new HashMap<String, Object>(),
+				new DefaultExtendedState());
+	}
+
+	private static StateMachine<String, String> buildMachine() throws Exception {
+		Builder<String, String> builder = StateMachineBuilder.builder();
+		builder.configureStates()
+			.withStates()
+				.initial("S1")
+				.state("S2");
+		builder.configureTransitions()
+			.withExternal()
+				.source("S1").target("S2").event("E1");
+		return builder.build();
+	}
+
+	private static class TestEnsembleListener extends EnsembleListenerAdapter<String, String> {
+
+		final CountDownLatch latch;
+		final List<StateMachineContext<String, String>> events = new ArrayList<StateMachineContext<String, String>>();
+
+		TestEnsembleListener(int count) {
+			this.latch = new CountDownLatch(count);
+		}
+
+		@Override
+		public void stateChanged(StateMachineContext<String, String> context) {
+			events.add(context);
+			latch.countDown();
+		}
+	}
+}
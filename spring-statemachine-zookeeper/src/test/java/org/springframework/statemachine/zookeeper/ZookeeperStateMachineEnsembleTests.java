@@ -570,6 +570,71 @@ public class ZookeeperStateMachineEnsembleTests extends AbstractZookeeperTests {
 		}
 	}
 
+	@Test
+	public void testPipelinedWritesNotMissed() throws Exception {
+		context.register(ZkServerConfig.class, BaseConfig.class);
+		context.refresh();
+
+		CuratorFramework curatorClient =
+				context.getBean("curatorClient", CuratorFramework.class);
+
+		ZookeeperStateMachineEnsemble<String, String> ensemble =
+				new ZookeeperStateMachineEnsemble<String, String>(curatorClient, "/foo");
+		ensemble.setPipelined(true);
+
+		TestEnsembleListener listener = new TestEnsembleListener();
+		ensemble.addEnsembleListener(listener);
+		ensemble.afterPropertiesSet();
+		ensemble.start();
+		ensemble.join(new TestStateMachine());
+		assertThat(listener.joinedLatch.await(3, TimeUnit.SECONDS), is(true));
+
+		listener.reset(0, 10);
+
+		for (int i = 0; i < 10; i++) {
+			ensemble.setState(new DefaultStateMachineContext<String, String>("S" + i, "E" + i,
+					new HashMap<String, Object>(), new DefaultExtendedState()));
+		}
+
+		assertThat(listener.eventLatch.await(10, TimeUnit.SECONDS), is(true));
+		assertThat(listener.events.size(), is(10));
+		for (int i = 0; i < 10; i++) {
+			assertThat(listener.events.get(i).getEvent(), is("E" + i));
+		}
+		assertThat(listener.conflicts.size(), is(0));
+		assertThat(curatorClient.checkExists().forPath("/foo/data/current").getVersion(), is(10));
+	}
+
+	@Test
+	public void testPipelinedWriteConflict() throws Exception {
+		context.register(ZkServerConfig.class, BaseConfig.class);
+		context.refresh();
+		CuratorFramework curatorClient =
+				context.getBean("curatorClient", CuratorFramework.class);
+
+		// watcher disabled so that ensemble doesn't know about a write below
+		OverflowControlZookeeperStateMachineEnsemble ensemble =
+				new OverflowControlZookeeperStateMachineEnsemble(curatorClient, "/foo", true, 4);
+		ensemble.setPipelined(true);
+		TestEnsembleListener listener = new TestEnsembleListener();
+		ensemble.addEnsembleListener(listener);
+		ensemble.afterPropertiesSet();
+		ensemble.start();
+		listener.reset(0, 0, 0, 2);
+
+		curatorClient.setData().forPath("/foo/data/current", new byte[0]);
+
+		ensemble.setState(new DefaultStateMachineContext<String, String>("S1", "E1",
+				new HashMap<String, Object>(), new DefaultExtendedState()));
+		ensemble.setState(new DefaultStateMachineContext<String, String>("S2", "E2",
+				new HashMap<String, Object>(), new DefaultExtendedState()));
+
+		assertThat(listener.conflictLatch.await(3, TimeUnit.SECONDS), is(true));
+		assertThat(listener.conflicts.size(), is(2));
+		assertThat(listener.errors.size(), is(0));
+		assertThat(curatorClient.checkExists().forPath("/foo/data/current").getVersion(), is(1));
+	}
+
 	@Test
 	public void testEventsOverflow() throws Exception {
 		context.register(ZkServerConfig.class, BaseConfig.class);
@@ -578,6 +643,7 @@ public class ZookeeperStateMachineEnsembleTests extends AbstractZookeeperTests {
 				context.getBean("curatorClient", CuratorFramework.class);
 		OverflowControlZookeeperStateMachineEnsemble ensemble =
 				new OverflowControlZookeeperStateMachineEnsemble(curatorClient, "/foo", true, 4);
+		ensemble.setSnapshotResync(false);
 
 		TestEnsembleListener listener = new TestEnsembleListener();
 		ensemble.addEnsembleListener(listener);
@@ -619,6 +685,44 @@ public class ZookeeperStateMachineEnsembleTests extends AbstractZookeeperTests {
 		assertThat(listener.errorLatch.await(2, TimeUnit.SECONDS), is(true));
 	}
 
+	@Test
+	public void testEventsOverflowResync() throws Exception {
+		context.register(ZkServerConfig.class, BaseConfig.class);
+		context.refresh();
+		CuratorFramework curatorClient =
+				context.getBean("curatorClient", CuratorFramework.class);
+		OverflowControlZookeeperStateMachineEnsemble ensemble =
+				new OverflowControlZookeeperStateMachineEnsemble(curatorClient, "/foo", true, 4);
+
+		TestEnsembleListener listener = new TestEnsembleListener();
+		ensemble.addEnsembleListener(listener);
+
+		ensemble.afterPropertiesSet();
+		ensemble.start();
+
+		ensemble.join(new TestStateMachine());
+		assertThat(listener.joinedLatch.await(3, TimeUnit.SECONDS), is(true));
+
+		listener.reset(1, 0, 1);
+
+		for (int i = 0; i < 10; i++) {
+			ensemble.setState(new DefaultStateMachineContext<String, String>("S" + i, "E" + i,
+					new HashMap<String, Object>(), new DefaultExtendedState()));
+		}
+		ensemble.enabled = true;
+		TestUtils.callMethod("registerWatcherForStatePath", ensemble);
+
+		// missed history is not in a log anymore so machine
+		// should be joined again with a latest snapshot
+		ensemble.setState(new DefaultStateMachineContext<String, String>("S10", "E10",
+				new HashMap<String, Object>(), new DefaultExtendedState()));
+		assertThat(listener.joinedLatch.await(2, TimeUnit.SECONDS), is(true));
+		assertThat(listener.errorLatch.await(1, TimeUnit.SECONDS), is(false));
+		assertThat(listener.joins.get(0).getState(), is("S10"));
+		assertThat(ensemble.getResyncCount(), is(1L));
+		assertThat(ensemble.getReplayLag(), is(0));
+	}
+
 	private class OverflowControlZookeeperStateMachineEnsemble extends ZookeeperStateMachineEnsemble<String, String> {
 
 		boolean enabled = false;
@@ -647,11 +751,15 @@ public class ZookeeperStateMachineEnsembleTests extends AbstractZookeeperTests {
 		volatile CountDownLatch joinedLatch = new CountDownLatch(1);
 		volatile CountDownLatch eventLatch = new CountDownLatch(1);
 		volatile CountDownLatch errorLatch = new CountDownLatch(1);
+		volatile CountDownLatch conflictLatch = new CountDownLatch(1);
 		volatile List<Exception> errors = new ArrayList<Exception>();
+		volatile List<StateMachineContext<String, String>> conflicts = new ArrayList<StateMachineContext<String,String>>();
 		volatile List<StateMachineContext<String, String>> events = new ArrayList<StateMachineContext<String,String>>();
+		volatile List<StateMachineContext<String, String>> joins = new ArrayList<StateMachineContext<String,String>>();
 
 		@Override
 		public void stateMachineJoined(StateMachine<String, String> stateMachine, StateMachineContext<String, String> context) {
+			joins.add(context);
 			joinedLatch.countDown();
 		}
 
@@ -679,16 +787,29 @@ public class ZookeeperStateMachineEnsembleTests extends AbstractZookeeperTests {
 		public void ensembleLeaderRevoked(StateMachine<String, String> stateMachine) {
 		}
 
+		@Override
+		public void stateWriteConflict(StateMachineContext<String, String> context, StateMachineEnsembleException exception) {
+			conflicts.add(context);
+			conflictLatch.countDown();
+		}
+
 		public void reset(int c1, int c2) {
 			reset(c1, c2, 0);
 		}
 
 		public void reset(int c1, int c2, int c3) {
+			reset(c1, c2, c3, 0);
+		}
+
+		public void reset(int c1, int c2, int c3, int c4) {
 			joinedLatch = new CountDownLatch(c1);
 			eventLatch = new CountDownLatch(c2);
 			errorLatch = new CountDownLatch(c3);
+			conflictLatch = new CountDownLatch(c4);
 			events.clear();
 			errors.clear();
+			conflicts.clear();
+			joins.clear();
 		}
 
 	}